@@ -292,6 +292,93 @@ JNIEXPORT void JNICALL
     return;
 }
 
+/*
+ * Start an online backup of a case database.
+ * @param env pointer to java environment this was called from
+ * @param obj the java object this was called from
+ * @param srcPathJ the path of the case database
+ * @param destPathJ the path of the copy
+ * @return pointer to the backup or exception on error
+ */
+JNIEXPORT jlong JNICALL
+    Java_org_sleuthkit_datamodel_SleuthkitJNI_backupCaseDbOpenNat(JNIEnv * env,
+    jclass obj, jstring srcPathJ, jstring destPathJ) {
+
+    jboolean isCopy;
+    const char *srcPath = (const char *) env->GetStringUTFChars(srcPathJ, &isCopy);
+    const char *destPath = (const char *) env->GetStringUTFChars(destPathJ, &isCopy);
+
+    TskDbSqliteBackup *backup = new TskDbSqliteBackup();
+    int failed = backup->open(srcPath, destPath);
+    env->ReleaseStringUTFChars(srcPathJ, srcPath);
+    env->ReleaseStringUTFChars(destPathJ, destPath);
+    if (failed) {
+        delete backup;
+        setThrowTskCoreError(env);
+        return 0;
+    }
+    return (jlong) backup;
+}
+
+/*
+ * Copy the next pages of a case database backup.
+ * @param env pointer to java environment this was called from
+ * @param obj the java object this was called from
+ * @param backupHandle the backup created by backupCaseDbOpenNat
+ * @param numPages the maximum number of pages to copy
+ * @return progress of the backup: 1 if it is done (0 otherwise), pages remaining, total pages
+ */
+JNIEXPORT jintArray JNICALL
+    Java_org_sleuthkit_datamodel_SleuthkitJNI_backupCaseDbStepNat(JNIEnv * env,
+    jclass obj, jlong backupHandle, jint numPages) {
+
+    TskDbSqliteBackup *backup = (TskDbSqliteBackup *) backupHandle;
+    if (backup == NULL) {
+        setThrowTskCoreError(env, "backupCaseDbStepNat: Invalid backup object passed in");
+        return NULL;
+    }
+
+    bool done = false;
+    if (backup->step((int) numPages, done)) {
+        setThrowTskCoreError(env);
+        return NULL;
+    }
+
+    jint values[3];
+    values[0] = done ? 1 : 0;
+    values[1] = backup->getRemaining();
+    values[2] = backup->getPageCount();
+    jintArray jvalues = env->NewIntArray(3);
+    if (jvalues == NULL) {
+        return NULL;
+    }
+    env->SetIntArrayRegion(jvalues, 0, 3, values);
+    return jvalues;
+}
+
+/*
+ * Finish a case database backup and free it.
+ * @param env pointer to java environment this was called from
+ * @param obj the java object this was called from
+ * @param backupHandle the backup created by backupCaseDbOpenNat
+ */
+JNIEXPORT void JNICALL
+    Java_org_sleuthkit_datamodel_SleuthkitJNI_backupCaseDbCloseNat(JNIEnv * env,
+    jclass obj, jlong backupHandle) {
+
+    TskDbSqliteBackup *backup = (TskDbSqliteBackup *) backupHandle;
+    if (backup == NULL) {
+        setThrowTskCoreError(env, "backupCaseDbCloseNat: Invalid backup object passed in");
+        return;
+    }
+
+    int failed = backup->close();
+    delete backup;
+    if (failed) {
+        setThrowTskCoreError(env);
+    }
+}
+
 /**
  * Opens an existing hash database.
  * @param env Pointer to Java environment from which this method was called.
@@ -828,10 +915,12 @@ JNIEXPORT jobject JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_hashDbLookup
  * @param timezone timezone for the image
  * @param addUnallocSpace whether to process unallocated filesystem blocks and volumes in the image
  * @param noFatFsOrphans whether to skip processing orphans on FAT filesystems
+ * @param insertBatchSize number of file rows to write with each insert statement
+ * @param parallelFs whether to process each file system in the image with its own thread
  */
 JNIEXPORT jlong JNICALL
     Java_org_sleuthkit_datamodel_SleuthkitJNI_initAddImgNat(JNIEnv * env,
-    jclass obj, jlong caseHandle, jstring timezone, jboolean addUnallocSpace, jboolean noFatFsOrphans) {
+    jclass obj, jlong caseHandle, jstring timezone, jboolean addUnallocSpace, jboolean noFatFsOrphans, jint insertBatchSize, jboolean parallelFs) {
     jboolean isCopy;
 
     TskCaseDb *tskCase = castCaseDb(env, caseHandle);
@@ -881,6 +970,8 @@ JNIEXPORT jlong JNICALL
         tskAuto->setAddUnallocSpace(false);
     }
     tskAuto->setNoFatFsOrphans(noFatFsOrphans?true:false);
+    tskAuto->setInsertBatchSize((int) insertBatchSize);
+    tskAuto->setParallelFsProcessing(parallelFs?true:false);
 
     // we don't use the block map and it slows it down
     tskAuto->createBlockMap(false);
@@ -1751,6 +1842,50 @@ JNIEXPORT jstring JNICALL
     return jdir;
 }
 
+/*
+ * Get a snapshot of the progress of an add-image process.  Does not wait 
+ * for the process.
+ * @param env pointer to java environment this was called from
+ * @param obj the java object this was called from
+ * @param process the add-image process created by initAddImgNat
+ * @return phase, files added, directories added, bytes hashed, database 
+ * rows added, current file system object id, current file system offset, 
+ * elapsed milliseconds and then the milliseconds spent in each phase
+ */
+JNIEXPORT jlongArray JNICALL
+    Java_org_sleuthkit_datamodel_SleuthkitJNI_getAddImgProgressNat
+    (JNIEnv * env, jclass obj, jlong process)
+{
+    TskAutoDb *tskAuto = ((TskAutoDb *) process);
+    if (!tskAuto || tskAuto->m_tag != TSK_AUTO_TAG) {
+        setThrowTskCoreError(env,
+            "getAddImgProgressNat: Invalid TskAutoDb object passed in");
+        return NULL;
+    }
+
+    TSK_ADD_IMAGE_PROGRESS progress;
+    tskAuto->getProgress(progress);
+
+    jlong values[8 + TSK_ADD_IMAGE_PHASE_COUNT];
+    values[0] = progress.phase;
+    values[1] = progress.filesAdded;
+    values[2] = progress.dirsAdded;
+    values[3] = progress.bytesHashed;
+    values[4] = progress.dbRowsAdded;
+    values[5] = progress.curFsObjId;
+    values[6] = progress.curFsOffset;
+    values[7] = progress.elapsedMs;
+    for (int i = 0; i < TSK_ADD_IMAGE_PHASE_COUNT; i++)
+        values[8 + i] = progress.phaseMs[i];
+
+    jlongArray jvalues = env->NewLongArray(8 + TSK_ADD_IMAGE_PHASE_COUNT);
+    if (jvalues == NULL) {
+        return NULL;
+    }
+    env->SetLongArrayRegion(jvalues, 0, 8 + TSK_ADD_IMAGE_PHASE_COUNT, values);
+    return jvalues;
+}
+
 /*
  * Enable verbose logging and redirect stderr to the given log file.
  * @param env pointer to java environment this was called from
@@ -49,6 +49,30 @@ JNIEXPORT jlong JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_openCaseDbNat
 JNIEXPORT void JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_closeCaseDbNat
   (JNIEnv *, jclass, jlong);
 
+/*
+ * Class:     org_sleuthkit_datamodel_SleuthkitJNI
+ * Method:    backupCaseDbOpenNat
+ * Signature: (Ljava/lang/String;Ljava/lang/String;)J
+ */
+JNIEXPORT jlong JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_backupCaseDbOpenNat
+  (JNIEnv *, jclass, jstring, jstring);
+
+/*
+ * Class:     org_sleuthkit_datamodel_SleuthkitJNI
+ * Method:    backupCaseDbStepNat
+ * Signature: (JI)[I
+ */
+JNIEXPORT jintArray JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_backupCaseDbStepNat
+  (JNIEnv *, jclass, jlong, jint);
+
+/*
+ * Class:     org_sleuthkit_datamodel_SleuthkitJNI
+ * Method:    backupCaseDbCloseNat
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_backupCaseDbCloseNat
+  (JNIEnv *, jclass, jlong);
+
 /*
  * Class:     org_sleuthkit_datamodel_SleuthkitJNI
  * Method:    hashDbOpenNat
@@ -196,10 +220,10 @@ JNIEXPORT jobject JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_hashDbLookup
 /*
  * Class:     org_sleuthkit_datamodel_SleuthkitJNI
  * Method:    initAddImgNat
- * Signature: (JLjava/lang/String;ZZ)J
+ * Signature: (JLjava/lang/String;ZZIZ)J
  */
 JNIEXPORT jlong JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_initAddImgNat
-  (JNIEnv *, jclass, jlong, jstring, jboolean, jboolean);
+  (JNIEnv *, jclass, jlong, jstring, jboolean, jboolean, jint, jboolean);
 
 /*
  * Class:     org_sleuthkit_datamodel_SleuthkitJNI
@@ -369,6 +393,14 @@ JNIEXPORT jlong JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_findDeviceSize
 JNIEXPORT jstring JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_getCurDirNat
   (JNIEnv *, jclass, jlong);
 
+/*
+ * Class:     org_sleuthkit_datamodel_SleuthkitJNI
+ * Method:    getAddImgProgressNat
+ * Signature: (J)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_org_sleuthkit_datamodel_SleuthkitJNI_getAddImgProgressNat
+  (JNIEnv *, jclass, jlong);
+
 #ifdef __cplusplus
 }
 #endif
@@ -69,15 +69,20 @@ public String getName() {
 	@Override
 	public synchronized String getUniquePath() throws TskCoreException {
 		if (uniquePath == null) {
-			uniquePath = "";
+			uniquePath = db.getCachedUniquePath(objId);
+		}
+		if (uniquePath == null) {
+			String path = "";
 			if (!name.isEmpty()) {
-				uniquePath = "/" + getName();
+				path = "/" + getName();
 			}
 
 			Content myParent = getParent();
 			if (myParent != null) {
-				uniquePath = myParent.getUniquePath() + uniquePath;
+				path = myParent.getUniquePath() + path;
 			}
+			uniquePath = path;
+			db.cacheUniquePath(objId, uniquePath);
 		}
 		return uniquePath;
 	}
@@ -131,6 +136,27 @@ void setParent(Content parent) {
 		this.parent = parent;
 	}
 
+	/**
+	 * @return true if the number of children of this content was already
+	 * loaded
+	 */
+	boolean isChildrenCountKnown() {
+		return childrenCount != -1;
+	}
+
+	/**
+	 * Set the number of children of this content when it was loaded along
+	 * with its children count, so that hasChildren() and getChildrenCount()
+	 * do not need to query the case database.
+	 *
+	 * @param childrenCount the number of children
+	 */
+	void setChildrenCount(int childrenCount) {
+		this.childrenCount = childrenCount;
+		hasChildren = childrenCount > 0;
+		checkedHasChildren = true;
+	}
+
 	/**
 	 * Set the ID of the this AbstractContent's parent
 	 *
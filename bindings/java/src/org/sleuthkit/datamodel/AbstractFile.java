@@ -683,13 +683,17 @@ public boolean isMetaFlagSet(TSK_FS_META_FLAG_ENUM metaFlag) {
 	public final int read(byte[] buf, long offset, long len) throws TskCoreException {
 		//template method
 		//if localPath is set, use local, otherwise, use readCustom() supplied by derived class
+		long start = TskTracing.start();
+		int bytesRead;
 		if (localPathSet) {
-			return readLocal(buf, offset, len);
+			bytesRead = readLocal(buf, offset, len);
 		}
 		else {
-			return readInt(buf, offset, len);
+			bytesRead = readInt(buf, offset, len);
 		}
-		
+		TskTracing.contentRead(this, offset, len, bytesRead, start);
+		return bytesRead;
+
 	}
 	
 	/**
@@ -0,0 +1,172 @@
+/*
+ * Sleuth Kit Data Model
+ * 
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+/**
+ * Snapshot of the progress of an add image process. See
+ * SleuthkitJNI.CaseDbHandle.AddImageProcess.getProgress().
+ */
+public class AddImageProgress {
+
+	/**
+	 * Phases of an add image process. The order matches
+	 * TSK_ADD_IMAGE_PHASE_ENUM in the native code.
+	 */
+	public enum Phase {
+
+		NOT_STARTED, ///< The process has not started yet
+		OPEN_IMAGE, ///< The image is being opened
+		FILES, ///< Volumes and file systems are being walked
+		UNALLOC, ///< Unallocated space is being added
+		DONE; ///< Waiting for commit or revert
+
+		private static Phase fromValue(long ordinal) {
+			Phase[] values = Phase.values();
+			if (ordinal < 0 || ordinal >= values.length) {
+				return NOT_STARTED;
+			}
+			return values[(int) ordinal];
+		}
+	}
+	private static final int NUM_FIXED_VALUES = 8;
+	private final Phase phase;
+	private final long filesAdded;
+	private final long dirsAdded;
+	private final long bytesHashed;
+	private final long dbRowsAdded;
+	private final long currentFileSystemId;
+	private final long currentFileSystemOffset;
+	private final long elapsedMillis;
+	private final long[] phaseMillis;
+
+	/**
+	 * Make a snapshot from the values returned by the native code
+	 *
+	 * @param values phase, files added, directories added, bytes hashed,
+	 * database rows added, current file system object id, current file system
+	 * offset, elapsed milliseconds and then the milliseconds spent in each phase
+	 */
+	AddImageProgress(long[] values) {
+		this.phase = Phase.fromValue(values[0]);
+		this.filesAdded = values[1];
+		this.dirsAdded = values[2];
+		this.bytesHashed = values[3];
+		this.dbRowsAdded = values[4];
+		this.currentFileSystemId = values[5];
+		this.currentFileSystemOffset = values[6];
+		this.elapsedMillis = values[7];
+		this.phaseMillis = new long[Phase.values().length];
+		for (int i = 0; i < phaseMillis.length && NUM_FIXED_VALUES + i < values.length; i++) {
+			phaseMillis[i] = values[NUM_FIXED_VALUES + i];
+		}
+	}
+
+	/**
+	 * Make an empty snapshot for a process that has not started
+	 */
+	AddImageProgress() {
+		this(new long[NUM_FIXED_VALUES]);
+	}
+
+	/**
+	 * @return the current phase of the process
+	 */
+	public Phase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return the number of files (not including directories) added so far
+	 */
+	public long getFilesAdded() {
+		return filesAdded;
+	}
+
+	/**
+	 * @return the number of directories added so far
+	 */
+	public long getDirectoriesAdded() {
+		return dirsAdded;
+	}
+
+	/**
+	 * @return the number of bytes of file content that were hashed so far
+	 */
+	public long getBytesHashed() {
+		return bytesHashed;
+	}
+
+	/**
+	 * @return the number of file and file layout rows inserted into the
+	 * database so far
+	 */
+	public long getDbRowsAdded() {
+		return dbRowsAdded;
+	}
+
+	/**
+	 * @return the object id of a file system that is being processed, or 0 if
+	 * none is
+	 */
+	public long getCurrentFileSystemId() {
+		return currentFileSystemId;
+	}
+
+	/**
+	 * @return the byte offset in the image of the file system that is being
+	 * processed (see getCurrentFileSystemId())
+	 */
+	public long getCurrentFileSystemOffset() {
+		return currentFileSystemOffset;
+	}
+
+	/**
+	 * @return milliseconds since the process started
+	 */
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @param phase phase to get the time of
+	 * @return milliseconds spent so far in the given phase
+	 */
+	public long getPhaseMillis(Phase phase) {
+		return phaseMillis[phase.ordinal()];
+	}
+
+	/**
+	 * @return the average number of database rows inserted per second since
+	 * the process started, or 0 if no time has passed
+	 */
+	public double getDbInsertRate() {
+		if (elapsedMillis <= 0) {
+			return 0;
+		}
+		return dbRowsAdded * 1000.0 / elapsedMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "AddImageProgress{" + "phase=" + phase + ", filesAdded=" + filesAdded //NON-NLS
+				+ ", dirsAdded=" + dirsAdded + ", bytesHashed=" + bytesHashed //NON-NLS
+				+ ", dbRowsAdded=" + dbRowsAdded + ", currentFileSystemId=" + currentFileSystemId //NON-NLS
+				+ ", elapsedMillis=" + elapsedMillis + '}'; //NON-NLS
+	}
+}
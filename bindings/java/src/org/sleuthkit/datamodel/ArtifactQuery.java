@@ -0,0 +1,167 @@
+/*
+ * Sleuth Kit Data Model
+ * 
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+/**
+ * A query for blackboard artifacts, for SleuthkitCase.findArtifacts() and
+ * SleuthkitCase.countArtifacts(). The filters are combined with AND. The
+ * query is made of SQL with host parameters, so the case database can reuse
+ * the prepared statement of a previous query with the same kinds of filters.
+ *
+ * Artifacts are returned in artifact id order. A large result can be read a
+ * page at a time by setting a limit and passing the id of the last artifact
+ * of a page to after() to get the next page.
+ */
+public class ArtifactQuery {
+
+	private static final String ATTRIBUTE_CONDITION = "artifact_id IN (SELECT artifact_id FROM blackboard_attributes WHERE attribute_type_id = ?"; //NON-NLS
+	private final QueryConditions conditions = new QueryConditions();
+	private Long afterId;
+	private int limit;
+
+	/**
+	 * Only find artifacts of the given types.
+	 *
+	 * @param artifactTypeIds ids of the artifact types
+	 * @return this query
+	 */
+	public ArtifactQuery artifactTypes(int... artifactTypeIds) {
+		Object[] values = new Object[artifactTypeIds.length];
+		for (int i = 0; i < artifactTypeIds.length; ++i) {
+			values[i] = artifactTypeIds[i];
+		}
+		conditions.add("artifact_type_id IN (" + QueryConditions.makeParameterList(artifactTypeIds.length) + ")", values); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find artifacts of the given content.
+	 *
+	 * @param objId object id of the content
+	 * @return this query
+	 */
+	public ArtifactQuery content(long objId) {
+		conditions.add("obj_id = ?", objId); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find artifacts that have an attribute of the given type.
+	 *
+	 * @param attrType the attribute type
+	 * @return this query
+	 */
+	public ArtifactQuery hasAttribute(BlackboardAttribute.ATTRIBUTE_TYPE attrType) {
+		conditions.add(ATTRIBUTE_CONDITION + ")", attrType.getTypeID()); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find artifacts that have an attribute of the given type and string
+	 * value. The value is escaped the way string attributes are when they are
+	 * stored.
+	 *
+	 * @param attrType the attribute type
+	 * @param value the value
+	 * @return this query
+	 */
+	public ArtifactQuery attribute(BlackboardAttribute.ATTRIBUTE_TYPE attrType, String value) {
+		conditions.add(ATTRIBUTE_CONDITION + " AND value_text = ?)", attrType.getTypeID(), SleuthkitCase.escapeForBlackboard(value)); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find artifacts that have an attribute of the given type and integer
+	 * value.
+	 *
+	 * @param attrType the attribute type
+	 * @param value the value
+	 * @return this query
+	 */
+	public ArtifactQuery attribute(BlackboardAttribute.ATTRIBUTE_TYPE attrType, int value) {
+		conditions.add(ATTRIBUTE_CONDITION + " AND value_int32 = ?)", attrType.getTypeID(), value); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find artifacts that have an attribute of the given type and long
+	 * value.
+	 *
+	 * @param attrType the attribute type
+	 * @param value the value
+	 * @return this query
+	 */
+	public ArtifactQuery attribute(BlackboardAttribute.ATTRIBUTE_TYPE attrType, long value) {
+		conditions.add(ATTRIBUTE_CONDITION + " AND value_int64 = ?)", attrType.getTypeID(), value); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find artifacts that have an attribute of the given type and a long
+	 * value in the given range, e.g. a date-time attribute.
+	 *
+	 * @param attrType the attribute type
+	 * @param minValue smallest value
+	 * @param maxValue largest value
+	 * @return this query
+	 */
+	public ArtifactQuery attributeRange(BlackboardAttribute.ATTRIBUTE_TYPE attrType, long minValue, long maxValue) {
+		conditions.add(ATTRIBUTE_CONDITION + " AND value_int64 BETWEEN ? AND ?)", attrType.getTypeID(), minValue, maxValue); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find artifacts with an artifact id greater than the given one. Used
+	 * to get the page of artifacts that follows the artifact with the given
+	 * id.
+	 *
+	 * @param artifactId id of the last artifact of the previous page
+	 * @return this query
+	 */
+	public ArtifactQuery after(long artifactId) {
+		this.afterId = artifactId;
+		return this;
+	}
+
+	/**
+	 * Find at most the given number of artifacts.
+	 *
+	 * @param limit maximum number of artifacts, 0 for no limit
+	 * @return this query
+	 */
+	public ArtifactQuery limit(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative"); //NON-NLS
+		}
+		this.limit = limit;
+		return this;
+	}
+
+	QueryConditions getConditions() {
+		return conditions;
+	}
+
+	Long getAfterId() {
+		return afterId;
+	}
+
+	int getLimit() {
+		return limit;
+	}
+}
@@ -0,0 +1,380 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs SleuthkitCase methods on background threads and returns futures for
+ * their results, so that a user interface does not block on the case
+ * database. Requests have a priority: interactive requests and background
+ * (ingest) requests run on separate, bounded thread pools, so interactive
+ * requests are never queued behind background ones. They can still wait for
+ * the case database lock while a write holds it.
+ *
+ * A request is cancelled with Future.cancel(); a request that has not
+ * started is not run, and one that is running is interrupted. A Callback can
+ * be given to be told of the result; it is called on the thread that ran the
+ * request, so a user interface must move to its own thread (e.g. with
+ * SwingUtilities.invokeLater()) before using the result.
+ */
+public class AsyncSleuthkitCase {
+
+	/**
+	 * The priority classes of requests.
+	 */
+	public enum Priority {
+
+		INTERACTIVE, ///< Requests a user is waiting for
+		BACKGROUND ///< Bulk requests, e.g. from ingest
+	}
+
+	/**
+	 * Receives the result of a request.
+	 *
+	 * @param <T> the type of the result
+	 */
+	public interface Callback<T> {
+
+		/**
+		 * Called when the request is done.
+		 *
+		 * @param result the result of the request
+		 */
+		void succeeded(T result);
+
+		/**
+		 * Called when the request failed or was cancelled.
+		 *
+		 * @param ex the exception thrown by the request, or a
+		 * CancellationException
+		 */
+		void failed(Exception ex);
+	}
+	private static final Logger logger = Logger.getLogger(AsyncSleuthkitCase.class.getName());
+	private final SleuthkitCase db;
+	private final ExecutorService interactiveExecutor;
+	private final ExecutorService backgroundExecutor;
+
+	/**
+	 * Make an asynchronous facade for a case.
+	 *
+	 * @param db the case
+	 * @param interactiveThreads number of threads for interactive requests
+	 * @param backgroundThreads number of threads for background requests
+	 */
+	public AsyncSleuthkitCase(SleuthkitCase db, int interactiveThreads, int backgroundThreads) {
+		this.db = db;
+		this.interactiveExecutor = Executors.newFixedThreadPool(interactiveThreads, new RequestThreadFactory("interactive", Thread.NORM_PRIORITY)); //NON-NLS
+		this.backgroundExecutor = Executors.newFixedThreadPool(backgroundThreads, new RequestThreadFactory("background", Thread.MIN_PRIORITY)); //NON-NLS
+	}
+
+	/**
+	 * @return the case that the requests are run on
+	 */
+	public SleuthkitCase getSleuthkitCase() {
+		return db;
+	}
+
+	/**
+	 * Run a request on the threads of a priority class.
+	 *
+	 * @param <T> the type of the result
+	 * @param priority the priority class
+	 * @param request the request
+	 * @param callback receives the result, or null
+	 * @return the future result of the request
+	 */
+	public <T> Future<T> submit(Priority priority, Callable<T> request, final Callback<T> callback) {
+		FutureTask<T> task = new FutureTask<T>(request) {
+			@Override
+			protected void done() {
+				if (callback == null) {
+					return;
+				}
+				try {
+					callback.succeeded(get());
+				} catch (CancellationException ex) {
+					callback.failed(ex);
+				} catch (ExecutionException ex) {
+					callback.failed(ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException ex) {
+					logger.log(Level.WARNING, "Error in request callback", ex); //NON-NLS
+				}
+			}
+		};
+		(priority == Priority.INTERACTIVE ? interactiveExecutor : backgroundExecutor).execute(task);
+		return task;
+	}
+
+	/**
+	 * Run a request on the threads of a priority class.
+	 *
+	 * @param <T> the type of the result
+	 * @param priority the priority class
+	 * @param request the request
+	 * @return the future result of the request
+	 */
+	public <T> Future<T> submit(Priority priority, Callable<T> request) {
+		return submit(priority, request, null);
+	}
+
+	/**
+	 * See SleuthkitCase.getContentById().
+	 */
+	public Future<Content> getContentById(final long id, Callback<Content> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<Content>() {
+			@Override
+			public Content call() throws TskCoreException {
+				return db.getContentById(id);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.getAbstractFileById().
+	 */
+	public Future<AbstractFile> getAbstractFileById(final long id, Callback<AbstractFile> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<AbstractFile>() {
+			@Override
+			public AbstractFile call() throws TskCoreException {
+				return db.getAbstractFileById(id);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.getAbstractFilesByIds().
+	 */
+	public Future<List<AbstractFile>> getAbstractFilesByIds(final long[] ids, Callback<List<AbstractFile>> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<List<AbstractFile>>() {
+			@Override
+			public List<AbstractFile> call() throws TskCoreException {
+				return db.getAbstractFilesByIds(ids);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.findFiles(FileQuery).
+	 */
+	public Future<List<AbstractFile>> findFiles(Priority priority, final FileQuery query, Callback<List<AbstractFile>> callback) {
+		return submit(priority, new Callable<List<AbstractFile>>() {
+			@Override
+			public List<AbstractFile> call() throws TskCoreException {
+				return db.findFiles(query);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.countFiles(FileQuery).
+	 */
+	public Future<Long> countFiles(Priority priority, final FileQuery query, Callback<Long> callback) {
+		return submit(priority, new Callable<Long>() {
+			@Override
+			public Long call() throws TskCoreException {
+				return db.countFiles(query);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.findFilesByName().
+	 */
+	public Future<List<AbstractFile>> findFilesByName(final Content dataSource, final String name, final SleuthkitCase.FileNameSearchMode mode, Callback<List<AbstractFile>> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<List<AbstractFile>>() {
+			@Override
+			public List<AbstractFile> call() throws TskCoreException {
+				return db.findFilesByName(dataSource, name, mode);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.findArtifacts(ArtifactQuery).
+	 */
+	public Future<List<BlackboardArtifact>> findArtifacts(Priority priority, final ArtifactQuery query, Callback<List<BlackboardArtifact>> callback) {
+		return submit(priority, new Callable<List<BlackboardArtifact>>() {
+			@Override
+			public List<BlackboardArtifact> call() throws TskCoreException {
+				return db.findArtifacts(query);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.countArtifacts(ArtifactQuery).
+	 */
+	public Future<Long> countArtifacts(Priority priority, final ArtifactQuery query, Callback<Long> callback) {
+		return submit(priority, new Callable<Long>() {
+			@Override
+			public Long call() throws TskCoreException {
+				return db.countArtifacts(query);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.searchBlackboardArtifacts().
+	 */
+	public Future<List<BlackboardArtifact>> searchBlackboardArtifacts(final BlackboardAttribute.ATTRIBUTE_TYPE attrType, final String text, final SleuthkitCase.AttributeTextSearchMode mode, Callback<List<BlackboardArtifact>> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<List<BlackboardArtifact>>() {
+			@Override
+			public List<BlackboardArtifact> call() throws TskCoreException {
+				return db.searchBlackboardArtifacts(attrType, text, mode);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.getArtifactTypeCounts().
+	 */
+	public Future<Map<Integer, Long>> getArtifactTypeCounts(Callback<Map<Integer, Long>> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<Map<Integer, Long>>() {
+			@Override
+			public Map<Integer, Long> call() throws TskCoreException {
+				return db.getArtifactTypeCounts();
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.getTimelineHistogram().
+	 */
+	public Future<long[]> getTimelineHistogram(final long startTime, final long endTime, final long bucketSeconds, final Content dataSource, final Set<TimelineEvent.EventType> types, Callback<long[]> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<long[]>() {
+			@Override
+			public long[] call() throws TskCoreException {
+				return db.getTimelineHistogram(startTime, endTime, bucketSeconds, dataSource, types);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.getContentTagsByTagName().
+	 */
+	public Future<List<ContentTag>> getContentTagsByTagName(final TagName tagName, Callback<List<ContentTag>> callback) {
+		return submit(Priority.INTERACTIVE, new Callable<List<ContentTag>>() {
+			@Override
+			public List<ContentTag> call() throws TskCoreException {
+				return db.getContentTagsByTagName(tagName);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.newBlackboardArtifact(int, long).
+	 */
+	public Future<BlackboardArtifact> newBlackboardArtifact(Priority priority, final int artifactTypeID, final long objId, Callback<BlackboardArtifact> callback) {
+		return submit(priority, new Callable<BlackboardArtifact>() {
+			@Override
+			public BlackboardArtifact call() throws TskCoreException {
+				return db.newBlackboardArtifact(artifactTypeID, objId);
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.addBlackboardAttributes().
+	 */
+	public Future<Void> addBlackboardAttributes(Priority priority, final Collection<BlackboardAttribute> attributes, final int artifactTypeId, Callback<Void> callback) {
+		return submit(priority, new Callable<Void>() {
+			@Override
+			public Void call() throws TskCoreException {
+				db.addBlackboardAttributes(attributes, artifactTypeId);
+				return null;
+			}
+		}, callback);
+	}
+
+	/**
+	 * See SleuthkitCase.addContentTags().
+	 */
+	public Future<List<ContentTag>> addContentTags(Priority priority, final Collection<? extends Content> contents, final TagName tagName, final String comment, Callback<List<ContentTag>> callback) {
+		return submit(priority, new Callable<List<ContentTag>>() {
+			@Override
+			public List<ContentTag> call() throws TskCoreException {
+				return db.addContentTags(contents, tagName, comment);
+			}
+		}, callback);
+	}
+
+	/**
+	 * Stop taking requests, cancel the requests that have not started,
+	 * interrupt the running ones and wait for them to finish. The case is not
+	 * closed.
+	 *
+	 * @param timeout the longest time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if the running requests finished in time
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+		for (Runnable task : interactiveExecutor.shutdownNow()) {
+			((Future<?>) task).cancel(false);
+		}
+		for (Runnable task : backgroundExecutor.shutdownNow()) {
+			((Future<?>) task).cancel(false);
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		return interactiveExecutor.awaitTermination(timeout, unit)
+				&& backgroundExecutor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Makes the named daemon threads of a priority class.
+	 */
+	private static class RequestThreadFactory implements ThreadFactory {
+
+		private final String name;
+		private final int threadPriority;
+		private final AtomicInteger count = new AtomicInteger();
+
+		RequestThreadFactory(String name, int threadPriority) {
+			this.name = name;
+			this.threadPriority = threadPriority;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "sleuthkit-case-" + name + "-" + count.incrementAndGet()); //NON-NLS
+			thread.setDaemon(true);
+			thread.setPriority(threadPriority);
+			return thread;
+		}
+	}
+}
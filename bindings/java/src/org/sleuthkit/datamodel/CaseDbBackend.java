@@ -0,0 +1,170 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The database system a case database is kept in: how SleuthkitCase connects
+ * to it, and what it does differently from the others. The SQL of
+ * SleuthkitCase is written so that all of them run it; what cannot be is
+ * asked of the backend. Each thread of the case gets its own connection from
+ * openConnection() and gives it back with releaseConnection().
+ */
+abstract class CaseDbBackend {
+
+	private static final Logger logger = Logger.getLogger(CaseDbBackend.class.getName());
+
+	/**
+	 * @return the database system
+	 */
+	abstract TskData.DbType getType();
+
+	/**
+	 * @return the path or name of the database, for messages
+	 */
+	abstract String getName();
+
+	/**
+	 * Open a connection to the case database, or take one that was given
+	 * back.
+	 *
+	 * @return the connection, in auto-commit mode
+	 * @throws SQLException
+	 */
+	abstract Connection openConnection() throws SQLException;
+
+	/**
+	 * Give back a connection from openConnection() that is no longer used.
+	 * Its statements must be closed.
+	 *
+	 * @param connection the connection
+	 */
+	void releaseConnection(Connection connection) {
+		closeConnection(connection);
+	}
+
+	/**
+	 * Tell whether a statement failed because another connection holds a
+	 * lock it needs, in which case it is retried.
+	 *
+	 * @param ex the error of the statement
+	 * @return true if the statement should be retried
+	 */
+	abstract boolean isBusy(SQLException ex);
+
+	/**
+	 * @return true if a statement that fails inside a transaction ends the
+	 * transaction, so that it can only be rolled back
+	 */
+	abstract boolean failedStatementsEndTransactions();
+
+	/**
+	 * @return true if transactions of several connections can change the
+	 * database at the same time; if not, SleuthkitCase lets one connection
+	 * write at a time
+	 */
+	abstract boolean allowsConcurrentWriters();
+
+	/**
+	 * @return true if other processes change the database while the case is
+	 * open, in which case SleuthkitCase takes artifact ids from
+	 * nextArtifactIdBlock() and does not cache what others can change
+	 */
+	abstract boolean isShared();
+
+	/**
+	 * Set up the database so that readers do not keep changes from being
+	 * committed, if it can be. Called once when the case is opened.
+	 *
+	 * @param connection a connection of the case
+	 * @return true if readers do not keep changes from being committed
+	 * @throws SQLException
+	 */
+	abstract boolean enableConcurrentCommits(Connection connection) throws SQLException;
+
+	/**
+	 * @return true if INSERT ... ON CONFLICT ... DO UPDATE can be used
+	 */
+	abstract boolean supportsUpsert();
+
+	/**
+	 * @return true if the full-text index of the attributes can be built, see
+	 * SleuthkitCase.rebuildAttributeTextIndex()
+	 */
+	abstract boolean supportsAttributeTextIndex();
+
+	/**
+	 * Take a block of artifact ids that no other user of the database gets.
+	 * Only called if isShared().
+	 *
+	 * @param connection a connection of the case
+	 * @return the first id of the block, which has getArtifactIdBlockSize()
+	 * ids
+	 * @throws SQLException
+	 */
+	long nextArtifactIdBlock(Connection connection) throws SQLException {
+		throw new UnsupportedOperationException("Artifact ids are handed out by SleuthkitCase"); //NON-NLS
+	}
+
+	/**
+	 * @return the number of ids of a block from nextArtifactIdBlock()
+	 */
+	int getArtifactIdBlockSize() {
+		throw new UnsupportedOperationException("Artifact ids are handed out by SleuthkitCase"); //NON-NLS
+	}
+
+	/**
+	 * @param sql a statement
+	 * @return the statement that gets the query plan of the statement
+	 */
+	abstract String getQueryPlanSql(String sql);
+
+	/**
+	 * @param resultSet the result set of a getQueryPlanSql() statement, on a
+	 * row
+	 * @return the row as text
+	 * @throws SQLException
+	 */
+	abstract String readQueryPlanRow(ResultSet resultSet) throws SQLException;
+
+	/**
+	 * Let go of the database, after the connections of the case are given
+	 * back.
+	 */
+	void close() {
+	}
+
+	/**
+	 * Close a connection, logging an error.
+	 *
+	 * @param connection the connection
+	 */
+	static void closeConnection(Connection connection) {
+		try {
+			connection.close();
+		} catch (SQLException ex) {
+			logger.log(Level.SEVERE, "Unable to close connection to case database", ex); //NON-NLS
+		}
+	}
+}
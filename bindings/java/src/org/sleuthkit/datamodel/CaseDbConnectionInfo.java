@@ -0,0 +1,90 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+/**
+ * How to connect to the PostgreSQL server that keeps a case database, for
+ * SleuthkitCase.newCase() and SleuthkitCase.openCase(). The PostgreSQL JDBC
+ * driver (org.postgresql.Driver) must be on the class path.
+ */
+public class CaseDbConnectionInfo {
+
+	/**
+	 * Number of connections to the server a case keeps open at most, unless
+	 * another number is given.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS = 32;
+	private final String host;
+	private final int port;
+	private final String userName;
+	private final String password;
+	private final int maxConnections;
+
+	/**
+	 * @param host host name or IP address of the server
+	 * @param port port of the server, 5432 unless it was set up otherwise
+	 * @param userName the user to connect as
+	 * @param password the password of the user
+	 */
+	public CaseDbConnectionInfo(String host, int port, String userName, String password) {
+		this(host, port, userName, password, DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param host host name or IP address of the server
+	 * @param port port of the server, 5432 unless it was set up otherwise
+	 * @param userName the user to connect as
+	 * @param password the password of the user
+	 * @param maxConnections number of connections to the server a case keeps
+	 * open at most. A thread that uses the case holds a connection until it
+	 * ends or the case is closed, so this is the number of threads that can
+	 * use the case at once.
+	 * @throws IllegalArgumentException if maxConnections is not positive
+	 */
+	public CaseDbConnectionInfo(String host, int port, String userName, String password, int maxConnections) {
+		if (maxConnections <= 0) {
+			throw new IllegalArgumentException("maxConnections must be positive"); //NON-NLS
+		}
+		this.host = host;
+		this.port = port;
+		this.userName = userName;
+		this.password = password;
+		this.maxConnections = maxConnections;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getUserName() {
+		return userName;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+}
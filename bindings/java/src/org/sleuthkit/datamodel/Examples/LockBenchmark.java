@@ -0,0 +1,169 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *	 http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sleuthkit.datamodel.Examples;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import org.sleuthkit.datamodel.AbstractFile;
+import org.sleuthkit.datamodel.BlackboardArtifact;
+import org.sleuthkit.datamodel.ContentTag;
+import org.sleuthkit.datamodel.SleuthkitCase;
+import org.sleuthkit.datamodel.TagName;
+import org.sleuthkit.datamodel.TskCoreException;
+import org.sleuthkit.datamodel.TskMetrics;
+
+/**
+ * Measures the throughput of a mixed workload on an existing case: threads
+ * that read files and their children run alongside threads that add and
+ * delete tags, add artifacts and set the known status of files. Prints the
+ * operations per second of each kind of thread and the lock wait times.
+ *
+ * The workload changes the case, so run it on a copy.
+ *
+ * Usage: LockBenchmark case.db [seconds] [reader threads]
+ */
+public class LockBenchmark {
+
+	private static final String TAG_NAME = "Lock benchmark"; //NON-NLS
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: LockBenchmark case.db [seconds] [reader threads]"); //NON-NLS
+			return;
+		}
+		final long seconds = args.length > 1 ? Long.parseLong(args[1]) : 30;
+		int readers = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+		final SleuthkitCase sleuthkitCase = SleuthkitCase.openCase(args[0]);
+		try {
+			final long[] fileIds = sleuthkitCase.findAllFileIdsWhereAsArray("meta_type = 1"); //NON-NLS
+			if (fileIds.length == 0) {
+				System.err.println("The case has no files"); //NON-NLS
+				return;
+			}
+			final TagName tagName = getTagName(sleuthkitCase);
+			final long deadline = System.currentTimeMillis() + seconds * 1000;
+			TskMetrics.reset();
+			TskMetrics.setEnabled(true);
+
+			List<Worker> workers = new ArrayList<Worker>();
+			for (int i = 0; i < readers; ++i) {
+				workers.add(new Worker("read", sleuthkitCase, fileIds, deadline) { //NON-NLS
+					@Override
+					void operation(AbstractFile file) throws TskCoreException {
+						file.getChildren();
+						sleuthkitCase.getBlackboardArtifactsCount(file.getId());
+					}
+				});
+			}
+			workers.add(new Worker("tag", sleuthkitCase, fileIds, deadline) { //NON-NLS
+				@Override
+				void operation(AbstractFile file) throws TskCoreException {
+					ContentTag tag = sleuthkitCase.addContentTag(file, tagName, "", 0, 0);
+					sleuthkitCase.deleteContentTag(tag);
+				}
+			});
+			workers.add(new Worker("artifact", sleuthkitCase, fileIds, deadline) { //NON-NLS
+				@Override
+				void operation(AbstractFile file) throws TskCoreException {
+					sleuthkitCase.newBlackboardArtifact(BlackboardArtifact.ARTIFACT_TYPE.TSK_GEN_INFO, file.getId());
+				}
+			});
+			workers.add(new Worker("known", sleuthkitCase, fileIds, deadline) { //NON-NLS
+				@Override
+				void operation(AbstractFile file) throws TskCoreException {
+					sleuthkitCase.setKnown(file, file.getKnown());
+				}
+			});
+
+			for (Worker worker : workers) {
+				worker.start();
+			}
+			for (Worker worker : workers) {
+				worker.join();
+			}
+			TskMetrics.setEnabled(false);
+
+			System.out.println("Operations per second:"); //NON-NLS
+			for (Worker worker : workers) {
+				System.out.println(String.format("  %s: %.1f%s", worker.getName(), worker.operations.get() / (double) seconds, //NON-NLS
+						worker.error != null ? " (failed: " + worker.error.getMessage() + ")" : "")); //NON-NLS
+			}
+			System.out.println("Lock waits:"); //NON-NLS
+			for (Map.Entry<String, TskMetrics.TimerSnapshot> entry : TskMetrics.getSnapshot().getTimers().entrySet()) {
+				if (entry.getKey().startsWith("lock.")) { //NON-NLS
+					TskMetrics.TimerSnapshot timer = entry.getValue();
+					System.out.println(String.format("  %s: %d waits, mean %d us, p99 < %d us, max %d us", entry.getKey(), //NON-NLS
+							timer.getCount(), timer.getMeanNanos() / 1000, timer.getPercentileMicros(99), timer.getMaxNanos() / 1000));
+				}
+			}
+		} finally {
+			sleuthkitCase.close();
+		}
+	}
+
+	private static TagName getTagName(SleuthkitCase sleuthkitCase) throws TskCoreException {
+		for (TagName tagName : sleuthkitCase.getAllTagNames()) {
+			if (tagName.getDisplayName().equals(TAG_NAME)) {
+				return tagName;
+			}
+		}
+		return sleuthkitCase.addTagName(TAG_NAME, "", TagName.HTML_COLOR.NONE); //NON-NLS
+	}
+
+	/**
+	 * A thread that does one kind of operation on random files until the
+	 * deadline.
+	 */
+	private static abstract class Worker extends Thread {
+
+		private final SleuthkitCase sleuthkitCase;
+		private final long[] fileIds;
+		private final long deadline;
+		private final AtomicLong operations = new AtomicLong();
+		private volatile Exception error;
+
+		Worker(String name, SleuthkitCase sleuthkitCase, long[] fileIds, long deadline) {
+			super(name);
+			this.sleuthkitCase = sleuthkitCase;
+			this.fileIds = fileIds;
+			this.deadline = deadline;
+		}
+
+		abstract void operation(AbstractFile file) throws TskCoreException;
+
+		@Override
+		public void run() {
+			Random random = new Random();
+			try {
+				while (System.currentTimeMillis() < deadline) {
+					AbstractFile file = sleuthkitCase.getAbstractFileById(fileIds[random.nextInt(fileIds.length)]);
+					operation(file);
+					operations.incrementAndGet();
+				}
+			} catch (TskCoreException ex) {
+				error = ex;
+			}
+		}
+	}
+}
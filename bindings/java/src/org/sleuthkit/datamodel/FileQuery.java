@@ -0,0 +1,198 @@
+/*
+ * Sleuth Kit Data Model
+ * 
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import org.sleuthkit.datamodel.TskData.FileKnown;
+import org.sleuthkit.datamodel.TskData.TSK_DB_FILES_TYPE_ENUM;
+
+/**
+ * A query for files, for SleuthkitCase.findFiles(FileQuery) and
+ * SleuthkitCase.countFiles(FileQuery). The filters are combined with AND. The
+ * query is made of SQL with host parameters, so the case database can reuse
+ * the prepared statement of a previous query with the same kinds of filters.
+ *
+ * Files are returned in object id order. A large result can be read a page at
+ * a time by setting a limit and passing the id of the last file of a page to
+ * after() to get the next page.
+ */
+public class FileQuery {
+
+	/**
+	 * The MAC times of a file.
+	 */
+	public enum TimeType {
+
+		MODIFIED("mtime"), ///< Last modification of the content
+		ACCESSED("atime"), ///< Last access
+		CHANGED("ctime"), ///< Last change of the metadata
+		CREATED("crtime"); ///< Creation
+		private final String columnName;
+
+		private TimeType(String columnName) {
+			this.columnName = columnName;
+		}
+
+		/**
+		 * @return the column of tsk_files that holds the time
+		 */
+		String getColumnName() {
+			return columnName;
+		}
+	}
+	private final QueryConditions conditions = new QueryConditions();
+	private Content dataSource;
+	private Long afterId;
+	private int limit;
+
+	/**
+	 * Only find files of the given types.
+	 *
+	 * @param types the file types
+	 * @return this query
+	 */
+	public FileQuery types(TSK_DB_FILES_TYPE_ENUM... types) {
+		Object[] values = new Object[types.length];
+		for (int i = 0; i < types.length; ++i) {
+			values[i] = (int) types[i].getFileType();
+		}
+		conditions.add("type IN (" + QueryConditions.makeParameterList(types.length) + ")", values); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find files with a size in the given range.
+	 *
+	 * @param minSize smallest size, in bytes
+	 * @param maxSize largest size, in bytes
+	 * @return this query
+	 */
+	public FileQuery sizeRange(long minSize, long maxSize) {
+		conditions.add("size BETWEEN ? AND ?", minSize, maxSize); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find files with a MAC time in the given range.
+	 *
+	 * @param timeType the time to check
+	 * @param startTime start of the range, in seconds since 1970
+	 * @param endTime end of the range (included), in seconds since 1970
+	 * @return this query
+	 */
+	public FileQuery timeRange(TimeType timeType, long startTime, long endTime) {
+		conditions.add(timeType.getColumnName() + " BETWEEN ? AND ?", startTime, endTime); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find files with one of the given known states. Files that were
+	 * never looked up in a hash database are UNKNOWN.
+	 *
+	 * @param knownStates the known states
+	 * @return this query
+	 */
+	public FileQuery known(FileKnown... knownStates) {
+		Object[] values = new Object[knownStates.length];
+		boolean unknown = false;
+		for (int i = 0; i < knownStates.length; ++i) {
+			values[i] = (int) knownStates[i].getFileKnownValue();
+			unknown |= (knownStates[i] == FileKnown.UNKNOWN);
+		}
+		String condition = "known IN (" + QueryConditions.makeParameterList(knownStates.length) + ")"; //NON-NLS
+		conditions.add(unknown ? "(" + condition + " OR known IS NULL)" : condition, values); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find files with the given MD5 hash.
+	 *
+	 * @param md5Hash the hash, as hexadecimal digits
+	 * @return this query
+	 */
+	public FileQuery md5(String md5Hash) {
+		conditions.add("md5 = ?", md5Hash.toLowerCase()); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find files with the given extension, ignoring the case of ASCII
+	 * letters.
+	 *
+	 * @param extension the extension, without the dot
+	 * @return this query
+	 */
+	public FileQuery extension(String extension) {
+		String escaped = SleuthkitCase.normalizeFileName(extension).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_"); //NON-NLS
+		conditions.add("name_lower LIKE ? ESCAPE '\\'", "%." + escaped); //NON-NLS
+		return this;
+	}
+
+	/**
+	 * Only find files of the given data source.
+	 *
+	 * @param dataSource the data source (Image, parent-less VirtualDirectory)
+	 * @return this query
+	 */
+	public FileQuery dataSource(Content dataSource) {
+		this.dataSource = dataSource;
+		return this;
+	}
+
+	/**
+	 * Only find files with an object id greater than the given one. Used to
+	 * get the page of files that follows the file with the given id.
+	 *
+	 * @param objId object id of the last file of the previous page
+	 * @return this query
+	 */
+	public FileQuery after(long objId) {
+		this.afterId = objId;
+		return this;
+	}
+
+	/**
+	 * Find at most the given number of files.
+	 *
+	 * @param limit maximum number of files, 0 for no limit
+	 * @return this query
+	 */
+	public FileQuery limit(int limit) {
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit must not be negative"); //NON-NLS
+		}
+		this.limit = limit;
+		return this;
+	}
+
+	QueryConditions getConditions() {
+		return conditions;
+	}
+
+	Content getDataSource() {
+		return dataSource;
+	}
+
+	Long getAfterId() {
+		return afterId;
+	}
+
+	int getLimit() {
+		return limit;
+	}
+}
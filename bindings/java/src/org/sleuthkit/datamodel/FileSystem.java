@@ -71,7 +71,10 @@ public void close() {
 
 	@Override
 	public int read(byte[] buf, long offset, long len) throws TskCoreException {
-		return SleuthkitJNI.readFs(getFileSystemHandle(), buf, offset, len);
+		long start = TskTracing.start();
+		int bytesRead = SleuthkitJNI.readFs(getFileSystemHandle(), buf, offset, len);
+		TskTracing.contentRead(this, offset, len, bytesRead, start);
+		return bytesRead;
 	}
 
 	@Override
@@ -201,12 +201,16 @@ public Content getDataSource() throws TskCoreException {
 
 	@Override
 	public synchronized String getUniquePath() throws TskCoreException {
+		if (uniquePath == null) {
+			uniquePath = getSleuthkitCase().getCachedUniquePath(getId());
+		}
 		if (uniquePath == null) {
 			StringBuilder sb = new StringBuilder();
 			sb.append(getFileSystem().getUniquePath());
 			sb.append(getParentPath());
 			sb.append(getName());
 			uniquePath = sb.toString();
+			getSleuthkitCase().cacheUniquePath(getId(), uniquePath);
 		}
 		return uniquePath;
 	}
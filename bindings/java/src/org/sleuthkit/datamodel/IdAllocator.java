@@ -0,0 +1,167 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out ids that SleuthkitCase assigns itself, such as artifact ids,
+ * without holding a case lock. Single ids are handed out one at a time, and a
+ * writer that adds many rows can reserve a block of ids so that it can build
+ * the rows before it takes the lock and writes them. Ids that are handed out
+ * but not written, e.g. when a transaction is rolled back, are not reused.
+ *
+ * If other processes add rows to the same database, the ids are taken in
+ * blocks from a BlockSource that gives each process its own blocks, and
+ * handed out from the current block until it is used up.
+ */
+final class IdAllocator {
+
+	/**
+	 * Where the ids of an allocator shared with other processes come from.
+	 */
+	interface BlockSource {
+
+		/**
+		 * Take a block of ids that no other allocator gets.
+		 *
+		 * @return the first id of the block, which has the block size of the
+		 * allocator
+		 * @throws TskCoreException
+		 */
+		long nextBlock() throws TskCoreException;
+	}
+	private final AtomicLong nextId = new AtomicLong();
+	private final BlockSource blockSource;
+	private final int blockSize;
+	private long blockNext; // Next id of the current block of blockSource, guarded by this.
+	private long blockEnd; // End of the current block of blockSource, guarded by this.
+
+	/**
+	 * Make an allocator that hands out ids from the one set by init().
+	 */
+	IdAllocator() {
+		this.blockSource = null;
+		this.blockSize = 0;
+	}
+
+	/**
+	 * Make an allocator that hands out ids from blocks of a block source.
+	 *
+	 * @param blockSource where the blocks come from
+	 * @param blockSize the number of ids of each block
+	 */
+	IdAllocator(BlockSource blockSource, int blockSize) {
+		this.blockSource = blockSource;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * Set the next id to hand out. Called when the case is opened, before the
+	 * allocator is used. Not used with a block source.
+	 *
+	 * @param id the next id
+	 */
+	void init(long id) {
+		nextId.set(id);
+	}
+
+	/**
+	 * @return a new id
+	 * @throws TskCoreException if a block could not be taken from the block
+	 * source
+	 */
+	long next() throws TskCoreException {
+		if (blockSource == null) {
+			return nextId.getAndIncrement();
+		}
+		synchronized (this) {
+			if (blockNext == blockEnd) {
+				blockNext = blockSource.nextBlock();
+				blockEnd = blockNext + blockSize;
+			}
+			return blockNext++;
+		}
+	}
+
+	/**
+	 * Reserve a block of ids. The ids are consecutive unless they come from a
+	 * block source.
+	 *
+	 * @param count the number of ids
+	 * @return the block
+	 * @throws TskCoreException if a block could not be taken from the block
+	 * source
+	 */
+	Block reserve(int count) throws TskCoreException {
+		if (blockSource == null) {
+			return new Block(nextId.getAndAdd(count), count);
+		}
+		long[] ids = new long[count];
+		synchronized (this) {
+			for (int i = 0; i < count; i++) {
+				ids[i] = next();
+			}
+		}
+		return new Block(ids);
+	}
+
+	/**
+	 * A block of ids reserved by one writer. Not thread safe.
+	 */
+	static final class Block {
+
+		private final long[] ids; // The ids, or null if they are consecutive from first.
+		private final long first;
+		private final int count;
+		private int used;
+
+		private Block(long first, int count) {
+			this.ids = null;
+			this.first = first;
+			this.count = count;
+		}
+
+		private Block(long[] ids) {
+			this.ids = ids;
+			this.first = 0;
+			this.count = ids.length;
+		}
+
+		/**
+		 * @return the number of ids of the block not handed out yet
+		 */
+		int remaining() {
+			return count - used;
+		}
+
+		/**
+		 * @return the next id of the block
+		 * @throws IllegalStateException if the block is used up
+		 */
+		long next() {
+			if (used == count) {
+				throw new IllegalStateException("Id block is used up"); //NON-NLS
+			}
+			long id = (ids != null) ? ids[used] : first + used;
+			used++;
+			return id;
+		}
+	}
+}
@@ -104,7 +104,10 @@ public void finalize() throws Throwable {
 	@Override
 	public int read(byte[] buf, long offset, long len) throws TskCoreException {
 		// read from the image
-		return SleuthkitJNI.readImg(getImageHandle(), buf, offset, len);
+		long start = TskTracing.start();
+		int bytesRead = SleuthkitJNI.readImg(getImageHandle(), buf, offset, len);
+		TskTracing.contentRead(this, offset, len, bytesRead, start);
+		return bytesRead;
 	}
 
 	@Override
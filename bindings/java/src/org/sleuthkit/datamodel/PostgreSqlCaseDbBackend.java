@@ -0,0 +1,404 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A case database on a PostgreSQL server, which the ingest nodes and examiners
+ * of a case work on at once, each with its own SleuthkitCase. The server lets
+ * transactions of different connections change the database at the same
+ * time, and readers never keep changes from being committed.
+ *
+ * The connections are pooled: a connection given back by a thread of the
+ * case, when the thread ends or the case is closed, is kept open and handed
+ * to the next thread that needs one, and at most the maximum number of
+ * connections of the CaseDbConnectionInfo are open at once.
+ *
+ * The database is made by createDatabase() with the tables of the current
+ * schema version, rather than by the native code. It needs PostgreSQL 12 or
+ * later built with ICU, for the case-insensitive collation named nocase that
+ * the file path lookups of SleuthkitCase use, as with SQLite. Text is compared
+ * byte by byte otherwise, as in SQLite, and LOWER() only changes ASCII
+ * letters.
+ */
+final class PostgreSqlCaseDbBackend extends CaseDbBackend {
+
+	private static final Logger logger = Logger.getLogger(PostgreSqlCaseDbBackend.class.getName());
+	private static final String DRIVER_CLASS = "org.postgresql.Driver"; //NON-NLS
+	private static final String MAINTENANCE_DATABASE = "postgres"; //NON-NLS
+	private static final int ARTIFACT_ID_BLOCK_SIZE = 1000; // Artifact ids taken from tsk_artifact_id_seq at a time by each case object.
+	private static final long CONNECTION_WAIT_MILLIS = 30000; // How long openConnection() waits for a connection when they are all in use.
+	private static final int CONNECTION_CHECK_SECONDS = 5; // How long openConnection() waits for a pooled connection to answer.
+	// The tables and indexes of the current schema version, as made by the
+	// native code for SQLite, with the id columns the native code fills from
+	// rowids as BIGSERIAL. Artifact ids come from a sequence that hands out
+	// blocks of ids, starting at the lowest long like those of SQLite.
+	private static final String[] CREATE_SCHEMA_SQL = {
+		"CREATE COLLATION nocase (provider = icu, locale = 'und-u-ks-level2', deterministic = false)", //NON-NLS
+		"CREATE TABLE tsk_db_info (schema_ver INTEGER, tsk_ver INTEGER)", //NON-NLS
+		"CREATE TABLE tsk_objects (obj_id BIGSERIAL PRIMARY KEY, par_obj_id BIGINT, type INTEGER NOT NULL)", //NON-NLS
+		"CREATE TABLE tsk_image_info (obj_id BIGINT PRIMARY KEY, type INTEGER, ssize INTEGER, tzone TEXT, size BIGINT, md5 TEXT, display_name TEXT, " //NON-NLS
+		+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_image_names (obj_id BIGINT NOT NULL, name TEXT NOT NULL, sequence INTEGER NOT NULL, FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_vs_info (obj_id BIGINT PRIMARY KEY, vs_type INTEGER NOT NULL, img_offset BIGINT NOT NULL, block_size BIGINT NOT NULL, " //NON-NLS
+		+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_vs_parts (obj_id BIGINT PRIMARY KEY, addr BIGINT NOT NULL, start BIGINT NOT NULL, length BIGINT NOT NULL, \"desc\" TEXT, flags INTEGER NOT NULL, " //NON-NLS
+		+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_fs_info (obj_id BIGINT PRIMARY KEY, img_offset BIGINT NOT NULL, fs_type INTEGER NOT NULL, block_size BIGINT NOT NULL, block_count BIGINT NOT NULL, " //NON-NLS
+		+ "root_inum BIGINT NOT NULL, first_inum BIGINT NOT NULL, last_inum BIGINT NOT NULL, display_name TEXT, FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_files (obj_id BIGINT PRIMARY KEY, fs_obj_id BIGINT, attr_type INTEGER, attr_id INTEGER, name TEXT NOT NULL, meta_addr BIGINT, meta_seq BIGINT, " //NON-NLS
+		+ "type INTEGER, has_layout INTEGER, has_path INTEGER, dir_type INTEGER, meta_type INTEGER, dir_flags INTEGER, meta_flags INTEGER, size BIGINT, " //NON-NLS
+		+ "ctime BIGINT, crtime BIGINT, atime BIGINT, mtime BIGINT, mode INTEGER, uid INTEGER, gid INTEGER, md5 TEXT, known INTEGER, parent_path TEXT, name_lower TEXT, " //NON-NLS
+		+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id), FOREIGN KEY(fs_obj_id) REFERENCES tsk_fs_info(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_files_path (obj_id BIGINT PRIMARY KEY, path TEXT NOT NULL, FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_files_derived (obj_id BIGINT PRIMARY KEY, derived_id BIGINT NOT NULL, rederive TEXT, FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE tsk_files_derived_method (derived_id BIGSERIAL PRIMARY KEY, tool_name TEXT NOT NULL, tool_version TEXT NOT NULL, other TEXT)", //NON-NLS
+		"CREATE TABLE tsk_file_layout (obj_id BIGINT NOT NULL, byte_start BIGINT NOT NULL, byte_len BIGINT NOT NULL, sequence INTEGER NOT NULL, " //NON-NLS
+		+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE blackboard_artifact_types (artifact_type_id INTEGER PRIMARY KEY, type_name TEXT NOT NULL, display_name TEXT)", //NON-NLS
+		"CREATE TABLE blackboard_attribute_types (attribute_type_id INTEGER PRIMARY KEY, type_name TEXT NOT NULL, display_name TEXT)", //NON-NLS
+		"CREATE TABLE blackboard_artifacts (artifact_id BIGINT PRIMARY KEY, obj_id BIGINT NOT NULL, artifact_type_id INTEGER NOT NULL, " //NON-NLS
+		+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id), FOREIGN KEY(artifact_type_id) REFERENCES blackboard_artifact_types(artifact_type_id))", //NON-NLS
+		"CREATE TABLE blackboard_attributes (artifact_id BIGINT NOT NULL, artifact_type_id INTEGER NOT NULL, source TEXT, context TEXT, attribute_type_id INTEGER NOT NULL, " //NON-NLS
+		+ "value_type INTEGER NOT NULL, value_byte BYTEA, value_text TEXT, value_int32 INTEGER, value_int64 BIGINT, value_double DOUBLE PRECISION, " //NON-NLS
+		+ "FOREIGN KEY(artifact_id) REFERENCES blackboard_artifacts(artifact_id), FOREIGN KEY(artifact_type_id) REFERENCES blackboard_artifact_types(artifact_type_id), " //NON-NLS
+		+ "FOREIGN KEY(attribute_type_id) REFERENCES blackboard_attribute_types(attribute_type_id))", //NON-NLS
+		"CREATE TABLE tag_names (tag_name_id BIGSERIAL PRIMARY KEY, display_name TEXT UNIQUE, description TEXT NOT NULL, color TEXT NOT NULL)", //NON-NLS
+		"CREATE TABLE content_tags (tag_id BIGSERIAL PRIMARY KEY, obj_id BIGINT NOT NULL, tag_name_id BIGINT NOT NULL, comment TEXT NOT NULL, " //NON-NLS
+		+ "begin_byte_offset BIGINT NOT NULL, end_byte_offset BIGINT NOT NULL, " //NON-NLS
+		+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id), FOREIGN KEY(tag_name_id) REFERENCES tag_names(tag_name_id))", //NON-NLS
+		"CREATE TABLE blackboard_artifact_tags (tag_id BIGSERIAL PRIMARY KEY, artifact_id BIGINT NOT NULL, tag_name_id BIGINT NOT NULL, comment TEXT NOT NULL, " //NON-NLS
+		+ "FOREIGN KEY(artifact_id) REFERENCES blackboard_artifacts(artifact_id), FOREIGN KEY(tag_name_id) REFERENCES tag_names(tag_name_id))", //NON-NLS
+		"CREATE TABLE reports (report_id BIGSERIAL PRIMARY KEY, path TEXT NOT NULL, crtime BIGINT NOT NULL, src_module_name TEXT NOT NULL, report_name TEXT NOT NULL)", //NON-NLS
+		"CREATE TABLE tsk_events (event_id BIGSERIAL PRIMARY KEY, obj_id BIGINT NOT NULL, data_source_obj_id BIGINT NOT NULL, artifact_id BIGINT, " //NON-NLS
+		+ "event_type INTEGER NOT NULL, attribute_type_id INTEGER, time BIGINT NOT NULL, FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))", //NON-NLS
+		"CREATE TABLE blackboard_artifact_counts (scope INTEGER NOT NULL, id BIGINT NOT NULL, artifact_type_id INTEGER NOT NULL, count BIGINT NOT NULL, " //NON-NLS
+		+ "PRIMARY KEY (scope, id, artifact_type_id))", //NON-NLS
+		"CREATE SEQUENCE tsk_artifact_id_seq MINVALUE " + Long.MIN_VALUE + " START WITH " + Long.MIN_VALUE + " INCREMENT BY " + ARTIFACT_ID_BLOCK_SIZE, //NON-NLS
+		"CREATE INDEX parObjId ON tsk_objects(par_obj_id)", //NON-NLS
+		"CREATE INDEX layout_objID ON tsk_file_layout(obj_id)", //NON-NLS
+		"CREATE INDEX files_fsObjId_nameLower ON tsk_files(fs_obj_id, name_lower)", //NON-NLS
+		"CREATE INDEX files_fsObjId_path_name ON tsk_files(fs_obj_id, parent_path COLLATE NOCASE, name COLLATE NOCASE)", //NON-NLS
+		"CREATE INDEX artifact_objID ON blackboard_artifacts(obj_id)", //NON-NLS
+		"CREATE INDEX artifact_typeID ON blackboard_artifacts(artifact_type_id)", //NON-NLS
+		"CREATE INDEX attrsArtifactID ON blackboard_attributes(artifact_id)", //NON-NLS
+		"CREATE INDEX attribute_artifactTypeId ON blackboard_attributes(artifact_type_id)", //NON-NLS
+		"CREATE INDEX events_time ON tsk_events(time)", //NON-NLS
+		"CREATE INDEX events_dataSourceObjId_time ON tsk_events(data_source_obj_id, time)"}; //NON-NLS
+	private final String databaseName;
+	private final String url;
+	private final Properties properties;
+	private final int maxConnections;
+	private final ArrayDeque<Connection> idleConnections = new ArrayDeque<Connection>(); // Connections given back, guarded by this.
+	private int openConnections = 0; // Connections open or being opened, idle or not, guarded by this.
+	private boolean closed = false; // Guarded by this.
+
+	/**
+	 * @param info how to connect to the server
+	 * @param databaseName the name of the case database on the server
+	 * @throws ClassNotFoundException if the PostgreSQL JDBC driver is missing
+	 */
+	PostgreSqlCaseDbBackend(CaseDbConnectionInfo info, String databaseName) throws ClassNotFoundException {
+		Class.forName(DRIVER_CLASS);
+		this.databaseName = databaseName;
+		this.url = makeUrl(info, databaseName);
+		this.properties = makeProperties(info);
+		this.maxConnections = info.getMaxConnections();
+	}
+
+	/**
+	 * Make a case database with the tables of a schema version, and no rows
+	 * but its schema version.
+	 *
+	 * @param info how to connect to the server
+	 * @param databaseName the name of the new database
+	 * @param schemaVersion the schema version of the tables
+	 * @throws ClassNotFoundException if the PostgreSQL JDBC driver is missing
+	 * @throws SQLException if the database could not be made, e.g. because
+	 * it exists
+	 */
+	static void createDatabase(CaseDbConnectionInfo info, String databaseName, int schemaVersion) throws ClassNotFoundException, SQLException {
+		Class.forName(DRIVER_CLASS);
+		Properties properties = makeProperties(info);
+
+		// C collation and character type, so text is compared and changed
+		// the way SQLite does, see the class comment
+		Connection connection = DriverManager.getConnection(makeUrl(info, MAINTENANCE_DATABASE), properties);
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				statement.executeUpdate("CREATE DATABASE \"" + databaseName.replace("\"", "\"\"") + "\" " //NON-NLS
+						+ "ENCODING 'UTF8' LC_COLLATE 'C' LC_CTYPE 'C' TEMPLATE template0"); //NON-NLS
+			} finally {
+				statement.close();
+			}
+		} finally {
+			closeConnection(connection);
+		}
+
+		connection = DriverManager.getConnection(makeUrl(info, databaseName), properties);
+		try {
+			connection.setAutoCommit(false);
+			Statement statement = connection.createStatement();
+			try {
+				for (String sql : CREATE_SCHEMA_SQL) {
+					statement.executeUpdate(sql);
+				}
+			} finally {
+				statement.close();
+			}
+			PreparedStatement insert = connection.prepareStatement("INSERT INTO tsk_db_info (schema_ver, tsk_ver) VALUES (?, 0)"); //NON-NLS
+			try {
+				insert.setInt(1, schemaVersion);
+				insert.executeUpdate();
+			} finally {
+				insert.close();
+			}
+			connection.commit();
+		} finally {
+			closeConnection(connection);
+		}
+	}
+
+	private static String makeUrl(CaseDbConnectionInfo info, String databaseName) {
+		try {
+			return "jdbc:postgresql://" + info.getHost() + ":" + info.getPort() + "/" + URLEncoder.encode(databaseName, "UTF-8"); //NON-NLS
+		} catch (UnsupportedEncodingException ex) {
+			throw new IllegalStateException(ex); // UTF-8 is always supported
+		}
+	}
+
+	private static Properties makeProperties(CaseDbConnectionInfo info) {
+		Properties properties = new Properties();
+		properties.setProperty("user", info.getUserName()); //NON-NLS
+		if (info.getPassword() != null) {
+			properties.setProperty("password", info.getPassword()); //NON-NLS
+		}
+		return properties;
+	}
+
+	@Override
+	TskData.DbType getType() {
+		return TskData.DbType.POSTGRESQL;
+	}
+
+	@Override
+	String getName() {
+		return databaseName;
+	}
+
+	/**
+	 * Take a connection given back by another thread, or open a new one if
+	 * fewer than the maximum number are open. If all are in use, wait for one
+	 * to be given back.
+	 *
+	 * @return the connection
+	 * @throws SQLException if the server cannot be reached, or no connection
+	 * was given back within CONNECTION_WAIT_MILLIS
+	 */
+	@Override
+	Connection openConnection() throws SQLException {
+		Connection connection;
+		while ((connection = takeIdleConnection()) != null) {
+			// the server may have dropped a connection while it was idle
+			if (connection.isValid(CONNECTION_CHECK_SECONDS)) {
+				return connection;
+			}
+			discardConnection(connection);
+		}
+		try {
+			return DriverManager.getConnection(url, properties);
+		} catch (SQLException ex) {
+			discardConnection(null);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Take an idle connection, or count a new one that the caller opens.
+	 *
+	 * @return the idle connection, or null if the caller opens a new one
+	 * @throws SQLException if the backend is closed, or no connection was
+	 * given back within CONNECTION_WAIT_MILLIS
+	 */
+	private synchronized Connection takeIdleConnection() throws SQLException {
+		long deadline = System.currentTimeMillis() + CONNECTION_WAIT_MILLIS;
+		while (!closed) {
+			if (!idleConnections.isEmpty()) {
+				return idleConnections.removeFirst();
+			}
+			if (openConnections < maxConnections) {
+				openConnections++;
+				return null;
+			}
+			long wait = deadline - System.currentTimeMillis();
+			if (wait <= 0) {
+				throw new SQLException("All " + maxConnections + " connections to case database " + databaseName + " are in use"); //NON-NLS
+			}
+			try {
+				wait(wait);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for a connection to case database " + databaseName, ex); //NON-NLS
+			}
+		}
+		throw new SQLException("Case database " + databaseName + " is closed"); //NON-NLS
+	}
+
+	/**
+	 * Close a connection that is no longer counted as open.
+	 *
+	 * @param connection the connection, or null if it could not be opened
+	 */
+	private void discardConnection(Connection connection) {
+		if (connection != null) {
+			closeConnection(connection);
+		}
+		synchronized (this) {
+			openConnections--;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Keep a connection for the next thread that needs one. A transaction
+	 * the connection was left in is rolled back.
+	 *
+	 * @param connection the connection
+	 */
+	@Override
+	void releaseConnection(Connection connection) {
+		try {
+			if (connection.isClosed()) {
+				discardConnection(null);
+				return;
+			}
+			if (!connection.getAutoCommit()) {
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+		} catch (SQLException ex) {
+			logger.log(Level.WARNING, "Could not reset connection to case database " + databaseName, ex); //NON-NLS
+			discardConnection(connection);
+			return;
+		}
+		synchronized (this) {
+			if (!closed) {
+				idleConnections.addLast(connection);
+				notifyAll();
+				return;
+			}
+		}
+		discardConnection(connection);
+	}
+
+	@Override
+	boolean isBusy(SQLException ex) {
+		// PostgreSQL waits for locks rather than failing, and a statement
+		// that fails ends its transaction, so it cannot be retried alone
+		return false;
+	}
+
+	@Override
+	boolean failedStatementsEndTransactions() {
+		return true;
+	}
+
+	@Override
+	boolean allowsConcurrentWriters() {
+		return true;
+	}
+
+	@Override
+	boolean isShared() {
+		return true;
+	}
+
+	@Override
+	boolean enableConcurrentCommits(Connection connection) {
+		return true;
+	}
+
+	@Override
+	boolean supportsUpsert() {
+		return true;
+	}
+
+	@Override
+	boolean supportsAttributeTextIndex() {
+		return false;
+	}
+
+	@Override
+	long nextArtifactIdBlock(Connection connection) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet resultSet = statement.executeQuery("SELECT nextval('tsk_artifact_id_seq')"); //NON-NLS
+			resultSet.next();
+			return resultSet.getLong(1);
+		} finally {
+			statement.close();
+		}
+	}
+
+	@Override
+	int getArtifactIdBlockSize() {
+		return ARTIFACT_ID_BLOCK_SIZE;
+	}
+
+	@Override
+	String getQueryPlanSql(String sql) {
+		return "EXPLAIN " + sql; //NON-NLS
+	}
+
+	@Override
+	String readQueryPlanRow(ResultSet resultSet) throws SQLException {
+		return resultSet.getString(1);
+	}
+
+	/**
+	 * Close the idle connections. Connections still in use are closed when
+	 * they are given back.
+	 */
+	@Override
+	void close() {
+		Connection[] connections;
+		synchronized (this) {
+			closed = true;
+			connections = idleConnections.toArray(new Connection[idleConnections.size()]);
+			idleConnections.clear();
+			notifyAll();
+		}
+		for (Connection connection : connections) {
+			discardConnection(connection);
+		}
+	}
+}
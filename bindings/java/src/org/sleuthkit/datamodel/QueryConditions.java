@@ -0,0 +1,92 @@
+/*
+ * Sleuth Kit Data Model
+ * 
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The conditions of a FileQuery or an ArtifactQuery, as SQL with host
+ * parameters and the values of the parameters. Queries with the same kinds of
+ * conditions make the same SQL, so their prepared statements can be reused.
+ */
+class QueryConditions {
+
+	private final List<String> conditions = new ArrayList<String>();
+	private final List<Object> parameters = new ArrayList<Object>();
+
+	QueryConditions() {
+	}
+
+	/**
+	 * Make a copy of the given conditions, which more conditions can be added
+	 * to without changing the original.
+	 *
+	 * @param other conditions to copy
+	 */
+	QueryConditions(QueryConditions other) {
+		conditions.addAll(other.conditions);
+		parameters.addAll(other.parameters);
+	}
+
+	/**
+	 * Add a condition.
+	 *
+	 * @param condition SQL condition with a ? for each parameter
+	 * @param values values of the parameters, Long, Integer, Double or String
+	 */
+	void add(String condition, Object... values) {
+		conditions.add(condition);
+		Collections.addAll(parameters, values);
+	}
+
+	/**
+	 * Make a list of n host parameters for an IN list, e.g. "?, ?, ?".
+	 *
+	 * @param n number of parameters, at least one
+	 * @return the list
+	 */
+	static String makeParameterList(int n) {
+		if (n < 1) {
+			throw new IllegalArgumentException("At least one value is needed"); //NON-NLS
+		}
+		StringBuilder list = new StringBuilder("?");
+		for (int i = 1; i < n; ++i) {
+			list.append(", ?");
+		}
+		return list.toString();
+	}
+
+	/**
+	 * Append the conditions, joined with AND, to a query.
+	 *
+	 * @param query the query
+	 * @param keyword word put before the first condition, e.g. " WHERE "
+	 */
+	void appendTo(StringBuilder query, String keyword) {
+		for (int i = 0; i < conditions.size(); ++i) {
+			query.append(i == 0 ? keyword : " AND ").append(conditions.get(i)); //NON-NLS
+		}
+	}
+
+	List<Object> getParameters() {
+		return Collections.unmodifiableList(parameters);
+	}
+}
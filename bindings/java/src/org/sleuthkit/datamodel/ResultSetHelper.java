@@ -320,7 +320,8 @@ LocalFile localFile(ResultSet rs, long parentId) throws SQLException {
 	
 	/**
 	 * Returns the list of abstractFile objects from a result of selecting many
-	 * files that meet a certain criteria. 
+	 * files that meet a certain criteria. The query must also select the 
+	 * number of children of each file as child_count.
 	 * @param rs
 	 * @param parentId
 	 * @return
@@ -330,43 +331,54 @@ List<Content> fileChildren(ResultSet rs, long parentId) throws SQLException {
 		List<Content> children = new ArrayList<Content>();
 
 		while (rs.next()) {
-			TskData.TSK_DB_FILES_TYPE_ENUM type = TskData.TSK_DB_FILES_TYPE_ENUM.valueOf(rs.getShort("type"));
-
-			if (type == TskData.TSK_DB_FILES_TYPE_ENUM.FS) {
-				FsContent result;
-				if (rs.getShort("meta_type") == TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR.getValue()) {
-					result = directory(rs, null);
-				} else {
-					result = file(rs, null);
-				}
-				children.add(result);
-			} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.VIRTUAL_DIR) {
-				VirtualDirectory virtDir = virtualDirectory(rs);
-				children.add(virtDir);
-			} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.UNALLOC_BLOCKS
-					|| type == TskData.TSK_DB_FILES_TYPE_ENUM.CARVED) {
-				String parentPath = rs.getString("parent_path");
-				if (parentPath == null) {
-					parentPath = "";
-				}
-				final LayoutFile lf =
-						new LayoutFile(db, rs.getLong("obj_id"), rs.getString("name"),
-						type,
-						TSK_FS_NAME_TYPE_ENUM.valueOf(rs.getShort("dir_type")),
-						TSK_FS_META_TYPE_ENUM.valueOf(rs.getShort("meta_type")),
-						TSK_FS_NAME_FLAG_ENUM.valueOf(rs.getShort("dir_flags")),
-						rs.getShort("meta_flags"),
-						rs.getLong("size"),
-						rs.getString("md5"), FileKnown.valueOf(rs.getByte("known")), parentPath);
-				children.add(lf);
-			} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.DERIVED) {
-				final DerivedFile df = derivedFile(rs, parentId);
-				children.add(df);
-			} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.LOCAL) {
-				final LocalFile lf = localFile(rs, parentId);
-				children.add(lf);
+			AbstractFile child = fileChild(rs, parentId);
+			if (child != null) {
+				child.setChildrenCount(rs.getInt("child_count")); //NON-NLS
+				children.add(child);
 			}
 		}
 		return children;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the abstractFile object for the current row of a result of 
+	 * selecting files.
+	 * @param rs
+	 * @param parentId
+	 * @return the file, or null if the row is of a file type that is not 
+	 * supported
+	 * @throws SQLException 
+	 */
+	AbstractFile fileChild(ResultSet rs, long parentId) throws SQLException {
+		TskData.TSK_DB_FILES_TYPE_ENUM type = TskData.TSK_DB_FILES_TYPE_ENUM.valueOf(rs.getShort("type"));
+
+		if (type == TskData.TSK_DB_FILES_TYPE_ENUM.FS) {
+			if (rs.getShort("meta_type") == TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR.getValue()) {
+				return directory(rs, null);
+			} else {
+				return file(rs, null);
+			}
+		} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.VIRTUAL_DIR) {
+			return virtualDirectory(rs);
+		} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.UNALLOC_BLOCKS
+				|| type == TskData.TSK_DB_FILES_TYPE_ENUM.CARVED) {
+			String parentPath = rs.getString("parent_path");
+			if (parentPath == null) {
+				parentPath = "";
+			}
+			return new LayoutFile(db, rs.getLong("obj_id"), rs.getString("name"),
+					type,
+					TSK_FS_NAME_TYPE_ENUM.valueOf(rs.getShort("dir_type")),
+					TSK_FS_META_TYPE_ENUM.valueOf(rs.getShort("meta_type")),
+					TSK_FS_NAME_FLAG_ENUM.valueOf(rs.getShort("dir_flags")),
+					rs.getShort("meta_flags"),
+					rs.getLong("size"),
+					rs.getString("md5"), FileKnown.valueOf(rs.getByte("known")), parentPath);
+		} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.DERIVED) {
+			return derivedFile(rs, parentId);
+		} else if (type == TskData.TSK_DB_FILES_TYPE_ENUM.LOCAL) {
+			return localFile(rs, parentId);
+		}
+		return null;
+	}
+}
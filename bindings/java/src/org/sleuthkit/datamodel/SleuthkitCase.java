@@ -18,16 +18,13 @@
  */
 package org.sleuthkit.datamodel;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -35,6 +32,10 @@
 import java.text.MessageFormat;
 import java.util.ResourceBundle;
 import java.util.*;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -48,8 +49,6 @@
 import org.sleuthkit.datamodel.TskData.TSK_FS_META_TYPE_ENUM;
 import org.sleuthkit.datamodel.TskData.TSK_FS_NAME_FLAG_ENUM;
 import org.sleuthkit.datamodel.TskData.TSK_FS_NAME_TYPE_ENUM;
-import org.sqlite.SQLiteConfig;
-import org.sqlite.SQLiteJDBCLoader;
 
 /**
  * Represents the case database with methods that provide abstractions for
@@ -57,23 +56,76 @@
  */
 public class SleuthkitCase {
 
-	private static final int SCHEMA_VERSION_NUMBER = 3; // This must be the same as TSK_SCHEMA_VER in tsk/auto/db_sqlite.cpp.				
-	private static final int DATABASE_LOCKED_ERROR = 0; // This should be 6 according to documentation, but it has been observed to be 0.
-	private static final int SQLITE_BUSY_ERROR = 5;
+	private static final int SCHEMA_VERSION_NUMBER = 6; // This must be the same as TSK_SCHEMA_VER in tsk/auto/db_sqlite.cpp.				
 	private static final long BASE_ARTIFACT_ID = Long.MIN_VALUE; // Artifact ids will start at the lowest negative value
+	private static final int DEFAULT_BACKUP_PAGES_PER_STEP = 1024; // Pages copied per step of backupCaseDB() when called by copyCaseDB().
+	static final int SCHEMA_UPGRADE_BATCH_SIZE = 10000; // Rows changed per transaction by batched schema upgrade steps, package-private for the tests.
+	private static final int MAX_BACKUP_RESTARTS = 3; // Number of times backupCaseDB() lets changes restart the copy before copying the rest in one step.
+	private static final int MAX_IDS_PER_QUERY = 500; // Number of object ids put in the IN list of one query by the methods that load many objects at once.
+	private static final int MAX_UNIQUE_PATH_CACHE_SIZE = 50000; // Number of file unique paths kept in uniquePathCache.
+	private static final int MAX_DATA_SOURCE_ID_CACHE_SIZE = 10000; // Number of object data source ids kept in dataSourceIdCache.
+	public static final int MAX_TIMELINE_HISTOGRAM_BUCKETS = 1000000; // Most buckets getTimelineHistogram() returns.
+	static final int TIMELINE_EVENT_PAGE_SIZE = 1000; // Events loaded per query by visitTimelineEvents(), package-private for the tests.
+	private static final int ARTIFACT_COUNT_SCOPE_CASE = 0; // blackboard_artifact_counts scope of the counts of the whole case, with an id of 0.
+	private static final int ARTIFACT_COUNT_SCOPE_OBJECT = 1; // blackboard_artifact_counts scope of the counts of a content object.
+	private static final int ARTIFACT_COUNT_SCOPE_DATA_SOURCE = 2; // blackboard_artifact_counts scope of the counts of a data source.
+	// Statements that fill blackboard_artifact_counts from the artifacts. The
+	// data source of each object with artifacts is found with a work table that
+	// the update moves one level up the object tree until it changes nothing.
+	private static final String CREATE_ARTIFACT_DATA_SOURCES_SQL = "CREATE TABLE tsk_artifact_data_sources (obj_id INTEGER PRIMARY KEY, data_source_obj_id INTEGER NOT NULL);"; //NON-NLS
+	private static final String FILL_ARTIFACT_DATA_SOURCES_SQL = "INSERT INTO tsk_artifact_data_sources (obj_id, data_source_obj_id) " //NON-NLS
+			+ "SELECT DISTINCT obj_id, obj_id FROM blackboard_artifacts;"; //NON-NLS
+	private static final String UPDATE_ARTIFACT_DATA_SOURCES_SQL = "UPDATE tsk_artifact_data_sources SET data_source_obj_id = " //NON-NLS
+			+ "(SELECT par_obj_id FROM tsk_objects WHERE tsk_objects.obj_id = tsk_artifact_data_sources.data_source_obj_id) " //NON-NLS
+			+ "WHERE obj_id IN (SELECT ads.obj_id FROM tsk_artifact_data_sources AS ads " //NON-NLS
+			+ "INNER JOIN tsk_objects AS objs ON objs.obj_id = ads.data_source_obj_id " //NON-NLS
+			+ "WHERE objs.par_obj_id IS NOT NULL LIMIT " + SCHEMA_UPGRADE_BATCH_SIZE + ")"; //NON-NLS
+	private static final String[] COUNT_ARTIFACTS_SQL = {
+		"INSERT INTO blackboard_artifact_counts (scope, id, artifact_type_id, count) " //NON-NLS
+		+ "SELECT " + ARTIFACT_COUNT_SCOPE_CASE + ", 0, artifact_type_id, COUNT(*) FROM blackboard_artifacts GROUP BY artifact_type_id;", //NON-NLS
+		"INSERT INTO blackboard_artifact_counts (scope, id, artifact_type_id, count) " //NON-NLS
+		+ "SELECT " + ARTIFACT_COUNT_SCOPE_OBJECT + ", obj_id, artifact_type_id, COUNT(*) FROM blackboard_artifacts GROUP BY obj_id, artifact_type_id;", //NON-NLS
+		"INSERT INTO blackboard_artifact_counts (scope, id, artifact_type_id, count) " //NON-NLS
+		+ "SELECT " + ARTIFACT_COUNT_SCOPE_DATA_SOURCE + ", ads.data_source_obj_id, arts.artifact_type_id, COUNT(*) FROM blackboard_artifacts AS arts " //NON-NLS
+		+ "INNER JOIN tsk_artifact_data_sources AS ads ON ads.obj_id = arts.obj_id GROUP BY ads.data_source_obj_id, arts.artifact_type_id;", //NON-NLS
+		"DROP TABLE tsk_artifact_data_sources;"}; //NON-NLS
+	public static final int MAX_ADD_IMAGE_INSERT_BATCH_SIZE = 40; // This must be the same as TSK_DB_MAX_INSERT_BATCH_SIZE in tsk/auto/tsk_db_sqlite.h.
 	private static final Logger logger = Logger.getLogger(SleuthkitCase.class.getName());
 	private static final ResourceBundle bundle = ResourceBundle.getBundle("org.sleuthkit.datamodel.Bundle");
 	private final ConnectionPerThreadDispenser connections = new ConnectionPerThreadDispenser();
 	private final ResultSetHelper rsHelper = new ResultSetHelper(this);
 	private final Map<Long, Long> carvedFileContainersCache = new HashMap<Long, Long>(); // Caches the IDs of the root $CarvedFiles for each volume.
 	private final Map<Long, FileSystem> fileSystemIdMap = new HashMap<Long, FileSystem>(); // Cache for file system results.
+	private final Map<Long, String> uniquePathCache = new LinkedHashMap<Long, String>(16, 0.75f, true) { // Least recently used cache of file unique paths.
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+			return size() > MAX_UNIQUE_PATH_CACHE_SIZE;
+		}
+	};
+	private final Map<Long, Long> dataSourceIdCache = new LinkedHashMap<Long, Long>(16, 0.75f, true) { // Least recently used cache of the data source ids of objects.
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+			return size() > MAX_DATA_SOURCE_ID_CACHE_SIZE;
+		}
+	};
+	private final Object tagIndexLock = new Object();
+	private final SlowQueryLog slowQueryLog = new SlowQueryLog();
+	private TagIndex tagIndex; // Loaded by getTagIndex() the first time tags are used, guarded by tagIndexLock.
 	private final ArrayList<ErrorObserver> errorObservers = new ArrayList<ErrorObserver>();
+	private final CaseDbBackend backend;
 	private final String dbPath;
 	private final String dbDirPath;
 	private SleuthkitJNI.CaseDbHandle caseHandle; // Not currently used.
 	private int versionNumber;
 	private String dbBackupPath;
-	private long nextArtifactId; // Used to ensure artifact ids come from the desired range.
+	private final Map<String, Long> schemaUpgradeStepTimes = new LinkedHashMap<String, Long>(); // Time of each step of the schema upgrade done on open.
+	private final IdAllocator artifactIds; // Used to ensure artifact ids come from the desired range.
+	private volatile boolean attributeTextIndexExists; // True when the blackboard_attributes_fts full-text index has been built.
+	private boolean readersBlockCommits; // True if the database is not in write-ahead log mode, set on open by initJournalMode().
 
 	// This read/write lock is used to implement a layer of locking on top of 
 	// the locking protocol provided by the underlying SQLite database. The Java
@@ -81,25 +133,78 @@ public class SleuthkitCase {
 	// understood. Note that the lock is contructed to use a fairness policy.
 	private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock(true);
 
+	/**
+	 * The parts of the case database that are changed independently. A method
+	 * that changes the case database holds the shared case lock and the lock
+	 * of its domain, rather than the exclusive case lock, so that reads, which
+	 * hold only the shared case lock, do not wait for changes, and a change in
+	 * one domain does not hold up the in-memory state of another.
+	 *
+	 * Lock ordering: the case lock (shared or exclusive) is taken first, then
+	 * the domain locks in the order of this enum, then the database write
+	 * lock, and no lock is taken while holding one that comes after it. SQLite
+	 * allows one writer per database, and a writer that waits for another
+	 * inside a transaction can spin forever, so the connections hold the
+	 * database write lock from the start of a transaction to its end, and
+	 * around each update made outside one. The domain locks cover the work of
+	 * a change outside the database, such as loading objects and updating
+	 * caches, which changes of different domains do at the same time. Reads do
+	 * not keep changes from being committed because the database is in
+	 * write-ahead log mode; if it cannot be, see initJournalMode(), changes
+	 * take the exclusive case lock instead of the shared one.
+	 */
+	private enum LockDomain {
+
+		OBJECTS, ///< Objects, the file tree, the file and image paths and the timeline events of files.
+		BLACKBOARD, ///< Artifacts, attributes, their types and counts and the timeline events of artifacts.
+		TAGS, ///< Tag names and tags.
+		REPORTS, ///< Reports.
+		HASHES; ///< The MD5 hashes and known status of files.
+		private final String lockName = name().toLowerCase();
+		private final String timerName = "lock." + lockName + ".wait"; //NON-NLS
+	}
+	private final Map<LockDomain, ReentrantLock> domainLocks = new EnumMap<LockDomain, ReentrantLock>(LockDomain.class);
+	private final ReentrantLock dbWriteLock = new ReentrantLock(true); // Held by CaseDbConnection while it writes, since SQLite allows one writer.
+	private final Object writeBehindLock = new Object();
+	private volatile WriteBehindQueue writeBehindQueue; // Set while queued writes are on, see startWriteBehind(). Changed under writeBehindLock.
+
 	/**
 	 * Private constructor, clients must use newCase() or openCase() method to
 	 * create an instance of this class.
 	 *
-	 * @param dbPath The full path to a SQLite case database file.
+	 * @param backend The database system the case database is kept in.
+	 * @param dbDirPath The directory of the case.
 	 * @param caseHandle A handle to a case database object in the native code
-	 * SleuthKit layer.
+	 * SleuthKit layer, or null if the case database is not a SQLite file.
 	 * @throws Exception
 	 */
-	private SleuthkitCase(String dbPath, SleuthkitJNI.CaseDbHandle caseHandle) throws Exception {
-		Class.forName("org.sqlite.JDBC");
-		this.dbPath = dbPath;
-		this.dbDirPath = new java.io.File(dbPath).getParentFile().getAbsolutePath();
+	private SleuthkitCase(CaseDbBackend backend, String dbDirPath, SleuthkitJNI.CaseDbHandle caseHandle) throws Exception {
+		for (LockDomain domain : LockDomain.values()) {
+			domainLocks.put(domain, new ReentrantLock(true));
+		}
+		this.backend = backend;
+		this.dbPath = backend.getName();
+		this.dbDirPath = dbDirPath;
 		this.caseHandle = caseHandle;
+		if (backend.isShared()) {
+			this.artifactIds = new IdAllocator(new IdAllocator.BlockSource() {
+				@Override
+				public long nextBlock() throws TskCoreException {
+					return nextArtifactIdBlock();
+				}
+			}, backend.getArtifactIdBlockSize());
+		} else {
+			this.artifactIds = new IdAllocator();
+		}
+		initJournalMode();
 		initBlackboardArtifactTypes();
 		initBlackboardAttributeTypes();
-		initNextArtifactId();
+		if (!backend.isShared()) {
+			initNextArtifactId();
+		}
 		updateDatabaseSchema();
-		logSQLiteJDBCDriverInfo();
+		initFilePathIndex();
+		initAttributeTextIndexExists();
 	}
 
 	/**
@@ -112,11 +217,15 @@ private void initBlackboardArtifactTypes() throws SQLException, TskCoreException
 		Statement statement = null;
 		ResultSet resultSet = null;
 		try {
+			// another process opening a shared case database may add the
+			// types at the same time
+			String onConflict = backend.supportsUpsert() ? " ON CONFLICT DO NOTHING" : ""; //NON-NLS
 			statement = connection.createStatement();
 			for (ARTIFACT_TYPE type : ARTIFACT_TYPE.values()) {
 				resultSet = connection.executeQuery(statement, "SELECT COUNT(*) from blackboard_artifact_types WHERE artifact_type_id = '" + type.getTypeID() + "'"); //NON-NLS
+				resultSet.next();
 				if (resultSet.getLong(1) == 0) {
-					connection.executeUpdate(statement, "INSERT INTO blackboard_artifact_types (artifact_type_id, type_name, display_name) VALUES (" + type.getTypeID() + " , '" + type.getLabel() + "', '" + type.getDisplayName() + "')"); //NON-NLS
+					connection.executeUpdate(statement, "INSERT INTO blackboard_artifact_types (artifact_type_id, type_name, display_name) VALUES (" + type.getTypeID() + " , '" + type.getLabel() + "', '" + type.getDisplayName() + "')" + onConflict); //NON-NLS
 				}
 				resultSet.close();
 				resultSet = null;
@@ -138,11 +247,13 @@ private void initBlackboardAttributeTypes() throws SQLException, TskCoreExceptio
 		Statement statement = null;
 		ResultSet resultSet = null;
 		try {
+			String onConflict = backend.supportsUpsert() ? " ON CONFLICT DO NOTHING" : ""; //NON-NLS
 			statement = connection.createStatement();
 			for (ATTRIBUTE_TYPE type : ATTRIBUTE_TYPE.values()) {
 				resultSet = connection.executeQuery(statement, "SELECT COUNT(*) from blackboard_attribute_types WHERE attribute_type_id = '" + type.getTypeID() + "'"); //NON-NLS
+				resultSet.next();
 				if (resultSet.getLong(1) == 0) {
-					connection.executeUpdate(statement, "INSERT INTO blackboard_attribute_types (attribute_type_id, type_name, display_name) VALUES (" + type.getTypeID() + ", '" + type.getLabel() + "', '" + type.getDisplayName() + "')"); //NON-NLS
+					connection.executeUpdate(statement, "INSERT INTO blackboard_attribute_types (attribute_type_id, type_name, display_name) VALUES (" + type.getTypeID() + ", '" + type.getLabel() + "', '" + type.getDisplayName() + "')" + onConflict); //NON-NLS
 				}
 				resultSet.close();
 				resultSet = null;
@@ -154,7 +265,68 @@ private void initBlackboardAttributeTypes() throws SQLException, TskCoreExceptio
 	}
 
 	/**
-	 * Initialize the next artifact id. If there are entries in the 
+	 * Make sure the index used by the exact path lookups of
+	 * findFilesByExactPath() exists. Case databases created by older versions
+	 * of the native code do not have it.
+	 *
+	 * @throws SQLException
+	 */
+	private void initFilePathIndex() throws SQLException, TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		Statement statement = null;
+		try {
+			statement = connection.createStatement();
+			connection.executeUpdate(statement, "CREATE INDEX IF NOT EXISTS files_fsObjId_path_name ON tsk_files(fs_obj_id, parent_path COLLATE NOCASE, name COLLATE NOCASE)"); //NON-NLS
+		} finally {
+			closeStatement(statement);
+		}
+	}
+
+	/**
+	 * Find out whether the optional full-text index of the string attributes
+	 * has been built for this case (see rebuildAttributeTextIndex()).
+	 *
+	 * @throws SQLException
+	 */
+	private void initAttributeTextIndexExists() throws SQLException, TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		attributeTextIndexExists = backend.supportsAttributeTextIndex() && tableExists(connection, "blackboard_attributes_fts"); //NON-NLS
+	}
+
+	/**
+	 * Find out whether a table exists in the case database.
+	 *
+	 * @param connection a connection of the case
+	 * @param tableName the name of the table, in lower case
+	 * @return true if the table exists
+	 * @throws SQLException
+	 */
+	private static boolean tableExists(CaseDbConnection connection, String tableName) throws SQLException {
+		ResultSet resultSet = connection.getConnection().getMetaData().getTables(null, null, tableName, null);
+		try {
+			return resultSet.next();
+		} finally {
+			resultSet.close();
+		}
+	}
+
+	/**
+	 * Set up the case database so that readers do not block writers from
+	 * committing, so that changes only take the shared case lock, see
+	 * CaseDbBackend.enableConcurrentCommits(). If it cannot be, open result
+	 * sets keep changes from being committed, and changes take the exclusive
+	 * case lock instead.
+	 *
+	 * @throws SQLException
+	 * @throws TskCoreException
+	 */
+	private void initJournalMode() throws SQLException, TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		readersBlockCommits = !backend.enableConcurrentCommits(connection.getConnection());
+	}
+
+	/**
+	 * Initialize the artifact id allocator. If there are entries in the 
 	 * blackboard_artifacts table we will use max(artifact_id) + 1
 	 * otherwise we will initialize the value to 0x8000000000000000
 	 * (the maximum negative signed long).
@@ -168,19 +340,41 @@ private void initNextArtifactId() throws TskCoreException, SQLException {
 		try {
 			statement = connection.createStatement();
 			resultSet = connection.executeQuery(statement, "SELECT MAX(artifact_id) FROM blackboard_artifacts");
-			this.nextArtifactId = resultSet.getLong(1) + 1;
-			if (this.nextArtifactId == 1) {
-				this.nextArtifactId = BASE_ARTIFACT_ID;
+			resultSet.next();
+			long nextArtifactId = resultSet.getLong(1) + 1;
+			if (nextArtifactId == 1) {
+				nextArtifactId = BASE_ARTIFACT_ID;
 			}
+			artifactIds.init(nextArtifactId);
 		} finally {
 			closeResultSet(resultSet);
 			closeStatement(statement);
 		}		
 	}
 	
+	/**
+	 * Take a block of artifact ids from a case database shared with other
+	 * processes, see CaseDbBackend.nextArtifactIdBlock().
+	 *
+	 * @return the first id of the block
+	 * @throws TskCoreException
+	 */
+	private long nextArtifactIdBlock() throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		try {
+			return backend.nextArtifactIdBlock(connection.getConnection());
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error taking a block of artifact ids", ex); //NON-NLS
+		}
+	}
+
 	/**
 	 * Modify the case database to bring it up-to-date with the current version
-	 * of the database schema.
+	 * of the database schema. Each upgrade is a list of steps (see
+	 * getSchemaUpgradeSteps()) that are run in their own transactions and
+	 * checkpointed in the tsk_schema_upgrade_steps table, so an upgrade that
+	 * is killed part way resumes at the step it was in when the case is
+	 * opened again.
 	 *
 	 * @throws Exception
 	 */
@@ -189,8 +383,6 @@ private void updateDatabaseSchema() throws Exception {
 		ResultSet resultSet = null;
 		Statement statement = null;
 		try {
-			connection.beginTransaction();
-
 			// Get the schema version number of the case database from the tsk_db_info table.
 			int schemaVersionNumber = SCHEMA_VERSION_NUMBER;
 			statement = connection.createStatement();
@@ -201,219 +393,509 @@ private void updateDatabaseSchema() throws Exception {
 			resultSet.close();
 			resultSet = null;
 
-			// Do the schema update(s), if needed.
+			// Do the schema update(s), if needed. Databases on a server are
+			// made with the current schema, and have no upgrade steps yet.
+			if (SCHEMA_VERSION_NUMBER != schemaVersionNumber && backend.getType() != TskData.DbType.SQLITE) {
+				throw new TskCoreException("Case database " + dbPath + " has schema version " + schemaVersionNumber + ", not " + SCHEMA_VERSION_NUMBER); //NON-NLS
+			}
 			if (SCHEMA_VERSION_NUMBER != schemaVersionNumber) {
 				// Make a backup copy of the database. Client code can get the path of the backup
-				// using the getBackupDatabasePath() method.
+				// using the getBackupDatabasePath() method. When resuming an upgrade, the 
+				// backup made by the first attempt is kept since the database is now part way upgraded.
+				// The table of the finished steps is only made after the first backup, so that
+				// the backup is the database as it was before the upgrade.
 				String backupFilePath = dbPath + ".schemaVer" + schemaVersionNumber + ".backup"; //NON-NLS
-				copyCaseDB(backupFilePath);
+				boolean resuming = false;
+				if (tableExists(connection, "tsk_schema_upgrade_steps")) { //NON-NLS
+					resultSet = connection.executeQuery(statement, "SELECT COUNT(*) FROM tsk_schema_upgrade_steps WHERE schema_ver = " + schemaVersionNumber); //NON-NLS
+					resultSet.next();
+					resuming = resultSet.getLong(1) > 0;
+					resultSet.close();
+					resultSet = null;
+				}
+				if (!resuming || !new File(backupFilePath).exists()) {
+					copyCaseDB(backupFilePath);
+				}
 				dbBackupPath = backupFilePath;
+				connection.executeUpdate(statement, "CREATE TABLE IF NOT EXISTS tsk_schema_upgrade_steps (schema_ver INTEGER NOT NULL, step INTEGER NOT NULL, name TEXT NOT NULL, duration_ms INTEGER NOT NULL, PRIMARY KEY (schema_ver, step))"); //NON-NLS
 
-				// ***CALL SCHEMA UPDATE METHODS HERE***
-				// Each method should examine the schema number passed to it and either:
-				//    a. do nothing and return the schema version number unchanged, or
-				//    b. upgrade the database and then increment and return the schema version number.
-				schemaVersionNumber = updateFromSchema2toSchema3(schemaVersionNumber);
+				// Run the steps of each upgrade until the schema is current.
+				while (schemaVersionNumber < SCHEMA_VERSION_NUMBER) {
+					List<SchemaUpgradeStep> steps = getSchemaUpgradeSteps(schemaVersionNumber);
+					if (steps.isEmpty()) {
+						break;
+					}
+					for (int i = 0; i < steps.size(); i++) {
+						runSchemaUpgradeStep(connection, statement, schemaVersionNumber, i, steps.get(i));
+					}
 
-				// Write the updated schema version number to the the tsk_db_info table.
-				connection.executeUpdate(statement, "UPDATE tsk_db_info SET schema_ver = " + schemaVersionNumber); //NON-NLS
+					// Write the updated schema version number to the the tsk_db_info table.
+					schemaVersionNumber++;
+					connection.executeUpdate(statement, "UPDATE tsk_db_info SET schema_ver = " + schemaVersionNumber); //NON-NLS
+				}
 			}
 			versionNumber = schemaVersionNumber;
-
-			connection.commitTransaction();
-		} catch (Exception ex) { // Cannot do exception multi-catch in Java 6, so use catch-all.
-			connection.rollbackTransaction();
-			throw ex;
 		} finally {
 			closeResultSet(resultSet);
 			closeStatement(statement);
 		}
 	}
 
+	/**
+	 * One step of a schema upgrade. A step is made of set-based SQL statements
+	 * that are run in one transaction, together with the record that the step
+	 * is done. A step that changes a large number of rows can do them in
+	 * batches, each in its own transaction, by returning false from run()
+	 * until there is nothing left to do; the statements must then only pick
+	 * rows that still need the change, so that the step can be resumed.
+	 */
+	private static abstract class SchemaUpgradeStep {
+
+		private final String name;
+
+		SchemaUpgradeStep(String name) {
+			this.name = name;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		/**
+		 * Do the step, or the next batch of the step.
+		 *
+		 * @param connection connection with an open transaction
+		 * @param statement statement to use
+		 * @return true if the step is done, false to be called again in a
+		 * new transaction
+		 * @throws SQLException
+		 */
+		abstract boolean run(CaseDbConnection connection, Statement statement) throws SQLException;
+	}
+
+	/**
+	 * A schema upgrade step that runs a fixed list of statements in one
+	 * transaction.
+	 */
+	private static class SqlSchemaUpgradeStep extends SchemaUpgradeStep {
+
+		private final String[] statements;
+
+		SqlSchemaUpgradeStep(String name, String... statements) {
+			super(name);
+			this.statements = statements;
+		}
+
+		@Override
+		boolean run(CaseDbConnection connection, Statement statement) throws SQLException {
+			for (String sql : statements) {
+				connection.executeUpdate(statement, sql);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A schema upgrade step that repeats an update, one transaction at a time,
+	 * until it changes no rows. The update should change at most
+	 * SCHEMA_UPGRADE_BATCH_SIZE rows that still need the change.
+	 */
+	private static class BatchedSchemaUpgradeStep extends SchemaUpgradeStep {
+
+		private final String update;
+
+		BatchedSchemaUpgradeStep(String name, String update) {
+			super(name);
+			this.update = update;
+		}
+
+		@Override
+		boolean run(CaseDbConnection connection, Statement statement) throws SQLException {
+			return connection.executeUpdate(statement, update) == 0;
+		}
+	}
+
+	/**
+	 * Run one step of a schema upgrade, unless a previous attempt at the
+	 * upgrade already finished it, and record how long it took.
+	 *
+	 * @param connection connection to the case database
+	 * @param statement statement to use
+	 * @param schemaVersionNumber version the upgrade starts from
+	 * @param stepNumber position of the step in the upgrade
+	 * @param step the step
+	 * @throws SQLException
+	 */
+	private void runSchemaUpgradeStep(CaseDbConnection connection, Statement statement, int schemaVersionNumber, int stepNumber, SchemaUpgradeStep step) throws SQLException {
+		ResultSet resultSet = connection.executeQuery(statement, "SELECT COUNT(*) FROM tsk_schema_upgrade_steps WHERE schema_ver = " + schemaVersionNumber + " AND step = " + stepNumber); //NON-NLS
+		resultSet.next();
+		boolean done = resultSet.getLong(1) > 0;
+		resultSet.close();
+		if (done) {
+			logger.log(Level.INFO, "Schema upgrade from version {0}: step {1} ({2}) was done by a previous attempt", new Object[]{schemaVersionNumber, stepNumber, step.getName()}); //NON-NLS
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		int batches = 0;
+		while (!done) {
+			connection.beginTransaction();
+			try {
+				done = step.run(connection, statement);
+				batches++;
+				if (done) {
+					long duration = System.currentTimeMillis() - startTime;
+					PreparedStatement insert = connection.prepareStatement("INSERT INTO tsk_schema_upgrade_steps (schema_ver, step, name, duration_ms) VALUES (?, ?, ?, ?)"); //NON-NLS
+					try {
+						insert.setInt(1, schemaVersionNumber);
+						insert.setInt(2, stepNumber);
+						insert.setString(3, step.getName());
+						insert.setLong(4, duration);
+						connection.executeUpdate(insert);
+					} finally {
+						closeStatement(insert);
+					}
+					schemaUpgradeStepTimes.put(schemaVersionNumber + "." + stepNumber + " " + step.getName(), duration); //NON-NLS
+					logger.log(Level.INFO, "Schema upgrade from version {0}: step {1} ({2}) took {3} ms in {4} transaction(s)", new Object[]{schemaVersionNumber, stepNumber, step.getName(), duration, batches}); //NON-NLS
+				}
+				connection.commitTransaction();
+			} catch (SQLException ex) {
+				connection.rollbackTransaction();
+				throw ex;
+			}
+		}
+	}
+
+	/**
+	 * Get the steps that upgrade the case database schema from the given
+	 * version to the next one. The order of the steps of a version must not
+	 * change once released, since it is used to resume an upgrade.
+	 *
+	 * @param schemaVersionNumber The schema version number of the database.
+	 * @return The steps, or an empty list if there is no upgrade from the
+	 * given version.
+	 */
+	private List<SchemaUpgradeStep> getSchemaUpgradeSteps(int schemaVersionNumber) {
+		List<SchemaUpgradeStep> steps = new ArrayList<SchemaUpgradeStep>();
+		if (schemaVersionNumber == 2) {
+			addSchema2toSchema3Steps(steps);
+		} else if (schemaVersionNumber == 3) {
+			addSchema3toSchema4Steps(steps);
+		} else if (schemaVersionNumber == 4) {
+			addSchema4toSchema5Steps(steps);
+		} else if (schemaVersionNumber == 5) {
+			addSchema5toSchema6Steps(steps);
+		}
+		return steps;
+	}
+
+	/**
+	 * Get the time taken by each step of the schema upgrade done when the case
+	 * was opened.
+	 *
+	 * @return Map of step (schema version, step number and name) to
+	 * milliseconds, in the order the steps were run. Empty if there was no
+	 * upgrade.
+	 */
+	public Map<String, Long> getSchemaUpgradeStepTimes() {
+		return Collections.unmodifiableMap(schemaUpgradeStepTimes);
+	}
+
 	/**
 	 * Make a duplicate / backup copy of the current case database. Makes a new
-	 * copy only, and continues to use the current connection.
+	 * copy only, and continues to use the current connection. The copy is made
+	 * with backupCaseDB(), so the case database stays usable while it is
+	 * made.
 	 *
 	 * @param newDBPath Path to the copy to be created. File will be overwritten
 	 * if it exists.
 	 * @throws IOException if copying fails.
 	 */
 	public void copyCaseDB(String newDBPath) throws IOException {
-		InputStream in = null;
-		OutputStream out = null;
-		acquireExclusiveLock();
 		try {
-			InputStream inFile = new FileInputStream(dbPath);
-			in = new BufferedInputStream(inFile);
-			OutputStream outFile = new FileOutputStream(newDBPath);
-			out = new BufferedOutputStream(outFile);
-			int bytesRead = 0;
-			while ((bytesRead = in.read()) != -1) {
-				out.write(bytesRead);
-			}
-		} finally {
-			try {
-				if (in != null) {
-					in.close();
-				}
-				if (out != null) {
-					out.flush();
-					out.close();
-				}
-			} catch (IOException e) {
-				logger.log(Level.WARNING, "Could not close streams after db copy", e); //NON-NLS
-			}
-			releaseExclusiveLock();
+			backupCaseDB(newDBPath, DEFAULT_BACKUP_PAGES_PER_STEP, 0, null);
+		} catch (TskCoreException ex) {
+			throw new IOException("Error copying case database to " + newDBPath, ex); //NON-NLS
 		}
 	}
 
 	/**
-	 * Write some SQLite JDBC driver details to the log file.
+	 * Receives the progress of backupCaseDB().
 	 */
-	private void logSQLiteJDBCDriverInfo() {
-		try {
-			SleuthkitCase.logger.info(String.format("sqlite-jdbc version %s loaded in %s mode", //NON-NLS
-					SQLiteJDBCLoader.getVersion(), SQLiteJDBCLoader.isNativeMode()
-							? "native" : "pure-java")); //NON-NLS		
-		} catch (Exception ex) {
-			SleuthkitCase.logger.log(Level.SEVERE, "Error querying case database mode", ex);
-		}
+	public interface BackupProgressObserver {
+
+		/**
+		 * Called after each step of a backup. Return false to cancel the
+		 * backup, which leaves an incomplete copy.
+		 *
+		 * @param pagesRemaining number of database pages still to be copied
+		 * @param pageCount number of pages in the case database
+		 * @return true to continue the backup, false to cancel it
+		 */
+		boolean progress(int pagesRemaining, int pageCount);
 	}
 
 	/**
-	 * Update a version 2 database schema to a version 3 database schema.
+	 * Make a backup copy of the case database with the SQLite online backup
+	 * API. The pages of the database are copied a few at a time, and readers
+	 * and writers can use the case between steps. If the case is changed
+	 * between steps, SQLite restarts the copy; after a few restarts the
+	 * remaining pages are copied in one step.
 	 *
-	 * @param schemaVersionNumber The schema version number of the database.
-	 * @return 3, if the input database schema version number was 2.
-	 * @throws SQLException
-	 * @throws TskCoreException
+	 * @param newDBPath Path to the copy to be created. File will be overwritten
+	 * if it exists.
+	 * @param pagesPerStep Number of pages to copy per step (must be positive)
+	 * @param pauseMillis Milliseconds to wait between steps to limit the load
+	 * on the case (0 for no wait)
+	 * @param observer Receives the progress after each step, may be null
+	 * @return true if the backup was made, false if the observer cancelled it
+	 * @throws TskCoreException if the backup could not be made, or the case
+	 * database is not a SQLite file
 	 */
-	@SuppressWarnings("deprecation")
-	private int updateFromSchema2toSchema3(int schemaVersionNumber) throws SQLException, TskCoreException {
-		if (schemaVersionNumber != 2) {
-			return schemaVersionNumber;
+	public boolean backupCaseDB(String newDBPath, int pagesPerStep, long pauseMillis, BackupProgressObserver observer) throws TskCoreException {
+		if (pagesPerStep <= 0) {
+			throw new IllegalArgumentException("pagesPerStep must be positive"); //NON-NLS
+		}
+		if (pauseMillis < 0) {
+			throw new IllegalArgumentException("pauseMillis must not be negative"); //NON-NLS
+		}
+		if (caseHandle == null) {
+			throw new TskCoreException("Only SQLite case databases can be backed up, " + dbPath + " is kept in " + backend.getType()); //NON-NLS
 		}
 
-		CaseDbConnection connection = connections.getConnection();
-		Statement statement = null;
-		Statement updateStatement = null;
-		ResultSet resultSet = null;
-		try {
-			statement = connection.createStatement();
-
-			// Add new tables for tags.
-			statement.execute("CREATE TABLE tag_names (tag_name_id INTEGER PRIMARY KEY, display_name TEXT UNIQUE, description TEXT NOT NULL, color TEXT NOT NULL)"); //NON-NLS
-			statement.execute("CREATE TABLE content_tags (tag_id INTEGER PRIMARY KEY, obj_id INTEGER NOT NULL, tag_name_id INTEGER NOT NULL, comment TEXT NOT NULL, begin_byte_offset INTEGER NOT NULL, end_byte_offset INTEGER NOT NULL)"); //NON-NLS
-			statement.execute("CREATE TABLE blackboard_artifact_tags (tag_id INTEGER PRIMARY KEY, artifact_id INTEGER NOT NULL, tag_name_id INTEGER NOT NULL, comment TEXT NOT NULL)"); //NON-NLS
-
-			// Add a new table for reports.
-			statement.execute("CREATE TABLE reports (report_id INTEGER PRIMARY KEY, path TEXT NOT NULL, crtime INTEGER NOT NULL, src_module_name TEXT NOT NULL, report_name TEXT NOT NULL)"); //NON-NLS
-
-			// Add new columns to the image info table.
-			statement.execute("ALTER TABLE tsk_image_info ADD COLUMN size INTEGER;"); //NON-NLS
-			statement.execute("ALTER TABLE tsk_image_info ADD COLUMN md5 TEXT;"); //NON-NLS
-			statement.execute("ALTER TABLE tsk_image_info ADD COLUMN display_name TEXT;"); //NON-NLS
-
-			// Add a new column to the file system info table.
-			statement.execute("ALTER TABLE tsk_fs_info ADD COLUMN display_name TEXT;"); //NON-NLS
-
-			// Add a new column to the file table.
-			statement.execute("ALTER TABLE tsk_files ADD COLUMN meta_seq INTEGER;"); //NON-NLS
-
-			// Add new columns and indexes to the attributes table and populate the
-			// new column. Note that addition of the new column is a denormalization 
-			// to optimize attribute queries.
-			statement.execute("ALTER TABLE blackboard_attributes ADD COLUMN artifact_type_id INTEGER NULL NOT NULL DEFAULT -1;"); //NON-NLS
-			statement.execute("CREATE INDEX attribute_artifactTypeId ON blackboard_attributes(artifact_type_id);"); //NON-NLS
-			statement.execute("CREATE INDEX attribute_valueText ON blackboard_attributes(value_text);"); //NON-NLS
-			statement.execute("CREATE INDEX attribute_valueInt32 ON blackboard_attributes(value_int32);"); //NON-NLS
-			statement.execute("CREATE INDEX attribute_valueInt64 ON blackboard_attributes(value_int64);"); //NON-NLS
-			statement.execute("CREATE INDEX attribute_valueDouble ON blackboard_attributes(value_double);"); //NON-NLS
-			resultSet = statement.executeQuery(
-					"SELECT attrs.artifact_id, arts.artifact_type_id " + //NON-NLS
-					"FROM blackboard_attributes AS attrs " + //NON-NLS
-					"INNER JOIN blackboard_artifacts AS arts " + //NON-NLS
-					"WHERE attrs.artifact_id = arts.artifact_id;"); //NON-NLS
-			updateStatement = connection.createStatement();
-			while (resultSet.next()) {
-				long artifactId = resultSet.getLong(1);
-				int artifactTypeId = resultSet.getInt(2);
-				updateStatement.executeUpdate(
-						"UPDATE blackboard_attributes " + //NON-NLS
-						"SET artifact_type_id = " + artifactTypeId + " " + //NON-NLS
-						"WHERE blackboard_attributes.artifact_id = " + artifactId + ";"); //NON-NLS					
-			}
-			resultSet.close();
-			resultSet = null;
+		// the old copy would be opened as the destination database, so remove it
+		File newDBFile = new File(newDBPath);
+		if (newDBFile.exists() && !newDBFile.delete()) {
+			throw new TskCoreException("Could not replace existing file " + newDBPath); //NON-NLS
+		}
 
-			// Convert existing tag artifact and attribute rows to rows in the new tags tables.
-			// TODO: This code depends on prepared statements that could evolve with
-			// time, breaking this upgrade. The code that follows should be rewritten 
-			// to do everything with SQL specific to case database schema version 2.
-			HashMap<String, TagName> tagNames = new HashMap<String, TagName>();
-			for (BlackboardArtifact artifact : getBlackboardArtifacts(ARTIFACT_TYPE.TSK_TAG_FILE)) {
-				Content content = getContentById(artifact.getObjectID());
-				String name = ""; //NON-NLS
-				String comment = ""; //NON-NLS
-				ArrayList<BlackboardAttribute> attributes = getBlackboardAttributes(artifact);
-				for (BlackboardAttribute attribute : attributes) {
-					if (attribute.getAttributeTypeID() == ATTRIBUTE_TYPE.TSK_TAG_NAME.getTypeID()) {
-						name = attribute.getValueString();
-					} else if (attribute.getAttributeTypeID() == ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID()) {
-						comment = attribute.getValueString();
-					}
+		long backup = SleuthkitJNI.openCaseDbBackup(dbPath, newDBPath);
+		boolean finished = false;
+		try {
+			int restarts = 0;
+			int lastRemaining = Integer.MAX_VALUE;
+			while (!finished) {
+				// changes of this case take only the shared lock and domain
+				// locks, so they can be committed during a step and restart
+				// the copy, which MAX_BACKUP_RESTARTS bounds; the shared lock
+				// keeps the step from running while the exclusive lock is
+				// held, which changes take if readers block commits
+				int[] progress;
+				acquireSharedLock();
+				try {
+					int numPages = (restarts < MAX_BACKUP_RESTARTS) ? pagesPerStep : -1;
+					progress = SleuthkitJNI.stepCaseDbBackup(backup, numPages);
+				} finally {
+					releaseSharedLock();
 				}
-				if (!name.isEmpty()) {
-					TagName tagName;
-					if (tagNames.containsKey(name)) {
-						tagName = tagNames.get(name);
-					} else {
-						tagName = addTagName(name, "", TagName.HTML_COLOR.NONE); //NON-NLS
-						tagNames.put(name, tagName);
-					}
-					addContentTag(content, tagName, comment, 0, content.getSize() - 1);
+				finished = (progress[0] != 0);
+				if (progress[1] > lastRemaining) {
+					restarts++;
 				}
-			}
-			for (BlackboardArtifact artifact : getBlackboardArtifacts(ARTIFACT_TYPE.TSK_TAG_ARTIFACT)) {
-				long taggedArtifactId = -1;
-				String name = ""; //NON-NLS
-				String comment = ""; //NON-NLS
-				ArrayList<BlackboardAttribute> attributes = getBlackboardAttributes(artifact);
-				for (BlackboardAttribute attribute : attributes) {
-					if (attribute.getAttributeTypeID() == ATTRIBUTE_TYPE.TSK_TAG_NAME.getTypeID()) {
-						name = attribute.getValueString();
-					} else if (attribute.getAttributeTypeID() == ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID()) {
-						comment = attribute.getValueString();
-					} else if (attribute.getAttributeTypeID() == ATTRIBUTE_TYPE.TSK_TAGGED_ARTIFACT.getTypeID()) {
-						taggedArtifactId = attribute.getValueLong();
-					}
+				lastRemaining = progress[1];
+
+				if (observer != null && !observer.progress(progress[1], progress[2])) {
+					return false;
 				}
-				if (taggedArtifactId != -1 && !name.isEmpty()) {
-					TagName tagName;
-					if (tagNames.containsKey(name)) {
-						tagName = tagNames.get(name);
-					} else {
-						tagName = addTagName(name, "", TagName.HTML_COLOR.NONE); //NON-NLS
-						tagNames.put(name, tagName);
+				if (!finished && pauseMillis > 0) {
+					try {
+						Thread.sleep(pauseMillis);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new TskCoreException("Case database backup interrupted", ex); //NON-NLS
 					}
-					addBlackboardArtifactTag(getBlackboardArtifact(taggedArtifactId), tagName, comment);
 				}
 			}
-			statement.execute(
-					"DELETE FROM blackboard_attributes WHERE artifact_id IN " + //NON-NLS
-					"(SELECT artifact_id FROM blackboard_artifacts WHERE artifact_type_id = " + ARTIFACT_TYPE.TSK_TAG_FILE.getTypeID() + //NON-NLS
-					" OR artifact_type_id = " + ARTIFACT_TYPE.TSK_TAG_ARTIFACT.getTypeID() + ");"); //NON-NLS
-			statement.execute(
-					"DELETE FROM blackboard_artifacts WHERE " + //NON-NLS
-					"artifact_type_id = " + ARTIFACT_TYPE.TSK_TAG_FILE.getTypeID() + //NON-NLS	
-					" OR artifact_type_id = " + ARTIFACT_TYPE.TSK_TAG_ARTIFACT.getTypeID() + ";"); //NON-NLS
-
-			return 3;
 		} finally {
-			closeStatement(updateStatement);
-			closeResultSet(resultSet);
-			closeStatement(statement);
+			try {
+				SleuthkitJNI.closeCaseDbBackup(backup);
+			} catch (TskCoreException ex) {
+				if (finished) {
+					throw ex;
+				}
+				logger.log(Level.WARNING, "Could not close unfinished case database backup", ex); //NON-NLS
+			}
 		}
+		return true;
+	}
+
+	/**
+	 * Add the steps that update a version 2 database schema to a version 3
+	 * database schema. The tag artifacts and attributes of version 2 are
+	 * converted to rows in the new tags tables with set-based SQL that only
+	 * uses the version 2 schema.
+	 *
+	 * @param steps The list to add the steps to.
+	 */
+	@SuppressWarnings("deprecation")
+	private void addSchema2toSchema3Steps(List<SchemaUpgradeStep> steps) {
+		final String tagArtifactTypes = "(" + ARTIFACT_TYPE.TSK_TAG_FILE.getTypeID() + ", " + ARTIFACT_TYPE.TSK_TAG_ARTIFACT.getTypeID() + ")"; //NON-NLS
+		final String tagNameOf = "(SELECT value_text FROM blackboard_attributes AS attrs WHERE attrs.artifact_id = arts.artifact_id AND attrs.attribute_type_id = " + ATTRIBUTE_TYPE.TSK_TAG_NAME.getTypeID() + " LIMIT 1)"; //NON-NLS
+		final String commentOf = "COALESCE((SELECT value_text FROM blackboard_attributes AS attrs WHERE attrs.artifact_id = arts.artifact_id AND attrs.attribute_type_id = " + ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID() + " LIMIT 1), '')"; //NON-NLS
+
+		// Add new tables for tags and reports.
+		steps.add(new SqlSchemaUpgradeStep("Create tag and report tables", //NON-NLS
+				"CREATE TABLE tag_names (tag_name_id INTEGER PRIMARY KEY, display_name TEXT UNIQUE, description TEXT NOT NULL, color TEXT NOT NULL)", //NON-NLS
+				"CREATE TABLE content_tags (tag_id INTEGER PRIMARY KEY, obj_id INTEGER NOT NULL, tag_name_id INTEGER NOT NULL, comment TEXT NOT NULL, begin_byte_offset INTEGER NOT NULL, end_byte_offset INTEGER NOT NULL)", //NON-NLS
+				"CREATE TABLE blackboard_artifact_tags (tag_id INTEGER PRIMARY KEY, artifact_id INTEGER NOT NULL, tag_name_id INTEGER NOT NULL, comment TEXT NOT NULL)", //NON-NLS
+				"CREATE TABLE reports (report_id INTEGER PRIMARY KEY, path TEXT NOT NULL, crtime INTEGER NOT NULL, src_module_name TEXT NOT NULL, report_name TEXT NOT NULL)")); //NON-NLS
+
+		// Add new columns to the image info, file system info and file tables.
+		steps.add(new SqlSchemaUpgradeStep("Add image, file system and file columns", //NON-NLS
+				"ALTER TABLE tsk_image_info ADD COLUMN size INTEGER;", //NON-NLS
+				"ALTER TABLE tsk_image_info ADD COLUMN md5 TEXT;", //NON-NLS
+				"ALTER TABLE tsk_image_info ADD COLUMN display_name TEXT;", //NON-NLS
+				"ALTER TABLE tsk_fs_info ADD COLUMN display_name TEXT;", //NON-NLS
+				"ALTER TABLE tsk_files ADD COLUMN meta_seq INTEGER;")); //NON-NLS
+
+		// Add new columns and indexes to the attributes table. Note that addition 
+		// of the new column is a denormalization to optimize attribute queries.
+		steps.add(new SqlSchemaUpgradeStep("Add attribute artifact type column and indexes", //NON-NLS
+				"ALTER TABLE blackboard_attributes ADD COLUMN artifact_type_id INTEGER NULL NOT NULL DEFAULT -1;", //NON-NLS
+				"CREATE INDEX attribute_artifactTypeId ON blackboard_attributes(artifact_type_id);", //NON-NLS
+				"CREATE INDEX attribute_valueText ON blackboard_attributes(value_text);", //NON-NLS
+				"CREATE INDEX attribute_valueInt32 ON blackboard_attributes(value_int32);", //NON-NLS
+				"CREATE INDEX attribute_valueInt64 ON blackboard_attributes(value_int64);", //NON-NLS
+				"CREATE INDEX attribute_valueDouble ON blackboard_attributes(value_double);")); //NON-NLS
+
+		// Populate the new column a batch of rows at a time. Rows that are done 
+		// no longer have the default value, which is what makes this resumable.
+		steps.add(new BatchedSchemaUpgradeStep("Populate attribute artifact types", //NON-NLS
+				"UPDATE blackboard_attributes SET artifact_type_id = " + //NON-NLS
+				"(SELECT arts.artifact_type_id FROM blackboard_artifacts AS arts WHERE arts.artifact_id = blackboard_attributes.artifact_id) " + //NON-NLS
+				"WHERE rowid IN (SELECT attrs.rowid FROM blackboard_attributes AS attrs " + //NON-NLS
+				"INNER JOIN blackboard_artifacts AS arts ON attrs.artifact_id = arts.artifact_id " + //NON-NLS
+				"WHERE attrs.artifact_type_id = -1 LIMIT " + SCHEMA_UPGRADE_BATCH_SIZE + ")")); //NON-NLS
+
+		// Convert existing tag artifact and attribute rows to rows in the new tags tables.
+		steps.add(new SqlSchemaUpgradeStep("Convert tag artifacts to tags", //NON-NLS
+				"INSERT INTO tag_names (display_name, description, color) " + //NON-NLS
+				"SELECT DISTINCT attrs.value_text, '', '" + TagName.HTML_COLOR.NONE.getName() + "' FROM blackboard_attributes AS attrs " + //NON-NLS
+				"INNER JOIN blackboard_artifacts AS arts ON attrs.artifact_id = arts.artifact_id " + //NON-NLS
+				"WHERE arts.artifact_type_id IN " + tagArtifactTypes + //NON-NLS
+				" AND attrs.attribute_type_id = " + ATTRIBUTE_TYPE.TSK_TAG_NAME.getTypeID() + //NON-NLS
+				" AND attrs.value_text IS NOT NULL AND attrs.value_text <> ''", //NON-NLS
+				"INSERT INTO content_tags (obj_id, tag_name_id, comment, begin_byte_offset, end_byte_offset) " + //NON-NLS
+				"SELECT arts.obj_id, tag_names.tag_name_id, " + commentOf + ", 0, COALESCE(files.size, 0) - 1 " + //NON-NLS
+				"FROM blackboard_artifacts AS arts " + //NON-NLS
+				"INNER JOIN tag_names ON tag_names.display_name = " + tagNameOf + " " + //NON-NLS
+				"LEFT JOIN tsk_files AS files ON files.obj_id = arts.obj_id " + //NON-NLS
+				"WHERE arts.artifact_type_id = " + ARTIFACT_TYPE.TSK_TAG_FILE.getTypeID(), //NON-NLS
+				"INSERT INTO blackboard_artifact_tags (artifact_id, tag_name_id, comment) " + //NON-NLS
+				"SELECT tagged.artifact_id, tag_names.tag_name_id, " + commentOf + " " + //NON-NLS
+				"FROM blackboard_artifacts AS arts " + //NON-NLS
+				"INNER JOIN tag_names ON tag_names.display_name = " + tagNameOf + " " + //NON-NLS
+				"INNER JOIN blackboard_artifacts AS tagged ON tagged.artifact_id = " + //NON-NLS
+				"(SELECT value_int64 FROM blackboard_attributes AS attrs WHERE attrs.artifact_id = arts.artifact_id AND attrs.attribute_type_id = " + ATTRIBUTE_TYPE.TSK_TAGGED_ARTIFACT.getTypeID() + " LIMIT 1) " + //NON-NLS
+				"WHERE arts.artifact_type_id = " + ARTIFACT_TYPE.TSK_TAG_ARTIFACT.getTypeID(), //NON-NLS
+				"DELETE FROM blackboard_attributes WHERE artifact_id IN " + //NON-NLS
+				"(SELECT artifact_id FROM blackboard_artifacts WHERE artifact_type_id IN " + tagArtifactTypes + ");", //NON-NLS
+				"DELETE FROM blackboard_artifacts WHERE artifact_type_id IN " + tagArtifactTypes + ";")); //NON-NLS
+	}
+
+	/**
+	 * Add the steps that update a version 3 database schema to a version 4
+	 * database schema, which adds the indexed lower case file name column
+	 * used by the file name searches.
+	 *
+	 * @param steps The list to add the steps to.
+	 */
+	private void addSchema3toSchema4Steps(List<SchemaUpgradeStep> steps) {
+		steps.add(new SqlSchemaUpgradeStep("Add lower case file name column", //NON-NLS
+				"ALTER TABLE tsk_files ADD COLUMN name_lower TEXT;")); //NON-NLS
+
+		// Rows that are done no longer have a null lower case name. The index 
+		// is made after the column is filled.
+		steps.add(new BatchedSchemaUpgradeStep("Fill lower case file names", //NON-NLS
+				"UPDATE tsk_files SET name_lower = LOWER(name) " + //NON-NLS
+				"WHERE obj_id IN (SELECT obj_id FROM tsk_files WHERE name_lower IS NULL LIMIT " + SCHEMA_UPGRADE_BATCH_SIZE + ")")); //NON-NLS
+		steps.add(new SqlSchemaUpgradeStep("Index lower case file names", //NON-NLS
+				"CREATE INDEX files_fsObjId_nameLower ON tsk_files(fs_obj_id, name_lower);")); //NON-NLS
+	}
+
+	/**
+	 * Add the steps that update a version 4 database schema to a version 5
+	 * database schema, which adds the timeline event table and fills it with
+	 * the MAC times of the files and the date-time attributes of the
+	 * artifacts.
+	 *
+	 * @param steps The list to add the steps to.
+	 */
+	private void addSchema4toSchema5Steps(List<SchemaUpgradeStep> steps) {
+		// The data source of each object is found one level of the object 
+		// tree at a time, using a work table that is dropped at the end.
+		steps.add(new SqlSchemaUpgradeStep("Add timeline event table", //NON-NLS
+				"CREATE TABLE tsk_events (event_id INTEGER PRIMARY KEY, obj_id INTEGER NOT NULL, data_source_obj_id INTEGER NOT NULL, " //NON-NLS
+				+ "artifact_id INTEGER, event_type INTEGER NOT NULL, attribute_type_id INTEGER, time INTEGER NOT NULL, " //NON-NLS
+				+ "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id));", //NON-NLS
+				"CREATE INDEX events_time ON tsk_events(time);", //NON-NLS
+				"CREATE INDEX events_dataSourceObjId_time ON tsk_events(data_source_obj_id, time);", //NON-NLS
+				"CREATE TABLE tsk_event_data_sources (obj_id INTEGER PRIMARY KEY, data_source_obj_id INTEGER NOT NULL, level INTEGER NOT NULL);", //NON-NLS
+				"CREATE INDEX event_data_sources_level ON tsk_event_data_sources(level);", //NON-NLS
+				"INSERT INTO tsk_event_data_sources (obj_id, data_source_obj_id, level) " //NON-NLS
+				+ "SELECT obj_id, obj_id, 0 FROM tsk_objects WHERE par_obj_id IS NULL;")); //NON-NLS
+
+		// Each batch adds up to SCHEMA_UPGRADE_BATCH_SIZE children of the two 
+		// deepest levels found so far that are not in the table yet, the 
+		// children of the shallower level first. A level with more children 
+		// than a batch is finished by the following batches before the 
+		// children of the next level are added, and there are none left once 
+		// the leaves are reached.
+		steps.add(new BatchedSchemaUpgradeStep("Find data sources of objects", //NON-NLS
+				"INSERT INTO tsk_event_data_sources (obj_id, data_source_obj_id, level) " //NON-NLS
+				+ "SELECT objs.obj_id, ds.data_source_obj_id, ds.level + 1 " //NON-NLS
+				+ "FROM tsk_event_data_sources AS ds INNER JOIN tsk_objects AS objs ON objs.par_obj_id = ds.obj_id " //NON-NLS
+				+ "WHERE ds.level >= (SELECT MAX(level) FROM tsk_event_data_sources) - 1 " //NON-NLS
+				+ "AND objs.obj_id NOT IN (SELECT obj_id FROM tsk_event_data_sources) " //NON-NLS
+				+ "ORDER BY ds.level LIMIT " + SCHEMA_UPGRADE_BATCH_SIZE)); //NON-NLS
+
+		String dateTimeTypes = TimelineEvent.getDateTimeAttributeTypeIdList();
+		steps.add(new SqlSchemaUpgradeStep("Add timeline events", //NON-NLS
+				makeFileEventUpgradeSql(TimelineEvent.EventType.FILE_MODIFIED, "mtime"), //NON-NLS
+				makeFileEventUpgradeSql(TimelineEvent.EventType.FILE_ACCESSED, "atime"), //NON-NLS
+				makeFileEventUpgradeSql(TimelineEvent.EventType.FILE_CHANGED, "ctime"), //NON-NLS
+				makeFileEventUpgradeSql(TimelineEvent.EventType.FILE_CREATED, "crtime"), //NON-NLS
+				"INSERT INTO tsk_events (obj_id, data_source_obj_id, artifact_id, event_type, attribute_type_id, time) " //NON-NLS
+				+ "SELECT arts.obj_id, ds.data_source_obj_id, arts.artifact_id, " + TimelineEvent.EventType.ARTIFACT.getValue() + ", attrs.attribute_type_id, " //NON-NLS
+				+ "CASE attrs.value_type WHEN " + BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.LONG.getType() + " THEN attrs.value_int64 ELSE attrs.value_int32 END AS time " //NON-NLS
+				+ "FROM blackboard_attributes AS attrs " //NON-NLS
+				+ "INNER JOIN blackboard_artifacts AS arts ON arts.artifact_id = attrs.artifact_id " //NON-NLS
+				+ "INNER JOIN tsk_event_data_sources AS ds ON ds.obj_id = arts.obj_id " //NON-NLS
+				+ "WHERE attrs.attribute_type_id IN (" + dateTimeTypes + ") " //NON-NLS
+				+ "AND attrs.value_type IN (" + BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.INTEGER.getType() + ", " + BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.LONG.getType() + ") " //NON-NLS
+				+ "AND time > 0;", //NON-NLS
+				"DROP TABLE tsk_event_data_sources;")); //NON-NLS
+	}
+
+	/**
+	 * Add the steps that update a version 5 database schema to a version 6
+	 * database schema, which adds the artifact counts table.
+	 *
+	 * @param steps The list to add the steps to.
+	 */
+	private void addSchema5toSchema6Steps(List<SchemaUpgradeStep> steps) {
+		steps.add(new SqlSchemaUpgradeStep("Add artifact counts table", //NON-NLS
+				"CREATE TABLE blackboard_artifact_counts (scope INTEGER NOT NULL, id INTEGER NOT NULL, artifact_type_id INTEGER NOT NULL, count INTEGER NOT NULL, " //NON-NLS
+				+ "PRIMARY KEY (scope, id, artifact_type_id));", //NON-NLS
+				CREATE_ARTIFACT_DATA_SOURCES_SQL,
+				FILL_ARTIFACT_DATA_SOURCES_SQL));
+		steps.add(new BatchedSchemaUpgradeStep("Find data sources of artifacts", UPDATE_ARTIFACT_DATA_SOURCES_SQL)); //NON-NLS
+		steps.add(new SqlSchemaUpgradeStep("Count artifacts", COUNT_ARTIFACTS_SQL)); //NON-NLS
+	}
+
+	/**
+	 * Make the schema upgrade statement that adds the timeline events of one
+	 * of the MAC times of the files.
+	 *
+	 * @param type the event type
+	 * @param column the tsk_files column of the time
+	 * @return the statement
+	 */
+	private static String makeFileEventUpgradeSql(TimelineEvent.EventType type, String column) {
+		return "INSERT INTO tsk_events (obj_id, data_source_obj_id, event_type, time) " //NON-NLS
+				+ "SELECT files.obj_id, ds.data_source_obj_id, " + type.getValue() + ", files." + column + " " //NON-NLS
+				+ "FROM tsk_files AS files INNER JOIN tsk_event_data_sources AS ds ON ds.obj_id = files.obj_id " //NON-NLS
+				+ "WHERE files." + column + " > 0;"; //NON-NLS
 	}
 
 	/**
@@ -445,7 +927,20 @@ public String getBackupDatabasePath() {
 	 * @throws TskCoreException
 	 */
 	public CaseDbTransaction beginTransaction() throws TskCoreException {
-		return new CaseDbTransaction(connections.getConnection());
+		return new CaseDbTransaction(connections.getConnection(), false);
+	}
+
+	/**
+	 * Create a transaction for a method of this class that does the whole
+	 * transaction while holding the domain locks of its changes. Unlike the
+	 * transactions of beginTransaction(), it holds the database write lock
+	 * from its start to its end.
+	 *
+	 * @return A CaseDbTransaction object.
+	 * @throws TskCoreException
+	 */
+	private CaseDbTransaction beginLocalTransaction() throws TskCoreException {
+		return new CaseDbTransaction(connections.getConnection(), true);
 	}
 
 	/**
@@ -460,10 +955,15 @@ public String getDbDirPath() {
 	/**
 	 * Acquire the lock that provides exclusive access to the case database.
 	 * Call this method in a try block with a call to the lock release method in
-	 * an associated finally block.
+	 * an associated finally block. The methods of this class that change the
+	 * case database do not take this lock, only the lock of the part of the
+	 * database they change, but they wait while it is held.
 	 */
 	public void acquireExclusiveLock() {
+		long start = startLockTiming();
 		rwLock.writeLock().lock();
+		TskMetrics.record("lock.exclusive.wait", start, 0); //NON-NLS
+		TskTracing.lockAcquired("exclusive", start); //NON-NLS
 	}
 
 	/**
@@ -481,7 +981,84 @@ public void releaseExclusiveLock() {
 	 * associated finally block.
 	 */
 	public void acquireSharedLock() {
+		long start = startLockTiming();
 		rwLock.readLock().lock();
+		TskMetrics.record("lock.shared.wait", start, 0); //NON-NLS
+		TskTracing.lockAcquired("shared", start); //NON-NLS
+	}
+
+	/**
+	 * Acquire the lock for changing one domain of the case database: the
+	 * shared case lock, or the exclusive one if readers block commits, and the
+	 * domain lock. The database write lock is taken by the connection, only
+	 * while it writes. Call this method in a try block with a call to
+	 * releaseDomainLock() in an associated finally block.
+	 *
+	 * @param domain the domain that will be changed
+	 */
+	private void acquireDomainLock(LockDomain domain) {
+		long start = startLockTiming();
+		getChangeCaseLock().lock();
+		domainLocks.get(domain).lock();
+		TskMetrics.record(domain.timerName, start, 0);
+		TskTracing.lockAcquired(domain.lockName, start);
+	}
+
+	/**
+	 * Release the locks acquired by acquireDomainLock().
+	 *
+	 * @param domain the domain that was changed
+	 */
+	private void releaseDomainLock(LockDomain domain) {
+		domainLocks.get(domain).unlock();
+		getChangeCaseLock().unlock();
+	}
+
+	/**
+	 * Acquire the locks for changing several domains of the case database in
+	 * one transaction, in the lock order.
+	 *
+	 * @param domains the domains that will be changed
+	 */
+	private void acquireDomainLocks(EnumSet<LockDomain> domains) {
+		long start = startLockTiming();
+		getChangeCaseLock().lock();
+		for (LockDomain domain : domains) {
+			domainLocks.get(domain).lock();
+		}
+		for (LockDomain domain : domains) {
+			TskMetrics.record(domain.timerName, start, 0);
+			TskTracing.lockAcquired(domain.lockName, start);
+		}
+	}
+
+	/**
+	 * Release the locks acquired by acquireDomainLocks().
+	 *
+	 * @param domains the domains that were changed
+	 */
+	private void releaseDomainLocks(EnumSet<LockDomain> domains) {
+		for (LockDomain domain : domains) {
+			domainLocks.get(domain).unlock();
+		}
+		getChangeCaseLock().unlock();
+	}
+
+	/**
+	 * @return the case lock taken by the changes of a lock domain, the shared
+	 * one unless readers block commits, see initJournalMode()
+	 */
+	private Lock getChangeCaseLock() {
+		return readersBlockCommits ? rwLock.writeLock() : rwLock.readLock();
+	}
+
+	/**
+	 * Start timing a lock wait if metrics are being recorded or traced.
+	 *
+	 * @return the start time, or 0 if the wait is not timed
+	 */
+	private static long startLockTiming() {
+		return TskMetrics.isEnabled() || TskTracing.isEnabled() ? System.nanoTime() : 0;
 	}
 
 	/**
@@ -503,12 +1080,39 @@ public void releaseSharedLock() {
 	public static SleuthkitCase openCase(String dbPath) throws TskCoreException {
 		final SleuthkitJNI.CaseDbHandle caseHandle = SleuthkitJNI.openCaseDb(dbPath);
 		try {
-			return new SleuthkitCase(dbPath, caseHandle);
+			return new SleuthkitCase(new SqliteCaseDbBackend(dbPath), getParentDirPath(dbPath), caseHandle);
 		} catch (Exception ex) {
 			throw new TskCoreException("Failed to open case database at " + dbPath, ex);
 		}
 	}
 
+	/**
+	 * Open an existing case database on a PostgreSQL server. Several
+	 * SleuthkitCase objects, in this or other processes, can have the case
+	 * database open and change it at the same time. Images cannot be added to
+	 * it with makeAddImageProcess(), and it cannot be copied with
+	 * backupCaseDB().
+	 *
+	 * @param databaseName Name of the case database on the server.
+	 * @param info How to connect to the server.
+	 * @param caseDirPath Path of the directory of the case, which the paths of
+	 * reports and local files are relative to.
+	 * @return Case database object.
+	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 */
+	public static SleuthkitCase openCase(String databaseName, CaseDbConnectionInfo info, String caseDirPath) throws TskCoreException {
+		PostgreSqlCaseDbBackend backend = null;
+		try {
+			backend = new PostgreSqlCaseDbBackend(info, databaseName);
+			return new SleuthkitCase(backend, caseDirPath, null);
+		} catch (Exception ex) {
+			if (backend != null) {
+				backend.close();
+			}
+			throw new TskCoreException("Failed to open case database " + databaseName + " on " + info.getHost(), ex); //NON-NLS
+		}
+	}
+
 	/**
 	 * Create a new case database.
 	 *
@@ -519,28 +1123,136 @@ public static SleuthkitCase openCase(String dbPath) throws TskCoreException {
 	public static SleuthkitCase newCase(String dbPath) throws TskCoreException {
 		SleuthkitJNI.CaseDbHandle caseHandle = SleuthkitJNI.newCaseDb(dbPath);
 		try {
-			return new SleuthkitCase(dbPath, caseHandle);
+			return new SleuthkitCase(new SqliteCaseDbBackend(dbPath), getParentDirPath(dbPath), caseHandle);
 		} catch (Exception ex) {
 			throw new TskCoreException("Failed to create case database at " + dbPath, ex);
 		}
 	}
 
 	/**
-	 * Start process of adding a image to the case. Adding an image is a
-	 * multi-step process and this returns an object that allows it to happen.
+	 * Create a new case database on a PostgreSQL server, see
+	 * openCase(String, CaseDbConnectionInfo, String). The server must be
+	 * PostgreSQL 12 or later, built with ICU, and the user must be allowed to
+	 * create databases.
 	 *
-	 * @param timezone TZ time zone string to use for ingest of image.
-	 * @param processUnallocSpace Set to true to process unallocated space in
-	 * the image.
-	 * @param noFatFsOrphans Set to true to skip processing orphan files of FAT
-	 * file systems.
+	 * @param databaseName Name of the case database to create on the server.
+	 * @param info How to connect to the server.
+	 * @param caseDirPath Path of the directory of the case, which the paths of
+	 * reports and local files are relative to.
+	 * @return Case database object.
+	 * @throws org.sleuthkit.datamodel.TskCoreException if the database could
+	 * not be created, e.g. because it exists
+	 */
+	public static SleuthkitCase newCase(String databaseName, CaseDbConnectionInfo info, String caseDirPath) throws TskCoreException {
+		try {
+			PostgreSqlCaseDbBackend.createDatabase(info, databaseName, SCHEMA_VERSION_NUMBER);
+		} catch (Exception ex) {
+			throw new TskCoreException("Failed to create case database " + databaseName + " on " + info.getHost(), ex); //NON-NLS
+		}
+		return openCase(databaseName, info, caseDirPath);
+	}
+
+	private static String getParentDirPath(String dbPath) {
+		return new File(dbPath).getParentFile().getAbsolutePath();
+	}
+
+	/**
+	 * Get the type of the database system the case database is kept in.
+	 *
+	 * @return The database type.
+	 */
+	public TskData.DbType getDatabaseType() {
+		return backend.getType();
+	}
+
+	/**
+	 * Start process of adding a image to the case. Adding an image is a
+	 * multi-step process and this returns an object that allows it to happen.
+	 *
+	 * @param timezone TZ time zone string to use for ingest of image.
+	 * @param processUnallocSpace Set to true to process unallocated space in
+	 * the image.
+	 * @param noFatFsOrphans Set to true to skip processing orphan files of FAT
+	 * file systems.
 	 * @return Object that encapsulates control of adding an image via the
 	 * SleuthKit native code layer.
+	 * @throws UnsupportedOperationException if the case database is not a
+	 * SQLite file, which the native code writes to
 	 */
 	public AddImageProcess makeAddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans) {
+		checkNativeCaseDb();
 		return this.caseHandle.initAddImageProcess(timezone, processUnallocSpace, noFatFsOrphans);
 	}
 
+	/**
+	 * Start process of adding a image to the case. Adding an image is a
+	 * multi-step process and this returns an object that allows it to happen.
+	 * File records found in the image are written to the database in batches
+	 * of insertBatchSize rows per statement, which speeds up adding images
+	 * with many files.
+	 *
+	 * @param timezone TZ time zone string to use for ingest of image.
+	 * @param processUnallocSpace Set to true to process unallocated space in
+	 * the image.
+	 * @param noFatFsOrphans Set to true to skip processing orphan files of FAT
+	 * file systems.
+	 * @param insertBatchSize Number of file records to write with each insert,
+	 * from 1 (each record is written as it is found) to
+	 * MAX_ADD_IMAGE_INSERT_BATCH_SIZE.
+	 * @return Object that encapsulates control of adding an image via the
+	 * SleuthKit native code layer.
+	 * @throws IllegalArgumentException if insertBatchSize is out of range
+	 * @throws UnsupportedOperationException if the case database is not a
+	 * SQLite file, which the native code writes to
+	 */
+	public AddImageProcess makeAddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans, int insertBatchSize) {
+		return makeAddImageProcess(timezone, processUnallocSpace, noFatFsOrphans, insertBatchSize, false);
+	}
+
+	/**
+	 * Start process of adding a image to the case. Adding an image is a
+	 * multi-step process and this returns an object that allows it to happen.
+	 * In parallel mode, each file system in the image is walked by its own
+	 * native thread with its own image handle, and the unallocated space of
+	 * each file system is added by another thread. The database writes of the
+	 * threads are serialized, so the image is still added in one transaction.
+	 *
+	 * @param timezone TZ time zone string to use for ingest of image.
+	 * @param processUnallocSpace Set to true to process unallocated space in
+	 * the image.
+	 * @param noFatFsOrphans Set to true to skip processing orphan files of FAT
+	 * file systems.
+	 * @param insertBatchSize Number of file records to write with each insert,
+	 * from 1 (each record is written as it is found) to
+	 * MAX_ADD_IMAGE_INSERT_BATCH_SIZE.
+	 * @param parallelFs Set to true to process the file systems of the image
+	 * in parallel.
+	 * @return Object that encapsulates control of adding an image via the
+	 * SleuthKit native code layer.
+	 * @throws IllegalArgumentException if insertBatchSize is out of range
+	 * @throws UnsupportedOperationException if the case database is not a
+	 * SQLite file, which the native code writes to
+	 */
+	public AddImageProcess makeAddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans, int insertBatchSize, boolean parallelFs) {
+		if (insertBatchSize < 1 || insertBatchSize > MAX_ADD_IMAGE_INSERT_BATCH_SIZE) {
+			throw new IllegalArgumentException("insertBatchSize must be between 1 and " + MAX_ADD_IMAGE_INSERT_BATCH_SIZE); //NON-NLS
+		}
+		checkNativeCaseDb();
+		return this.caseHandle.initAddImageProcess(timezone, processUnallocSpace, noFatFsOrphans, insertBatchSize, parallelFs);
+	}
+
+	/**
+	 * Make sure the native code has the case database open.
+	 *
+	 * @throws UnsupportedOperationException if the case database is not a
+	 * SQLite file
+	 */
+	private void checkNativeCaseDb() {
+		if (caseHandle == null) {
+			throw new UnsupportedOperationException("Images can only be added to SQLite case databases, " + dbPath + " is kept in " + backend.getType()); //NON-NLS
+		}
+	}
+
 	/**
 	 * Get the list of root objects (data sources) from the case database, e.g.,
 	 * image files, logical (local) files, virtual directories.
@@ -719,8 +1431,8 @@ public List<BlackboardArtifact> getBlackboardArtifacts(BlackboardAttribute.ATTRI
 					+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
 					+ "FROM blackboard_artifacts, blackboard_attributes " //NON-NLS
 					+ "WHERE blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id " //NON-NLS
-					+ "AND blackboard_attributes.attribute_type_id IS " + attrType.getTypeID() //NON-NLS
-					+ " AND blackboard_attributes.value_text IS '" + value + "'");	 //NON-NLS
+					+ "AND blackboard_attributes.attribute_type_id = " + attrType.getTypeID() //NON-NLS
+					+ " AND blackboard_attributes.value_text = '" + value + "'");	 //NON-NLS
 			return getArtifactsHelper(rs);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error getting blackboard artifacts by attribute", ex);
@@ -760,8 +1472,8 @@ public List<BlackboardArtifact> getBlackboardArtifacts(BlackboardAttribute.ATTRI
 					+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
 					+ "FROM blackboard_artifacts, blackboard_attributes " //NON-NLS
 					+ "WHERE blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id " //NON-NLS
-					+ "AND blackboard_attributes.attribute_type_id IS " + attrType.getTypeID() //NON-NLS
-					+ " AND blackboard_attributes.value_text LIKE '" + subString + "'"); //NON-NLS			
+					+ "AND blackboard_attributes.attribute_type_id = " + attrType.getTypeID() //NON-NLS
+					+ " AND LOWER(blackboard_attributes.value_text) LIKE LOWER('" + subString + "')"); //NON-NLS			
 			return getArtifactsHelper(rs);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error getting blackboard artifacts by attribute. " + ex.getMessage(), ex);
@@ -794,8 +1506,8 @@ public List<BlackboardArtifact> getBlackboardArtifacts(BlackboardAttribute.ATTRI
 					+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
 					+ "FROM blackboard_artifacts, blackboard_attributes " //NON-NLS
 					+ "WHERE blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id " //NON-NLS
-					+ "AND blackboard_attributes.attribute_type_id IS " + attrType.getTypeID() //NON-NLS
-					+ " AND blackboard_attributes.value_int32 IS " + value); //NON-NLS
+					+ "AND blackboard_attributes.attribute_type_id = " + attrType.getTypeID() //NON-NLS
+					+ " AND blackboard_attributes.value_int32 = " + value); //NON-NLS
 			return getArtifactsHelper(rs);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error getting blackboard artifacts by attribute", ex);
@@ -828,8 +1540,8 @@ public List<BlackboardArtifact> getBlackboardArtifacts(BlackboardAttribute.ATTRI
 					+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
 					+ "FROM blackboard_artifacts, blackboard_attributes " //NON-NLS
 					+ "WHERE blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id " //NON-NLS
-					+ "AND blackboard_attributes.attribute_type_id IS " + attrType.getTypeID() //NON-NLS
-					+ " AND blackboard_attributes.value_int64 IS " + value); //NON-NLS			
+					+ "AND blackboard_attributes.attribute_type_id = " + attrType.getTypeID() //NON-NLS
+					+ " AND blackboard_attributes.value_int64 = " + value); //NON-NLS			
 			return getArtifactsHelper(rs);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error getting blackboard artifacts by attribute. " + ex.getMessage(), ex);
@@ -862,8 +1574,8 @@ public List<BlackboardArtifact> getBlackboardArtifacts(BlackboardAttribute.ATTRI
 					+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
 					+ "FROM blackboard_artifacts, blackboard_attributes " //NON-NLS
 					+ "WHERE blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id " //NON-NLS
-					+ "AND blackboard_attributes.attribute_type_id IS " + attrType.getTypeID() //NON-NLS
-					+ " AND blackboard_attributes.value_double IS " + value); //NON-NLS
+					+ "AND blackboard_attributes.attribute_type_id = " + attrType.getTypeID() //NON-NLS
+					+ " AND blackboard_attributes.value_double = " + value); //NON-NLS
 			return getArtifactsHelper(rs);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error getting blackboard artifacts by attribute", ex);
@@ -896,8 +1608,8 @@ public List<BlackboardArtifact> getBlackboardArtifacts(BlackboardAttribute.ATTRI
 					+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
 					+ "FROM blackboard_artifacts, blackboard_attributes " //NON-NLS
 					+ "WHERE blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id " //NON-NLS
-					+ "AND blackboard_attributes.attribute_type_id IS " + attrType.getTypeID() //NON-NLS
-					+ " AND blackboard_attributes.value_byte IS " + value); //NON-NLS
+					+ "AND blackboard_attributes.attribute_type_id = " + attrType.getTypeID() //NON-NLS
+					+ " AND blackboard_attributes.value_byte = " + value); //NON-NLS
 			return getArtifactsHelper(rs);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error getting blackboard artifacts by attribute", ex);
@@ -954,11 +1666,12 @@ public ArrayList<BlackboardArtifact.ARTIFACT_TYPE> getBlackboardArtifactTypes()
 	 * @throws TskCoreException
 	 */
 	public ArrayList<BlackboardArtifact.ARTIFACT_TYPE> getBlackboardArtifactTypesInUse() throws TskCoreException {
-		// @@@ TODO: This should be rewritten as a single query. 		
 		ArrayList<BlackboardArtifact.ARTIFACT_TYPE> allArts = getBlackboardArtifactTypes();
 		ArrayList<BlackboardArtifact.ARTIFACT_TYPE> usedArts = new ArrayList<BlackboardArtifact.ARTIFACT_TYPE>();
+		Map<Integer, Long> counts = getArtifactTypeCounts();
 		for (BlackboardArtifact.ARTIFACT_TYPE art : allArts) {
-			if (getBlackboardArtifactsTypeCount(art.getTypeID()) > 0) {
+			Long count = counts.get(art.getTypeID());
+			if (count != null && count > 0) {
 				usedArts.add(art);
 			}
 		}
@@ -1267,9 +1980,9 @@ public List<BlackboardArtifact> getBlackboardArtifacts(ARTIFACT_TYPE artifactTyp
 					+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
 					+ "FROM blackboard_artifacts, blackboard_attributes " //NON-NLS
 					+ "WHERE blackboard_artifacts.artifact_id = blackboard_attributes.artifact_id " //NON-NLS
-					+ "AND blackboard_attributes.attribute_type_id IS " + attrType.getTypeID() //NON-NLS
+					+ "AND blackboard_attributes.attribute_type_id = " + attrType.getTypeID() //NON-NLS
 					+ " AND blackboard_artifacts.artifact_type_id = " + artifactType.getTypeID() //NON-NLS
-					+ " AND blackboard_attributes.value_text IS '" + value + "'"); //NON-NLS
+					+ " AND blackboard_attributes.value_text = '" + value + "'"); //NON-NLS
 			return getArtifactsHelper(rs);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error getting blackboard artifacts by artifact type and attribute. " + ex.getMessage(), ex);
@@ -1297,6 +2010,9 @@ public BlackboardArtifact getBlackboardArtifact(long artifactID) throws TskCoreE
 			statement.clearParameters();
 			statement.setLong(1, artifactID);
 			rs = connection.executeQuery(statement);
+			if (!rs.next()) {
+				throw new TskCoreException("No blackboard artifact with id " + artifactID); //NON-NLS
+			}
 			long obj_id = rs.getLong(1);
 			int artifact_type_id = rs.getInt(2);
 			return new BlackboardArtifact(this, artifactID, obj_id, artifact_type_id,
@@ -1316,15 +2032,27 @@ public BlackboardArtifact getBlackboardArtifact(long artifactID) throws TskCoreE
 	 * @param artifactTypeId The type of artifact associated with the attribute.
 	 * @throws TskCoreException thrown if a critical error occurs.
 	 */
-	public void addBlackboardAttribute(BlackboardAttribute attr, int artifactTypeId) throws TskCoreException {
+	public void addBlackboardAttribute(final BlackboardAttribute attr, final int artifactTypeId) throws TskCoreException {
+		if (queueWrite(new QueuedWrite(LockDomain.BLACKBOARD) {
+			@Override
+			void apply(CaseDbConnection connection) throws SQLException, TskCoreException {
+				addBlackBoardAttribute(attr, artifactTypeId, connection);
+			}
+		})) {
+			return;
+		}
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.BLACKBOARD);
 		try {
+			// the attribute and its full-text index entry are added together
+			connection.beginTransaction();
 			addBlackBoardAttribute(attr, artifactTypeId, connection);
+			connection.commitTransaction();
 		} catch (SQLException ex) {
+			connection.rollbackTransaction();
 			throw new TskCoreException("Error adding blackboard attribute " + attr.toString(), ex);
 		} finally {
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.BLACKBOARD);
 		}
 	}
 
@@ -1336,9 +2064,19 @@ public void addBlackboardAttribute(BlackboardAttribute attr, int artifactTypeId)
 	 * attributes.
 	 * @throws TskCoreException thrown if a critical error occurs.
 	 */
-	public void addBlackboardAttributes(Collection<BlackboardAttribute> attributes, int artifactTypeId) throws TskCoreException {
+	public void addBlackboardAttributes(final Collection<BlackboardAttribute> attributes, final int artifactTypeId) throws TskCoreException {
+		if (queueWrite(new QueuedWrite(LockDomain.BLACKBOARD) {
+			@Override
+			void apply(CaseDbConnection connection) throws SQLException, TskCoreException {
+				for (final BlackboardAttribute attr : attributes) {
+					addBlackBoardAttribute(attr, artifactTypeId, connection);
+				}
+			}
+		})) {
+			return;
+		}
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.BLACKBOARD);
 		try {
 			connection.beginTransaction();
 			for (final BlackboardAttribute attr : attributes) {
@@ -1349,7 +2087,7 @@ public void addBlackboardAttributes(Collection<BlackboardAttribute> attributes,
 			connection.rollbackTransaction();
 			throw new TskCoreException("Error adding blackboard attributes", ex);
 		} finally {
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.BLACKBOARD);
 		}
 	}
 
@@ -1391,6 +2129,230 @@ private void addBlackBoardAttribute(BlackboardAttribute attr, int artifactTypeId
 		statement.setInt(5, attr.getAttributeTypeID());
 		statement.setLong(6, attr.getValueType().getType());
 		connection.executeUpdate(statement);
+
+		if (attributeTextIndexExists && attr.getValueType() == BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.STRING) {
+			String valueText = escapeForBlackboard(attr.getValueString());
+			if (valueText != null && !valueText.isEmpty()) {
+				statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_ATTRIBUTE_TEXT_INDEX_ENTRY);
+				statement.clearParameters();
+				statement.setString(1, valueText);
+				statement.setLong(2, attr.getArtifactID());
+				statement.setInt(3, attr.getAttributeTypeID());
+				connection.executeUpdate(statement);
+			}
+		}
+
+		if (TimelineEvent.isDateTimeAttributeType(attr.getAttributeTypeID())) {
+			long time = 0;
+			if (attr.getValueType() == BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.LONG) {
+				time = attr.getValueLong();
+			} else if (attr.getValueType() == BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.INTEGER) {
+				time = attr.getValueInt();
+			}
+			if (time > 0) {
+				ResultSet rs = null;
+				long objId;
+				try {
+					statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_ARTIFACT_BY_ID);
+					statement.clearParameters();
+					statement.setLong(1, attr.getArtifactID());
+					rs = connection.executeQuery(statement);
+					if (!rs.next()) {
+						throw new TskCoreException("No artifact with id " + attr.getArtifactID());
+					}
+					objId = rs.getLong(1);
+				} finally {
+					closeResultSet(rs);
+				}
+				addTimelineEvent(connection, objId, getDataSourceObjectId(connection, objId), attr.getArtifactID(),
+						TimelineEvent.EventType.ARTIFACT, attr.getAttributeTypeID(), time);
+			}
+		}
+	}
+
+	/**
+	 * The ways searchBlackboardArtifacts() can match the text of string
+	 * attributes.
+	 */
+	public enum AttributeTextSearchMode {
+
+		TOKEN, ///< The text contains all the words of the search string
+		PREFIX, ///< As TOKEN, but the last word of the search string may be the start of a word of the text
+		PHRASE ///< The text contains the words of the search string next to each other, in order
+	}
+
+	/**
+	 * Check if the full-text index of the string attributes has been built
+	 * for this case. The index is optional, see rebuildAttributeTextIndex().
+	 *
+	 * @return true if the index exists and is kept up to date as attributes
+	 * are added
+	 */
+	public boolean isAttributeTextIndexBuilt() {
+		return attributeTextIndexExists;
+	}
+
+	/**
+	 * Build, or build again, the SQLite FTS full-text index of the text of the
+	 * string attributes of the blackboard. Once built, the index is kept up to
+	 * date as attributes are added, and searchBlackboardArtifacts() can be
+	 * used. This reads all the attributes, so it can take a while on a large
+	 * case; the case is locked for writing while it runs. Only SQLite case
+	 * databases have the index.
+	 *
+	 * @throws TskCoreException exception thrown if the case database is not a
+	 * SQLite file, or a critical error occurs within tsk core
+	 */
+	public void rebuildAttributeTextIndex() throws TskCoreException {
+		if (!backend.supportsAttributeTextIndex()) {
+			throw new TskCoreException("The full-text index of blackboard attributes is not supported for " + backend.getType() + " case databases"); //NON-NLS
+		}
+		CaseDbConnection connection = connections.getConnection();
+		acquireDomainLock(LockDomain.BLACKBOARD);
+		Statement statement = null;
+		boolean committed = false;
+		try {
+			statement = connection.createStatement();
+			connection.beginTransaction();
+			connection.executeUpdate(statement, "DROP TABLE IF EXISTS blackboard_attributes_fts"); //NON-NLS
+			connection.executeUpdate(statement, "CREATE VIRTUAL TABLE blackboard_attributes_fts USING fts4(value_text, artifact_id, attribute_type_id)"); //NON-NLS
+			connection.executeUpdate(statement, "INSERT INTO blackboard_attributes_fts (value_text, artifact_id, attribute_type_id) " //NON-NLS
+					+ "SELECT value_text, artifact_id, attribute_type_id FROM blackboard_attributes " //NON-NLS
+					+ "WHERE value_type = " + BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.STRING.getType() //NON-NLS
+					+ " AND value_text IS NOT NULL AND value_text <> ''"); //NON-NLS
+			connection.commitTransaction();
+			committed = true;
+			attributeTextIndexExists = true;
+
+			// The index is merged after the commit; merged in the same 
+			// transaction as the inserts, the FTS of the SQLite driver drops them.
+			connection.executeUpdate(statement, "INSERT INTO blackboard_attributes_fts (blackboard_attributes_fts) VALUES ('optimize')"); //NON-NLS
+		} catch (SQLException ex) {
+			if (!committed) {
+				connection.rollbackTransaction();
+			}
+			throw new TskCoreException("Error building the full-text index of blackboard attributes", ex);
+		} finally {
+			closeStatement(statement);
+			releaseDomainLock(LockDomain.BLACKBOARD);
+		}
+	}
+
+	/**
+	 * Delete the full-text index of the string attributes of the blackboard,
+	 * so that adding attributes no longer updates it.
+	 *
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public void deleteAttributeTextIndex() throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireDomainLock(LockDomain.BLACKBOARD);
+		Statement statement = null;
+		try {
+			statement = connection.createStatement();
+			connection.executeUpdate(statement, "DROP TABLE IF EXISTS blackboard_attributes_fts"); //NON-NLS
+			attributeTextIndexExists = false;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error deleting the full-text index of blackboard attributes", ex);
+		} finally {
+			closeStatement(statement);
+			releaseDomainLock(LockDomain.BLACKBOARD);
+		}
+	}
+
+	/**
+	 * Get the blackboard artifacts that have a string attribute whose text
+	 * matches a search string, using the full-text index of the attributes
+	 * (see rebuildAttributeTextIndex()). Words are runs of letters and digits
+	 * and are matched ignoring the case of ASCII letters; other characters of
+	 * the search string only separate words.
+	 *
+	 * @param attrType type of the attributes to search, or null to search the
+	 * string attributes of all types
+	 * @param text the search string
+	 * @param mode how the words of the search string are matched
+	 * @return the artifacts with a matching attribute, no artifacts if the
+	 * search string has no words
+	 * @throws TskCoreException exception thrown if the index has not been
+	 * built or a critical error occurs within tsk core
+	 */
+	public List<BlackboardArtifact> searchBlackboardArtifacts(BlackboardAttribute.ATTRIBUTE_TYPE attrType, String text, AttributeTextSearchMode mode) throws TskCoreException {
+		if (!attributeTextIndexExists) {
+			throw new TskCoreException("The full-text index of blackboard attributes has not been built"); //NON-NLS
+		}
+		String matchExpression = makeAttributeTextMatchExpression(text, mode);
+		if (matchExpression.isEmpty()) {
+			return new ArrayList<BlackboardArtifact>();
+		}
+
+		String query = "SELECT DISTINCT blackboard_artifacts.artifact_id, " //NON-NLS
+				+ "blackboard_artifacts.obj_id, blackboard_artifacts.artifact_type_id " //NON-NLS
+				+ "FROM blackboard_attributes_fts " //NON-NLS
+				+ "INNER JOIN blackboard_artifacts ON blackboard_artifacts.artifact_id = blackboard_attributes_fts.artifact_id " //NON-NLS
+				+ "WHERE blackboard_attributes_fts MATCH ?"; //NON-NLS
+		if (attrType != null) {
+			query += " AND blackboard_attributes_fts.attribute_type_id = " + attrType.getTypeID(); //NON-NLS
+		}
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		try {
+			statement = connection.prepareStatement(query);
+			statement.setString(1, matchExpression);
+			rs = connection.executeQuery(statement);
+			return getArtifactsHelper(rs);
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error searching blackboard artifacts by attribute text. " + ex.getMessage(), ex);
+		} finally {
+			closeResultSet(rs);
+			closeStatement(statement);
+			releaseSharedLock();
+		}
+	}
+
+	/**
+	 * Make the FTS MATCH expression for searchBlackboardArtifacts(). Single
+	 * words are limited to the value_text column of the index so the id
+	 * columns are not matched. A phrase of several words can only match
+	 * value_text.
+	 *
+	 * @param text the search string
+	 * @param mode how the words of the search string are matched
+	 * @return the expression, empty if the search string has no words
+	 */
+	private static String makeAttributeTextMatchExpression(String text, AttributeTextSearchMode mode) {
+		List<String> words = new ArrayList<String>();
+		for (String word : text.split("[^\\p{L}\\p{N}]+")) { //NON-NLS
+			if (!word.isEmpty()) {
+				// lower case like the FTS simple tokenizer, which also keeps words like OR from being read as operators
+				words.add(normalizeFileName(word));
+			}
+		}
+		if (words.isEmpty()) {
+			return "";
+		}
+
+		StringBuilder expression = new StringBuilder();
+		if (mode == AttributeTextSearchMode.PHRASE && words.size() > 1) {
+			// The FTS of the SQLite driver does not accept a column name before
+			// a phrase. The phrase is left unqualified, which only matches 
+			// value_text since the other columns hold a single number each.
+			expression.append("\"");
+			for (int i = 0; i < words.size(); ++i) {
+				expression.append(i == 0 ? "" : " ").append(words.get(i));
+			}
+			expression.append("\"");
+		} else {
+			for (int i = 0; i < words.size(); ++i) {
+				expression.append(i == 0 ? "" : " ").append("value_text:").append(words.get(i)); //NON-NLS
+			}
+			if (mode == AttributeTextSearchMode.PREFIX) {
+				expression.append("*");
+			}
+		}
+		return expression.toString();
 	}
 
 	/**
@@ -1404,19 +2366,27 @@ private void addBlackBoardAttribute(BlackboardAttribute attr, int artifactTypeId
 	 */
 	public int addAttrType(String attrTypeString, String displayName) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.BLACKBOARD);
 		Statement s = null;
 		ResultSet rs = null;
 		try {
 			connection.beginTransaction();
 			s = connection.createStatement();
 			rs = connection.executeQuery(s, "SELECT attribute_type_id FROM blackboard_attribute_types WHERE type_name = '" + attrTypeString + "'"); //NON-NLS
-			if (!rs.next()) {
+			int type;
+			if (rs.next()) {
+				type = rs.getInt(1);
+			} else {
+				PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_ATTRIBUTE_TYPE);
+				statement.clearParameters();
+				statement.setString(1, attrTypeString);
+				statement.setString(2, displayName);
+				connection.executeUpdate(statement);
 				rs.close();
-				connection.executeUpdate(s, "INSERT INTO blackboard_artifact_types (type_name, display_name) VALUES (" + attrTypeString + "', '" + displayName + "')"); //NON-NLS
-				rs = s.getGeneratedKeys();
+				rs = statement.getGeneratedKeys();
+				rs.next();
+				type = rs.getInt(1);
 			}
-			int type = rs.getInt(1);
 			connection.commitTransaction();
 			return type;
 		} catch (SQLException ex) {
@@ -1425,7 +2395,7 @@ public int addAttrType(String attrTypeString, String displayName) throws TskCore
 		} finally {
 			closeResultSet(rs);
 			closeStatement(s);
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.BLACKBOARD);
 		}
 	}
 
@@ -1628,19 +2598,27 @@ String getArtifactTypeDisplayName(int artifactTypeID) throws TskCoreException {
 	 */
 	public int addArtifactType(String artifactTypeName, String displayName) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.BLACKBOARD);
 		Statement s = null;
 		ResultSet rs = null;
 		try {
 			connection.beginTransaction();
 			s = connection.createStatement();
 			rs = connection.executeQuery(s, "SELECT artifact_type_id FROM blackboard_artifact_types WHERE type_name = '" + artifactTypeName + "'"); //NON-NLS
-			if (!rs.next()) {
+			int id;
+			if (rs.next()) {
+				id = rs.getInt(1);
+			} else {
+				PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_ARTIFACT_TYPE);
+				statement.clearParameters();
+				statement.setString(1, artifactTypeName);
+				statement.setString(2, displayName);
+				connection.executeUpdate(statement);
 				rs.close();
-				connection.executeUpdate(s, "INSERT INTO blackboard_artifact_types (type_name, display_name) VALUES (" + artifactTypeName + "', '" + displayName + "')"); //NON-NLS
-				rs = s.getGeneratedKeys();
+				rs = statement.getGeneratedKeys();
+				rs.next();
+				id = rs.getInt(1);
 			}
-			int id = rs.getInt(1);
 			connection.commitTransaction();
 			return id;
 		} catch (SQLException ex) {
@@ -1649,7 +2627,7 @@ public int addArtifactType(String artifactTypeName, String displayName) throws T
 		} finally {
 			closeResultSet(rs);
 			closeStatement(s);
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.BLACKBOARD);
 		}
 	}
 
@@ -1783,172 +2761,225 @@ public BlackboardArtifact newBlackboardArtifact(ARTIFACT_TYPE artifactType, long
 	}
 
 	private BlackboardArtifact newBlackboardArtifact(int artifact_type_id, long obj_id, String artifactTypeName, String artifactDisplayName) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
-		ResultSet rs = null;
-		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_ARTIFACT);
-			statement.clearParameters();
-			statement.setLong(1, this.nextArtifactId++);
-			statement.setLong(2, obj_id);
-			statement.setInt(3, artifact_type_id);
-			connection.executeUpdate(statement);
-			rs = statement.getGeneratedKeys();
-			return new BlackboardArtifact(this, rs.getLong(1), obj_id, artifact_type_id, artifactTypeName, artifactDisplayName, true);
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error creating a blackboard artifact", ex);
-		} finally {
-			closeResultSet(rs);
-			releaseExclusiveLock();
-		}		
+		// the id is allocated before the lock is taken
+		BlackboardArtifact artifact = new BlackboardArtifact(this, artifactIds.next(), obj_id, artifact_type_id, artifactTypeName, artifactDisplayName, true);
+		insertArtifacts(Collections.singletonList(artifact));
+		return artifact;
 	}
+
 	/**
-	 * Checks if the content object has children. Note: this is generally more
-	 * efficient then preloading all children and checking if the set is empty,
-	 * and facilities lazy loading.
+	 * Add new blackboard artifacts of a type, one for each of a set of
+	 * content objects, in one transaction.
 	 *
-	 * @param content content object to check for children
-	 * @return true if has children, false otherwise
+	 * @param artifactTypeID the type the artifacts should have
+	 * @param objIds the object ids of the content to add artifacts to
+	 * @return the new artifacts, in the order of objIds
 	 * @throws TskCoreException exception thrown if a critical error occurs
 	 * within tsk core
 	 */
-	boolean getContentHasChildren(Content content) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet rs = null;
-		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.COUNT_CHILD_OBJECTS_BY_PARENT);
-			statement.clearParameters();
-			statement.setLong(1, content.getId());
-			rs = connection.executeQuery(statement);
-			boolean hasChildren = false;
-			if (rs.next()) {
-				hasChildren = rs.getInt(1) > 0;
-			}
-			return hasChildren;
-		} catch (SQLException e) {
-			throw new TskCoreException("Error checking for children of parent " + content, e);
-		} finally {
-			closeResultSet(rs);
-			releaseSharedLock();
-		}
+	public List<BlackboardArtifact> newBlackboardArtifacts(int artifactTypeID, long[] objIds) throws TskCoreException {
+		return newBlackboardArtifacts(artifactTypeID, objIds, getArtifactTypeString(artifactTypeID), getArtifactTypeDisplayName(artifactTypeID));
 	}
 
 	/**
-	 * Counts if the content object children. Note: this is generally more
-	 * efficient then preloading all children and counting, and facilities lazy
-	 * loading.
+	 * Add new blackboard artifacts of a type, one for each of a set of
+	 * content objects, in one transaction.
 	 *
-	 * @param content content object to check for children count
-	 * @return children count
+	 * @param artifactType the type the artifacts should have
+	 * @param objIds the object ids of the content to add artifacts to
+	 * @return the new artifacts, in the order of objIds
 	 * @throws TskCoreException exception thrown if a critical error occurs
 	 * within tsk core
 	 */
-	int getContentChildrenCount(Content content) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet rs = null;
-		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.COUNT_CHILD_OBJECTS_BY_PARENT);
-			statement.clearParameters();
-			statement.setLong(1, content.getId());
-			rs = connection.executeQuery(statement);
-			int countChildren = -1;
-			if (rs.next()) {
-				countChildren = rs.getInt(1);
-			}
-			return countChildren;
-		} catch (SQLException e) {
-			throw new TskCoreException("Error checking for children of parent " + content, e);
-		} finally {
-			closeResultSet(rs);
-			releaseSharedLock();
+	public List<BlackboardArtifact> newBlackboardArtifacts(ARTIFACT_TYPE artifactType, long[] objIds) throws TskCoreException {
+		return newBlackboardArtifacts(artifactType.getTypeID(), objIds, artifactType.getLabel(), artifactType.getDisplayName());
+	}
+
+	private List<BlackboardArtifact> newBlackboardArtifacts(int artifactTypeId, long[] objIds, String artifactTypeName, String artifactDisplayName) throws TskCoreException {
+		// the artifacts are made from a block of ids before the lock is taken
+		IdAllocator.Block ids = artifactIds.reserve(objIds.length);
+		List<BlackboardArtifact> artifacts = new ArrayList<BlackboardArtifact>(objIds.length);
+		for (long objId : objIds) {
+			artifacts.add(new BlackboardArtifact(this, ids.next(), objId, artifactTypeId, artifactTypeName, artifactDisplayName, true));
 		}
+		insertArtifacts(artifacts);
+		return artifacts;
 	}
 
 	/**
-	 * Returns the list of AbstractFile Children of a given type for a given
-	 * AbstractFileParent
+	 * Insert the rows of new artifacts and add them to the artifact counts,
+	 * in one transaction.
 	 *
-	 * @param parent the content parent to get abstract file children for
-	 * @param type children type to look for, defined in TSK_DB_FILES_TYPE_ENUM
-	 * @throws TskCoreException exception thrown if a critical error occurs
-	 * within tsk core
+	 * @param artifacts the artifacts, with ids from the artifact id allocator
+	 * @throws TskCoreException
 	 */
-	List<Content> getAbstractFileChildren(Content parent, TSK_DB_FILES_TYPE_ENUM type) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet rs = null;
+	private void insertArtifacts(final List<BlackboardArtifact> artifacts) throws TskCoreException {
+		if (queueWrite(new QueuedWrite(LockDomain.BLACKBOARD) {
+			@Override
+			void apply(CaseDbConnection connection) throws SQLException {
+				insertArtifactRows(connection, artifacts);
+			}
+		})) {
+			return;
+		}
+		CaseDbConnection connection = connections.getConnection();
+		acquireDomainLock(LockDomain.BLACKBOARD);
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILES_BY_PARENT_AND_TYPE);
-			statement.clearParameters();
-			long parentId = parent.getId();
-			statement.setLong(1, parentId);
-			statement.setShort(2, type.getFileType());
-			rs = connection.executeQuery(statement);
-			return rsHelper.fileChildren(rs, parentId);
+			// the artifacts and their counts are added together
+			connection.beginTransaction();
+			insertArtifactRows(connection, artifacts);
+			connection.commitTransaction();
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
+			connection.rollbackTransaction();
+			throw new TskCoreException("Error creating blackboard artifacts", ex);
 		} finally {
-			closeResultSet(rs);
-			releaseSharedLock();
+			releaseDomainLock(LockDomain.BLACKBOARD);
 		}
 	}
 
 	/**
-	 * Returns the list of all AbstractFile Children for a given
-	 * AbstractFileParent
+	 * Insert the rows of new artifacts and add them to the artifact counts.
 	 *
-	 * @param parent the content parent to get abstract file children for
-	 * @param type children type to look for, defined in TSK_DB_FILES_TYPE_ENUM
-	 * @throws TskCoreException exception thrown if a critical error occurs
-	 * within tsk core
+	 * @param connection connection with an open transaction
+	 * @param artifacts the artifacts
+	 * @throws SQLException
 	 */
-	List<Content> getAbstractFileChildren(Content parent) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet rs = null;
-		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILES_BY_PARENT);
+	private void insertArtifactRows(CaseDbConnection connection, List<BlackboardArtifact> artifacts) throws SQLException {
+		// the counts are changed in the order of their keys, so that writers
+		// of a backend with concurrent writers lock the rows in the same order
+		Map<Integer, Map<Long, Integer>> objectCounts = new TreeMap<Integer, Map<Long, Integer>>();
+		for (BlackboardArtifact artifact : artifacts) {
+			// INSERT INTO blackboard_artifacts (artifact_id, obj_id, artifact_type_id) VALUES (?, ?, ?)
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_ARTIFACT);
 			statement.clearParameters();
-			long parentId = parent.getId();
-			statement.setLong(1, parentId);
-			rs = connection.executeQuery(statement);
-			return rsHelper.fileChildren(rs, parentId);
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
-		} finally {
-			closeResultSet(rs);
-			releaseSharedLock();
+			statement.setLong(1, artifact.getArtifactID());
+			statement.setLong(2, artifact.getObjectID());
+			statement.setInt(3, artifact.getArtifactTypeID());
+			connection.executeUpdate(statement);
+			Map<Long, Integer> counts = objectCounts.get(artifact.getArtifactTypeID());
+			if (counts == null) {
+				counts = new TreeMap<Long, Integer>();
+				objectCounts.put(artifact.getArtifactTypeID(), counts);
+			}
+			Integer count = counts.get(artifact.getObjectID());
+			counts.put(artifact.getObjectID(), count == null ? 1 : count + 1);
+		}
+		for (Map.Entry<Integer, Map<Long, Integer>> typeCounts : objectCounts.entrySet()) {
+			int artifactTypeId = typeCounts.getKey();
+			int typeTotal = 0;
+			Map<Long, Integer> dataSourceCounts = new TreeMap<Long, Integer>();
+			for (Map.Entry<Long, Integer> objectCount : typeCounts.getValue().entrySet()) {
+				addToArtifactCount(connection, ARTIFACT_COUNT_SCOPE_OBJECT, objectCount.getKey(), artifactTypeId, objectCount.getValue());
+				long dataSourceId = getDataSourceObjectId(connection, objectCount.getKey());
+				Integer count = dataSourceCounts.get(dataSourceId);
+				dataSourceCounts.put(dataSourceId, count == null ? objectCount.getValue() : count + objectCount.getValue());
+				typeTotal += objectCount.getValue();
+			}
+			for (Map.Entry<Long, Integer> dataSourceCount : dataSourceCounts.entrySet()) {
+				addToArtifactCount(connection, ARTIFACT_COUNT_SCOPE_DATA_SOURCE, dataSourceCount.getKey(), artifactTypeId, dataSourceCount.getValue());
+			}
+			addToArtifactCount(connection, ARTIFACT_COUNT_SCOPE_CASE, 0, artifactTypeId, typeTotal);
 		}
 	}
 
 	/**
-	 * Get list of IDs for abstract files of a given type that are children of a
-	 * given content.
+	 * Add to a row of the artifact counts table, adding the row if there is
+	 * none. If the backend allows it, this is done in one statement, so that
+	 * writers of other processes cannot add the row in between.
 	 *
-	 * @param parent Object to find children for
-	 * @param type Type of children to find IDs for
-	 * @return
+	 * @param connection connection with an open transaction
+	 * @param scope ARTIFACT_COUNT_SCOPE_CASE, _OBJECT or _DATA_SOURCE
+	 * @param id object id of the content or data source, 0 for the case
+	 * @param artifactTypeId the artifact type id
+	 * @param amount the number of artifacts added
+	 * @throws SQLException
+	 */
+	private void addToArtifactCount(CaseDbConnection connection, int scope, long id, int artifactTypeId, int amount) throws SQLException {
+		if (backend.supportsUpsert()) {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.UPSERT_ARTIFACT_COUNT);
+			statement.clearParameters();
+			statement.setInt(1, scope);
+			statement.setLong(2, id);
+			statement.setInt(3, artifactTypeId);
+			statement.setInt(4, amount);
+			connection.executeUpdate(statement);
+			return;
+		}
+		PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INCREMENT_ARTIFACT_COUNT);
+		statement.clearParameters();
+		statement.setInt(1, amount);
+		statement.setInt(2, scope);
+		statement.setLong(3, id);
+		statement.setInt(4, artifactTypeId);
+		if (connection.executeUpdate(statement) == 0) {
+			statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_ARTIFACT_COUNT);
+			statement.clearParameters();
+			statement.setInt(1, scope);
+			statement.setLong(2, id);
+			statement.setInt(3, artifactTypeId);
+			statement.setInt(4, amount);
+			connection.executeUpdate(statement);
+		}
+	}
+
+	/**
+	 * Get the number of artifacts of a data source, from the artifact counts
+	 * table.
+	 *
+	 * @param dataSourceObjId object id of the data source
+	 * @return the number of artifacts of the content of the data source
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public long getDataSourceArtifactsCount(long dataSourceObjId) throws TskCoreException {
+		return readArtifactCount(CaseDbConnection.PREPARED_STATEMENT.COUNT_ARTIFACTS_OF_DATA_SOURCE, dataSourceObjId, null);
+	}
+
+	/**
+	 * Get the number of artifacts of a type in a data source, from the
+	 * artifact counts table.
+	 *
+	 * @param artifactTypeID the artifact type id
+	 * @param dataSourceObjId object id of the data source
+	 * @return the number of artifacts of the type of the content of the data
+	 * source
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public long getDataSourceArtifactsCount(int artifactTypeID, long dataSourceObjId) throws TskCoreException {
+		return readArtifactCount(CaseDbConnection.PREPARED_STATEMENT.COUNT_ARTIFACTS_OF_DATA_SOURCE_AND_TYPE, dataSourceObjId, artifactTypeID);
+	}
+
+	/**
+	 * Read a count from the artifact counts table.
+	 *
+	 * @param preparedStatement the count statement, with the id as the first
+	 * parameter and the artifact type id, if any, as the second
+	 * @param id the object id
+	 * @param artifactTypeId the artifact type id, or null if the statement
+	 * has no type parameter
+	 * @return the count
 	 * @throws TskCoreException
 	 */
-	List<Long> getAbstractFileChildrenIds(Content parent, TSK_DB_FILES_TYPE_ENUM type) throws TskCoreException {
+	private long readArtifactCount(CaseDbConnection.PREPARED_STATEMENT preparedStatement, long id, Integer artifactTypeId) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_IDS_BY_PARENT_AND_TYPE);
+			PreparedStatement statement = connection.getPreparedStatement(preparedStatement);
 			statement.clearParameters();
-			statement.setLong(1, parent.getId());
-			statement.setShort(2, type.getFileType());
+			statement.setLong(1, id);
+			if (artifactTypeId != null) {
+				statement.setInt(2, artifactTypeId);
+			}
 			rs = connection.executeQuery(statement);
-			List<Long> children = new ArrayList<Long>();
-			while (rs.next()) {
-				children.add(rs.getLong(1));
+			long count = 0;
+			if (rs.next()) {
+				count = rs.getLong(1);
 			}
-			return children;
+			return count;
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
+			throw new TskCoreException("Error getting blackboard artifact count", ex);
 		} finally {
 			closeResultSet(rs);
 			releaseSharedLock();
@@ -1956,399 +2987,349 @@ List<Long> getAbstractFileChildrenIds(Content parent, TSK_DB_FILES_TYPE_ENUM typ
 	}
 
 	/**
-	 * Get list of IDs for abstract files that are children of a given content.
+	 * Check that the artifact counts table agrees with the artifacts table.
 	 *
-	 * @param parent Object to find children for
-	 * @return
-	 * @throws TskCoreException
+	 * @return true if the counts are right, false if rebuildArtifactCounts()
+	 * should be called
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	List<Long> getAbstractFileChildrenIds(Content parent) throws TskCoreException {
+	public boolean checkArtifactCounts() throws TskCoreException {
+		// actual is a compound select, so it is put in a subquery where it
+		// follows EXCEPT, which would otherwise only apply to its first part
+		String actual = "SELECT " + ARTIFACT_COUNT_SCOPE_CASE + ", 0, artifact_type_id, COUNT(*) FROM blackboard_artifacts GROUP BY artifact_type_id " //NON-NLS
+				+ "UNION ALL SELECT " + ARTIFACT_COUNT_SCOPE_OBJECT + ", obj_id, artifact_type_id, COUNT(*) FROM blackboard_artifacts GROUP BY obj_id, artifact_type_id"; //NON-NLS
+		String stored = "SELECT scope, id, artifact_type_id, count FROM blackboard_artifact_counts " //NON-NLS
+				+ "WHERE scope IN (" + ARTIFACT_COUNT_SCOPE_CASE + ", " + ARTIFACT_COUNT_SCOPE_OBJECT + ") AND count > 0"; //NON-NLS
+		// the data source counts of each type must add up to the case count
+		String dataSources = "SELECT COUNT(*) FROM blackboard_artifact_counts AS cases WHERE scope = " + ARTIFACT_COUNT_SCOPE_CASE //NON-NLS
+				+ " AND count <> COALESCE((SELECT SUM(count) FROM blackboard_artifact_counts AS ds WHERE ds.scope = " + ARTIFACT_COUNT_SCOPE_DATA_SOURCE //NON-NLS
+				+ " AND ds.artifact_type_id = cases.artifact_type_id), 0)"; //NON-NLS
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
+		Statement s = null;
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_IDS_BY_PARENT);
-			statement.clearParameters();
-			statement.setLong(1, parent.getId());
-			rs = connection.executeQuery(statement);
-			List<Long> children = new ArrayList<Long>();
-			while (rs.next()) {
-				children.add(rs.getLong(1));
+			s = connection.createStatement();
+			for (String sql : new String[]{
+				"SELECT COUNT(*) FROM (" + actual + " EXCEPT " + stored + ") AS missing", //NON-NLS
+				"SELECT COUNT(*) FROM (" + stored + " EXCEPT SELECT * FROM (" + actual + ") AS actual) AS extra", //NON-NLS
+				dataSources}) {
+				rs = connection.executeQuery(s, sql);
+				rs.next();
+				long mismatches = rs.getLong(1);
+				rs.close();
+				rs = null;
+				if (mismatches > 0) {
+					return false;
+				}
 			}
-			return children;
+			return true;
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
+			throw new TskCoreException("Error checking artifact counts", ex);
 		} finally {
 			closeResultSet(rs);
+			closeStatement(s);
 			releaseSharedLock();
 		}
 	}
 
 	/**
-	 * Stores a pair of object ID and its type
-	 */
-	static class ObjectInfo {
-
-		long id;
-		TskData.ObjectType type;
-
-		ObjectInfo(long id, ObjectType type) {
-			this.id = id;
-			this.type = type;
-		}
-	}
-
-	/**
-	 * Get info about children of a given Content from the database. TODO: the
-	 * results of this method are volumes, file systems, and fs files.
+	 * Recompute the artifact counts table from the artifacts table.
 	 *
-	 * @param c Parent object to run query against
 	 * @throws TskCoreException exception thrown if a critical error occurs
 	 * within tsk core
 	 */
-	Collection<ObjectInfo> getChildrenInfo(Content c) throws TskCoreException {
+	public void rebuildArtifactCounts() throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
+		acquireDomainLock(LockDomain.BLACKBOARD);
 		Statement s = null;
-		ResultSet rs = null;
 		try {
 			s = connection.createStatement();
-			rs = connection.executeQuery(s, "SELECT tsk_objects.obj_id, tsk_objects.type " //NON-NLS
-					+ "FROM tsk_objects left join tsk_files " //NON-NLS
-					+ "ON tsk_objects.obj_id=tsk_files.obj_id " //NON-NLS
-					+ "WHERE tsk_objects.par_obj_id = " + c.getId()); //NON-NLS
-			Collection<ObjectInfo> infos = new ArrayList<ObjectInfo>();
-			while (rs.next()) {
-				infos.add(new ObjectInfo(rs.getLong("obj_id"), ObjectType.valueOf(rs.getShort("type")))); //NON-NLS
+			connection.beginTransaction();
+			connection.executeUpdate(s, "DROP TABLE IF EXISTS tsk_artifact_data_sources"); //NON-NLS
+			connection.executeUpdate(s, "DELETE FROM blackboard_artifact_counts"); //NON-NLS
+			connection.executeUpdate(s, CREATE_ARTIFACT_DATA_SOURCES_SQL);
+			connection.executeUpdate(s, FILL_ARTIFACT_DATA_SOURCES_SQL);
+			while (connection.executeUpdate(s, UPDATE_ARTIFACT_DATA_SOURCES_SQL) > 0) {
+				// each update finds the data sources of one batch of artifacts
 			}
-			return infos;
+			for (String sql : COUNT_ARTIFACTS_SQL) {
+				connection.executeUpdate(s, sql);
+			}
+			connection.commitTransaction();
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting Children Info for Content", ex);
+			connection.rollbackTransaction();
+			throw new TskCoreException("Error rebuilding artifact counts", ex);
 		} finally {
-			closeResultSet(rs);
 			closeStatement(s);
-			releaseSharedLock();
+			releaseDomainLock(LockDomain.BLACKBOARD);
 		}
 	}
 
 	/**
-	 * Get parent info for the parent of the content object
+	 * Checks if the content object has children. Note: this is generally more
+	 * efficient then preloading all children and checking if the set is empty,
+	 * and facilities lazy loading.
 	 *
-	 * @param c content object to get parent info for
-	 * @return the parent object info with the parent object type and id
+	 * @param content content object to check for children
+	 * @return true if has children, false otherwise
 	 * @throws TskCoreException exception thrown if a critical error occurs
 	 * within tsk core
 	 */
-	ObjectInfo getParentInfo(Content c) throws TskCoreException {
-		// TODO: This should not throw an exception if Content has no parent, 
-		// return null instead.
+	boolean getContentHasChildren(Content content) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
-		Statement s = null;
 		ResultSet rs = null;
 		try {
-			s = connection.createStatement();
-			rs = connection.executeQuery(s, "SELECT parent.obj_id, parent.type " //NON-NLS
-					+ "FROM tsk_objects AS parent INNER JOIN tsk_objects AS child " //NON-NLS
-					+ "ON child.par_obj_id = parent.obj_id " //NON-NLS
-					+ "WHERE child.obj_id = " + c.getId()); //NON-NLS
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.COUNT_CHILD_OBJECTS_BY_PARENT);
+			statement.clearParameters();
+			statement.setLong(1, content.getId());
+			rs = connection.executeQuery(statement);
+			boolean hasChildren = false;
 			if (rs.next()) {
-				return new ObjectInfo(rs.getLong(1), ObjectType.valueOf(rs.getShort(2)));
-			} else {
-				throw new TskCoreException("Given content (id: " + c.getId() + ") has no parent");
+				hasChildren = rs.getInt(1) > 0;
 			}
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting Parent Info for Content", ex);
+			return hasChildren;
+		} catch (SQLException e) {
+			throw new TskCoreException("Error checking for children of parent " + content, e);
 		} finally {
 			closeResultSet(rs);
-			closeStatement(s);
 			releaseSharedLock();
 		}
 	}
 
 	/**
-	 * Get parent info for the parent of the content object id
+	 * Counts if the content object children. Note: this is generally more
+	 * efficient then preloading all children and counting, and facilities lazy
+	 * loading.
 	 *
-	 * @param id content object id to get parent info for
-	 * @return the parent object info with the parent object type and id
+	 * @param content content object to check for children count
+	 * @return children count
 	 * @throws TskCoreException exception thrown if a critical error occurs
 	 * within tsk core
 	 */
-	ObjectInfo getParentInfo(long contentId) throws TskCoreException {
-		// TODO: This should not throw an exception if Content has no parent, 
-		// return null instead.
+	int getContentChildrenCount(Content content) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
-		Statement s = null;
 		ResultSet rs = null;
 		try {
-			s = connection.createStatement();
-			rs = connection.executeQuery(s, "SELECT parent.obj_id, parent.type " //NON-NLS
-					+ "FROM tsk_objects AS parent INNER JOIN tsk_objects AS child " //NON-NLS
-					+ "ON child.par_obj_id = parent.obj_id " //NON-NLS
-					+ "WHERE child.obj_id = " + contentId); //NON-NLS
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.COUNT_CHILD_OBJECTS_BY_PARENT);
+			statement.clearParameters();
+			statement.setLong(1, content.getId());
+			rs = connection.executeQuery(statement);
+			int countChildren = -1;
 			if (rs.next()) {
-				return new ObjectInfo(rs.getLong(1), ObjectType.valueOf(rs.getShort(2)));
-			} else {
-				throw new TskCoreException("Given content (id: " + contentId + ") has no parent.");
+				countChildren = rs.getInt(1);
 			}
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting Parent Info for Content: " + contentId, ex);
+			return countChildren;
+		} catch (SQLException e) {
+			throw new TskCoreException("Error checking for children of parent " + content, e);
 		} finally {
 			closeResultSet(rs);
-			closeStatement(s);
 			releaseSharedLock();
 		}
 	}
 
 	/**
-	 * Gets parent directory for FsContent object
+	 * Count the children of many content objects with one grouped query per
+	 * MAX_IDS_PER_QUERY objects, instead of one query each.
 	 *
-	 * @param fsc FsContent to get parent dir for
-	 * @return the parent Directory
-	 * @throws TskCoreException thrown if critical error occurred within tsk
-	 * core
+	 * @param parentIds ids of the content objects
+	 * @return map of id to number of children, with an entry for every id
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	Directory getParentDirectory(FsContent fsc) throws TskCoreException {
-		// TODO: This should not throw an exception if Content has no parent, 
-		// return null instead.
-		if (fsc.isRoot()) {
-			throw new TskCoreException("Given FsContent (id: " + fsc.getId() + ") is a root object (can't have parent directory).");
-		} else {
-			ObjectInfo parentInfo = getParentInfo(fsc);
-			Directory parent = null;
-			if (parentInfo.type == ObjectType.ABSTRACTFILE) {
-				parent = getDirectoryById(parentInfo.id, fsc.getFileSystem());
-			} else {
-				throw new TskCoreException("Parent of FsContent (id: " + fsc.getId() + ") has wrong type to be directory: " + parentInfo.type);
+	public Map<Long, Integer> getContentChildrenCounts(long[] parentIds) throws TskCoreException {
+		Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		for (long parentId : parentIds) {
+			counts.put(parentId, 0);
+		}
+		CaseDbConnection connection = connections.getConnection();
+		for (int start = 0; start < parentIds.length; start += MAX_IDS_PER_QUERY) {
+			int end = Math.min(start + MAX_IDS_PER_QUERY, parentIds.length);
+			String query = "SELECT par_obj_id, COUNT(obj_id) FROM tsk_objects WHERE par_obj_id IN (" //NON-NLS
+					+ makeIdList(parentIds, start, end) + ") GROUP BY par_obj_id"; //NON-NLS
+
+			acquireSharedLock();
+			Statement s = null;
+			ResultSet rs = null;
+			try {
+				s = connection.createStatement();
+				rs = connection.executeQuery(s, query);
+				while (rs.next()) {
+					counts.put(rs.getLong(1), rs.getInt(2));
+				}
+			} catch (SQLException ex) {
+				throw new TskCoreException("Error counting children of content", ex);
+			} finally {
+				closeResultSet(rs);
+				closeStatement(s);
+				releaseSharedLock();
 			}
-			return parent;
 		}
+		return counts;
 	}
 
 	/**
-	 * Get content object by content id
+	 * Count the children of many content objects at once (see
+	 * getContentChildrenCounts()) and store the counts in the objects, so that
+	 * their hasChildren() and getChildrenCount() methods do not query the
+	 * case database. Objects that already know their count are skipped.
 	 *
-	 * @param id to get content object for
-	 * @return instance of a Content object (one of its subclasses), or null if
-	 * not found.
-	 * @throws TskCoreException thrown if critical error occurred within tsk
-	 * core
-	 */
-	public Content getContentById(long id) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		Statement s = null;
-		ResultSet rs = null;
-		try {
-			s = connection.createStatement();
-			rs = connection.executeQuery(s, "SELECT * FROM tsk_objects WHERE obj_id = " + id + " LIMIT  1"); //NON-NLS
-			if (!rs.next()) {
-				return null;
-			}
-
-			AbstractContent content = null;
-			long parentId = rs.getLong("par_obj_id"); //NON-NLS
-			final TskData.ObjectType type = TskData.ObjectType.valueOf(rs.getShort("type")); //NON-NLS
-			switch (type) {
-				case IMG:
-					content = getImageById(id);
-					break;
-				case VS:
-					content = getVolumeSystemById(id, parentId);
-					break;
-				case VOL:
-					content = getVolumeById(id, parentId);
-					break;
-				case FS:
-					content = getFileSystemById(id, parentId);
-					break;
-				case ABSTRACTFILE:
-					content = getAbstractFileById(id);
-					break;
-				default:
-					throw new TskCoreException("Could not obtain Content object with ID: " + id);
+	 * @param contents the content objects
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public void loadChildrenCounts(List<? extends Content> contents) throws TskCoreException {
+		List<AbstractContent> toLoad = new ArrayList<AbstractContent>();
+		for (Content content : contents) {
+			if (content instanceof AbstractContent && !((AbstractContent) content).isChildrenCountKnown()) {
+				toLoad.add((AbstractContent) content);
 			}
-			return content;
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting Content by ID.", ex);
-		} finally {
-			closeResultSet(rs);
-			closeStatement(s);
-			releaseSharedLock();
+		}
+		if (toLoad.isEmpty()) {
+			return;
+		}
+		long[] ids = new long[toLoad.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = toLoad.get(i).getId();
+		}
+		Map<Long, Integer> counts = getContentChildrenCounts(ids);
+		for (AbstractContent content : toLoad) {
+			content.setChildrenCount(counts.get(content.getId()));
 		}
 	}
 
 	/**
-	 * Get a path of a file in tsk_files_path table or null if there is none
+	 * Returns the list of AbstractFile Children of a given type for a given
+	 * AbstractFileParent
 	 *
-	 * @param id id of the file to get path for
-	 * @return file path or null
+	 * @param parent the content parent to get abstract file children for
+	 * @param type children type to look for, defined in TSK_DB_FILES_TYPE_ENUM
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	String getFilePath(long id) {
-		CaseDbConnection connection;
-		try {
-			connection = connections.getConnection();
-		} catch (TskCoreException ex) {
-			logger.log(Level.SEVERE, "Error getting file path for file " + id, ex); //NON-NLS			
-			return null;
-		}
-		String filePath = null;
+	List<Content> getAbstractFileChildren(Content parent, TSK_DB_FILES_TYPE_ENUM type) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_LOCAL_PATH_FOR_FILE);
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILES_BY_PARENT_AND_TYPE);
 			statement.clearParameters();
-			statement.setLong(1, id);
+			long parentId = parent.getId();
+			statement.setLong(1, parentId);
+			statement.setShort(2, type.getFileType());
 			rs = connection.executeQuery(statement);
-			if (rs.next()) {
-				filePath = rs.getString(1);
-			}
+			return rsHelper.fileChildren(rs, parentId);
 		} catch (SQLException ex) {
-			logger.log(Level.SEVERE, "Error getting file path for file " + id, ex); //NON-NLS
+			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
 		} finally {
 			closeResultSet(rs);
 			releaseSharedLock();
 		}
-		return filePath;
 	}
 
 	/**
-	 * Get a parent_path of a file in tsk_files table or null if there is none
+	 * Returns the list of all AbstractFile Children for a given
+	 * AbstractFileParent
 	 *
-	 * @param id id of the file to get path for
-	 * @return file path or null
+	 * @param parent the content parent to get abstract file children for
+	 * @param type children type to look for, defined in TSK_DB_FILES_TYPE_ENUM
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	String getFileParentPath(long id) {
-		CaseDbConnection connection;
-		try {
-			connection = connections.getConnection();
-		} catch (TskCoreException ex) {
-			logger.log(Level.SEVERE, "Error getting parent file path for file " + id, ex); //NON-NLS			
-			return null;
-		}
-		String parentPath = null;
+	List<Content> getAbstractFileChildren(Content parent) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_PATH_FOR_FILE);
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILES_BY_PARENT);
 			statement.clearParameters();
-			statement.setLong(1, id);
+			long parentId = parent.getId();
+			statement.setLong(1, parentId);
 			rs = connection.executeQuery(statement);
-			if (rs.next()) {
-				parentPath = rs.getString(1);
-			}
+			return rsHelper.fileChildren(rs, parentId);
 		} catch (SQLException ex) {
-			logger.log(Level.SEVERE, "Error getting file parent_path for file " + id, ex); //NON-NLS
+			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
 		} finally {
 			closeResultSet(rs);
 			releaseSharedLock();
 		}
-		return parentPath;
 	}
 
 	/**
-	 * Get a name of a file in tsk_files table or null if there is none
+	 * Get list of IDs for abstract files of a given type that are children of a
+	 * given content.
 	 *
-	 * @param id id of the file to get name for
-	 * @return file name or null
+	 * @param parent Object to find children for
+	 * @param type Type of children to find IDs for
+	 * @return
+	 * @throws TskCoreException
 	 */
-	String getFileName(long id) {
-		CaseDbConnection connection;
-		try {
-			connection = connections.getConnection();
-		} catch (TskCoreException ex) {
-			logger.log(Level.SEVERE, "Error getting file name for file " + id, ex); //NON-NLS			
-			return null;
-		}
-		String fileName = null;
+	List<Long> getAbstractFileChildrenIds(Content parent, TSK_DB_FILES_TYPE_ENUM type) throws TskCoreException {
+		return toLongList(getAbstractFileChildrenIdArray(parent, type));
+	}
+
+	/**
+	 * Get the IDs of the abstract files of a given type that are children of a
+	 * given content, without boxing them.
+	 *
+	 * @param parent Object to find children for
+	 * @param type Type of children to find IDs for
+	 * @return
+	 * @throws TskCoreException
+	 */
+	long[] getAbstractFileChildrenIdArray(Content parent, TSK_DB_FILES_TYPE_ENUM type) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_NAME);
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_IDS_BY_PARENT_AND_TYPE);
 			statement.clearParameters();
-			statement.setLong(1, id);
+			statement.setLong(1, parent.getId());
+			statement.setShort(2, type.getFileType());
 			rs = connection.executeQuery(statement);
-			if (rs.next()) {
-				fileName = rs.getString(1);
-			}
+			return readIds(rs);
 		} catch (SQLException ex) {
-			logger.log(Level.SEVERE, "Error getting file parent_path for file " + id, ex); //NON-NLS
+			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
 		} finally {
 			closeResultSet(rs);
 			releaseSharedLock();
 		}
-		return fileName;
 	}
 
 	/**
-	 * Get a derived method for a file, or null if none
+	 * Get list of IDs for abstract files that are children of a given content.
 	 *
-	 * @param id id of the derived file
-	 * @return derived method or null if not present
-	 * @throws TskCoreException exception throws if core error occurred and
-	 * method could not be queried
+	 * @param parent Object to find children for
+	 * @return
+	 * @throws TskCoreException
 	 */
-	DerivedFile.DerivedMethod getDerivedMethod(long id) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		DerivedFile.DerivedMethod method = null;
-		acquireSharedLock();
-		ResultSet rs1 = null;
-		ResultSet rs2 = null;
-		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_DERIVED_FILE);
-			statement.clearParameters();
-			statement.setLong(1, id);
-			rs1 = connection.executeQuery(statement);
-			if (rs1.next()) {
-				int method_id = rs1.getInt(1);
-				String rederive = rs1.getString(1);
-				method = new DerivedFile.DerivedMethod(method_id, rederive);
-				statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_DERIVATION_METHOD);
-				statement.clearParameters();
-				statement.setInt(1, method_id);
-				rs2 = connection.executeQuery(statement);
-				if (rs2.next()) {
-					method.setToolName(rs2.getString(1));
-					method.setToolVersion(rs2.getString(2));
-					method.setOther(rs2.getString(3));
-				}
-			}
-		} catch (SQLException e) {
-			logger.log(Level.SEVERE, "Error getting derived method for file: " + id, e); //NON-NLS
-		} finally {
-			closeResultSet(rs2);
-			closeResultSet(rs1);
-			releaseSharedLock();
-		}
-		return method;
+	List<Long> getAbstractFileChildrenIds(Content parent) throws TskCoreException {
+		return toLongList(getAbstractFileChildrenIdArray(parent));
 	}
 
 	/**
-	 * Get abstract file object from tsk_files table by its id
+	 * Get the IDs of the abstract files that are children of a given content,
+	 * without boxing them.
 	 *
-	 * @param id id of the file object in tsk_files table
-	 * @return AbstractFile object populated, or null if not found.
-	 * @throws TskCoreException thrown if critical error occurred within tsk
-	 * core and file could not be queried
+	 * @param parent Object to find children for
+	 * @return
+	 * @throws TskCoreException
 	 */
-	public AbstractFile getAbstractFileById(long id) throws TskCoreException {
+	long[] getAbstractFileChildrenIdArray(Content parent) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_BY_ID);
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_IDS_BY_PARENT);
 			statement.clearParameters();
-			statement.setLong(1, id);
+			statement.setLong(1, parent.getId());
 			rs = connection.executeQuery(statement);
-			List<AbstractFile> results;
-			if ((results = resultSetToAbstractFiles(rs)).size() > 0) {
-				return results.get(0);
-			} else {
-				return null;
-			}
+			return readIds(rs);
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting file by id, id = " + id, ex);
+			throw new TskCoreException("Error getting AbstractFile children for Content", ex);
 		} finally {
 			closeResultSet(rs);
 			releaseSharedLock();
@@ -2356,409 +3337,1247 @@ public AbstractFile getAbstractFileById(long id) throws TskCoreException {
 	}
 
 	/**
-	 * Get the object ID of the file system that a file is located in.
-	 *
-	 * Note: for FsContent files, this is the real fs for other non-fs
-	 * AbstractFile files, this field is used internally for data source id (the
-	 * root content obj)
+	 * Receives the files of a subtree loaded by visitFileSubtree().
+	 */
+	public interface FileSubtreeVisitor {
+
+		/**
+		 * Called for each file of the subtree, one level at a time (all of
+		 * the children of the root, then all of their children, and so on).
+		 * The parent of the file is already set.
+		 *
+		 * @param file a file in the subtree
+		 * @param depth 1 for the children of the root, 2 for their children,
+		 * and so on
+		 * @return true to continue, false to stop loading the subtree
+		 * @throws TskCoreException to stop loading the subtree with an error
+		 */
+		boolean visit(AbstractFile file, int depth) throws TskCoreException;
+	}
+
+	/**
+	 * Load all of the files under a content object (a data source, volume,
+	 * file system, directory, file with derived files, etc.). See
+	 * visitFileSubtree().
 	 *
-	 * @param fileId object id of the file to get fs column id for
-	 * @return fs_id or -1 if not present
+	 * @param root the content to load the subtree of
+	 * @param maxDepth the number of levels to load (1 for the children of
+	 * the root only), or -1 for all levels
+	 * @return the files, one level at a time, with their parents set
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	private long getFileSystemId(long fileId) {
-		CaseDbConnection connection;
-		try {
-			connection = connections.getConnection();
-		} catch (TskCoreException ex) {
-			logger.log(Level.SEVERE, "Error getting file system id for file " + fileId, ex); //NON-NLS			
-			return -1;
-		}
-		acquireSharedLock();
-		ResultSet rs = null;
-		long ret = -1;
-		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_SYSTEM_BY_OBJECT);
-			statement.clearParameters();
-			statement.setLong(1, fileId);
-			rs = connection.executeQuery(statement);
-			if (rs.next()) {
-				ret = rs.getLong(1);
-				if (ret == 0) {
-					ret = -1;
-				}
+	public List<AbstractFile> getFileSubtree(Content root, int maxDepth) throws TskCoreException {
+		final List<AbstractFile> files = new ArrayList<AbstractFile>();
+		visitFileSubtree(root, maxDepth, new FileSubtreeVisitor() {
+			@Override
+			public boolean visit(AbstractFile file, int depth) {
+				files.add(file);
+				return true;
 			}
-		} catch (SQLException e) {
-			logger.log(Level.SEVERE, "Error checking file system id of a file, id = " + fileId, e); //NON-NLS
-		} finally {
-			closeResultSet(rs);
-			releaseSharedLock();
+		});
+		return files;
+	}
+
+	/**
+	 * Load the files under a content object one level at a time, with a
+	 * query per level (per MAX_IDS_PER_QUERY parents of the level)
+	 * instead of a query per directory, and pass them to a visitor. Only the
+	 * current and previous levels are kept in memory, so this can be used on
+	 * subtrees that are too large to load at once. The lock on the case
+	 * database is not held while the visitor is called.
+	 *
+	 * @param root the content to load the subtree of
+	 * @param maxDepth the number of levels to load (1 for the children of
+	 * the root only), or -1 for all levels
+	 * @param visitor receives the files
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core, or thrown by the visitor
+	 */
+	public void visitFileSubtree(Content root, int maxDepth, FileSubtreeVisitor visitor) throws TskCoreException {
+		Map<Long, Content> parents = new HashMap<Long, Content>();
+		parents.put(root.getId(), root);
+		int depth = 1;
+		while (!parents.isEmpty() && (maxDepth < 0 || depth <= maxDepth)) {
+			Map<Long, Content> nextParents = new HashMap<Long, Content>();
+			long[] parentIds = new long[parents.size()];
+			int i = 0;
+			for (Long id : parents.keySet()) {
+				parentIds[i++] = id;
+			}
+			for (int start = 0; start < parentIds.length; start += MAX_IDS_PER_QUERY) {
+				int end = Math.min(start + MAX_IDS_PER_QUERY, parentIds.length);
+				List<SubtreeRow> rows = getSubtreeRows(parentIds, start, end, true);
+
+				// call the visitor without holding the lock on the case database
+				for (SubtreeRow row : rows) {
+					row.file.setParent(parents.get(row.parentId));
+					if (!visitor.visit(row.file, depth)) {
+						return;
+					}
+					if (row.childCount > 0) {
+						nextParents.put(row.file.getId(), row.file);
+					}
+				}
+			}
+			parents = nextParents;
+			depth++;
 		}
-		return ret;
 	}
 
 	/**
-	 * Checks if the file is a (sub)child of the data source (parentless Content
-	 * object such as Image or VirtualDirectory representing filesets)
+	 * Get the object ids of all of the files under a content object, one
+	 * level at a time. See visitFileSubtree().
 	 *
-	 * @param dataSource dataSource to check
-	 * @param fileId id of file to check
-	 * @return true if the file is in the dataSource hierarchy
-	 * @throws TskCoreException thrown if check failed
+	 * @param root the content to get the subtree of
+	 * @param maxDepth the number of levels to get (1 for the children of the
+	 * root only), or -1 for all levels
+	 * @return the ids of the files
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	public boolean isFileFromSource(Content dataSource, long fileId) throws TskCoreException {
-		if (dataSource.getParent() != null) {
-			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.isFileFromSource.exception.msg.text"), dataSource);
-			logger.log(Level.SEVERE, msg);
-			throw new IllegalArgumentException(msg);
+	public long[] getFileSubtreeIds(Content root, int maxDepth) throws TskCoreException {
+		long[] ids = new long[16];
+		int numIds = 0;
+		long[] parentIds = new long[]{root.getId()};
+		int depth = 1;
+		while (parentIds.length > 0 && (maxDepth < 0 || depth <= maxDepth)) {
+			long[] nextParentIds = new long[16];
+			int numNextParentIds = 0;
+			for (int start = 0; start < parentIds.length; start += MAX_IDS_PER_QUERY) {
+				int end = Math.min(start + MAX_IDS_PER_QUERY, parentIds.length);
+				for (SubtreeRow row : getSubtreeRows(parentIds, start, end, false)) {
+					if (numIds == ids.length) {
+						ids = Arrays.copyOf(ids, ids.length * 2);
+					}
+					ids[numIds++] = row.id;
+					if (row.childCount > 0) {
+						if (numNextParentIds == nextParentIds.length) {
+							nextParentIds = Arrays.copyOf(nextParentIds, nextParentIds.length * 2);
+						}
+						nextParentIds[numNextParentIds++] = row.id;
+					}
+				}
+			}
+			parentIds = Arrays.copyOf(nextParentIds, numNextParentIds);
+			depth++;
 		}
+		return Arrays.copyOf(ids, numIds);
+	}
 
-		//get fs_id for file id
-		long fsId = getFileSystemId(fileId);
-		if (fsId == -1) {
-			return false;
+	/**
+	 * A file loaded by getSubtreeRows()
+	 */
+	private static class SubtreeRow {
+
+		long id;
+		long parentId;
+		int childCount;
+		AbstractFile file; // null if only the ids were loaded
+	}
+
+	/**
+	 * Get the file children of some of the given parents, with the number of
+	 * children of each one.
+	 *
+	 * @param parentIds ids of the parents
+	 * @param start index of the first parent id to use
+	 * @param end index after the last parent id to use
+	 * @param loadFiles true to make the file objects, false to get ids only
+	 * @return the children
+	 * @throws TskCoreException
+	 */
+	private List<SubtreeRow> getSubtreeRows(long[] parentIds, int start, int end, boolean loadFiles) throws TskCoreException {
+		StringBuilder query = new StringBuilder();
+		query.append(loadFiles ? "SELECT tsk_files.*, " : "SELECT tsk_files.obj_id, "); //NON-NLS
+		query.append("tsk_objects.par_obj_id AS subtree_par_obj_id, " //NON-NLS
+				+ CaseDbConnection.FILE_CHILD_COUNT_COLUMN + " " //NON-NLS
+				+ "FROM tsk_objects INNER JOIN tsk_files ON tsk_objects.obj_id = tsk_files.obj_id " //NON-NLS
+				+ "WHERE tsk_objects.par_obj_id IN ("); //NON-NLS
+		query.append(makeIdList(parentIds, start, end)).append(')');
+		if (loadFiles) {
+			query.append(" ORDER BY tsk_objects.par_obj_id, tsk_files.dir_type, tsk_files.name COLLATE NOCASE"); //NON-NLS
 		}
 
-		//if image, check if one of fs in data source
-		if (dataSource instanceof Image) {
-			Collection<FileSystem> fss = getFileSystems((Image) dataSource);
-			for (FileSystem fs : fss) {
-				if (fs.getId() == fsId) {
-					return true;
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, query.toString());
+			List<SubtreeRow> rows = new ArrayList<SubtreeRow>();
+			while (rs.next()) {
+				SubtreeRow row = new SubtreeRow();
+				row.id = rs.getLong("obj_id"); //NON-NLS
+				row.parentId = rs.getLong("subtree_par_obj_id"); //NON-NLS
+				row.childCount = rs.getInt("child_count"); //NON-NLS
+				if (loadFiles) {
+					row.file = rsHelper.fileChild(rs, row.parentId);
+					if (row.file == null) {
+						continue;
+					}
+					row.file.setChildrenCount(row.childCount);
 				}
+				rows.add(row);
 			}
-			return false;
-		} //if VirtualDirectory, check if dataSource id is the fs_id
-		else if (dataSource instanceof VirtualDirectory) {
-			//fs_obj_id is not a real fs in this case
-			//we are currently using this field internally to get to data source of non-fs files quicker
-			//this will be fixed in 2.5 schema
-			return dataSource.getId() == fsId;
-		} else {
-			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.isFileFromSource.exception.msg2.text"), dataSource);
-			logger.log(Level.SEVERE, msg);
-			throw new IllegalArgumentException(msg);
+			return rows;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting file subtree", ex);
+		} finally {
+			closeResultSet(rs);
+			closeStatement(s);
+			releaseSharedLock();
 		}
 	}
 
 	/**
-	 * @param dataSource the dataSource (Image, parent-less VirtualDirectory) to
-	 * search for the given file name
-	 * @param fileName Pattern of the name of the file or directory to match
-	 * (case insensitive, used in LIKE SQL statement).
-	 * @return a list of AbstractFile for files/directories whose name matches
-	 * the given fileName
-	 * @throws TskCoreException thrown if check failed
+	 * Stores a pair of object ID and its type
 	 */
-	public List<AbstractFile> findFiles(Content dataSource, String fileName) throws TskCoreException {
-		if (dataSource.getParent() != null) {
-			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.isFileFromSource.exception.msg1.text"), dataSource);
-			logger.log(Level.SEVERE, msg);
-			throw new IllegalArgumentException(msg);
+	static class ObjectInfo {
+
+		long id;
+		TskData.ObjectType type;
+
+		ObjectInfo(long id, ObjectType type) {
+			this.id = id;
+			this.type = type;
 		}
+	}
 
-		List<AbstractFile> files = new ArrayList<AbstractFile>();
+	/**
+	 * Get info about children of a given Content from the database. TODO: the
+	 * results of this method are volumes, file systems, and fs files.
+	 *
+	 * @param c Parent object to run query against
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	Collection<ObjectInfo> getChildrenInfo(Content c) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
+		Statement s = null;
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILES_BY_FILE_SYSTEM_AND_NAME);
-			statement.clearParameters();
-			if (dataSource instanceof Image) {
-				for (FileSystem fileSystem : getFileSystems((Image) dataSource)) {
-					statement.setString(1, fileName.toLowerCase());
-					statement.setLong(2, fileSystem.getId());
-					rs = connection.executeQuery(statement);
-					files.addAll(resultSetToAbstractFiles(rs));
-				}
-			} else if (dataSource instanceof VirtualDirectory) {
-				//fs_obj_id is special for non-fs files (denotes data source)
-				statement.setString(1, fileName.toLowerCase());
-				statement.setLong(2, dataSource.getId());
-				rs = connection.executeQuery(statement);
-				files = resultSetToAbstractFiles(rs);
-			} else {
-				final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.findFiles.exception.msg2.text"), dataSource);
-				logger.log(Level.SEVERE, msg);
-				throw new IllegalArgumentException(msg);
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, "SELECT tsk_objects.obj_id, tsk_objects.type " //NON-NLS
+					+ "FROM tsk_objects left join tsk_files " //NON-NLS
+					+ "ON tsk_objects.obj_id=tsk_files.obj_id " //NON-NLS
+					+ "WHERE tsk_objects.par_obj_id = " + c.getId()); //NON-NLS
+			Collection<ObjectInfo> infos = new ArrayList<ObjectInfo>();
+			while (rs.next()) {
+				infos.add(new ObjectInfo(rs.getLong("obj_id"), ObjectType.valueOf(rs.getShort("type")))); //NON-NLS
 			}
-		} catch (SQLException e) {
-			throw new TskCoreException(bundle.getString("SleuthkitCase.findFiles.exception.msg3.text"), e);
+			return infos;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting Children Info for Content", ex);
 		} finally {
 			closeResultSet(rs);
+			closeStatement(s);
 			releaseSharedLock();
 		}
-		return files;
 	}
 
 	/**
-	 * @param dataSource the dataSource (Image, parent-less VirtualDirectory) to
-	 * search for the given file name
-	 * @param fileName Pattern of the name of the file or directory to match
-	 * (case insensitive, used in LIKE SQL statement).
-	 * @param dirName Pattern of the name of a parent directory of fileName
-	 * (case insensitive, used in LIKE SQL statement)
-	 * @return a list of AbstractFile for files/directories whose name matches
-	 * fileName and whose parent directory contains dirName.
-	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 * Get parent info for the parent of the content object
+	 *
+	 * @param c content object to get parent info for
+	 * @return the parent object info with the parent object type and id
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	public List<AbstractFile> findFiles(Content dataSource, String fileName, String dirName) throws TskCoreException {
-		if (dataSource.getParent() != null) {
-			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.findFiles3.exception.msg1.text"), dataSource);
-			logger.log(Level.SEVERE, msg);
-			throw new IllegalArgumentException(msg);
-		}
-
-		List<AbstractFile> files = new ArrayList<AbstractFile>();
+	ObjectInfo getParentInfo(Content c) throws TskCoreException {
+		// TODO: This should not throw an exception if Content has no parent, 
+		// return null instead.
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
+		Statement s = null;
 		ResultSet rs = null;
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILES_BY_FILE_SYSTEM_AND_PATH);
-			statement.clearParameters();
-			if (dataSource instanceof Image) {
-				for (FileSystem fileSystem : getFileSystems((Image) dataSource)) {
-					statement.setString(1, fileName.toLowerCase());
-					statement.setString(2, "%" + dirName.toLowerCase() + "%"); //NON-NLS
-					statement.setLong(3, fileSystem.getId());
-					rs = connection.executeQuery(statement);
-					files.addAll(resultSetToAbstractFiles(rs));
-				}
-			} else if (dataSource instanceof VirtualDirectory) {
-				statement.setString(1, fileName.toLowerCase());
-				statement.setString(2, "%" + dirName.toLowerCase() + "%"); //NON-NLS
-				statement.setLong(3, dataSource.getId());
-				rs = connection.executeQuery(statement);
-				files = resultSetToAbstractFiles(rs);
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, "SELECT parent.obj_id, parent.type " //NON-NLS
+					+ "FROM tsk_objects AS parent INNER JOIN tsk_objects AS child " //NON-NLS
+					+ "ON child.par_obj_id = parent.obj_id " //NON-NLS
+					+ "WHERE child.obj_id = " + c.getId()); //NON-NLS
+			if (rs.next()) {
+				return new ObjectInfo(rs.getLong(1), ObjectType.valueOf(rs.getShort(2)));
 			} else {
-				final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.findFiles3.exception.msg2.text"), dataSource);
-				logger.log(Level.SEVERE, msg);
-				throw new IllegalArgumentException(msg);
+				throw new TskCoreException("Given content (id: " + c.getId() + ") has no parent");
 			}
-		} catch (SQLException e) {
-			throw new TskCoreException(bundle.getString("SleuthkitCase.findFiles3.exception.msg3.text"), e);
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting Parent Info for Content", ex);
 		} finally {
-			if (rs != null) {
-				try {
-					rs.close();
-				} catch (SQLException ex) {
-					logger.log(Level.WARNING, "Error closing result set after finding files", ex); //NON-NLS
-				}
-			}
+			closeResultSet(rs);
+			closeStatement(s);
 			releaseSharedLock();
 		}
-		return files;
 	}
 
 	/**
-	 * wraps the version of addVirtualDirectory that takes a Transaction in a
-	 * transaction local to this method
+	 * Get parent info for the parent of the content object id
 	 *
-	 * @param parentId
-	 * @param directoryName
-	 * @return
-	 * @throws TskCoreException
+	 * @param id content object id to get parent info for
+	 * @return the parent object info with the parent object type and id
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	public VirtualDirectory addVirtualDirectory(long parentId, String directoryName) throws TskCoreException {
-		acquireExclusiveLock();
-		CaseDbTransaction localTrans = beginTransaction();
+	ObjectInfo getParentInfo(long contentId) throws TskCoreException {
+		// TODO: This should not throw an exception if Content has no parent, 
+		// return null instead.
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		Statement s = null;
+		ResultSet rs = null;
 		try {
-			VirtualDirectory newVD = addVirtualDirectory(parentId, directoryName, localTrans);
-			localTrans.commit();
-			return newVD;
-		} catch (TskCoreException ex) {
-			localTrans.rollback();
-			throw ex;
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, "SELECT parent.obj_id, parent.type " //NON-NLS
+					+ "FROM tsk_objects AS parent INNER JOIN tsk_objects AS child " //NON-NLS
+					+ "ON child.par_obj_id = parent.obj_id " //NON-NLS
+					+ "WHERE child.obj_id = " + contentId); //NON-NLS
+			if (rs.next()) {
+				return new ObjectInfo(rs.getLong(1), ObjectType.valueOf(rs.getShort(2)));
+			} else {
+				throw new TskCoreException("Given content (id: " + contentId + ") has no parent.");
+			}
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting Parent Info for Content: " + contentId, ex);
 		} finally {
-			releaseExclusiveLock();
+			closeResultSet(rs);
+			closeStatement(s);
+			releaseSharedLock();
 		}
 	}
 
 	/**
-	 * Adds a virtual directory to the database and returns a VirtualDirectory
-	 * object representing it.
+	 * Gets parent directory for FsContent object
 	 *
-	 * @param parentId the ID of the parent, or 0 if NULL
-	 * @param directoryName the name of the virtual directory to create
-	 * @param trans the transaction in the scope of which the operation is to be
-	 * performed, managed by the caller
-	 * @return a VirtualDirectory object representing the one added to the
-	 * database.
-	 * @throws TskCoreException
+	 * @param fsc FsContent to get parent dir for
+	 * @return the parent Directory
+	 * @throws TskCoreException thrown if critical error occurred within tsk
+	 * core
 	 */
-	public VirtualDirectory addVirtualDirectory(long parentId, String directoryName, CaseDbTransaction trans) throws TskCoreException {
-		if (trans == null) {
-			throw new TskCoreException("Passed null CaseDbTransaction");
+	Directory getParentDirectory(FsContent fsc) throws TskCoreException {
+		// TODO: This should not throw an exception if Content has no parent, 
+		// return null instead.
+		if (fsc.isRoot()) {
+			throw new TskCoreException("Given FsContent (id: " + fsc.getId() + ") is a root object (can't have parent directory).");
+		} else {
+			ObjectInfo parentInfo = getParentInfo(fsc);
+			Directory parent = null;
+			if (parentInfo.type == ObjectType.ABSTRACTFILE) {
+				parent = getDirectoryById(parentInfo.id, fsc.getFileSystem());
+			} else {
+				throw new TskCoreException("Parent of FsContent (id: " + fsc.getId() + ") has wrong type to be directory: " + parentInfo.type);
+			}
+			return parent;
 		}
+	}
 
-		acquireExclusiveLock();
-		ResultSet resultSet = null;
-		try {
-			// Get the parent path.
-			String parentPath = getFileParentPath(parentId);
-			if (parentPath == null) {
-				parentPath = ""; //NON-NLS
-			}
-			String parentName = getFileName(parentId);
-			if (parentName != null) {
-				parentPath = parentPath + "/" + parentName; //NON-NLS
+	/**
+	 * Get content object by content id
+	 *
+	 * @param id to get content object for
+	 * @return instance of a Content object (one of its subclasses), or null if
+	 * not found.
+	 * @throws TskCoreException thrown if critical error occurred within tsk
+	 * core
+	 */
+	public Content getContentById(long id) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, "SELECT * FROM tsk_objects WHERE obj_id = " + id + " LIMIT  1"); //NON-NLS
+			if (!rs.next()) {
+				return null;
 			}
 
-			// Insert a row for the virtual directory into the tsk_objects table.
-			// INSERT INTO tsk_objects (par_obj_id, type) VALUES (?, ?)
-			CaseDbConnection connection = trans.getConnection();
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_OBJECT);
-			statement.clearParameters();
-			if (parentId != 0) {
-				statement.setLong(1, parentId);
+			AbstractContent content = null;
+			long parentId = rs.getLong("par_obj_id"); //NON-NLS
+			final TskData.ObjectType type = TskData.ObjectType.valueOf(rs.getShort("type")); //NON-NLS
+			switch (type) {
+				case IMG:
+					content = getImageById(id);
+					break;
+				case VS:
+					content = getVolumeSystemById(id, parentId);
+					break;
+				case VOL:
+					content = getVolumeById(id, parentId);
+					break;
+				case FS:
+					content = getFileSystemById(id, parentId);
+					break;
+				case ABSTRACTFILE:
+					content = getAbstractFileById(id);
+					break;
+				default:
+					throw new TskCoreException("Could not obtain Content object with ID: " + id);
 			}
-			statement.setLong(2, TskData.ObjectType.ABSTRACTFILE.getObjectType());
-			connection.executeUpdate(statement);
-			resultSet = statement.getGeneratedKeys();
-			long newObjId = resultSet.getLong(1);
+			return content;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting Content by ID.", ex);
+		} finally {
+			closeResultSet(rs);
+			closeStatement(s);
+			releaseSharedLock();
+		}
+	}
 
-			// Insert a row for the virtual directory into the tsk_files table.
-			// INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, 
-			// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path) 
-			// VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)			
-			statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_FILE);
+	/**
+	 * Get a path of a file in tsk_files_path table or null if there is none
+	 *
+	 * @param id id of the file to get path for
+	 * @return file path or null
+	 */
+	String getFilePath(long id) {
+		CaseDbConnection connection;
+		try {
+			connection = connections.getConnection();
+		} catch (TskCoreException ex) {
+			logger.log(Level.SEVERE, "Error getting file path for file " + id, ex); //NON-NLS			
+			return null;
+		}
+		String filePath = null;
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_LOCAL_PATH_FOR_FILE);
 			statement.clearParameters();
-			statement.setLong(1, newObjId);
-
-			// If the parent is part of a file system, grab its file system ID
-			long parentFs = this.getFileSystemId(parentId);
-			if (parentFs != -1) {
-				statement.setLong(2, parentFs);
+			statement.setLong(1, id);
+			rs = connection.executeQuery(statement);
+			if (rs.next()) {
+				filePath = rs.getString(1);
 			}
-			statement.setString(3, directoryName);
-
-			//type, has_path
-			statement.setShort(4, TskData.TSK_DB_FILES_TYPE_ENUM.VIRTUAL_DIR.getFileType());
-			statement.setBoolean(5, true);
-
-			//flags
-			final TSK_FS_NAME_TYPE_ENUM dirType = TSK_FS_NAME_TYPE_ENUM.DIR;
-			statement.setShort(6, dirType.getValue());
-			final TSK_FS_META_TYPE_ENUM metaType = TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR;
-			statement.setShort(7, metaType.getValue());
-
-			//note: using alloc under assumption that derived files derive from alloc files
-			final TSK_FS_NAME_FLAG_ENUM dirFlag = TSK_FS_NAME_FLAG_ENUM.ALLOC;
-			statement.setShort(8, dirFlag.getValue());
-			final short metaFlags = (short) (TSK_FS_META_FLAG_ENUM.ALLOC.getValue()
-					| TSK_FS_META_FLAG_ENUM.USED.getValue());
-			statement.setShort(9, metaFlags);
-
-			//size
-			long size = 0;
-			statement.setLong(10, size);
-
-			//parent path, nulls for params 11-14
-			statement.setString(15, parentPath);
-
-			connection.executeUpdate(statement);
-
-			return new VirtualDirectory(this, newObjId, directoryName, dirType,
-					metaType, dirFlag, metaFlags, size, null, FileKnown.UNKNOWN,
-					parentPath);
-		} catch (SQLException e) {
-			throw new TskCoreException("Error creating virtual directory '" + directoryName + "'", e);
+		} catch (SQLException ex) {
+			logger.log(Level.SEVERE, "Error getting file path for file " + id, ex); //NON-NLS
 		} finally {
-			closeResultSet(resultSet);
-			releaseExclusiveLock();
+			closeResultSet(rs);
+			releaseSharedLock();
 		}
+		return filePath;
 	}
 
 	/**
-	 * Get IDs of the virtual folder roots (at the same level as image), used
-	 * for containers such as for local files.
+	 * Get a parent_path of a file in tsk_files table or null if there is none
 	 *
-	 * @return IDs of virtual directory root objects.
-	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 * @param id id of the file to get path for
+	 * @return file path or null
 	 */
-	public List<VirtualDirectory> getVirtualDirectoryRoots() throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
+	String getFileParentPath(long id) {
+		CaseDbConnection connection;
+		try {
+			connection = connections.getConnection();
+		} catch (TskCoreException ex) {
+			logger.log(Level.SEVERE, "Error getting parent file path for file " + id, ex); //NON-NLS			
+			return null;
+		}
+		String parentPath = null;
 		acquireSharedLock();
-		Statement s = null;
 		ResultSet rs = null;
 		try {
-			s = connection.createStatement();
-			rs = connection.executeQuery(s, "SELECT tsk_files.* FROM tsk_objects, tsk_files WHERE " //NON-NLS
-					+ "tsk_objects.par_obj_id IS NULL AND " //NON-NLS
-					+ "tsk_objects.type = " + TskData.ObjectType.ABSTRACTFILE.getObjectType() + " AND " //NON-NLS
-					+ "tsk_objects.obj_id = tsk_files.obj_id AND " //NON-NLS
-					+ "tsk_files.type = " + TskData.TSK_DB_FILES_TYPE_ENUM.VIRTUAL_DIR.getFileType()
-					+ " ORDER BY tsk_files.dir_type, tsk_files.name COLLATE NOCASE"); //NON-NLS
-			List<VirtualDirectory> virtDirRootIds = new ArrayList<VirtualDirectory>();
-			while (rs.next()) {
-				virtDirRootIds.add(rsHelper.virtualDirectory(rs));
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_PATH_FOR_FILE);
+			statement.clearParameters();
+			statement.setLong(1, id);
+			rs = connection.executeQuery(statement);
+			if (rs.next()) {
+				parentPath = rs.getString(1);
 			}
-			return virtDirRootIds;
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting local files virtual folder id", ex);
+			logger.log(Level.SEVERE, "Error getting file parent_path for file " + id, ex); //NON-NLS
 		} finally {
 			closeResultSet(rs);
-			closeStatement(s);
 			releaseSharedLock();
 		}
+		return parentPath;
 	}
 
 	/**
-	 * Adds a carved file to the VirtualDirectory '$CarvedFiles' in the volume
-	 * or image given by systemId. Creates $CarvedFiles virtual directory if it
-	 * does not exist already.
+	 * Get a name of a file in tsk_files table or null if there is none
 	 *
-	 * @param carvedFileName the name of the carved file to add
-	 * @param carvedFileSize the size of the carved file to add
-	 * @param containerId the ID of the parent volume, file system, or image
-	 * @param data the layout information - a list of offsets that make up this
-	 * carved file.
-	 * @return A LayoutFile object representing the carved file.
-	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 * @param id id of the file to get name for
+	 * @return file name or null
 	 */
-	public LayoutFile addCarvedFile(String carvedFileName, long carvedFileSize, long containerId, List<TskFileRange> data) throws TskCoreException {
-
-		List<CarvedFileContainer> carvedFileContainer = new ArrayList<CarvedFileContainer>();
-		carvedFileContainer.add(new CarvedFileContainer(carvedFileName, carvedFileSize, containerId, data));
-
-		List<LayoutFile> layoutCarvedFiles = addCarvedFiles(carvedFileContainer);
-		if (layoutCarvedFiles != null) {
-			return layoutCarvedFiles.get(0);
-		} else {
+	String getFileName(long id) {
+		CaseDbConnection connection;
+		try {
+			connection = connections.getConnection();
+		} catch (TskCoreException ex) {
+			logger.log(Level.SEVERE, "Error getting file name for file " + id, ex); //NON-NLS			
 			return null;
 		}
+		String fileName = null;
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_NAME);
+			statement.clearParameters();
+			statement.setLong(1, id);
+			rs = connection.executeQuery(statement);
+			if (rs.next()) {
+				fileName = rs.getString(1);
+			}
+		} catch (SQLException ex) {
+			logger.log(Level.SEVERE, "Error getting file parent_path for file " + id, ex); //NON-NLS
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+		return fileName;
 	}
 
 	/**
-	 * Adds a collection of carved files to the VirtualDirectory '$CarvedFiles'
-	 * in the volume or image given by systemId. Creates $CarvedFiles virtual
-	 * directory if it does not exist already.
+	 * Get a derived method for a file, or null if none
 	 *
-	 * @param filesToAdd a list of CarvedFileContainer files to add as carved
-	 * files
-	 * @return List<LayoutFile> This is a list of the files added to the
-	 * database
-	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 * @param id id of the derived file
+	 * @return derived method or null if not present
+	 * @throws TskCoreException exception throws if core error occurred and
+	 * method could not be queried
 	 */
-	public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) throws TskCoreException {
-		if (filesToAdd != null && filesToAdd.isEmpty() == false) {
-			List<LayoutFile> addedFiles = new ArrayList<LayoutFile>();
-			CaseDbTransaction localTrans = null;
-			Statement s = null;
-			ResultSet rs = null;
-			acquireExclusiveLock();
-			try {
-				localTrans = beginTransaction();
-				CaseDbConnection connection = localTrans.getConnection();
-
-				// get the ID of the appropriate '$CarvedFiles' directory
-				long firstItemId = filesToAdd.get(0).getId();
-				long id = 0;
-				// first, check the cache
-				Long carvedDirId = carvedFileContainersCache.get(firstItemId);
-				if (carvedDirId != null) {
-					id = carvedDirId;
-				} else {
-					// it's not in the cache. Go to the DB
+	DerivedFile.DerivedMethod getDerivedMethod(long id) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		DerivedFile.DerivedMethod method = null;
+		acquireSharedLock();
+		ResultSet rs1 = null;
+		ResultSet rs2 = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_DERIVED_FILE);
+			statement.clearParameters();
+			statement.setLong(1, id);
+			rs1 = connection.executeQuery(statement);
+			if (rs1.next()) {
+				int method_id = rs1.getInt(1);
+				String rederive = rs1.getString(1);
+				method = new DerivedFile.DerivedMethod(method_id, rederive);
+				statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_DERIVATION_METHOD);
+				statement.clearParameters();
+				statement.setInt(1, method_id);
+				rs2 = connection.executeQuery(statement);
+				if (rs2.next()) {
+					method.setToolName(rs2.getString(1));
+					method.setToolVersion(rs2.getString(2));
+					method.setOther(rs2.getString(3));
+				}
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Error getting derived method for file: " + id, e); //NON-NLS
+		} finally {
+			closeResultSet(rs2);
+			closeResultSet(rs1);
+			releaseSharedLock();
+		}
+		return method;
+	}
+
+	/**
+	 * Get abstract file object from tsk_files table by its id
+	 *
+	 * @param id id of the file object in tsk_files table
+	 * @return AbstractFile object populated, or null if not found.
+	 * @throws TskCoreException thrown if critical error occurred within tsk
+	 * core and file could not be queried
+	 */
+	public AbstractFile getAbstractFileById(long id) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_BY_ID);
+			statement.clearParameters();
+			statement.setLong(1, id);
+			rs = connection.executeQuery(statement);
+			List<AbstractFile> results;
+			if ((results = resultSetToAbstractFiles(rs)).size() > 0) {
+				return results.get(0);
+			} else {
+				return null;
+			}
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting file by id, id = " + id, ex);
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+	}
+
+	/**
+	 * Get many files by id, with one query per MAX_IDS_PER_QUERY ids instead
+	 * of one query per id.
+	 *
+	 * @param ids the object ids of the files
+	 * @return the files in the order of the ids. Ids that are not files are
+	 * left out.
+	 * @throws TskCoreException thrown if a critical error occurred within tsk
+	 * core
+	 */
+	public List<AbstractFile> getAbstractFilesByIds(long[] ids) throws TskCoreException {
+		Map<Long, Content> files = new HashMap<Long, Content>();
+		for (int start = 0; start < ids.length; start += MAX_IDS_PER_QUERY) {
+			int end = Math.min(start + MAX_IDS_PER_QUERY, ids.length);
+			files.putAll(getContentOfType(ObjectType.ABSTRACTFILE, "tsk_objects.obj_id IN (" + makeIdList(ids, start, end) + ")", null)); //NON-NLS
+		}
+		List<AbstractFile> results = new ArrayList<AbstractFile>(ids.length);
+		for (long id : ids) {
+			Content file = files.get(id);
+			if (file != null) {
+				results.add((AbstractFile) file);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Get the unique paths of many files at once. The paths of file system
+	 * files are built from the unique path of their file system, their parent
+	 * path and their name, read a few hundred files per query, so the parents
+	 * of the files are not loaded. The paths of other files are obtained from
+	 * their getUniquePath() method. The paths are kept in a bounded case-level
+	 * cache shared with getUniquePath().
+	 *
+	 * @param fileIds object ids of the files
+	 * @return map of file object id to unique path, files not found in the
+	 * case database are left out
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public Map<Long, String> getUniquePaths(long[] fileIds) throws TskCoreException {
+		Map<Long, String> paths = new HashMap<Long, String>();
+		List<Long> uncachedIds = new ArrayList<Long>();
+		for (long fileId : fileIds) {
+			String path = getCachedUniquePath(fileId);
+			if (path != null) {
+				paths.put(fileId, path);
+			} else {
+				uncachedIds.add(fileId);
+			}
+		}
+
+		Map<Long, String> fileSystemPaths = new HashMap<Long, String>();
+		List<Long> otherIds = new ArrayList<Long>();
+		CaseDbConnection connection = connections.getConnection();
+		long[] ids = new long[uncachedIds.size()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = uncachedIds.get(i);
+		}
+		for (int start = 0; start < ids.length; start += MAX_IDS_PER_QUERY) {
+			int end = Math.min(start + MAX_IDS_PER_QUERY, ids.length);
+			String query = "SELECT obj_id, fs_obj_id, type, parent_path, name FROM tsk_files WHERE obj_id IN (" //NON-NLS
+					+ makeIdList(ids, start, end) + ")"; //NON-NLS
+			Map<Long, Long> fileSystemIds = new HashMap<Long, Long>();
+			Map<Long, String> relativePaths = new HashMap<Long, String>();
+			acquireSharedLock();
+			Statement s = null;
+			ResultSet rs = null;
+			try {
+				s = connection.createStatement();
+				rs = connection.executeQuery(s, query);
+				while (rs.next()) {
+					long fileId = rs.getLong("obj_id"); //NON-NLS
+					if (rs.getShort("type") == TSK_DB_FILES_TYPE_ENUM.FS.getFileType()) { //NON-NLS
+						String parentPath = rs.getString("parent_path"); //NON-NLS
+						fileSystemIds.put(fileId, rs.getLong("fs_obj_id")); //NON-NLS
+						relativePaths.put(fileId, (parentPath == null ? "" : parentPath) + rs.getString("name")); //NON-NLS
+					} else {
+						otherIds.add(fileId);
+					}
+				}
+			} catch (SQLException ex) {
+				throw new TskCoreException("Error getting unique paths of files", ex);
+			} finally {
+				closeResultSet(rs);
+				closeStatement(s);
+				releaseSharedLock();
+			}
+
+			for (Map.Entry<Long, Long> entry : fileSystemIds.entrySet()) {
+				String fileSystemPath = fileSystemPaths.get(entry.getValue());
+				if (fileSystemPath == null) {
+					fileSystemPath = getContentById(entry.getValue()).getUniquePath();
+					fileSystemPaths.put(entry.getValue(), fileSystemPath);
+				}
+				String path = fileSystemPath + relativePaths.get(entry.getKey());
+				cacheUniquePath(entry.getKey(), path);
+				paths.put(entry.getKey(), path);
+			}
+		}
+
+		long[] otherIdArray = new long[otherIds.size()];
+		for (int i = 0; i < otherIdArray.length; ++i) {
+			otherIdArray[i] = otherIds.get(i);
+		}
+		for (AbstractFile file : getAbstractFilesByIds(otherIdArray)) {
+			paths.put(file.getId(), file.getUniquePath());
+		}
+		return paths;
+	}
+
+	/**
+	 * Get a unique path from the case-level unique path cache.
+	 *
+	 * @param objId object id of the content
+	 * @return the cached unique path or null if it is not cached
+	 */
+	String getCachedUniquePath(long objId) {
+		synchronized (uniquePathCache) {
+			return uniquePathCache.get(objId);
+		}
+	}
+
+	/**
+	 * Put a unique path in the case-level unique path cache.
+	 *
+	 * @param objId object id of the content
+	 * @param uniquePath unique path of the content
+	 */
+	void cacheUniquePath(long objId, String uniquePath) {
+		synchronized (uniquePathCache) {
+			uniquePathCache.put(objId, uniquePath);
+		}
+	}
+
+	/**
+	 * Get the object ID of the file system that a file is located in.
+	 *
+	 * Note: for FsContent files, this is the real fs for other non-fs
+	 * AbstractFile files, this field is used internally for data source id (the
+	 * root content obj)
+	 *
+	 * @param fileId object id of the file to get fs column id for
+	 * @return fs_id or -1 if not present
+	 */
+	private long getFileSystemId(long fileId) {
+		CaseDbConnection connection;
+		try {
+			connection = connections.getConnection();
+		} catch (TskCoreException ex) {
+			logger.log(Level.SEVERE, "Error getting file system id for file " + fileId, ex); //NON-NLS			
+			return -1;
+		}
+		acquireSharedLock();
+		ResultSet rs = null;
+		long ret = -1;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILE_SYSTEM_BY_OBJECT);
+			statement.clearParameters();
+			statement.setLong(1, fileId);
+			rs = connection.executeQuery(statement);
+			if (rs.next()) {
+				ret = rs.getLong(1);
+				if (ret == 0) {
+					ret = -1;
+				}
+			}
+		} catch (SQLException e) {
+			logger.log(Level.SEVERE, "Error checking file system id of a file, id = " + fileId, e); //NON-NLS
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+		return ret;
+	}
+
+	/**
+	 * Checks if the file is a (sub)child of the data source (parentless Content
+	 * object such as Image or VirtualDirectory representing filesets)
+	 *
+	 * @param dataSource dataSource to check
+	 * @param fileId id of file to check
+	 * @return true if the file is in the dataSource hierarchy
+	 * @throws TskCoreException thrown if check failed
+	 */
+	public boolean isFileFromSource(Content dataSource, long fileId) throws TskCoreException {
+		if (dataSource.getParent() != null) {
+			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.isFileFromSource.exception.msg.text"), dataSource);
+			logger.log(Level.SEVERE, msg);
+			throw new IllegalArgumentException(msg);
+		}
+
+		//get fs_id for file id
+		long fsId = getFileSystemId(fileId);
+		if (fsId == -1) {
+			return false;
+		}
+
+		//if image, check if one of fs in data source
+		if (dataSource instanceof Image) {
+			Collection<FileSystem> fss = getFileSystems((Image) dataSource);
+			for (FileSystem fs : fss) {
+				if (fs.getId() == fsId) {
+					return true;
+				}
+			}
+			return false;
+		} //if VirtualDirectory, check if dataSource id is the fs_id
+		else if (dataSource instanceof VirtualDirectory) {
+			//fs_obj_id is not a real fs in this case
+			//we are currently using this field internally to get to data source of non-fs files quicker
+			//this will be fixed in 2.5 schema
+			return dataSource.getId() == fsId;
+		} else {
+			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.isFileFromSource.exception.msg2.text"), dataSource);
+			logger.log(Level.SEVERE, msg);
+			throw new IllegalArgumentException(msg);
+		}
+	}
+
+	/**
+	 * @param dataSource the dataSource (Image, parent-less VirtualDirectory) to
+	 * search for the given file name
+	 * @param fileName Pattern of the name of the file or directory to match
+	 * (case insensitive, used in LIKE SQL statement).
+	 * @return a list of AbstractFile for files/directories whose name matches
+	 * the given fileName
+	 * @throws TskCoreException thrown if check failed
+	 */
+	public List<AbstractFile> findFiles(Content dataSource, String fileName) throws TskCoreException {
+		if (dataSource.getParent() != null) {
+			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.isFileFromSource.exception.msg1.text"), dataSource);
+			logger.log(Level.SEVERE, msg);
+			throw new IllegalArgumentException(msg);
+		}
+
+		List<String> nameParams = new ArrayList<String>();
+		String nameCondition = getFileNamePatternCondition(fileName, nameParams);
+		return findFilesByLowerName(dataSource, nameCondition, nameParams, null, true);
+	}
+
+	/**
+	 * @param dataSource the dataSource (Image, parent-less VirtualDirectory) to
+	 * search for the given file name
+	 * @param fileName Pattern of the name of the file or directory to match
+	 * (case insensitive, used in LIKE SQL statement).
+	 * @param dirName Pattern of the name of a parent directory of fileName
+	 * (case insensitive, used in LIKE SQL statement)
+	 * @return a list of AbstractFile for files/directories whose name matches
+	 * fileName and whose parent directory contains dirName.
+	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 */
+	public List<AbstractFile> findFiles(Content dataSource, String fileName, String dirName) throws TskCoreException {
+		if (dataSource.getParent() != null) {
+			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.findFiles3.exception.msg1.text"), dataSource);
+			logger.log(Level.SEVERE, msg);
+			throw new IllegalArgumentException(msg);
+		}
+
+		List<String> nameParams = new ArrayList<String>();
+		String nameCondition = getFileNamePatternCondition(fileName, nameParams);
+		return findFilesByLowerName(dataSource, nameCondition, nameParams, "%" + dirName.toLowerCase() + "%", true); //NON-NLS
+	}
+
+	/**
+	 * The ways findFilesByName() can match file names.
+	 */
+	public enum FileNameSearchMode {
+
+		EXACT, ///< The file name is the search string
+		PREFIX, ///< The file name starts with the search string
+		SUBSTRING ///< The file name contains the search string
+	}
+
+	/**
+	 * Find the files of a data source by name, ignoring the case of ASCII
+	 * letters. The search uses the indexed lower case name column of the
+	 * files table: exact and prefix searches are index lookups, substring
+	 * searches read the index entries of each file system of the data source
+	 * rather than the files.
+	 *
+	 * @param dataSource the data source (Image, parent-less VirtualDirectory)
+	 * to search
+	 * @param name the search string (wildcard characters have no special
+	 * meaning)
+	 * @param mode how the file names are matched against the search string
+	 * @return a list of AbstractFile for the files whose name matches
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public List<AbstractFile> findFilesByName(Content dataSource, String name, FileNameSearchMode mode) throws TskCoreException {
+		String lowerName = normalizeFileName(name);
+		List<String> nameParams = new ArrayList<String>();
+		String nameCondition;
+		switch (mode) {
+			case EXACT:
+				nameCondition = "name_lower = ?"; //NON-NLS
+				nameParams.add(lowerName);
+				break;
+			case PREFIX:
+				nameCondition = getFileNamePrefixCondition(lowerName, nameParams);
+				break;
+			case SUBSTRING:
+				nameCondition = "name_lower LIKE ? ESCAPE '\\'"; //NON-NLS
+				nameParams.add("%" + lowerName.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%"); //NON-NLS
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown file name search mode " + mode); //NON-NLS
+		}
+		return findFilesByLowerName(dataSource, nameCondition, nameParams, null, false);
+	}
+
+	/**
+	 * Make the value stored in the name_lower column of the files table for a
+	 * file name. Only ASCII letters are changed, the same as the SQLite
+	 * lower() function and the native code that also fill the column.
+	 *
+	 * @param name file name
+	 * @return the lower case file name
+	 */
+	static String normalizeFileName(String name) {
+		char[] chars = name.toCharArray();
+		for (int i = 0; i < chars.length; ++i) {
+			if (chars[i] >= 'A' && chars[i] <= 'Z') {
+				chars[i] = (char) (chars[i] - 'A' + 'a');
+			}
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Make the condition on the name_lower column for a LIKE pattern used by
+	 * findFiles(). Patterns without wildcards and patterns with only a
+	 * trailing '%' are turned into index lookups, others are matched with LIKE
+	 * against the lower case names.
+	 *
+	 * @param pattern LIKE pattern for the file name (case insensitive)
+	 * @param params receives the values of the parameters of the condition
+	 * @return the condition
+	 */
+	private static String getFileNamePatternCondition(String pattern, List<String> params) {
+		String lowerPattern = normalizeFileName(pattern);
+		String prefix = lowerPattern.endsWith("%") ? lowerPattern.substring(0, lowerPattern.length() - 1) : lowerPattern; //NON-NLS
+		if (prefix.indexOf('%') >= 0 || prefix.indexOf('_') >= 0) {
+			params.add(lowerPattern);
+			return "name_lower LIKE ?"; //NON-NLS
+		} else if (prefix.length() < lowerPattern.length()) {
+			return getFileNamePrefixCondition(prefix, params);
+		} else {
+			params.add(lowerPattern);
+			return "name_lower = ?"; //NON-NLS
+		}
+	}
+
+	/**
+	 * Make the condition on the name_lower column that matches the names
+	 * starting with a prefix, as a range so it is an index lookup.
+	 *
+	 * @param lowerPrefix the lower case prefix
+	 * @param params receives the values of the parameters of the condition
+	 * @return the condition
+	 */
+	private static String getFileNamePrefixCondition(String lowerPrefix, List<String> params) {
+		// the names with the prefix sort before the prefix with its last character incremented
+		int end = lowerPrefix.length();
+		while (end > 0 && lowerPrefix.charAt(end - 1) == Character.MAX_VALUE) {
+			--end;
+		}
+		params.add(lowerPrefix);
+		if (end == 0) {
+			return "name_lower >= ?"; //NON-NLS
+		}
+		params.add(lowerPrefix.substring(0, end - 1) + (char) (lowerPrefix.charAt(end - 1) + 1));
+		return "name_lower >= ? AND name_lower < ?"; //NON-NLS
+	}
+
+	/**
+	 * Get the values of the fs_obj_id column of the files of a data source.
+	 *
+	 * @param dataSource the data source (Image, parent-less VirtualDirectory)
+	 * @return the file system ids for an image, the data source id for a
+	 * virtual directory
+	 */
+	private List<Long> getFileSystemIdsOfDataSource(Content dataSource) {
+		List<Long> fileSystemIds = new ArrayList<Long>();
+		if (dataSource instanceof Image) {
+			for (FileSystem fileSystem : getFileSystems((Image) dataSource)) {
+				fileSystemIds.add(fileSystem.getId());
+			}
+		} else if (dataSource instanceof VirtualDirectory) {
+			//fs_obj_id is special for non-fs files (denotes data source)
+			fileSystemIds.add(dataSource.getId());
+		} else {
+			final String msg = MessageFormat.format(bundle.getString("SleuthkitCase.findFiles.exception.msg2.text"), dataSource);
+			logger.log(Level.SEVERE, msg);
+			throw new IllegalArgumentException(msg);
+		}
+		return fileSystemIds;
+	}
+
+	/**
+	 * Find the files of a data source with a condition on the name_lower
+	 * column, one query per file system so the (fs_obj_id, name_lower) index
+	 * is used.
+	 *
+	 * @param dataSource the data source (Image, parent-less VirtualDirectory)
+	 * @param nameCondition condition on the name_lower column
+	 * @param nameParams values of the parameters of the name condition
+	 * @param parentPathPattern LIKE pattern for the lower case parent path,
+	 * or null
+	 * @param excludeJournal true to leave out files with "journal" in their
+	 * name
+	 * @return the files
+	 * @throws TskCoreException
+	 */
+	private List<AbstractFile> findFilesByLowerName(Content dataSource, String nameCondition, List<String> nameParams, String parentPathPattern, boolean excludeJournal) throws TskCoreException {
+		List<Long> fileSystemIds = getFileSystemIdsOfDataSource(dataSource);
+		StringBuilder query = new StringBuilder("SELECT * FROM tsk_files WHERE fs_obj_id = ? AND "); //NON-NLS
+		query.append(nameCondition);
+		if (excludeJournal) {
+			query.append(" AND name_lower NOT LIKE '%journal%'"); //NON-NLS
+		}
+		if (parentPathPattern != null) {
+			query.append(" AND LOWER(parent_path) LIKE ?"); //NON-NLS
+		}
+
+		List<AbstractFile> files = new ArrayList<AbstractFile>();
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		PreparedStatement statement = null;
+		ResultSet rs = null;
+		try {
+			statement = connection.prepareStatement(query.toString());
+			for (long fileSystemId : fileSystemIds) {
+				int param = 1;
+				statement.setLong(param++, fileSystemId);
+				for (String nameParam : nameParams) {
+					statement.setString(param++, nameParam);
+				}
+				if (parentPathPattern != null) {
+					statement.setString(param++, parentPathPattern);
+				}
+				rs = connection.executeQuery(statement);
+				files.addAll(resultSetToAbstractFiles(rs));
+				rs.close();
+				rs = null;
+			}
+		} catch (SQLException e) {
+			throw new TskCoreException(bundle.getString("SleuthkitCase.findFiles.exception.msg3.text"), e);
+		} finally {
+			closeResultSet(rs);
+			closeStatement(statement);
+			releaseSharedLock();
+		}
+		return files;
+	}
+
+	/**
+	 * wraps the version of addVirtualDirectory that takes a Transaction in a
+	 * transaction local to this method
+	 *
+	 * @param parentId
+	 * @param directoryName
+	 * @return
+	 * @throws TskCoreException
+	 */
+	public VirtualDirectory addVirtualDirectory(long parentId, String directoryName) throws TskCoreException {
+		acquireDomainLock(LockDomain.OBJECTS);
+		CaseDbTransaction localTrans = beginLocalTransaction();
+		try {
+			VirtualDirectory newVD = addVirtualDirectory(parentId, directoryName, localTrans);
+			localTrans.commit();
+			return newVD;
+		} catch (TskCoreException ex) {
+			localTrans.rollback();
+			throw ex;
+		} finally {
+			releaseDomainLock(LockDomain.OBJECTS);
+		}
+	}
+
+	/**
+	 * Adds a virtual directory to the database and returns a VirtualDirectory
+	 * object representing it.
+	 *
+	 * @param parentId the ID of the parent, or 0 if NULL
+	 * @param directoryName the name of the virtual directory to create
+	 * @param trans the transaction in the scope of which the operation is to be
+	 * performed, managed by the caller
+	 * @return a VirtualDirectory object representing the one added to the
+	 * database.
+	 * @throws TskCoreException
+	 */
+	public VirtualDirectory addVirtualDirectory(long parentId, String directoryName, CaseDbTransaction trans) throws TskCoreException {
+		if (trans == null) {
+			throw new TskCoreException("Passed null CaseDbTransaction");
+		}
+
+		acquireDomainLock(LockDomain.OBJECTS);
+		ResultSet resultSet = null;
+		try {
+			// Get the parent path.
+			String parentPath = getFileParentPath(parentId);
+			if (parentPath == null) {
+				parentPath = ""; //NON-NLS
+			}
+			String parentName = getFileName(parentId);
+			if (parentName != null) {
+				parentPath = parentPath + "/" + parentName; //NON-NLS
+			}
+
+			// Insert a row for the virtual directory into the tsk_objects table.
+			// INSERT INTO tsk_objects (par_obj_id, type) VALUES (?, ?)
+			CaseDbConnection connection = trans.getConnection();
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_OBJECT);
+			statement.clearParameters();
+			if (parentId != 0) {
+				statement.setLong(1, parentId);
+			} else {
+				statement.setNull(1, java.sql.Types.BIGINT);
+			}
+			statement.setLong(2, TskData.ObjectType.ABSTRACTFILE.getObjectType());
+			connection.executeUpdate(statement);
+			resultSet = statement.getGeneratedKeys();
+			resultSet.next();
+			long newObjId = resultSet.getLong(1);
+
+			// Insert a row for the virtual directory into the tsk_files table.
+			// INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, 
+			// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path, name_lower) 
+			// VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)			
+			statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_FILE);
+			statement.clearParameters();
+			statement.setLong(1, newObjId);
+
+			// If the parent is part of a file system, grab its file system ID
+			long parentFs = this.getFileSystemId(parentId);
+			if (parentFs != -1) {
+				statement.setLong(2, parentFs);
+			} else {
+				statement.setNull(2, java.sql.Types.BIGINT);
+			}
+			statement.setString(3, directoryName);
+
+			//type, has_path
+			statement.setShort(4, TskData.TSK_DB_FILES_TYPE_ENUM.VIRTUAL_DIR.getFileType());
+			statement.setInt(5, 1);
+
+			//flags
+			final TSK_FS_NAME_TYPE_ENUM dirType = TSK_FS_NAME_TYPE_ENUM.DIR;
+			statement.setShort(6, dirType.getValue());
+			final TSK_FS_META_TYPE_ENUM metaType = TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR;
+			statement.setShort(7, metaType.getValue());
+
+			//note: using alloc under assumption that derived files derive from alloc files
+			final TSK_FS_NAME_FLAG_ENUM dirFlag = TSK_FS_NAME_FLAG_ENUM.ALLOC;
+			statement.setShort(8, dirFlag.getValue());
+			final short metaFlags = (short) (TSK_FS_META_FLAG_ENUM.ALLOC.getValue()
+					| TSK_FS_META_FLAG_ENUM.USED.getValue());
+			statement.setShort(9, metaFlags);
+
+			//size
+			long size = 0;
+			statement.setLong(10, size);
+
+			//times, parent path
+			for (int param = 11; param <= 14; ++param) {
+				statement.setNull(param, java.sql.Types.BIGINT);
+			}
+			statement.setString(15, parentPath);
+			statement.setString(16, normalizeFileName(directoryName));
+
+			connection.executeUpdate(statement);
+
+			return new VirtualDirectory(this, newObjId, directoryName, dirType,
+					metaType, dirFlag, metaFlags, size, null, FileKnown.UNKNOWN,
+					parentPath);
+		} catch (SQLException e) {
+			throw new TskCoreException("Error creating virtual directory '" + directoryName + "'", e);
+		} finally {
+			closeResultSet(resultSet);
+			releaseDomainLock(LockDomain.OBJECTS);
+		}
+	}
+
+	/**
+	 * Get IDs of the virtual folder roots (at the same level as image), used
+	 * for containers such as for local files.
+	 *
+	 * @return IDs of virtual directory root objects.
+	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 */
+	public List<VirtualDirectory> getVirtualDirectoryRoots() throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, "SELECT tsk_files.* FROM tsk_objects, tsk_files WHERE " //NON-NLS
+					+ "tsk_objects.par_obj_id IS NULL AND " //NON-NLS
+					+ "tsk_objects.type = " + TskData.ObjectType.ABSTRACTFILE.getObjectType() + " AND " //NON-NLS
+					+ "tsk_objects.obj_id = tsk_files.obj_id AND " //NON-NLS
+					+ "tsk_files.type = " + TskData.TSK_DB_FILES_TYPE_ENUM.VIRTUAL_DIR.getFileType()
+					+ " ORDER BY tsk_files.dir_type, tsk_files.name COLLATE NOCASE"); //NON-NLS
+			List<VirtualDirectory> virtDirRootIds = new ArrayList<VirtualDirectory>();
+			while (rs.next()) {
+				virtDirRootIds.add(rsHelper.virtualDirectory(rs));
+			}
+			return virtDirRootIds;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting local files virtual folder id", ex);
+		} finally {
+			closeResultSet(rs);
+			closeStatement(s);
+			releaseSharedLock();
+		}
+	}
+
+	/**
+	 * Adds a carved file to the VirtualDirectory '$CarvedFiles' in the volume
+	 * or image given by systemId. Creates $CarvedFiles virtual directory if it
+	 * does not exist already.
+	 *
+	 * @param carvedFileName the name of the carved file to add
+	 * @param carvedFileSize the size of the carved file to add
+	 * @param containerId the ID of the parent volume, file system, or image
+	 * @param data the layout information - a list of offsets that make up this
+	 * carved file.
+	 * @return A LayoutFile object representing the carved file.
+	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 */
+	public LayoutFile addCarvedFile(String carvedFileName, long carvedFileSize, long containerId, List<TskFileRange> data) throws TskCoreException {
+
+		List<CarvedFileContainer> carvedFileContainer = new ArrayList<CarvedFileContainer>();
+		carvedFileContainer.add(new CarvedFileContainer(carvedFileName, carvedFileSize, containerId, data));
+
+		List<LayoutFile> layoutCarvedFiles = addCarvedFiles(carvedFileContainer);
+		if (layoutCarvedFiles != null) {
+			return layoutCarvedFiles.get(0);
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Adds a collection of carved files to the VirtualDirectory '$CarvedFiles'
+	 * in the volume or image given by systemId. Creates $CarvedFiles virtual
+	 * directory if it does not exist already.
+	 *
+	 * @param filesToAdd a list of CarvedFileContainer files to add as carved
+	 * files
+	 * @return List<LayoutFile> This is a list of the files added to the
+	 * database
+	 * @throws org.sleuthkit.datamodel.TskCoreException
+	 */
+	public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) throws TskCoreException {
+		if (filesToAdd != null && filesToAdd.isEmpty() == false) {
+			List<LayoutFile> addedFiles = new ArrayList<LayoutFile>();
+			CaseDbTransaction localTrans = null;
+			Statement s = null;
+			ResultSet rs = null;
+			acquireDomainLock(LockDomain.OBJECTS);
+			try {
+				localTrans = beginLocalTransaction();
+				CaseDbConnection connection = localTrans.getConnection();
+
+				// get the ID of the appropriate '$CarvedFiles' directory
+				long firstItemId = filesToAdd.get(0).getId();
+				long id = 0;
+				// first, check the cache
+				Long carvedDirId = carvedFileContainersCache.get(firstItemId);
+				if (carvedDirId != null) {
+					id = carvedDirId;
+				} else {
+					// it's not in the cache. Go to the DB
 					// determine if we've got a volume system or file system ID
 					Content parent = getContentById(firstItemId);
 					if (parent == null) {
@@ -2830,11 +4649,12 @@ public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) thr
 					statement.setLong(2, TskData.ObjectType.ABSTRACTFILE.getObjectType());
 					connection.executeUpdate(statement);
 					rs = statement.getGeneratedKeys();
+					rs.next();
 					long newObjId = rs.getLong(1);
 
 					// Insert a row for the carved file into the tsk_files table.
 					// INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, 
-					// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path) 
+					// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path, name_lower) 
 					// VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)			
 					statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_FILE);
 					statement.clearParameters();
@@ -2843,6 +4663,8 @@ public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) thr
 					// only insert into the fs_obj_id column if container is a FS
 					if (isContainerAFs) {
 						statement.setLong(2, itemToAdd.getId());
+					} else {
+						statement.setNull(2, java.sql.Types.BIGINT);
 					}
 					statement.setString(3, itemToAdd.getName());
 
@@ -2851,7 +4673,7 @@ public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) thr
 					statement.setShort(4, type.getFileType());
 
 					// has_path
-					statement.setBoolean(5, true);
+					statement.setInt(5, 1);
 
 					// dirType
 					final TSK_FS_NAME_TYPE_ENUM dirType = TSK_FS_NAME_TYPE_ENUM.REG;
@@ -2872,8 +4694,12 @@ public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) thr
 					// size
 					statement.setLong(10, itemToAdd.getSize());
 
-					//parent path, nulls for params 11-14
+					//times, parent path
+					for (int param = 11; param <= 14; ++param) {
+						statement.setNull(param, java.sql.Types.BIGINT);
+					}
 					statement.setString(15, parentPath);
+					statement.setString(16, normalizeFileName(itemToAdd.getName()));
 
 					connection.executeUpdate(statement);
 
@@ -2914,7 +4740,7 @@ public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) thr
 			} finally {
 				closeResultSet(rs);
 				closeStatement(s);
-				releaseExclusiveLock();
+				releaseDomainLock(LockDomain.OBJECTS);
 			}
 		} else {
 			return Collections.emptyList();
@@ -2922,72 +4748,230 @@ public List<LayoutFile> addCarvedFiles(List<CarvedFileContainer> filesToAdd) thr
 	}
 
 	/**
-	 * Creates a new derived file object, adds it to database and returns it.
+	 * Creates a new derived file object, adds it to database and returns it.
+	 *
+	 * TODO add support for adding derived method
+	 *
+	 * @param fileName file name the derived file
+	 * @param localPath local path of the derived file, including the file name.
+	 * The path is relative to the database path.
+	 * @param size size of the derived file in bytes
+	 * @param ctime
+	 * @param crtime
+	 * @param atime
+	 * @param mtime
+	 * @param isFile whether a file or directory, true if a file
+	 * @param parentFile parent file object (derived or local file)
+	 * @param rederiveDetails details needed to re-derive file (will be specific
+	 * to the derivation method), currently unused
+	 * @param toolName name of derivation method/tool, currently unused
+	 * @param toolVersion version of derivation method/tool, currently unused
+	 * @param otherDetails details of derivation method/tool, currently unused
+	 * @return newly created derived file object
+	 * @throws TskCoreException exception thrown if the object creation failed
+	 * due to a critical system error
+	 */
+	public DerivedFile addDerivedFile(String fileName, String localPath,
+			long size, long ctime, long crtime, long atime, long mtime,
+			boolean isFile, AbstractFile parentFile,
+			String rederiveDetails, String toolName, String toolVersion, String otherDetails) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireDomainLock(LockDomain.OBJECTS);
+		ResultSet rs = null;
+		try {
+			connection.beginTransaction();
+
+			final long parentId = parentFile.getId();
+			final String parentPath = parentFile.getParentPath() + parentFile.getName() + '/'; //NON-NLS
+
+			// Insert a row for the derived file into the tsk_objects table.
+			// INSERT INTO tsk_objects (par_obj_id, type) VALUES (?, ?)
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_OBJECT);
+			statement.clearParameters();
+			statement.setLong(1, parentId);
+			statement.setLong(2, TskData.ObjectType.ABSTRACTFILE.getObjectType());
+			connection.executeUpdate(statement);
+			rs = statement.getGeneratedKeys();
+			rs.next();
+			long newObjId = rs.getLong(1);
+			rs.close();
+			rs = null;
+
+			// Insert a row for the virtual directory into the tsk_files table.
+			// INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, 
+			// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path, name_lower) 
+			// VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)			
+			statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_FILE);
+			statement.clearParameters();
+			statement.setLong(1, newObjId);
+
+			// If the parentFile is part of a file system, use its file system object ID.
+			long fsObjId = this.getFileSystemId(parentId);
+			if (fsObjId != -1) {
+				statement.setLong(2, fsObjId);
+			} else {
+				statement.setNull(2, java.sql.Types.BIGINT);
+			}
+			statement.setString(3, fileName);
+
+			//type, has_path
+			statement.setShort(4, TskData.TSK_DB_FILES_TYPE_ENUM.DERIVED.getFileType());
+			statement.setInt(5, 1);
+
+			//flags
+			final TSK_FS_NAME_TYPE_ENUM dirType = isFile ? TSK_FS_NAME_TYPE_ENUM.REG : TSK_FS_NAME_TYPE_ENUM.DIR;
+			statement.setShort(6, dirType.getValue());
+			final TSK_FS_META_TYPE_ENUM metaType = isFile ? TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_REG : TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR;
+			statement.setShort(7, metaType.getValue());
+
+			//note: using alloc under assumption that derived files derive from alloc files
+			final TSK_FS_NAME_FLAG_ENUM dirFlag = TSK_FS_NAME_FLAG_ENUM.ALLOC;
+			statement.setShort(8, dirFlag.getValue());
+			final short metaFlags = (short) (TSK_FS_META_FLAG_ENUM.ALLOC.getValue()
+					| TSK_FS_META_FLAG_ENUM.USED.getValue());
+			statement.setShort(9, metaFlags);
+
+			//size
+			statement.setLong(10, size);
+
+			//mactimes
+			//long ctime, long crtime, long atime, long mtime,
+			statement.setLong(11, ctime);
+			statement.setLong(12, crtime);
+			statement.setLong(13, atime);
+			statement.setLong(14, mtime);
+
+			//parent path
+			statement.setString(15, parentPath);
+			statement.setString(16, normalizeFileName(fileName));
+
+			connection.executeUpdate(statement);
+
+			//add localPath 
+			addFilePath(connection, newObjId, localPath);
+			addFileTimelineEvents(connection, newObjId, getDataSourceObjectId(connection, parentId), ctime, crtime, atime, mtime);
+
+			connection.commitTransaction();
+
+			//TODO add derived method to tsk_files_derived and tsk_files_derived_method 
+			return new DerivedFile(this, newObjId, fileName, dirType, metaType, dirFlag, metaFlags,
+					size, ctime, crtime, atime, mtime, null, null, parentPath, localPath, parentId);
+		} catch (SQLException ex) {
+			connection.rollbackTransaction();
+			throw new TskCoreException("Failed to add derived file to case database", ex);
+		} finally {
+			closeResultSet(rs);
+			releaseDomainLock(LockDomain.OBJECTS);
+		}
+	}
+
+	/**
+	 *
+	 * wraps the version of addLocalFile that takes a Transaction in a
+	 * transaction local to this method.
+	 *
+	 * @param fileName
+	 * @param localPath
+	 * @param size
+	 * @param ctime
+	 * @param crtime
+	 * @param atime
+	 * @param mtime
+	 * @param isFile
+	 * @param parent
+	 * @return
+	 * @throws TskCoreException
+	 */
+	public LocalFile addLocalFile(String fileName, String localPath,
+			long size, long ctime, long crtime, long atime, long mtime,
+			boolean isFile, AbstractFile parent) throws TskCoreException {
+		acquireDomainLock(LockDomain.OBJECTS);
+		CaseDbTransaction localTrans = beginLocalTransaction();
+		try {
+			LocalFile created = addLocalFile(fileName, localPath, size, ctime, crtime, atime, mtime, isFile, parent, localTrans);
+			localTrans.commit();
+			return created;
+		} catch (TskCoreException ex) {
+			localTrans.rollback();
+			throw ex;
+		} finally {
+			releaseDomainLock(LockDomain.OBJECTS);
+		}
+	}
+
+	/**
+	 * Creates a new local file object, adds it to database and returns it.
+	 *
+	 *
+	 * todo: at the moment we trust the transaction and don't do anything to
+	 * check it is valid or in the correct state. we should.
 	 *
-	 * TODO add support for adding derived method
 	 *
 	 * @param fileName file name the derived file
-	 * @param localPath local path of the derived file, including the file name.
-	 * The path is relative to the database path.
+	 * @param localPath local absolute path of the local file, including the
+	 * file name.
 	 * @param size size of the derived file in bytes
 	 * @param ctime
 	 * @param crtime
 	 * @param atime
 	 * @param mtime
 	 * @param isFile whether a file or directory, true if a file
-	 * @param parentFile parent file object (derived or local file)
-	 * @param rederiveDetails details needed to re-derive file (will be specific
-	 * to the derivation method), currently unused
-	 * @param toolName name of derivation method/tool, currently unused
-	 * @param toolVersion version of derivation method/tool, currently unused
-	 * @param otherDetails details of derivation method/tool, currently unused
+	 * @param parent parent file object (such as virtual directory, another
+	 * local file, or FsContent type of file)
+	 * @param trans the transaction in the scope of which the operation is to be
+	 * performed, managed by the caller
 	 * @return newly created derived file object
 	 * @throws TskCoreException exception thrown if the object creation failed
 	 * due to a critical system error
 	 */
-	public DerivedFile addDerivedFile(String fileName, String localPath,
+	public LocalFile addLocalFile(String fileName, String localPath,
 			long size, long ctime, long crtime, long atime, long mtime,
-			boolean isFile, AbstractFile parentFile,
-			String rederiveDetails, String toolName, String toolVersion, String otherDetails) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
-		ResultSet rs = null;
-		try {
-			connection.beginTransaction();
+			boolean isFile, AbstractFile parent, CaseDbTransaction trans) throws TskCoreException {
+		if (trans == null) {
+			throw new TskCoreException("Passed null CaseDbTransaction");
+		}
 
-			final long parentId = parentFile.getId();
-			final String parentPath = parentFile.getParentPath() + parentFile.getName() + '/'; //NON-NLS
+		acquireDomainLock(LockDomain.OBJECTS);
+		ResultSet resultSet = null;
+		try {
+			long parentId = -1;
+			String parentPath;
+			if (parent == null) {
+				throw new TskCoreException(MessageFormat.format(bundle.getString("SleuthkitCase.addLocalFile.exception.msg1.text"), fileName));
+			} else {
+				parentId = parent.getId();
+				parentPath = parent.getParentPath() + "/" + parent.getName(); //NON-NLS
+			}
 
-			// Insert a row for the derived file into the tsk_objects table.
+			// Insert a row for the local/logical file into the tsk_objects table.
 			// INSERT INTO tsk_objects (par_obj_id, type) VALUES (?, ?)
+			CaseDbConnection connection = connections.getConnection();
 			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_OBJECT);
 			statement.clearParameters();
 			statement.setLong(1, parentId);
 			statement.setLong(2, TskData.ObjectType.ABSTRACTFILE.getObjectType());
 			connection.executeUpdate(statement);
-			rs = statement.getGeneratedKeys();
-			long newObjId = rs.getLong(1);
-			rs.close();
-			rs = null;
+			resultSet = statement.getGeneratedKeys();
+			resultSet.next();
+			long newObjId = resultSet.getLong(1);
+			resultSet.close();
+			resultSet = null;
 
-			// Insert a row for the virtual directory into the tsk_files table.
+			// Insert a row for the local/logical file into the tsk_files table.
 			// INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, 
-			// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path) 
+			// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path, name_lower) 
 			// VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)			
 			statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_FILE);
 			statement.clearParameters();
 			statement.setLong(1, newObjId);
 
-			// If the parentFile is part of a file system, use its file system object ID.
-			long fsObjId = this.getFileSystemId(parentId);
-			if (fsObjId != -1) {
-				statement.setLong(2, fsObjId);
-			}
+			// no fs_obj_id, since local files aren't part of file systems
+			statement.setNull(2, java.sql.Types.BIGINT);
 			statement.setString(3, fileName);
 
 			//type, has_path
-			statement.setShort(4, TskData.TSK_DB_FILES_TYPE_ENUM.DERIVED.getFileType());
-			statement.setBoolean(5, true);
+			statement.setShort(4, TskData.TSK_DB_FILES_TYPE_ENUM.LOCAL.getFileType());
+			statement.setInt(5, 1);
 
 			//flags
 			final TSK_FS_NAME_TYPE_ENUM dirType = isFile ? TSK_FS_NAME_TYPE_ENUM.REG : TSK_FS_NAME_TYPE_ENUM.DIR;
@@ -3014,254 +4998,789 @@ public DerivedFile addDerivedFile(String fileName, String localPath,
 
 			//parent path
 			statement.setString(15, parentPath);
+			statement.setString(16, normalizeFileName(fileName));
 
 			connection.executeUpdate(statement);
 
 			//add localPath 
 			addFilePath(connection, newObjId, localPath);
+			addFileTimelineEvents(connection, newObjId, getDataSourceObjectId(connection, parentId), ctime, crtime, atime, mtime);
 
-			connection.commitTransaction();
-
-			//TODO add derived method to tsk_files_derived and tsk_files_derived_method 
-			return new DerivedFile(this, newObjId, fileName, dirType, metaType, dirFlag, metaFlags,
+			return new LocalFile(this, newObjId, fileName, dirType, metaType, dirFlag, metaFlags,
 					size, ctime, crtime, atime, mtime, null, null, parentPath, localPath, parentId);
+		} catch (SQLException e) {
+			throw new TskCoreException("Error adding local file directory " + fileName + " with local path " + localPath, e);
+		} finally {
+			closeResultSet(resultSet);
+			releaseDomainLock(LockDomain.OBJECTS);
+		}
+	}
+
+	/**
+	 * Add a path (such as a local path) for a content object to tsk_file_paths
+	 *
+	 * @param objId object id of the file to add the path for
+	 * @param path the path to add
+	 * @throws SQLException exception thrown when database error occurred and
+	 * path was not added
+	 */
+	private void addFilePath(CaseDbConnection connection, long objId, String path) throws SQLException {
+		PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_LOCAL_PATH);
+		statement.clearParameters();
+		statement.setLong(1, objId);
+		statement.setString(2, path);
+		connection.executeUpdate(statement);
+	}
+
+	/**
+	 * Get the object id of the data source (the root of the object tree) that
+	 * an object is in, walking up the tree through the data source id cache.
+	 *
+	 * @param connection the connection to use
+	 * @param objId object id of the object
+	 * @return the object id of the data source, objId if it is a data source
+	 * @throws SQLException exception thrown when a database error occurred
+	 */
+	private long getDataSourceObjectId(CaseDbConnection connection, long objId) throws SQLException {
+		List<Long> path = new ArrayList<Long>();
+		long dataSourceId = objId;
+		while (true) {
+			Long cached;
+			synchronized (dataSourceIdCache) {
+				cached = dataSourceIdCache.get(dataSourceId);
+			}
+			if (cached != null) {
+				dataSourceId = cached;
+				break;
+			}
+			path.add(dataSourceId);
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_PARENT_OBJECT_ID);
+			statement.clearParameters();
+			statement.setLong(1, dataSourceId);
+			ResultSet rs = null;
+			long parentId;
+			try {
+				rs = connection.executeQuery(statement);
+				if (!rs.next()) {
+					break;
+				}
+				parentId = rs.getLong(1);
+				if (rs.wasNull()) {
+					break;
+				}
+			} finally {
+				closeResultSet(rs);
+			}
+			dataSourceId = parentId;
+		}
+		synchronized (dataSourceIdCache) {
+			for (Long id : path) {
+				dataSourceIdCache.put(id, dataSourceId);
+			}
+		}
+		return dataSourceId;
+	}
+
+	/**
+	 * Add a row to the timeline event table.
+	 *
+	 * @param connection the connection to use
+	 * @param objId object id of the file or of the content of the artifact
+	 * @param dataSourceId object id of the data source of the content
+	 * @param artifactId id of the artifact, ignored for file events
+	 * @param type the event type
+	 * @param attributeTypeId date-time attribute type id, ignored for file
+	 * events
+	 * @param time the time of the event
+	 * @throws SQLException exception thrown when a database error occurred
+	 */
+	private void addTimelineEvent(CaseDbConnection connection, long objId, long dataSourceId, long artifactId,
+			TimelineEvent.EventType type, int attributeTypeId, long time) throws SQLException {
+		PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_EVENT);
+		statement.clearParameters();
+		statement.setLong(1, objId);
+		statement.setLong(2, dataSourceId);
+		if (type == TimelineEvent.EventType.ARTIFACT) {
+			statement.setLong(3, artifactId);
+			statement.setInt(5, attributeTypeId);
+		} else {
+			statement.setNull(3, java.sql.Types.INTEGER);
+			statement.setNull(5, java.sql.Types.INTEGER);
+		}
+		statement.setInt(4, type.getValue());
+		statement.setLong(6, time);
+		connection.executeUpdate(statement);
+	}
+
+	/**
+	 * Add the timeline events of the MAC times of a file that are set.
+	 *
+	 * @param connection the connection to use
+	 * @param objId object id of the file
+	 * @param dataSourceId object id of the data source of the file
+	 * @throws SQLException exception thrown when a database error occurred
+	 */
+	private void addFileTimelineEvents(CaseDbConnection connection, long objId, long dataSourceId,
+			long ctime, long crtime, long atime, long mtime) throws SQLException {
+		if (mtime > 0) {
+			addTimelineEvent(connection, objId, dataSourceId, 0, TimelineEvent.EventType.FILE_MODIFIED, 0, mtime);
+		}
+		if (atime > 0) {
+			addTimelineEvent(connection, objId, dataSourceId, 0, TimelineEvent.EventType.FILE_ACCESSED, 0, atime);
+		}
+		if (ctime > 0) {
+			addTimelineEvent(connection, objId, dataSourceId, 0, TimelineEvent.EventType.FILE_CHANGED, 0, ctime);
+		}
+		if (crtime > 0) {
+			addTimelineEvent(connection, objId, dataSourceId, 0, TimelineEvent.EventType.FILE_CREATED, 0, crtime);
+		}
+	}
+
+	/**
+	 * Receives the events loaded by visitTimelineEvents().
+	 */
+	public interface TimelineEventVisitor {
+
+		/**
+		 * Called for each event, in time order.
+		 *
+		 * @param event a timeline event
+		 * @return true to continue, false to stop loading events
+		 * @throws TskCoreException to stop loading events with an error
+		 */
+		boolean visit(TimelineEvent event) throws TskCoreException;
+	}
+
+	/**
+	 * Get the timeline events in a time range. See visitTimelineEvents().
+	 *
+	 * @param startTime start of the range, in seconds since 1970 (inclusive)
+	 * @param endTime end of the range, in seconds since 1970 (exclusive)
+	 * @param dataSource data source to get the events of, or null for all
+	 * data sources
+	 * @param types event types to get, or null for all types
+	 * @return the events, in time order
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public List<TimelineEvent> getTimelineEvents(long startTime, long endTime, Content dataSource, Set<TimelineEvent.EventType> types) throws TskCoreException {
+		final List<TimelineEvent> events = new ArrayList<TimelineEvent>();
+		visitTimelineEvents(startTime, endTime, dataSource, types, new TimelineEventVisitor() {
+			@Override
+			public boolean visit(TimelineEvent event) {
+				events.add(event);
+				return true;
+			}
+		});
+		return events;
+	}
+
+	/**
+	 * Load the timeline events in a time range a page at a time, in time
+	 * order, and pass them to a visitor. Only one page is kept in memory, so
+	 * this can be used on ranges with too many events to load at once. The
+	 * lock on the case database is not held while the visitor is called.
+	 *
+	 * @param startTime start of the range, in seconds since 1970 (inclusive)
+	 * @param endTime end of the range, in seconds since 1970 (exclusive)
+	 * @param dataSource data source to get the events of, or null for all
+	 * data sources
+	 * @param types event types to get, or null for all types
+	 * @param visitor receives the events
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core, or thrown by the visitor
+	 */
+	public void visitTimelineEvents(long startTime, long endTime, Content dataSource, Set<TimelineEvent.EventType> types, TimelineEventVisitor visitor) throws TskCoreException {
+		QueryConditions conditions = getTimelineEventConditions(startTime, endTime, dataSource, types);
+		long lastTime = startTime;
+		long lastEventId = Long.MIN_VALUE;
+		while (true) {
+			// the next page starts after the last event of the previous one
+			QueryConditions pageConditions = new QueryConditions(conditions);
+			pageConditions.add("(time > ? OR (time = ? AND event_id > ?))", lastTime, lastTime, lastEventId); //NON-NLS
+			StringBuilder sql = new StringBuilder("SELECT event_id, obj_id, data_source_obj_id, artifact_id, event_type, attribute_type_id, time FROM tsk_events"); //NON-NLS
+			pageConditions.appendTo(sql, " WHERE "); //NON-NLS
+			sql.append(" ORDER BY time, event_id LIMIT ").append(TIMELINE_EVENT_PAGE_SIZE); //NON-NLS
+
+			List<TimelineEvent> page = new ArrayList<TimelineEvent>();
+			CaseDbConnection connection = connections.getConnection();
+			acquireSharedLock();
+			ResultSet rs = null;
+			try {
+				PreparedStatement statement = connection.getPreparedStatement(sql.toString(), pageConditions.getParameters());
+				rs = connection.executeQuery(statement);
+				while (rs.next()) {
+					page.add(new TimelineEvent(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getLong(4),
+							TimelineEvent.EventType.fromValue(rs.getInt(5)), rs.getInt(6), rs.getLong(7)));
+				}
+			} catch (SQLException ex) {
+				throw new TskCoreException("Error getting timeline events", ex);
+			} finally {
+				closeResultSet(rs);
+				releaseSharedLock();
+			}
+
+			// call the visitor without holding the lock on the case database
+			for (TimelineEvent event : page) {
+				if (!visitor.visit(event)) {
+					return;
+				}
+			}
+			if (page.size() < TIMELINE_EVENT_PAGE_SIZE) {
+				return;
+			}
+			TimelineEvent last = page.get(page.size() - 1);
+			lastTime = last.getTime();
+			lastEventId = last.getEventId();
+		}
+	}
+
+	/**
+	 * Count the timeline events in a time range in buckets of equal length.
+	 *
+	 * @param startTime start of the range, in seconds since 1970 (inclusive)
+	 * @param endTime end of the range, in seconds since 1970 (exclusive)
+	 * @param bucketSeconds length of the buckets, in seconds
+	 * @param dataSource data source to count the events of, or null for all
+	 * data sources
+	 * @param types event types to count, or null for all types
+	 * @return the number of events in each bucket, starting at startTime
+	 * @throws IllegalArgumentException if bucketSeconds is less than 1 or the
+	 * range has more than MAX_TIMELINE_HISTOGRAM_BUCKETS buckets
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public long[] getTimelineHistogram(long startTime, long endTime, long bucketSeconds, Content dataSource, Set<TimelineEvent.EventType> types) throws TskCoreException {
+		if (bucketSeconds < 1) {
+			throw new IllegalArgumentException("bucketSeconds must be at least 1"); //NON-NLS
+		}
+		long bucketCount = (endTime > startTime) ? (endTime - startTime - 1) / bucketSeconds + 1 : 0;
+		if (bucketCount < 0 || bucketCount > MAX_TIMELINE_HISTOGRAM_BUCKETS) {
+			throw new IllegalArgumentException("The time range has more than " + MAX_TIMELINE_HISTOGRAM_BUCKETS + " buckets"); //NON-NLS
+		}
+		long[] counts = new long[(int) bucketCount];
+		if (counts.length == 0) {
+			return counts;
+		}
+		QueryConditions conditions = getTimelineEventConditions(startTime, endTime, dataSource, types);
+		StringBuilder sql = new StringBuilder("SELECT (time - ").append(startTime).append(") / ").append(bucketSeconds).append(" AS bucket, COUNT(*) FROM tsk_events"); //NON-NLS
+		conditions.appendTo(sql, " WHERE "); //NON-NLS
+		sql.append(" GROUP BY bucket"); //NON-NLS
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(sql.toString(), conditions.getParameters());
+			rs = connection.executeQuery(statement);
+			while (rs.next()) {
+				counts[(int) rs.getLong(1)] = rs.getLong(2);
+			}
+			return counts;
 		} catch (SQLException ex) {
-			connection.rollbackTransaction();
-			throw new TskCoreException("Failed to add derived file to case database", ex);
+			throw new TskCoreException("Error getting timeline histogram", ex);
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+	}
+
+	/**
+	 * Make the conditions of a timeline event query.
+	 *
+	 * @param startTime start of the range (inclusive)
+	 * @param endTime end of the range (exclusive)
+	 * @param dataSource data source of the events, or null for all
+	 * @param types event types, or null or empty for all
+	 * @return the conditions
+	 */
+	private static QueryConditions getTimelineEventConditions(long startTime, long endTime, Content dataSource, Set<TimelineEvent.EventType> types) {
+		QueryConditions conditions = new QueryConditions();
+		conditions.add("time >= ? AND time < ?", startTime, endTime); //NON-NLS
+		if (dataSource != null) {
+			conditions.add("data_source_obj_id = ?", dataSource.getId()); //NON-NLS
+		}
+		if (types != null && !types.isEmpty()) {
+			List<Object> values = new ArrayList<Object>();
+			for (TimelineEvent.EventType type : types) {
+				values.add(type.getValue());
+			}
+			conditions.add("event_type IN (" + QueryConditions.makeParameterList(values.size()) + ")", values.toArray()); //NON-NLS
+		}
+		return conditions;
+	}
+
+	/**
+	 * Find all files in the data source, by name and parent
+	 *
+	 * @param dataSource the dataSource (Image, parent-less VirtualDirectory) to
+	 * search for the given file name
+	 * @param fileName Pattern of the name of the file or directory to match
+	 * (case insensitive, used in LIKE SQL statement).
+	 * @param parentFile Object for parent file/directory to find children in
+	 * @return a list of AbstractFile for files/directories whose name matches
+	 * fileName and that were inside a directory described by parentFile.
+	 */
+	public List<AbstractFile> findFiles(Content dataSource, String fileName, AbstractFile parentFile) throws TskCoreException {
+		return findFiles(dataSource, fileName, parentFile.getName());
+	}
+
+	/**
+	 * Count files matching the specific Where clause
+	 *
+	 * @param sqlWhereClause a SQL where clause appropriate for the desired
+	 * files (do not begin the WHERE clause with the word WHERE!)
+	 * @return count of files each of which satisfy the given WHERE clause
+	 * @throws TskCoreException
+	 */
+	public long countFilesWhere(String sqlWhereClause) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, "SELECT COUNT (*) FROM tsk_files WHERE " + sqlWhereClause); //NON-NLS
+			rs.next();
+			return rs.getLong(1);
+		} catch (SQLException e) {
+			throw new TskCoreException("SQLException thrown when calling 'SleuthkitCase.findFilesWhere().", e);
 		} finally {
 			closeResultSet(rs);
-			releaseExclusiveLock();
+			closeStatement(s);
+			releaseSharedLock();
 		}
 	}
 
 	/**
+	 * Find and return list of all (abstract) files matching the specific Where
+	 * clause
 	 *
-	 * wraps the version of addLocalFile that takes a Transaction in a
-	 * transaction local to this method.
-	 *
-	 * @param fileName
-	 * @param localPath
-	 * @param size
-	 * @param ctime
-	 * @param crtime
-	 * @param atime
-	 * @param mtime
-	 * @param isFile
-	 * @param parent
-	 * @return
+	 * @param sqlWhereClause a SQL where clause appropriate for the desired
+	 * files (do not begin the WHERE clause with the word WHERE!)
+	 * @return a list of AbstractFile each of which satisfy the given WHERE
+	 * clause
 	 * @throws TskCoreException
 	 */
-	public LocalFile addLocalFile(String fileName, String localPath,
-			long size, long ctime, long crtime, long atime, long mtime,
-			boolean isFile, AbstractFile parent) throws TskCoreException {
-		acquireExclusiveLock();
-		CaseDbTransaction localTrans = beginTransaction();
+	public List<AbstractFile> findAllFilesWhere(String sqlWhereClause) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		Statement s = null;
+		ResultSet rs = null;
 		try {
-			LocalFile created = addLocalFile(fileName, localPath, size, ctime, crtime, atime, mtime, isFile, parent, localTrans);
-			localTrans.commit();
-			return created;
-		} catch (TskCoreException ex) {
-			localTrans.rollback();
-			throw ex;
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, "SELECT * FROM tsk_files WHERE " + sqlWhereClause); //NON-NLS
+			return resultSetToAbstractFiles(rs);
+		} catch (SQLException e) {
+			throw new TskCoreException("SQLException thrown when calling 'SleuthkitCase.findAllFilesWhere(): " + sqlWhereClause, e);
 		} finally {
-			releaseExclusiveLock();
+			closeResultSet(rs);
+			closeStatement(s);
+			releaseSharedLock();
 		}
 	}
 
 	/**
-	 * Creates a new local file object, adds it to database and returns it.
-	 *
+	 * Find the files that match a query. The prepared statement made for the
+	 * query is kept by the connection of the calling thread and reused by
+	 * later queries with the same kinds of filters.
 	 *
-	 * todo: at the moment we trust the transaction and don't do anything to
-	 * check it is valid or in the correct state. we should.
-	 *
-	 *
-	 * @param fileName file name the derived file
-	 * @param localPath local absolute path of the local file, including the
-	 * file name.
-	 * @param size size of the derived file in bytes
-	 * @param ctime
-	 * @param crtime
-	 * @param atime
-	 * @param mtime
-	 * @param isFile whether a file or directory, true if a file
-	 * @param parent parent file object (such as virtual directory, another
-	 * local file, or FsContent type of file)
-	 * @param trans the transaction in the scope of which the operation is to be
-	 * performed, managed by the caller
-	 * @return newly created derived file object
-	 * @throws TskCoreException exception thrown if the object creation failed
-	 * due to a critical system error
+	 * @param query the query
+	 * @return the files, in object id order
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	public LocalFile addLocalFile(String fileName, String localPath,
-			long size, long ctime, long crtime, long atime, long mtime,
-			boolean isFile, AbstractFile parent, CaseDbTransaction trans) throws TskCoreException {
-		if (trans == null) {
-			throw new TskCoreException("Passed null CaseDbTransaction");
-		}
+	public List<AbstractFile> findFiles(FileQuery query) throws TskCoreException {
+		QueryConditions conditions = getFileQueryConditions(query);
+		StringBuilder sql = new StringBuilder("SELECT * FROM tsk_files"); //NON-NLS
+		conditions.appendTo(sql, " WHERE "); //NON-NLS
+		sql.append(" ORDER BY obj_id"); //NON-NLS
+		List<Object> parameters = appendLimit(sql, conditions, query.getLimit());
 
-		acquireExclusiveLock();
-		ResultSet resultSet = null;
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		ResultSet rs = null;
 		try {
-			long parentId = -1;
-			String parentPath;
-			if (parent == null) {
-				throw new TskCoreException(MessageFormat.format(bundle.getString("SleuthkitCase.addLocalFile.exception.msg1.text"), fileName));
-			} else {
-				parentId = parent.getId();
-				parentPath = parent.getParentPath() + "/" + parent.getName(); //NON-NLS
-			}
+			PreparedStatement statement = connection.getPreparedStatement(sql.toString(), parameters);
+			rs = connection.executeQuery(statement);
+			return resultSetToAbstractFiles(rs);
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error finding files with query " + sql, ex);
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+	}
 
-			// Insert a row for the local/logical file into the tsk_objects table.
-			// INSERT INTO tsk_objects (par_obj_id, type) VALUES (?, ?)
-			CaseDbConnection connection = connections.getConnection();
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_OBJECT);
-			statement.clearParameters();
-			statement.setLong(1, parentId);
-			statement.setLong(2, TskData.ObjectType.ABSTRACTFILE.getObjectType());
-			connection.executeUpdate(statement);
-			resultSet = statement.getGeneratedKeys();
-			long newObjId = resultSet.getLong(1);
-			resultSet.close();
-			resultSet = null;
+	/**
+	 * Add the limit of a query to its SQL as a parameter, so that queries with
+	 * different limits share a prepared statement. No limit is given as the
+	 * largest long, which all the backends take.
+	 *
+	 * @param sql the SQL of the query, ending with its ORDER BY clause
+	 * @param conditions the conditions of the query
+	 * @param limit the limit, 0 for no limit
+	 * @return the parameters of the query, with the limit last
+	 */
+	private static List<Object> appendLimit(StringBuilder sql, QueryConditions conditions, int limit) {
+		sql.append(" LIMIT ?"); //NON-NLS
+		List<Object> parameters = new ArrayList<Object>(conditions.getParameters());
+		parameters.add(limit > 0 ? (long) limit : Long.MAX_VALUE);
+		return parameters;
+	}
 
-			// Insert a row for the local/logical file into the tsk_files table.
-			// INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, 
-			// dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path) 
-			// VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)			
-			statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_FILE);
-			statement.clearParameters();
-			statement.setLong(1, newObjId);
+	/**
+	 * Count the files that match a query. The limit of the query is ignored.
+	 *
+	 * @param query the query
+	 * @return the number of files
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public long countFiles(FileQuery query) throws TskCoreException {
+		QueryConditions conditions = getFileQueryConditions(query);
+		StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM tsk_files"); //NON-NLS
+		conditions.appendTo(sql, " WHERE "); //NON-NLS
+		return countWithQuery(sql.toString(), conditions);
+	}
 
-			// nothing to set for parameter 2, fs_obj_id since local files aren't part of file systems
-			statement.setString(3, fileName);
+	/**
+	 * Add the data source and keyset conditions of a file query to a copy of
+	 * its filters.
+	 *
+	 * @param query the query
+	 * @return all the conditions of the query
+	 */
+	private QueryConditions getFileQueryConditions(FileQuery query) {
+		QueryConditions conditions = new QueryConditions(query.getConditions());
+		if (query.getDataSource() != null) {
+			List<Long> fileSystemIds = getFileSystemIdsOfDataSource(query.getDataSource());
+			if (fileSystemIds.isEmpty()) {
+				// an image without file systems has no files
+				conditions.add("1 = 0"); //NON-NLS
+			} else {
+				conditions.add("fs_obj_id IN (" + QueryConditions.makeParameterList(fileSystemIds.size()) + ")", fileSystemIds.toArray()); //NON-NLS
+			}
+		}
+		if (query.getAfterId() != null) {
+			conditions.add("obj_id > ?", query.getAfterId()); //NON-NLS
+		}
+		return conditions;
+	}
 
-			//type, has_path
-			statement.setShort(4, TskData.TSK_DB_FILES_TYPE_ENUM.LOCAL.getFileType());
-			statement.setBoolean(5, true);
+	/**
+	 * Find the blackboard artifacts that match a query. The prepared statement
+	 * made for the query is kept by the connection of the calling thread and
+	 * reused by later queries with the same kinds of filters.
+	 *
+	 * @param query the query
+	 * @return the artifacts, in artifact id order
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public List<BlackboardArtifact> findArtifacts(ArtifactQuery query) throws TskCoreException {
+		QueryConditions conditions = getArtifactQueryConditions(query);
+		StringBuilder sql = new StringBuilder("SELECT artifact_id, obj_id, artifact_type_id FROM blackboard_artifacts"); //NON-NLS
+		conditions.appendTo(sql, " WHERE "); //NON-NLS
+		sql.append(" ORDER BY artifact_id"); //NON-NLS
+		List<Object> parameters = appendLimit(sql, conditions, query.getLimit());
 
-			//flags
-			final TSK_FS_NAME_TYPE_ENUM dirType = isFile ? TSK_FS_NAME_TYPE_ENUM.REG : TSK_FS_NAME_TYPE_ENUM.DIR;
-			statement.setShort(6, dirType.getValue());
-			final TSK_FS_META_TYPE_ENUM metaType = isFile ? TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_REG : TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR;
-			statement.setShort(7, metaType.getValue());
+		List<BlackboardArtifact> artifacts = new ArrayList<BlackboardArtifact>();
+		Map<Integer, String[]> artifactTypeNames = new HashMap<Integer, String[]>();
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(sql.toString(), parameters);
+			rs = connection.executeQuery(statement);
+			while (rs.next()) {
+				int artifactTypeId = rs.getInt(3);
+				String[] names = artifactTypeNames.get(artifactTypeId);
+				if (names == null) {
+					names = new String[]{getArtifactTypeString(artifactTypeId), getArtifactTypeDisplayName(artifactTypeId)};
+					artifactTypeNames.put(artifactTypeId, names);
+				}
+				artifacts.add(new BlackboardArtifact(this, rs.getLong(1), rs.getLong(2), artifactTypeId, names[0], names[1]));
+			}
+			return artifacts;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error finding artifacts with query " + sql, ex);
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+	}
 
-			//note: using alloc under assumption that derived files derive from alloc files
-			final TSK_FS_NAME_FLAG_ENUM dirFlag = TSK_FS_NAME_FLAG_ENUM.ALLOC;
-			statement.setShort(8, dirFlag.getValue());
-			final short metaFlags = (short) (TSK_FS_META_FLAG_ENUM.ALLOC.getValue()
-					| TSK_FS_META_FLAG_ENUM.USED.getValue());
-			statement.setShort(9, metaFlags);
+	/**
+	 * Count the blackboard artifacts that match a query. The limit of the
+	 * query is ignored.
+	 *
+	 * @param query the query
+	 * @return the number of artifacts
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public long countArtifacts(ArtifactQuery query) throws TskCoreException {
+		QueryConditions conditions = getArtifactQueryConditions(query);
+		StringBuilder sql = new StringBuilder("SELECT COUNT(*) FROM blackboard_artifacts"); //NON-NLS
+		conditions.appendTo(sql, " WHERE "); //NON-NLS
+		return countWithQuery(sql.toString(), conditions);
+	}
 
-			//size
-			statement.setLong(10, size);
+	/**
+	 * Add the keyset condition of an artifact query to a copy of its filters.
+	 *
+	 * @param query the query
+	 * @return all the conditions of the query
+	 */
+	private static QueryConditions getArtifactQueryConditions(ArtifactQuery query) {
+		QueryConditions conditions = new QueryConditions(query.getConditions());
+		if (query.getAfterId() != null) {
+			conditions.add("artifact_id > ?", query.getAfterId()); //NON-NLS
+		}
+		return conditions;
+	}
 
-			//mactimes
-			//long ctime, long crtime, long atime, long mtime,
-			statement.setLong(11, ctime);
-			statement.setLong(12, crtime);
-			statement.setLong(13, atime);
-			statement.setLong(14, mtime);
+	/**
+	 * Run a COUNT query made from query conditions.
+	 *
+	 * @param sql the query
+	 * @param conditions the conditions, for their parameter values
+	 * @return the count
+	 * @throws TskCoreException
+	 */
+	private long countWithQuery(String sql, QueryConditions conditions) throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(sql, conditions.getParameters());
+			rs = connection.executeQuery(statement);
+			rs.next();
+			return rs.getLong(1);
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error counting with query " + sql, ex);
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+	}
 
-			//parent path
-			statement.setString(15, parentPath);
+	/**
+	 * Get the number of artifacts of each artifact type from the artifact
+	 * counts table.
+	 *
+	 * @return the number of artifacts of each artifact type id that is in use
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public Map<Integer, Long> getArtifactTypeCounts() throws TskCoreException {
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_ARTIFACT_COUNTS_OF_SCOPE);
+			statement.clearParameters();
+			statement.setInt(1, ARTIFACT_COUNT_SCOPE_CASE);
+			statement.setLong(2, 0);
+			rs = connection.executeQuery(statement);
+			Map<Integer, Long> counts = new HashMap<Integer, Long>();
+			while (rs.next()) {
+				if (rs.getLong(2) > 0) {
+					counts.put(rs.getInt(1), rs.getLong(2));
+				}
+			}
+			return counts;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error counting artifacts by type", ex);
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+	}
 
-			connection.executeUpdate(statement);
+	/**
+	 * Count the blackboard artifacts that match a query for each artifact
+	 * type, in one query. The limit of the query is ignored.
+	 *
+	 * @param query the query, or null to count all artifacts
+	 * @return the number of artifacts of each artifact type id with matches
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public Map<Integer, Long> countArtifactsByType(ArtifactQuery query) throws TskCoreException {
+		QueryConditions conditions = query != null ? getArtifactQueryConditions(query) : new QueryConditions();
+		Map<Integer, Long> counts = new HashMap<Integer, Long>();
+		for (Map.Entry<String, Long> group : countGroups("artifact_type_id", "blackboard_artifacts", conditions).entrySet()) { //NON-NLS
+			counts.put(Integer.parseInt(group.getKey()), group.getValue());
+		}
+		return counts;
+	}
 
-			//add localPath 
-			addFilePath(connection, newObjId, localPath);
+	/**
+	 * Count the files that match a query for each file name extension, in one
+	 * query. The limit of the query is ignored.
+	 *
+	 * @param query the query, or null to count all files
+	 * @return the number of files of each lower case extension (without the
+	 * dot), with "" for the files without an extension
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public Map<String, Long> countFilesByExtension(FileQuery query) throws TskCoreException {
+		// the text after the last dot is what is left once rtrim() has removed
+		// the trailing characters that are not dots
+		String extension = "CASE WHEN name_lower LIKE '%.%' " //NON-NLS
+				+ "THEN SUBSTR(name_lower, LENGTH(RTRIM(name_lower, REPLACE(name_lower, '.', ''))) + 1) ELSE '' END"; //NON-NLS
+		Map<String, Long> counts = new HashMap<String, Long>();
+		for (Map.Entry<String, Long> group : countGroups(extension, "tsk_files", getFileStatisticsConditions(query)).entrySet()) { //NON-NLS
+			String key = group.getKey() != null ? group.getKey() : "";
+			Long count = counts.get(key);
+			counts.put(key, (count == null ? 0 : count) + group.getValue());
+		}
+		return counts;
+	}
 
-			return new LocalFile(this, newObjId, fileName, dirType, metaType, dirFlag, metaFlags,
-					size, ctime, crtime, atime, mtime, null, null, parentPath, localPath, parentId);
-		} catch (SQLException e) {
-			throw new TskCoreException("Error adding local file directory " + fileName + " with local path " + localPath, e);
-		} finally {
-			closeResultSet(resultSet);
-			releaseExclusiveLock();
+	/**
+	 * Count the files that match a query in size ranges, in one query. The
+	 * limit of the query is ignored.
+	 *
+	 * @param query the query, or null to count all files
+	 * @param boundaries the sizes that start the ranges after the first one,
+	 * in increasing order; e.g. {1024, 1048576} counts the files smaller than
+	 * 1 KB, smaller than 1 MB and the rest
+	 * @return the number of files in each range with files, by the smallest
+	 * size of the range (0 for the first range)
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public SortedMap<Long, Long> countFilesBySize(FileQuery query, long[] boundaries) throws TskCoreException {
+		StringBuilder bucket = new StringBuilder("CASE"); //NON-NLS
+		long lowerBound = 0;
+		for (long boundary : boundaries) {
+			if (boundary <= lowerBound) {
+				throw new IllegalArgumentException("Size boundaries must be positive and increasing"); //NON-NLS
+			}
+			bucket.append(" WHEN size < ").append(boundary).append(" THEN ").append(lowerBound); //NON-NLS
+			lowerBound = boundary;
 		}
+		bucket.append(" ELSE ").append(lowerBound).append(" END"); //NON-NLS
+		SortedMap<Long, Long> counts = new TreeMap<Long, Long>();
+		for (Map.Entry<String, Long> group : countGroups(bucket.toString(), "tsk_files", getFileStatisticsConditions(query)).entrySet()) { //NON-NLS
+			counts.put(Long.parseLong(group.getKey()), group.getValue());
+		}
+		return counts;
 	}
 
 	/**
-	 * Add a path (such as a local path) for a content object to tsk_file_paths
+	 * Count the files that match a query for each known state, in one query.
+	 * The limit of the query is ignored.
 	 *
-	 * @param objId object id of the file to add the path for
-	 * @param path the path to add
-	 * @throws SQLException exception thrown when database error occurred and
-	 * path was not added
+	 * @param query the query, or null to count all files
+	 * @return the number of files of each known state with files
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	private void addFilePath(CaseDbConnection connection, long objId, String path) throws SQLException {
-		PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_LOCAL_PATH);
-		statement.clearParameters();
-		statement.setLong(1, objId);
-		statement.setString(2, path);
-		connection.executeUpdate(statement);
+	public Map<FileKnown, Long> countFilesByKnown(FileQuery query) throws TskCoreException {
+		Map<FileKnown, Long> counts = new EnumMap<FileKnown, Long>(FileKnown.class);
+		for (Map.Entry<String, Long> group : countGroups("COALESCE(known, " + FileKnown.UNKNOWN.getFileKnownValue() + ")", "tsk_files", getFileStatisticsConditions(query)).entrySet()) { //NON-NLS
+			counts.put(FileKnown.valueOf(Byte.parseByte(group.getKey())), group.getValue());
+		}
+		return counts;
 	}
 
 	/**
-	 * Find all files in the data source, by name and parent
+	 * Count the files that match a query for each metadata type, in one
+	 * query. The limit of the query is ignored. This replaces calling
+	 * countFsContentType() for each type.
 	 *
-	 * @param dataSource the dataSource (Image, parent-less VirtualDirectory) to
-	 * search for the given file name
-	 * @param fileName Pattern of the name of the file or directory to match
-	 * (case insensitive, used in LIKE SQL statement).
-	 * @param parentFile Object for parent file/directory to find children in
-	 * @return a list of AbstractFile for files/directories whose name matches
-	 * fileName and that were inside a directory described by parentFile.
+	 * @param query the query, or null to count all files
+	 * @return the number of files of each metadata type with files
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	public List<AbstractFile> findFiles(Content dataSource, String fileName, AbstractFile parentFile) throws TskCoreException {
-		return findFiles(dataSource, fileName, parentFile.getName());
+	public Map<TSK_FS_META_TYPE_ENUM, Long> countFilesByMetaType(FileQuery query) throws TskCoreException {
+		Map<TSK_FS_META_TYPE_ENUM, Long> counts = new EnumMap<TSK_FS_META_TYPE_ENUM, Long>(TSK_FS_META_TYPE_ENUM.class);
+		for (Map.Entry<String, Long> group : countGroups("COALESCE(meta_type, " + TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_UNDEF.getValue() + ")", "tsk_files", getFileStatisticsConditions(query)).entrySet()) { //NON-NLS
+			counts.put(TSK_FS_META_TYPE_ENUM.valueOf(Short.parseShort(group.getKey())), group.getValue());
+		}
+		return counts;
 	}
 
 	/**
-	 * Count files matching the specific Where clause
+	 * Count the files that match a query for each data source, in one query.
+	 * The limit of the query is ignored.
 	 *
-	 * @param sqlWhereClause a SQL where clause appropriate for the desired
-	 * files (do not begin the WHERE clause with the word WHERE!)
-	 * @return count of files each of which satisfy the given WHERE clause
-	 * @throws TskCoreException
+	 * @param query the query, or null to count all files
+	 * @return the number of files of each data source object id with files
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
 	 */
-	public long countFilesWhere(String sqlWhereClause) throws TskCoreException {
+	public Map<Long, Long> countFilesByDataSource(FileQuery query) throws TskCoreException {
+		// file system files are grouped by file system and the others (local
+		// and derived files) by parent, and the groups are then mapped to 
+		// their data sources
+		String group = "CASE WHEN fs_obj_id IS NULL " //NON-NLS
+				+ "THEN (SELECT par_obj_id FROM tsk_objects WHERE tsk_objects.obj_id = tsk_files.obj_id) ELSE fs_obj_id END"; //NON-NLS
+		Map<String, Long> groups = countGroups(group, "tsk_files", getFileStatisticsConditions(query)); //NON-NLS
+		Map<Long, Long> counts = new HashMap<Long, Long>();
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
-		Statement s = null;
-		ResultSet rs = null;
 		try {
-			s = connection.createStatement();
-			rs = connection.executeQuery(s, "SELECT COUNT (*) FROM tsk_files WHERE " + sqlWhereClause); //NON-NLS
-			return rs.getLong(1);
-		} catch (SQLException e) {
-			throw new TskCoreException("SQLException thrown when calling 'SleuthkitCase.findFilesWhere().", e);
+			for (Map.Entry<String, Long> entry : groups.entrySet()) {
+				if (entry.getKey() == null) {
+					continue;
+				}
+				long dataSourceId = getDataSourceObjectId(connection, Long.parseLong(entry.getKey()));
+				Long count = counts.get(dataSourceId);
+				counts.put(dataSourceId, (count == null ? 0 : count) + entry.getValue());
+			}
+			return counts;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error counting files by data source", ex);
 		} finally {
-			closeResultSet(rs);
-			closeStatement(s);
 			releaseSharedLock();
 		}
 	}
 
 	/**
-	 * Find and return list of all (abstract) files matching the specific Where
-	 * clause
+	 * Get the conditions of a file statistics query.
 	 *
-	 * @param sqlWhereClause a SQL where clause appropriate for the desired
-	 * files (do not begin the WHERE clause with the word WHERE!)
-	 * @return a list of AbstractFile each of which satisfy the given WHERE
-	 * clause
+	 * @param query the query, or null for all files
+	 * @return the conditions
+	 */
+	private QueryConditions getFileStatisticsConditions(FileQuery query) {
+		return query != null ? getFileQueryConditions(query) : new QueryConditions();
+	}
+
+	/**
+	 * Run a GROUP BY query that counts the rows of a table for each value of
+	 * an expression.
+	 *
+	 * @param groupExpression SQL expression of the column(s) of the table
+	 * @param table the table
+	 * @param conditions the conditions on the rows
+	 * @return the count of each value, as text (null for NULL)
 	 * @throws TskCoreException
 	 */
-	public List<AbstractFile> findAllFilesWhere(String sqlWhereClause) throws TskCoreException {
+	private Map<String, Long> countGroups(String groupExpression, String table, QueryConditions conditions) throws TskCoreException {
+		StringBuilder sql = new StringBuilder("SELECT ").append(groupExpression).append(" AS grp, COUNT(*) FROM ").append(table); //NON-NLS
+		conditions.appendTo(sql, " WHERE "); //NON-NLS
+		sql.append(" GROUP BY grp"); //NON-NLS
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
-		Statement s = null;
 		ResultSet rs = null;
 		try {
-			s = connection.createStatement();
-			rs = connection.executeQuery(s, "SELECT * FROM tsk_files WHERE " + sqlWhereClause); //NON-NLS
-			return resultSetToAbstractFiles(rs);
-		} catch (SQLException e) {
-			throw new TskCoreException("SQLException thrown when calling 'SleuthkitCase.findAllFilesWhere(): " + sqlWhereClause, e);
+			PreparedStatement statement = connection.getPreparedStatement(sql.toString(), conditions.getParameters());
+			rs = connection.executeQuery(statement);
+			Map<String, Long> counts = new HashMap<String, Long>();
+			while (rs.next()) {
+				counts.put(rs.getString(1), rs.getLong(2));
+			}
+			return counts;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error counting groups with query " + sql, ex);
 		} finally {
 			closeResultSet(rs);
-			closeStatement(s);
 			releaseSharedLock();
 		}
 	}
@@ -3276,6 +5795,20 @@ public List<AbstractFile> findAllFilesWhere(String sqlWhereClause) throws TskCor
 	 * @throws TskCoreException
 	 */
 	public List<Long> findAllFileIdsWhere(String sqlWhereClause) throws TskCoreException {
+		return toLongList(findAllFileIdsWhereAsArray(sqlWhereClause));
+	}
+
+	/**
+	 * Find and return the ids of all (abstract) files matching the specific
+	 * Where clause, without boxing them. Use this instead of
+	 * findAllFileIdsWhere() when a very large number of ids is expected.
+	 *
+	 * @param sqlWhereClause a SQL where clause appropriate for the desired
+	 * files (do not begin the WHERE clause with the word WHERE!)
+	 * @return the ids of the files that satisfy the given WHERE clause
+	 * @throws TskCoreException
+	 */
+	public long[] findAllFileIdsWhereAsArray(String sqlWhereClause) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
 		Statement s = null;
@@ -3283,11 +5816,7 @@ public List<Long> findAllFileIdsWhere(String sqlWhereClause) throws TskCoreExcep
 		try {
 			s = connection.createStatement();
 			rs = connection.executeQuery(s, "SELECT obj_id FROM tsk_files WHERE " + sqlWhereClause); //NON-NLS
-			List<Long> ret = new ArrayList<Long>();
-			while (rs.next()) {
-				ret.add(rs.getLong(1));
-			}
-			return ret;
+			return readIds(rs);
 		} catch (SQLException e) {
 			throw new TskCoreException("SQLException thrown when calling 'SleuthkitCase.findAllFileIdsWhere(): " + sqlWhereClause, e);
 		} finally {
@@ -3337,21 +5866,64 @@ public List<AbstractFile> openFiles(Content dataSource, String filePath) throws
 
 		// get the non-unique path (strip of image and volume path segments, if
 		// the exist.
-		String path = AbstractFile.createNonUniquePath(filePath).toLowerCase();
-
-		// split the file name from the parent path
-		int lastSlash = path.lastIndexOf("/"); //NON-NLS
+		String path = AbstractFile.createNonUniquePath(filePath);
 
 		// if the last slash is at the end, strip it off
-		if (lastSlash == path.length()) {
-			path = path.substring(0, lastSlash - 1);
-			lastSlash = path.lastIndexOf("/"); //NON-NLS
+		if (path.length() > 1 && path.endsWith("/")) { //NON-NLS
+			path = path.substring(0, path.length() - 1);
 		}
 
-		String parentPath = path.substring(0, lastSlash);
-		String fileName = path.substring(lastSlash);
+		// split the file name from the parent path, keeping the trailing slash
+		// of the parent path as it is stored in the case database
+		int lastSlash = path.lastIndexOf("/"); //NON-NLS
+		String parentPath = path.substring(0, lastSlash + 1);
+		String fileName = path.substring(lastSlash + 1);
+
+		return findFilesByExactPath(dataSource, parentPath, fileName);
+	}
+
+	/**
+	 * Find the files with the given parent path and name in a data source. The
+	 * parent path and name are compared for equality (ignoring the case of
+	 * ASCII letters) using an index, unlike the pattern matching of
+	 * findFiles(), so the lookup does not scan the files of the data source.
+	 *
+	 * @param dataSource the data source (Image, parent-less VirtualDirectory)
+	 * to search for the file
+	 * @param parentPath the path of the parent directory of the file, with
+	 * leading and trailing slashes, e.g. "/Windows/System32/"
+	 * @param fileName the name of the file
+	 * @return a list of AbstractFile for the files with the given parent path
+	 * and name
+	 * @throws TskCoreException exception thrown if a critical error occurs
+	 * within tsk core
+	 */
+	public List<AbstractFile> findFilesByExactPath(Content dataSource, String parentPath, String fileName) throws TskCoreException {
+		List<Long> fileSystemIds = getFileSystemIdsOfDataSource(dataSource);
 
-		return findFiles(dataSource, fileName, parentPath);
+		List<AbstractFile> files = new ArrayList<AbstractFile>();
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		ResultSet rs = null;
+		try {
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_FILES_BY_FILE_SYSTEM_AND_EXACT_PATH);
+			for (long fileSystemId : fileSystemIds) {
+				statement.clearParameters();
+				statement.setLong(1, fileSystemId);
+				statement.setString(2, parentPath);
+				statement.setString(3, fileName);
+				rs = connection.executeQuery(statement);
+				files.addAll(resultSetToAbstractFiles(rs));
+				rs.close();
+				rs = null;
+			}
+		} catch (SQLException e) {
+			throw new TskCoreException("Error finding files with parent path " + parentPath + " and name " + fileName, e);
+		} finally {
+			closeResultSet(rs);
+			releaseSharedLock();
+		}
+		return files;
 	}
 
 	/**
@@ -3666,46 +6238,276 @@ public Collection<FileSystem> getFileSystems(Image image) {
 					allFileSystems.add(rsHelper.fileSystem(rs, null));
 				}
 			} catch (SQLException ex) {
-				logger.log(Level.SEVERE, "There was a problem while trying to obtain all file systems", ex); //NON-NLS
+				logger.log(Level.SEVERE, "There was a problem while trying to obtain all file systems", ex); //NON-NLS
+			} finally {
+				closeResultSet(rs);
+				rs = null;
+			}
+
+			// For each file system, find the image to which it belongs by iteratively
+			// climbing the tsk_ojbects hierarchy only taking those file systems
+			// that belong to this image.
+			for (FileSystem fs : allFileSystems) {
+				Long imageID = null;
+				Long currentObjID = fs.getId();
+				while (imageID == null) {
+					try {
+						rs = connection.executeQuery(s, "SELECT * FROM tsk_objects WHERE tsk_objects.obj_id = " + currentObjID); //NON-NLS
+						rs.next();
+						currentObjID = rs.getLong("par_obj_id"); //NON-NLS
+						if (rs.getInt("type") == TskData.ObjectType.IMG.getObjectType()) { //NON-NLS
+							imageID = rs.getLong("obj_id"); //NON-NLS
+						}
+					} catch (SQLException ex) {
+						logger.log(Level.SEVERE, "There was a problem while trying to obtain this image's file systems", ex); //NON-NLS
+					} finally {
+						closeResultSet(rs);
+						rs = null;
+					}
+				}
+
+				// see if imageID is this image'statement ID
+				if (imageID == image.getId()) {
+					fileSystems.add(fs);
+				}
+			}
+		} catch (SQLException ex) {
+			logger.log(Level.SEVERE, "Error getting case database connection", ex); //NON-NLS
+		} finally {
+			closeResultSet(rs);
+			closeStatement(s);
+			releaseSharedLock();
+		}
+		return fileSystems;
+	}
+
+	/**
+	 * Read the ids in the first column of a result set without boxing them.
+	 *
+	 * @param rs the result set. Caller is responsible for closing it.
+	 * @return the ids
+	 * @throws SQLException
+	 */
+	private static long[] readIds(ResultSet rs) throws SQLException {
+		long[] ids = new long[64];
+		int numIds = 0;
+		while (rs.next()) {
+			if (numIds == ids.length) {
+				ids = Arrays.copyOf(ids, ids.length * 2);
+			}
+			ids[numIds++] = rs.getLong(1);
+		}
+		return Arrays.copyOf(ids, numIds);
+	}
+
+	/**
+	 * @param ids ids
+	 * @return the ids as a list, for the methods that return boxed ids
+	 */
+	private static List<Long> toLongList(long[] ids) {
+		List<Long> list = new ArrayList<Long>(ids.length);
+		for (long id : ids) {
+			list.add(id);
+		}
+		return list;
+	}
+
+	/**
+	 * Make a comma separated list of object ids for an IN clause.
+	 *
+	 * @param ids the ids
+	 * @param start index of the first id to use
+	 * @param end index after the last id to use
+	 * @return the list
+	 */
+	private static String makeIdList(long[] ids, int start, int end) {
+		StringBuilder idList = new StringBuilder();
+		for (int i = start; i < end; i++) {
+			if (i > start) {
+				idList.append(',');
+			}
+			idList.append(ids[i]);
+		}
+		return idList.toString();
+	}
+
+	/**
+	 * Load the content objects of one type whose tsk_objects rows match a
+	 * condition, with one query that joins tsk_objects with the table of the
+	 * type.
+	 *
+	 * @param type the type of the objects, not IMG
+	 * @param condition SQL condition on the tsk_objects table
+	 * @param parent the parent of all of the objects, or null if not known.
+	 * If null, the parent id of each object is set instead.
+	 * @return map of object id to object
+	 * @throws TskCoreException
+	 */
+	private Map<Long, Content> getContentOfType(ObjectType type, String condition, Content parent) throws TskCoreException {
+		String table;
+		switch (type) {
+			case VS:
+				table = "tsk_vs_info"; //NON-NLS
+				break;
+			case VOL:
+				table = "tsk_vs_parts"; //NON-NLS
+				break;
+			case FS:
+				table = "tsk_fs_info"; //NON-NLS
+				break;
+			case ABSTRACTFILE:
+				table = "tsk_files"; //NON-NLS
+				break;
+			default:
+				throw new TskCoreException("Can not load content of type " + type + " with other content");
+		}
+		String query = "SELECT " + table + ".*, tsk_objects.par_obj_id AS content_par_obj_id" //NON-NLS
+				+ (type == ObjectType.ABSTRACTFILE ? ", " + CaseDbConnection.FILE_CHILD_COUNT_COLUMN : "") //NON-NLS
+				+ " FROM tsk_objects INNER JOIN " + table + " ON " + table + ".obj_id = tsk_objects.obj_id WHERE " + condition; //NON-NLS
+
+		CaseDbConnection connection = connections.getConnection();
+		acquireSharedLock();
+		Statement s = null;
+		ResultSet rs = null;
+		try {
+			s = connection.createStatement();
+			rs = connection.executeQuery(s, query);
+			Map<Long, Content> contents = new HashMap<Long, Content>();
+			while (rs.next()) {
+				long id = rs.getLong("obj_id"); //NON-NLS
+				long parentId = rs.getLong("content_par_obj_id"); //NON-NLS
+				AbstractContent content;
+				if (type == ObjectType.VS) {
+					content = rsHelper.volumeSystem(rs, parent instanceof Image ? (Image) parent : null);
+				} else if (type == ObjectType.VOL) {
+					content = rsHelper.volume(rs, parent instanceof VolumeSystem ? (VolumeSystem) parent : null);
+				} else if (type == ObjectType.FS) {
+					// use the cached file system if there is one, as getFileSystemById() does
+					synchronized (fileSystemIdMap) {
+						content = fileSystemIdMap.get(id);
+						if (content == null) {
+							FileSystem fs = rsHelper.fileSystem(rs, parent);
+							fileSystemIdMap.put(id, fs);
+							content = fs;
+						}
+					}
+				} else {
+					AbstractFile file = rsHelper.fileChild(rs, parentId);
+					if (file == null) {
+						continue;
+					}
+					file.setChildrenCount(rs.getInt("child_count")); //NON-NLS
+					content = file;
+				}
+				if (parent == null) {
+					content.setParentId(parentId);
+				}
+				contents.put(id, content);
+			}
+			return contents;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error getting content of type " + type, ex);
+		} finally {
+			closeResultSet(rs);
+			closeStatement(s);
+			releaseSharedLock();
+		}
+	}
+
+	/**
+	 * Get the children of a content object with one query per type of child,
+	 * instead of one query per child.
+	 *
+	 * @param parent the content to get the children of
+	 * @param allowedTypes the types of children that the parent can have
+	 * @return the children, in the order of getChildrenInfo()
+	 * @throws TskCoreException if the parent has a child of a type that is not
+	 * allowed, or if a critical error occurred within tsk core
+	 */
+	private List<Content> getTypedChildren(Content parent, Set<ObjectType> allowedTypes) throws TskCoreException {
+		Collection<ObjectInfo> childInfos = getChildrenInfo(parent);
+		Set<ObjectType> types = EnumSet.noneOf(ObjectType.class);
+		for (ObjectInfo info : childInfos) {
+			if (!allowedTypes.contains(info.type)) {
+				throw new TskCoreException(parent.getClass().getSimpleName() + " has child of invalid type: " + info.type);
+			}
+			types.add(info.type);
+		}
+
+		Map<Long, Content> contents = new HashMap<Long, Content>();
+		for (ObjectType type : types) {
+			contents.putAll(getContentOfType(type, "tsk_objects.par_obj_id = " + parent.getId(), parent)); //NON-NLS
+		}
+		List<Content> children = new ArrayList<Content>();
+		for (ObjectInfo info : childInfos) {
+			Content child = contents.get(info.id);
+			if (child != null) {
+				children.add(child);
+			}
+		}
+		return children;
+	}
+
+	/**
+	 * Get many content objects by id, with one query per MAX_IDS_PER_QUERY
+	 * ids to find their types and then one query per type, instead of the
+	 * queries of getContentById() for each id.
+	 *
+	 * @param ids the object ids
+	 * @return the content objects in the order of the ids. Ids that are not
+	 * found are left out.
+	 * @throws TskCoreException thrown if a critical error occurred within tsk
+	 * core
+	 */
+	public List<Content> getContentByIds(long[] ids) throws TskCoreException {
+		Map<Long, Content> contents = new HashMap<Long, Content>();
+		CaseDbConnection connection = connections.getConnection();
+		for (int start = 0; start < ids.length; start += MAX_IDS_PER_QUERY) {
+			int end = Math.min(start + MAX_IDS_PER_QUERY, ids.length);
+			String idList = makeIdList(ids, start, end);
+
+			// find the types of the objects
+			List<Long> imageIds = new ArrayList<Long>();
+			Set<ObjectType> types = EnumSet.noneOf(ObjectType.class);
+			acquireSharedLock();
+			Statement s = null;
+			ResultSet rs = null;
+			try {
+				s = connection.createStatement();
+				rs = connection.executeQuery(s, "SELECT obj_id, type FROM tsk_objects WHERE obj_id IN (" + idList + ")"); //NON-NLS
+				while (rs.next()) {
+					ObjectType type = ObjectType.valueOf(rs.getShort(2));
+					if (type == ObjectType.IMG) {
+						imageIds.add(rs.getLong(1));
+					} else {
+						types.add(type);
+					}
+				}
+			} catch (SQLException ex) {
+				throw new TskCoreException("Error getting Content by IDs.", ex);
 			} finally {
 				closeResultSet(rs);
-				rs = null;
+				closeStatement(s);
+				releaseSharedLock();
 			}
 
-			// For each file system, find the image to which it belongs by iteratively
-			// climbing the tsk_ojbects hierarchy only taking those file systems
-			// that belong to this image.
-			for (FileSystem fs : allFileSystems) {
-				Long imageID = null;
-				Long currentObjID = fs.getId();
-				while (imageID == null) {
-					try {
-						rs = connection.executeQuery(s, "SELECT * FROM tsk_objects WHERE tsk_objects.obj_id = " + currentObjID); //NON-NLS
-						currentObjID = rs.getLong("par_obj_id"); //NON-NLS
-						if (rs.getInt("type") == TskData.ObjectType.IMG.getObjectType()) { //NON-NLS
-							imageID = rs.getLong("obj_id"); //NON-NLS
-						}
-					} catch (SQLException ex) {
-						logger.log(Level.SEVERE, "There was a problem while trying to obtain this image's file systems", ex); //NON-NLS
-					} finally {
-						closeResultSet(rs);
-						rs = null;
-					}
-				}
+			// there are few images and they need their paths too, so get them one by one
+			for (Long imageId : imageIds) {
+				contents.put(imageId, getImageById(imageId));
+			}
+			for (ObjectType type : types) {
+				contents.putAll(getContentOfType(type, "tsk_objects.obj_id IN (" + idList + ")", null)); //NON-NLS
+			}
+		}
 
-				// see if imageID is this image'statement ID
-				if (imageID == image.getId()) {
-					fileSystems.add(fs);
-				}
+		List<Content> results = new ArrayList<Content>();
+		for (long id : ids) {
+			Content content = contents.get(id);
+			if (content != null) {
+				results.add(content);
 			}
-		} catch (SQLException ex) {
-			logger.log(Level.SEVERE, "Error getting case database connection", ex); //NON-NLS
-		} finally {
-			closeResultSet(rs);
-			closeStatement(s);
-			releaseSharedLock();
 		}
-		return fileSystems;
+		return results;
 	}
 
 	/**
@@ -3717,20 +6519,7 @@ public Collection<FileSystem> getFileSystems(Image image) {
 	 * core
 	 */
 	List<Content> getImageChildren(Image img) throws TskCoreException {
-		Collection<ObjectInfo> childInfos = getChildrenInfo(img);
-		List<Content> children = new ArrayList<Content>();
-		for (ObjectInfo info : childInfos) {
-			if (info.type == ObjectType.VS) {
-				children.add(getVolumeSystemById(info.id, img));
-			} else if (info.type == ObjectType.FS) {
-				children.add(getFileSystemById(info.id, img));
-			} else if (info.type == ObjectType.ABSTRACTFILE) {
-				children.add(getAbstractFileById(info.id));
-			} else {
-				throw new TskCoreException("Image has child of invalid type: " + info.type);
-			}
-		}
-		return children;
+		return getTypedChildren(img, EnumSet.of(ObjectType.VS, ObjectType.FS, ObjectType.ABSTRACTFILE));
 	}
 
 	/**
@@ -3742,13 +6531,26 @@ List<Content> getImageChildren(Image img) throws TskCoreException {
 	 * core
 	 */
 	List<Long> getImageChildrenIds(Image img) throws TskCoreException {
+		return toLongList(getImageChildrenIdArray(img));
+	}
+
+	/**
+	 * Returns the direct children IDs for a given Image, without boxing them
+	 *
+	 * @param img image to get children for
+	 * @return IDs of the direct image children
+	 * @throws TskCoreException thrown if a critical error occurred within tsk
+	 * core
+	 */
+	long[] getImageChildrenIdArray(Image img) throws TskCoreException {
 		Collection<ObjectInfo> childInfos = getChildrenInfo(img);
-		List<Long> children = new ArrayList<Long>();
+		long[] children = new long[childInfos.size()];
+		int i = 0;
 		for (ObjectInfo info : childInfos) {
 			if (info.type == ObjectType.VS
 					|| info.type == ObjectType.FS
 					|| info.type == ObjectType.ABSTRACTFILE) {
-				children.add(info.id);
+				children[i++] = info.id;
 			} else {
 				throw new TskCoreException("Image has child of invalid type: " + info.type);
 			}
@@ -3765,18 +6567,7 @@ List<Long> getImageChildrenIds(Image img) throws TskCoreException {
 	 * core
 	 */
 	List<Content> getVolumeSystemChildren(VolumeSystem vs) throws TskCoreException {
-		Collection<ObjectInfo> childInfos = getChildrenInfo(vs);
-		List<Content> children = new ArrayList<Content>();
-		for (ObjectInfo info : childInfos) {
-			if (info.type == ObjectType.VOL) {
-				children.add(getVolumeById(info.id, vs));
-			} else if (info.type == ObjectType.ABSTRACTFILE) {
-				children.add(getAbstractFileById(info.id));
-			} else {
-				throw new TskCoreException("VolumeSystem has child of invalid type: " + info.type);
-			}
-		}
-		return children;
+		return getTypedChildren(vs, EnumSet.of(ObjectType.VOL, ObjectType.ABSTRACTFILE));
 	}
 
 	/**
@@ -3809,18 +6600,7 @@ List<Long> getVolumeSystemChildrenIds(VolumeSystem vs) throws TskCoreException {
 	 * core
 	 */
 	List<Content> getVolumeChildren(Volume vol) throws TskCoreException {
-		Collection<ObjectInfo> childInfos = getChildrenInfo(vol);
-		List<Content> children = new ArrayList<Content>();
-		for (ObjectInfo info : childInfos) {
-			if (info.type == ObjectType.FS) {
-				children.add(getFileSystemById(info.id, vol));
-			} else if (info.type == ObjectType.ABSTRACTFILE) {
-				children.add(getAbstractFileById(info.id));
-			} else {
-				throw new TskCoreException("Volume has child of invalid type: " + info.type);
-			}
-		}
-		return children;
+		return getTypedChildren(vol, EnumSet.of(ObjectType.FS, ObjectType.ABSTRACTFILE));
 	}
 
 	/**
@@ -3927,7 +6707,7 @@ public List<Image> getImages() throws TskCoreException {
 	 */
 	public long getLastObjectId() throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.OBJECTS);
 		ResultSet rs = null;
 		try {
 			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_MAX_OBJECT_ID);
@@ -3941,7 +6721,7 @@ public long getLastObjectId() throws TskCoreException {
 			throw new TskCoreException("Error getting last object id", e);
 		} finally {
 			closeResultSet(rs);
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.OBJECTS);
 		}
 	}
 
@@ -3955,14 +6735,14 @@ public long getLastObjectId() throws TskCoreException {
 	 */
 	public void setImagePaths(long obj_id, List<String> paths) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.OBJECTS);
 		Statement statement = null;
 		try {
 			connection.beginTransaction();
 			statement = connection.createStatement();
 			connection.executeUpdate(statement, "DELETE FROM tsk_image_names WHERE obj_id = " + obj_id); //NON-NLS
 			for (int i = 0; i < paths.size(); i++) {
-				connection.executeUpdate(statement, "INSERT INTO tsk_image_names VALUES (" + obj_id + ", \"" + paths.get(i) + "\", " + i + ")"); //NON-NLS
+				connection.executeUpdate(statement, "INSERT INTO tsk_image_names VALUES (" + obj_id + ", '" + paths.get(i).replace("'", "''") + "', " + i + ")"); //NON-NLS
 			}
 			connection.commitTransaction();
 		} catch (SQLException ex) {
@@ -3970,7 +6750,7 @@ public void setImagePaths(long obj_id, List<String> paths) throws TskCoreExcepti
 			throw new TskCoreException("Error updating image paths.", ex);
 		} finally {
 			closeStatement(statement);
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.OBJECTS);
 		}
 	}
 
@@ -4124,15 +6904,156 @@ public void finalize() throws Throwable {
 		}
 	}
 
+	/**
+	 * Start logging the statements of the case database that take longer than
+	 * a threshold, with their SQL, parameters, time, number of rows, thread
+	 * and SQLite query plan, to a set of rotating log files. The time of a
+	 * query includes reading its rows. The parameters are logged for the
+	 * statements made by the query builders; the other prepared statements
+	 * are logged with their SQL and statement name. Logging stops when the
+	 * case is closed.
+	 *
+	 * @param logFilePattern the path of the log files, a
+	 * java.util.logging.FileHandler pattern, e.g. "/case/slow_queries%g.log"
+	 * @param thresholdMillis statements that take at least this many
+	 * milliseconds are logged
+	 * @param maxFileSize size in bytes at which the log file is rotated, or 0
+	 * for no limit
+	 * @param fileCount number of log files to keep
+	 * @throws TskCoreException if the log file cannot be opened
+	 */
+	public void startSlowQueryLog(String logFilePattern, long thresholdMillis, int maxFileSize, int fileCount) throws TskCoreException {
+		slowQueryLog.start(logFilePattern, thresholdMillis, maxFileSize, fileCount);
+	}
+
+	/**
+	 * Stop logging slow statements, see startSlowQueryLog().
+	 */
+	public void stopSlowQueryLog() {
+		slowQueryLog.stop();
+	}
+
+	/**
+	 * Start queuing the writes made by setKnown(), setMd5Hash(),
+	 * newBlackboardArtifact(), newBlackboardArtifacts(),
+	 * addBlackboardAttribute() and addBlackboardAttributes(). The queued
+	 * writes are done by a writer thread in group commits, a transaction for
+	 * up to maxBatchSize writes that is committed at most maxLatencyMillis
+	 * after the first of them was queued. The methods return once the write
+	 * is queued, with the returned artifacts and the changed files already
+	 * up to date, but the writes are not seen by queries of the case until
+	 * they are committed; call flushWrites() to wait for them. An error of a
+	 * queued write is logged and thrown by the next call of flushWrites().
+	 * The queued writes are done in the order they were queued, so attributes
+	 * can be added to an artifact whose row is not written yet, and a write
+	 * made while the queue is being stopped waits for the queued writes.
+	 * Calling this while writes are queued flushes them first.
+	 *
+	 * @param maxBatchSize the maximum number of writes per transaction
+	 * @param maxLatencyMillis the maximum time a write waits for others to
+	 * commit with
+	 * @throws TskCoreException if the writes queued so far failed
+	 */
+	public void startWriteBehind(int maxBatchSize, long maxLatencyMillis) throws TskCoreException {
+		synchronized (writeBehindLock) {
+			stopWriteBehind();
+			WriteBehindQueue queue = new WriteBehindQueue(Math.max(maxBatchSize, 1), TimeUnit.MILLISECONDS.toNanos(Math.max(maxLatencyMillis, 0)));
+			queue.start();
+			writeBehindQueue = queue;
+		}
+	}
+
+	/**
+	 * Stop queuing writes, after writing the writes queued so far. Called by
+	 * close().
+	 *
+	 * @throws TskCoreException if the writes queued since the last flush
+	 * failed
+	 */
+	public void stopWriteBehind() throws TskCoreException {
+		synchronized (writeBehindLock) {
+			WriteBehindQueue queue = writeBehindQueue;
+			if (queue != null) {
+				// the queue stays set while it stops, so that writes refused
+				// meanwhile wait for the writes queued before them, see
+				// queueWrite()
+				try {
+					queue.stop();
+				} finally {
+					writeBehindQueue = null;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queue a write if writes are being queued. If the queue refuses the
+	 * write because it is stopping, or because its writer thread ended on an
+	 * error, wait until the writer thread has ended, so that the caller does
+	 * the write after the writes queued before it, such as the row of the
+	 * artifact an attribute is added to.
+	 *
+	 * @param write the write
+	 * @return true if the write was queued, false if the caller must do it
+	 * @throws TskCoreException if the queue refused the write and the calling
+	 * thread holds the case lock or is interrupted while waiting
+	 */
+	private boolean queueWrite(QueuedWrite write) throws TskCoreException {
+		WriteBehindQueue queue = writeBehindQueue;
+		if (queue == null) {
+			return false;
+		}
+		if (queue.add(write)) {
+			return true;
+		}
+		queue.awaitWriterEnd();
+		return false;
+	}
+
+	/**
+	 * Wait until the writes queued so far, by any thread, are committed. Does
+	 * nothing if writes are not being queued. Must not be called while holding
+	 * the case lock, since the writer thread needs it: with the exclusive lock
+	 * the writer could never run, and with the shared lock it could wait
+	 * behind a thread waiting for the exclusive lock.
+	 *
+	 * @throws TskCoreException if a write queued since the last flush failed,
+	 * or if writes are being queued and the calling thread holds the case
+	 * lock
+	 */
+	public void flushWrites() throws TskCoreException {
+		WriteBehindQueue queue = writeBehindQueue;
+		if (queue != null) {
+			queue.flush();
+		}
+	}
+
 	/**
 	 * Call to free resources when done with instance.
 	 */
 	public void close() {
 		System.err.println(this.hashCode() + " closed"); //NON-NLS
 		System.err.flush();
+		try {
+			// done before the exclusive lock is taken, since the writer
+			// thread needs the shared lock
+			stopWriteBehind();
+		} catch (TskCoreException ex) {
+			logger.log(Level.SEVERE, "Error writing queued changes on close", ex); //NON-NLS
+		}
 		acquireExclusiveLock();
 		connections.close();
 		fileSystemIdMap.clear();
+		synchronized (uniquePathCache) {
+			uniquePathCache.clear();
+		}
+		synchronized (dataSourceIdCache) {
+			dataSourceIdCache.clear();
+		}
+		synchronized (tagIndexLock) {
+			tagIndex = null;
+		}
+		slowQueryLog.stop();
 
 		try {
 			if (this.caseHandle != null) {
@@ -4144,6 +7065,7 @@ public void close() {
 			logger.log(Level.WARNING,
 					"Error freeing case handle.", ex); //NON-NLS
 		} finally {
+			backend.close();
 			releaseExclusiveLock();
 		}
 	}
@@ -4158,28 +7080,44 @@ public void close() {
 	 * @throws TskCoreException thrown if a critical error occurred within tsk
 	 * core
 	 */
-	public boolean setKnown(AbstractFile file, FileKnown fileKnown) throws TskCoreException {
-		long id = file.getId();
+	public boolean setKnown(AbstractFile file, final FileKnown fileKnown) throws TskCoreException {
+		final long id = file.getId();
 		FileKnown currentKnown = file.getKnown();
 		if (currentKnown.compareTo(fileKnown) > 0) {
 			return false;
 		}
+		if (queueWrite(new QueuedWrite(LockDomain.HASHES) {
+			@Override
+			void apply(CaseDbConnection connection) throws SQLException {
+				updateKnown(connection, id, fileKnown);
+			}
+		})) {
+			file.setKnown(fileKnown);
+			return true;
+		}
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.HASHES);
+		try {
+			updateKnown(connection, id, fileKnown);
+			file.setKnown(fileKnown);
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error setting Known status.", ex);
+		} finally {
+			releaseDomainLock(LockDomain.HASHES);
+		}
+		return true;
+	}
+
+	private void updateKnown(CaseDbConnection connection, long id, FileKnown fileKnown) throws SQLException {
 		Statement statement = null;
 		try {
 			statement = connection.createStatement();
 			connection.executeUpdate(statement, "UPDATE tsk_files " //NON-NLS
 					+ "SET known='" + fileKnown.getFileKnownValue() + "' " //NON-NLS
 					+ "WHERE obj_id=" + id); //NON-NLS
-			file.setKnown(fileKnown);
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error setting Known status.", ex);
 		} finally {
 			closeStatement(statement);
-			releaseExclusiveLock();
 		}
-		return true;
 	}
 
 	/**
@@ -4194,25 +7132,41 @@ void setMd5Hash(AbstractFile file, String md5Hash) throws TskCoreException {
 		if(md5Hash == null){
 			return;
 		}
-		long id = file.getId();
+		final long id = file.getId();
+		final String md5 = md5Hash.toLowerCase();
+		if (queueWrite(new QueuedWrite(LockDomain.HASHES) {
+			@Override
+			void apply(CaseDbConnection connection) throws SQLException {
+				updateMd5Hash(connection, id, md5);
+			}
+		})) {
+			file.setMd5Hash(md5);
+			return;
+		}
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.HASHES);
 		try {
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.UPDATE_FILE_MD5);
-			statement.clearParameters();
-			statement.setString(1, md5Hash.toLowerCase());
-			statement.setLong(2, id);
-			connection.executeUpdate(statement);
-			file.setMd5Hash(md5Hash.toLowerCase());
+			updateMd5Hash(connection, id, md5);
+			file.setMd5Hash(md5);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error setting MD5 hash", ex);
 		} finally {
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.HASHES);
 		}
 	}
 
+	private void updateMd5Hash(CaseDbConnection connection, long id, String md5Hash) throws SQLException {
+		// UPDATE tsk_files SET md5 = ? WHERE obj_id = ?
+		PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.UPDATE_FILE_MD5);
+		statement.clearParameters();
+		statement.setString(1, md5Hash);
+		statement.setLong(2, id);
+		connection.executeUpdate(statement);
+	}
+
 	/**
-	 * Return the number of objects in the database of a given file type.
+	 * Return the number of objects in the database of a given file type. See
+	 * countFilesByMetaType() to count all of the types at once.
 	 *
 	 * @param contentType Type of file to count
 	 * @return Number of objects with that type.
@@ -4249,7 +7203,7 @@ public int countFsContentType(TskData.TSK_FS_META_TYPE_ENUM contentType) throws
 	 * @param text
 	 * @return text the escaped version
 	 */
-	private static String escapeForBlackboard(String text) {
+	static String escapeForBlackboard(String text) {
 		if (text != null) {
 			text = text.replaceAll("'", "''");
 		}
@@ -4415,33 +7369,93 @@ public void submitError(String context, String errorMessage) {
 	}
 
 	/**
-	 * Selects all of the rows from the tag_names table in the case database.
+	 * Get the tag index of the case, loading the tag names and tags from the
+	 * case database the first time. The index is kept up to date by the
+	 * methods that add and delete tag names and tags. If other processes
+	 * change the case database, they can change the tags too, so the index
+	 * is loaded each time and not kept.
 	 *
-	 * @return A list, possibly empty, of TagName data transfer objects (DTOs)
-	 * for the rows.
+	 * @return the tag index
 	 * @throws TskCoreException
 	 */
-	public List<TagName> getAllTagNames() throws TskCoreException {
+	private TagIndex getTagIndex() throws TskCoreException {
+		// the case lock is taken before tagIndexLock, as by the methods that
+		// change the tags; a change committed while the index is loaded is
+		// either read here or applied once the load is done, see 
+		// getLoadedTagIndex()
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
 		ResultSet resultSet = null;
 		try {
-			// SELECT * FROM tag_names
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_TAG_NAMES);
-			resultSet = connection.executeQuery(statement);
-			ArrayList<TagName> tagNames = new ArrayList<TagName>();
-			while (resultSet.next()) {
-				tagNames.add(new TagName(resultSet.getLong("tag_name_id"), resultSet.getString("display_name"), resultSet.getString("description"), TagName.HTML_COLOR.getColorByName(resultSet.getString("color")))); //NON-NLS
+			synchronized (tagIndexLock) {
+				if (tagIndex != null) {
+					return tagIndex;
+				}
+				TagIndex index = new TagIndex();
+				// SELECT * FROM tag_names
+				PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_TAG_NAMES);
+				resultSet = connection.executeQuery(statement);
+				while (resultSet.next()) {
+					index.addTagName(new TagName(resultSet.getLong("tag_name_id"), resultSet.getString("display_name"), resultSet.getString("description"), TagName.HTML_COLOR.getColorByName(resultSet.getString("color")))); //NON-NLS
+				}
+				resultSet.close();
+				resultSet = null;
+
+				// SELECT tag_id, obj_id, tag_name_id, comment, begin_byte_offset, end_byte_offset FROM content_tags ORDER BY tag_id
+				statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_CONTENT_TAG_ROWS);
+				resultSet = connection.executeQuery(statement);
+				while (resultSet.next()) {
+					index.addContentTag(new TagIndex.ContentTagRow(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3), resultSet.getString(4), resultSet.getLong(5), resultSet.getLong(6)));
+				}
+				resultSet.close();
+				resultSet = null;
+
+				// SELECT tag_id, artifact_id, tag_name_id, comment FROM blackboard_artifact_tags ORDER BY tag_id
+				statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_ARTIFACT_TAG_ROWS);
+				resultSet = connection.executeQuery(statement);
+				while (resultSet.next()) {
+					index.addArtifactTag(new TagIndex.ArtifactTagRow(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3), resultSet.getString(4)));
+				}
+				if (!backend.isShared()) {
+					tagIndex = index;
+				}
+				return index;
 			}
-			return tagNames;
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error selecting rows from tag_names table", ex);
+			throw new TskCoreException("Error loading tag names and tags", ex);
 		} finally {
 			closeResultSet(resultSet);
 			releaseSharedLock();
 		}
 	}
 
+	/**
+	 * Get the tag index if it has been loaded. The methods that change the
+	 * tags call this after committing the change, holding the tags domain
+	 * lock, and apply the change to the index. Since getTagIndex() loads the
+	 * index while holding tagIndexLock, this waits for a load in progress,
+	 * which may have read the tags before the change was committed. A change
+	 * the loaded index already has is applied again without effect.
+	 *
+	 * @return the tag index, or null if it has not been loaded
+	 */
+	private TagIndex getLoadedTagIndex() {
+		synchronized (tagIndexLock) {
+			return tagIndex;
+		}
+	}
+
+	/**
+	 * Selects all of the rows from the tag_names table in the case database.
+	 *
+	 * @return A list, possibly empty, of TagName data transfer objects (DTOs)
+	 * for the rows.
+	 * @throws TskCoreException
+	 */
+	public List<TagName> getAllTagNames() throws TskCoreException {
+		return getTagIndex().getTagNames();
+	}
+
 	/**
 	 * Selects all of the rows from the tag_names table in the case database for
 	 * which there is at least one matching row in the content_tags or
@@ -4452,24 +7466,7 @@ public List<TagName> getAllTagNames() throws TskCoreException {
 	 * @throws TskCoreException
 	 */
 	public List<TagName> getTagNamesInUse() throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
-		try {
-			// SELECT * FROM tag_names WHERE tag_name_id IN (SELECT tag_name_id from content_tags UNION SELECT tag_name_id FROM blackboard_artifact_tags)
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_TAG_NAMES_IN_USE);
-			resultSet = connection.executeQuery(statement);
-			ArrayList<TagName> tagNames = new ArrayList<TagName>();
-			while (resultSet.next()) {
-				tagNames.add(new TagName(resultSet.getLong("tag_name_id"), resultSet.getString("display_name"), resultSet.getString("description"), TagName.HTML_COLOR.getColorByName(resultSet.getString("color")))); //NON-NLS
-			}
-			return tagNames;
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error selecting rows from tag_names table", ex);
-		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
-		}
+		return getTagIndex().getTagNamesInUse();
 	}
 
 	/**
@@ -4483,7 +7480,7 @@ public List<TagName> getTagNamesInUse() throws TskCoreException {
 	 */
 	public TagName addTagName(String displayName, String description, TagName.HTML_COLOR color) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.TAGS);
 		ResultSet resultSet = null;
 		try {
 			// INSERT INTO tag_names (display_name, description, color) VALUES (?, ?, ?)			
@@ -4494,12 +7491,18 @@ public TagName addTagName(String displayName, String description, TagName.HTML_C
 			statement.setString(3, color.getName());
 			connection.executeUpdate(statement);
 			resultSet = statement.getGeneratedKeys();
-			return new TagName(resultSet.getLong(1), displayName, description, color);
+			resultSet.next();
+			TagName tagName = new TagName(resultSet.getLong(1), displayName, description, color);
+			TagIndex index = getLoadedTagIndex();
+			if (index != null) {
+				index.addTagName(tagName);
+			}
+			return tagName;
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error adding row for " + displayName + " tag name to tag_names table", ex);
 		} finally {
 			closeResultSet(resultSet);
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.TAGS);
 		}
 	}
 
@@ -4516,7 +7519,52 @@ public TagName addTagName(String displayName, String description, TagName.HTML_C
 	 */
 	public ContentTag addContentTag(Content content, TagName tagName, String comment, long beginByteOffset, long endByteOffset) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.TAGS);
+		try {
+			ContentTag tag = insertContentTag(connection, content, tagName, comment, beginByteOffset, endByteOffset);
+			addToTagIndex(tag);
+			return tag;
+		} catch (SQLException ex) {
+			throw new TskCoreException("Error adding row to content_tags table (obj_id = " + content.getId() + ", tag_name_id = " + tagName.getId() + ")", ex);
+		} finally {
+			releaseDomainLock(LockDomain.TAGS);
+		}
+	}
+
+	/**
+	 * Tag many content objects in one transaction. Each tag covers the whole
+	 * content, from byte 0 to the last byte.
+	 *
+	 * @param contents The content to tag.
+	 * @param tagName The name to use for the tags.
+	 * @param comment A comment to store with the tags.
+	 * @return ContentTag data transfer objects (DTOs) for the new rows, in the
+	 * order of the content.
+	 * @throws TskCoreException
+	 */
+	public List<ContentTag> addContentTags(Collection<? extends Content> contents, TagName tagName, String comment) throws TskCoreException {
+		List<ContentTag> tags = new ArrayList<ContentTag>(contents.size());
+		CaseDbConnection connection = connections.getConnection();
+		acquireDomainLock(LockDomain.TAGS);
+		try {
+			connection.beginTransaction();
+			for (Content content : contents) {
+				tags.add(insertContentTag(connection, content, tagName, comment, 0, content.getSize() - 1));
+			}
+			connection.commitTransaction();
+			for (ContentTag tag : tags) {
+				addToTagIndex(tag);
+			}
+			return tags;
+		} catch (SQLException ex) {
+			connection.rollbackTransaction();
+			throw new TskCoreException("Error adding rows to content_tags table (tag_name_id = " + tagName.getId() + ")", ex);
+		} finally {
+			releaseDomainLock(LockDomain.TAGS);
+		}
+	}
+
+	private ContentTag insertContentTag(CaseDbConnection connection, Content content, TagName tagName, String comment, long beginByteOffset, long endByteOffset) throws SQLException {
 		ResultSet resultSet = null;
 		try {
 			// INSERT INTO content_tags (obj_id, tag_name_id, comment, begin_byte_offset, end_byte_offset) VALUES (?, ?, ?, ?, ?)
@@ -4529,12 +7577,17 @@ public ContentTag addContentTag(Content content, TagName tagName, String comment
 			statement.setLong(5, endByteOffset);
 			connection.executeUpdate(statement);
 			resultSet = statement.getGeneratedKeys();
+			resultSet.next();
 			return new ContentTag(resultSet.getLong(1), content, tagName, comment, beginByteOffset, endByteOffset);
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error adding row to content_tags table (obj_id = " + content.getId() + ", tag_name_id = " + tagName.getId() + ")", ex);
 		} finally {
 			closeResultSet(resultSet);
-			releaseExclusiveLock();
+		}
+	}
+
+	private void addToTagIndex(ContentTag tag) {
+		TagIndex index = getLoadedTagIndex();
+		if (index != null) {
+			index.addContentTag(new TagIndex.ContentTagRow(tag.getId(), tag.getContent().getId(), tag.getName().getId(), tag.getComment(), tag.getBeginByteOffset(), tag.getEndByteOffset()));
 		}
 	}
 
@@ -4544,51 +7597,54 @@ public ContentTag addContentTag(Content content, TagName tagName, String comment
 	 * @throws TskCoreException 
 	 */
 	public void deleteContentTag(ContentTag tag) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
-		try {
-			// DELETE FROM content_tags WHERE tag_id = ?		
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.DELETE_CONTENT_TAG);
-			statement.clearParameters();
-			statement.setLong(1, tag.getId());
-			connection.executeUpdate(statement);
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error deleting row from content_tags table (id = " + tag.getId() + ")", ex);
-		} finally {
-			releaseExclusiveLock();
-		}
+		deleteContentTags(Collections.singletonList(tag));
 	}
 
 	/**
-	 * Selects all of the rows from the content_tags table in the case database.
+	 * Deletes many rows from the content_tags table in one transaction.
 	 *
-	 * @return A list, possibly empty, of ContentTag data transfer objects
-	 * (DTOs) for the rows.
+	 * @param tags ContentTag data transfer objects (DTOs) for the rows to
+	 * delete.
 	 * @throws TskCoreException
 	 */
-	public List<ContentTag> getAllContentTags() throws TskCoreException {
+	public void deleteContentTags(Collection<ContentTag> tags) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
+		acquireDomainLock(LockDomain.TAGS);
 		try {
-			// SELECT * FROM content_tags INNER JOIN tag_names ON content_tags.tag_name_id = tag_names.tag_name_id
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_CONTENT_TAGS);
-			resultSet = connection.executeQuery(statement);
-			ArrayList<ContentTag> tags = new ArrayList<ContentTag>();
-			while (resultSet.next()) {
-				TagName tagName = new TagName(resultSet.getLong(2), resultSet.getString("display_name"), resultSet.getString("description"), TagName.HTML_COLOR.getColorByName(resultSet.getString("color")));  //NON-NLS
-				Content content = getContentById(resultSet.getLong("obj_id")); //NON-NLS
-				tags.add(new ContentTag(resultSet.getLong("tag_id"), content, tagName, resultSet.getString("comment"), resultSet.getLong("begin_byte_offset"), resultSet.getLong("end_byte_offset")));  //NON-NLS
+			connection.beginTransaction();
+			// DELETE FROM content_tags WHERE tag_id = ?		
+			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.DELETE_CONTENT_TAG);
+			for (ContentTag tag : tags) {
+				statement.clearParameters();
+				statement.setLong(1, tag.getId());
+				connection.executeUpdate(statement);
+			}
+			connection.commitTransaction();
+			TagIndex index = getLoadedTagIndex();
+			if (index != null) {
+				for (ContentTag tag : tags) {
+					index.removeContentTag(tag.getId());
+				}
 			}
-			return tags;
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error selecting rows from content_tags table", ex);
+			connection.rollbackTransaction();
+			throw new TskCoreException("Error deleting rows from content_tags table", ex);
 		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
+			releaseDomainLock(LockDomain.TAGS);
 		}
 	}
 
+	/**
+	 * Selects all of the rows from the content_tags table in the case database.
+	 *
+	 * @return A list, possibly empty, of ContentTag data transfer objects
+	 * (DTOs) for the rows.
+	 * @throws TskCoreException
+	 */
+	public List<ContentTag> getAllContentTags() throws TskCoreException {
+		return makeContentTags(getTagIndex().getContentTags(), null);
+	}
+
 	/**
 	 * Gets a count of the rows in the content_tags table in the case database
 	 * with a specified foreign key into the tag_names table.
@@ -4601,26 +7657,7 @@ public long getContentTagsCountByTagName(TagName tagName) throws TskCoreExceptio
 		if (tagName.getId() == Tag.ID_NOT_SET) {
 			throw new TskCoreException("TagName object is invalid, id not set");
 		}
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
-		try {
-			// SELECT COUNT(*) FROM content_tags WHERE tag_name_id = ?
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.COUNT_CONTENT_TAGS_BY_TAG_NAME);
-			statement.clearParameters();
-			statement.setLong(1, tagName.getId());
-			resultSet = connection.executeQuery(statement);
-			if (resultSet.next()) {
-				return resultSet.getLong(1);
-			} else {
-				throw new TskCoreException("Error getting content_tags row count for tag name (tag_name_id = " + tagName.getId() + ")");
-			}
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting content_tags row count for tag name (tag_name_id = " + tagName.getId() + ")", ex);
-		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
-		}
+		return getTagIndex().countContentTags(tagName.getId());
 	}
 
 	/**
@@ -4636,28 +7673,19 @@ public List<ContentTag> getContentTagsByTagName(TagName tagName) throws TskCoreE
 		if (tagName.getId() == Tag.ID_NOT_SET) {
 			throw new TskCoreException("TagName object is invalid, id not set");
 		}
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
-		try {
-			// SELECT * FROM content_tags WHERE tag_name_id = ?
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_CONTENT_TAGS_BY_TAG_NAME);
-			statement.clearParameters();
-			statement.setLong(1, tagName.getId());
-			resultSet = connection.executeQuery(statement);
-			ArrayList<ContentTag> tags = new ArrayList<ContentTag>();
-			while (resultSet.next()) {
-				ContentTag tag = new ContentTag(resultSet.getLong("tag_id"), getContentById(resultSet.getLong("obj_id")), tagName, resultSet.getString("comment"), resultSet.getLong("begin_byte_offset"), resultSet.getLong("end_byte_offset"));  //NON-NLS
-				tags.add(tag);
-			}
-			resultSet.close();
-			return tags;
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting content_tags rows (tag_name_id = " + tagName.getId() + ")", ex);
-		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
-		}
+		return makeContentTags(getTagIndex().getContentTagsByTagName(tagName.getId()), null);
+	}
+
+	/**
+	 * Gets the object ids of the content that has tags with a tag name,
+	 * without loading the content.
+	 *
+	 * @param tagName A data transfer object (DTO) for the tag name to match.
+	 * @return The object ids, possibly none.
+	 * @throws TskCoreException
+	 */
+	public Set<Long> getTaggedContentIds(TagName tagName) throws TskCoreException {
+		return getTagIndex().getTaggedObjectIds(tagName.getId());
 	}
 
 	/**
@@ -4670,33 +7698,66 @@ public List<ContentTag> getContentTagsByTagName(TagName tagName) throws TskCoreE
 	 * @throws TskCoreException
 	 */
 	public List<ContentTag> getContentTagsByContent(Content content) throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
-		try {
-			// SELECT * FROM content_tags INNER JOIN tag_names ON content_tags.tag_name_id = tag_names.tag_name_id WHERE content_tags.obj_id = ?
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_CONTENT_TAGS_BY_CONTENT);
-			statement.clearParameters();
-			statement.setLong(1, content.getId());
-			resultSet = connection.executeQuery(statement);
-			ArrayList<ContentTag> tags = new ArrayList<ContentTag>();
-			while (resultSet.next()) {
-				TagName tagName = new TagName(resultSet.getLong(2), resultSet.getString("display_name"), resultSet.getString("description"), TagName.HTML_COLOR.getColorByName(resultSet.getString("color")));  //NON-NLS
-				ContentTag tag = new ContentTag(resultSet.getLong("tag_id"), content, tagName, resultSet.getString("comment"), resultSet.getLong("begin_byte_offset"), resultSet.getLong("end_byte_offset"));  //NON-NLS
-				tags.add(tag);
+		return makeContentTags(getTagIndex().getContentTagsByObject(content.getId()), content);
+	}
+
+	/**
+	 * Make content tags from tag index rows, loading the content of the rows
+	 * in batches.
+	 *
+	 * @param rows the rows
+	 * @param content the content of all of the rows, or null to load it
+	 * @return the tags
+	 * @throws TskCoreException
+	 */
+	private List<ContentTag> makeContentTags(List<TagIndex.ContentTagRow> rows, Content content) throws TskCoreException {
+		Map<Long, Content> contents = Collections.<Long, Content>emptyMap();
+		if (content == null) {
+			Set<Long> objIds = new HashSet<Long>();
+			for (TagIndex.ContentTagRow row : rows) {
+				objIds.add(row.objId);
 			}
-			return tags;
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting content tags data for content (obj_id = " + content.getId() + ")", ex);
-		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
+			contents = getContentByIds(objIds);
+		}
+		TagIndex index = getTagIndex();
+		List<ContentTag> tags = new ArrayList<ContentTag>(rows.size());
+		for (TagIndex.ContentTagRow row : rows) {
+			tags.add(new ContentTag(row.tagId, content != null ? content : contents.get(row.objId), index.getTagName(row.tagNameId),
+					row.comment, row.beginByteOffset, row.endByteOffset));
+		}
+		return tags;
+	}
+
+	/**
+	 * Get many content objects by id, loading the files in batches and the
+	 * other content one at a time.
+	 *
+	 * @param objIds the object ids
+	 * @return the content by object id
+	 * @throws TskCoreException
+	 */
+	private Map<Long, Content> getContentByIds(Collection<Long> objIds) throws TskCoreException {
+		long[] ids = new long[objIds.size()];
+		int i = 0;
+		for (Long objId : objIds) {
+			ids[i++] = objId;
+		}
+		Map<Long, Content> contents = new HashMap<Long, Content>();
+		for (AbstractFile file : getAbstractFilesByIds(ids)) {
+			contents.put(file.getId(), file);
 		}
+		for (long id : ids) {
+			if (!contents.containsKey(id)) {
+				contents.put(id, getContentById(id));
+			}
+		}
+		return contents;
 	}
 
 	/**
 	 * Inserts a row into the blackboard_artifact_tags table in the case
-	 * database.
+	 * database. Waits for queued writes first, see flushWrites(), so it must
+	 * not be called while holding the case lock if writes are being queued.
 	 *
 	 * @param artifact The blackboard artifact to tag.
 	 * @param tagName The name to use for the tag.
@@ -4706,24 +7767,65 @@ public List<ContentTag> getContentTagsByContent(Content content) throws TskCoreE
 	 * @throws TskCoreException
 	 */
 	public BlackboardArtifactTag addBlackboardArtifactTag(BlackboardArtifact artifact, TagName tagName, String comment) throws TskCoreException {
+		return addBlackboardArtifactTags(Collections.singletonList(artifact), tagName, comment).get(0);
+	}
+
+	/**
+	 * Tag many blackboard artifacts in one transaction. Waits for queued
+	 * writes first, since the artifacts may not be written yet, see
+	 * flushWrites(), so it must not be called while holding the case lock if
+	 * writes are being queued.
+	 *
+	 * @param artifacts The blackboard artifacts to tag.
+	 * @param tagName The name to use for the tags.
+	 * @param comment A comment to store with the tags.
+	 * @return BlackboardArtifactTag data transfer objects (DTOs) for the new
+	 * rows, in the order of the artifacts.
+	 * @throws TskCoreException
+	 */
+	public List<BlackboardArtifactTag> addBlackboardArtifactTags(Collection<BlackboardArtifact> artifacts, TagName tagName, String comment) throws TskCoreException {
+		// the artifacts may still be in the write-behind queue
+		flushWrites();
+		Set<Long> objIds = new HashSet<Long>();
+		for (BlackboardArtifact artifact : artifacts) {
+			objIds.add(artifact.getObjectID());
+		}
+		Map<Long, Content> contents = getContentByIds(objIds);
+
+		List<BlackboardArtifactTag> tags = new ArrayList<BlackboardArtifactTag>(artifacts.size());
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.TAGS);
 		ResultSet resultSet = null;
 		try {
-			// INSERT INTO blackboard_artifact_tags (artifact_id, tag_name_id, comment, begin_byte_offset, end_byte_offset) VALUES (?, ?, ?, ?, ?)			
+			connection.beginTransaction();
+			// INSERT INTO blackboard_artifact_tags (artifact_id, tag_name_id, comment) VALUES (?, ?, ?)			
 			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.INSERT_ARTIFACT_TAG);
-			statement.clearParameters();
-			statement.setLong(1, artifact.getArtifactID());
-			statement.setLong(2, tagName.getId());
-			statement.setString(3, comment);
-			connection.executeUpdate(statement);
-			resultSet = statement.getGeneratedKeys();
-			return new BlackboardArtifactTag(resultSet.getLong(1), artifact, getContentById(artifact.getObjectID()), tagName, comment);
+			for (BlackboardArtifact artifact : artifacts) {
+				statement.clearParameters();
+				statement.setLong(1, artifact.getArtifactID());
+				statement.setLong(2, tagName.getId());
+				statement.setString(3, comment);
+				connection.executeUpdate(statement);
+				resultSet = statement.getGeneratedKeys();
+				resultSet.next();
+				tags.add(new BlackboardArtifactTag(resultSet.getLong(1), artifact, contents.get(artifact.getObjectID()), tagName, comment));
+				resultSet.close();
+				resultSet = null;
+			}
+			connection.commitTransaction();
+			TagIndex index = getLoadedTagIndex();
+			if (index != null) {
+				for (BlackboardArtifactTag tag : tags) {
+					index.addArtifactTag(new TagIndex.ArtifactTagRow(tag.getId(), tag.getArtifact().getArtifactID(), tagName.getId(), comment));
+				}
+			}
+			return tags;
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error adding row to blackboard_artifact_tags table (obj_id = " + artifact.getArtifactID() + ", tag_name_id = " + tagName.getId() + ")", ex);
+			connection.rollbackTransaction();
+			throw new TskCoreException("Error adding rows to blackboard_artifact_tags table (tag_name_id = " + tagName.getId() + ")", ex);
 		} finally {
 			closeResultSet(resultSet);
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.TAGS);
 		}
 	}
 
@@ -4733,18 +7835,41 @@ public BlackboardArtifactTag addBlackboardArtifactTag(BlackboardArtifact artifac
 	 * @throws TskCoreException 
 	 */
 	public void deleteBlackboardArtifactTag(BlackboardArtifactTag tag) throws TskCoreException {
+		deleteBlackboardArtifactTags(Collections.singletonList(tag));
+	}
+
+	/**
+	 * Deletes many rows from the blackboard_artifact_tags table in one
+	 * transaction.
+	 *
+	 * @param tags BlackboardArtifactTag data transfer objects (DTOs) for the
+	 * rows to delete.
+	 * @throws TskCoreException
+	 */
+	public void deleteBlackboardArtifactTags(Collection<BlackboardArtifactTag> tags) throws TskCoreException {
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.TAGS);
 		try {
+			connection.beginTransaction();
 			// DELETE FROM blackboard_artifact_tags WHERE tag_id = ?
 			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.DELETE_ARTIFACT_TAG);
-			statement.clearParameters();
-			statement.setLong(1, tag.getId());
-			connection.executeUpdate(statement);
+			for (BlackboardArtifactTag tag : tags) {
+				statement.clearParameters();
+				statement.setLong(1, tag.getId());
+				connection.executeUpdate(statement);
+			}
+			connection.commitTransaction();
+			TagIndex index = getLoadedTagIndex();
+			if (index != null) {
+				for (BlackboardArtifactTag tag : tags) {
+					index.removeArtifactTag(tag.getId());
+				}
+			}
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error deleting row from blackboard_artifact_tags table (id = " + tag.getId() + ")", ex);
+			connection.rollbackTransaction();
+			throw new TskCoreException("Error deleting rows from blackboard_artifact_tags table", ex);
 		} finally {
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.TAGS);
 		}
 	}
 
@@ -4757,28 +7882,7 @@ public void deleteBlackboardArtifactTag(BlackboardArtifactTag tag) throws TskCor
 	 * @throws TskCoreException
 	 */
 	public List<BlackboardArtifactTag> getAllBlackboardArtifactTags() throws TskCoreException {
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
-		try {
-			// SELECT * FROM blackboard_artifact_tags INNER JOIN tag_names ON blackboard_artifact_tags.tag_name_id = tag_names.tag_name_id
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_ARTIFACT_TAGS);
-			resultSet = connection.executeQuery(statement);
-			ArrayList<BlackboardArtifactTag> tags = new ArrayList<BlackboardArtifactTag>();
-			while (resultSet.next()) {
-				TagName tagName = new TagName(resultSet.getLong(2), resultSet.getString("display_name"), resultSet.getString("description"), TagName.HTML_COLOR.getColorByName(resultSet.getString("color")));  //NON-NLS
-				BlackboardArtifact artifact = getBlackboardArtifact(resultSet.getLong("artifact_id")); //NON-NLS
-				Content content = getContentById(artifact.getObjectID());
-				BlackboardArtifactTag tag = new BlackboardArtifactTag(resultSet.getLong("tag_id"), artifact, content, tagName, resultSet.getString("comment"));  //NON-NLS
-				tags.add(tag);
-			}
-			return tags;
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error selecting rows from blackboard_artifact_tags table", ex);
-		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
-		}
+		return makeBlackboardArtifactTags(getTagIndex().getArtifactTags(), null);
 	}
 
 	/**
@@ -4793,26 +7897,7 @@ public long getBlackboardArtifactTagsCountByTagName(TagName tagName) throws TskC
 		if (tagName.getId() == Tag.ID_NOT_SET) {
 			throw new TskCoreException("TagName object is invalid, id not set");
 		}
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
-		try {
-			// SELECT COUNT(*) FROM blackboard_artifact_tags WHERE tag_name_id = ?
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.COUNT_ARTIFACTS_BY_TAG_NAME);
-			statement.clearParameters();
-			statement.setLong(1, tagName.getId());
-			resultSet = connection.executeQuery(statement);
-			if (resultSet.next()) {
-				return resultSet.getLong(1);
-			} else {
-				throw new TskCoreException("Error getting blackboard_artifact_tags row count for tag name (tag_name_id = " + tagName.getId() + ")");
-			}
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting blackboard artifact_content_tags row count for tag name (tag_name_id = " + tagName.getId() + ")", ex);
-		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
-		}
+		return getTagIndex().countArtifactTags(tagName.getId());
 	}
 
 	/**
@@ -4828,29 +7913,19 @@ public List<BlackboardArtifactTag> getBlackboardArtifactTagsByTagName(TagName ta
 		if (tagName.getId() == Tag.ID_NOT_SET) {
 			throw new TskCoreException("TagName object is invalid, id not set");
 		}
-		CaseDbConnection connection = connections.getConnection();
-		acquireSharedLock();
-		ResultSet resultSet = null;
-		try {
-			// SELECT * FROM blackboard_artifact_tags WHERE tag_name_id = ?
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_ARTIFACT_TAGS_BY_TAG_NAME);
-			statement.clearParameters();
-			statement.setLong(1, tagName.getId());
-			resultSet = connection.executeQuery(statement);
-			ArrayList<BlackboardArtifactTag> tags = new ArrayList<BlackboardArtifactTag>();
-			while (resultSet.next()) {
-				BlackboardArtifact artifact = getBlackboardArtifact(resultSet.getLong("artifact_id")); //NON-NLS
-				Content content = getContentById(artifact.getObjectID());
-				BlackboardArtifactTag tag = new BlackboardArtifactTag(resultSet.getLong("tag_id"), artifact, content, tagName, resultSet.getString("comment"));  //NON-NLS
-				tags.add(tag);
-			}
-			return tags;
-		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting blackboard artifact tags data (tag_name_id = " + tagName.getId() + ")", ex);
-		} finally {
-			closeResultSet(resultSet);
-			releaseSharedLock();
-		}
+		return makeBlackboardArtifactTags(getTagIndex().getArtifactTagsByTagName(tagName.getId()), null);
+	}
+
+	/**
+	 * Gets the ids of the blackboard artifacts that have tags with a tag
+	 * name, without loading the artifacts.
+	 *
+	 * @param tagName A data transfer object (DTO) for the tag name to match.
+	 * @return The artifact ids, possibly none.
+	 * @throws TskCoreException
+	 */
+	public Set<Long> getTaggedArtifactIds(TagName tagName) throws TskCoreException {
+		return getTagIndex().getTaggedArtifactIds(tagName.getId());
 	}
 
 	/**
@@ -4864,27 +7939,87 @@ public List<BlackboardArtifactTag> getBlackboardArtifactTagsByTagName(TagName ta
 	 * @throws TskCoreException
 	 */
 	public List<BlackboardArtifactTag> getBlackboardArtifactTagsByArtifact(BlackboardArtifact artifact) throws TskCoreException {
+		return makeBlackboardArtifactTags(getTagIndex().getArtifactTagsByArtifact(artifact.getArtifactID()), artifact);
+	}
+
+	/**
+	 * Make blackboard artifact tags from tag index rows, loading the artifacts
+	 * and their content in batches.
+	 *
+	 * @param rows the rows
+	 * @param artifact the artifact of all of the rows, or null to load them
+	 * @return the tags
+	 * @throws TskCoreException
+	 */
+	private List<BlackboardArtifactTag> makeBlackboardArtifactTags(List<TagIndex.ArtifactTagRow> rows, BlackboardArtifact artifact) throws TskCoreException {
+		Map<Long, BlackboardArtifact> artifacts = new HashMap<Long, BlackboardArtifact>();
+		if (artifact != null) {
+			artifacts.put(artifact.getArtifactID(), artifact);
+		} else {
+			Set<Long> artifactIds = new HashSet<Long>();
+			for (TagIndex.ArtifactTagRow row : rows) {
+				artifactIds.add(row.artifactId);
+			}
+			artifacts = getBlackboardArtifactsByIds(artifactIds);
+		}
+		Set<Long> objIds = new HashSet<Long>();
+		for (BlackboardArtifact tagged : artifacts.values()) {
+			objIds.add(tagged.getObjectID());
+		}
+		Map<Long, Content> contents = getContentByIds(objIds);
+		TagIndex index = getTagIndex();
+		List<BlackboardArtifactTag> tags = new ArrayList<BlackboardArtifactTag>(rows.size());
+		for (TagIndex.ArtifactTagRow row : rows) {
+			BlackboardArtifact tagged = artifacts.get(row.artifactId);
+			tags.add(new BlackboardArtifactTag(row.tagId, tagged, tagged != null ? contents.get(tagged.getObjectID()) : null,
+					index.getTagName(row.tagNameId), row.comment));
+		}
+		return tags;
+	}
+
+	/**
+	 * Get many blackboard artifacts by id, with one query per
+	 * MAX_IDS_PER_QUERY ids.
+	 *
+	 * @param artifactIds the artifact ids
+	 * @return the artifacts by artifact id
+	 * @throws TskCoreException
+	 */
+	private Map<Long, BlackboardArtifact> getBlackboardArtifactsByIds(Collection<Long> artifactIds) throws TskCoreException {
+		long[] ids = new long[artifactIds.size()];
+		int i = 0;
+		for (Long artifactId : artifactIds) {
+			ids[i++] = artifactId;
+		}
+		Map<Long, BlackboardArtifact> artifacts = new HashMap<Long, BlackboardArtifact>();
+		Map<Integer, String[]> artifactTypeNames = new HashMap<Integer, String[]>();
 		CaseDbConnection connection = connections.getConnection();
 		acquireSharedLock();
-		ResultSet resultSet = null;
+		Statement s = null;
+		ResultSet rs = null;
 		try {
-			// SELECT * FROM blackboard_artifact_tags INNER JOIN tag_names ON blackboard_artifact_tags.tag_name_id = tag_names.tag_name_id WHERE blackboard_artifact_tags.artifact_id = ?			
-			PreparedStatement statement = connection.getPreparedStatement(CaseDbConnection.PREPARED_STATEMENT.SELECT_ARTIFACT_TAGS_BY_ARTIFACT);
-			statement.clearParameters();
-			statement.setLong(1, artifact.getArtifactID());
-			resultSet = connection.executeQuery(statement);
-			ArrayList<BlackboardArtifactTag> tags = new ArrayList<BlackboardArtifactTag>();
-			while (resultSet.next()) {
-				TagName tagName = new TagName(resultSet.getLong(2), resultSet.getString("display_name"), resultSet.getString("description"), TagName.HTML_COLOR.getColorByName(resultSet.getString("color")));  //NON-NLS
-				Content content = getContentById(artifact.getObjectID());
-				BlackboardArtifactTag tag = new BlackboardArtifactTag(resultSet.getLong("tag_id"), artifact, content, tagName, resultSet.getString("comment"));  //NON-NLS
-				tags.add(tag);
+			s = connection.createStatement();
+			for (int start = 0; start < ids.length; start += MAX_IDS_PER_QUERY) {
+				int end = Math.min(start + MAX_IDS_PER_QUERY, ids.length);
+				rs = connection.executeQuery(s, "SELECT artifact_id, obj_id, artifact_type_id FROM blackboard_artifacts WHERE artifact_id IN (" + makeIdList(ids, start, end) + ")"); //NON-NLS
+				while (rs.next()) {
+					int artifactTypeId = rs.getInt(3);
+					String[] names = artifactTypeNames.get(artifactTypeId);
+					if (names == null) {
+						names = new String[]{getArtifactTypeString(artifactTypeId), getArtifactTypeDisplayName(artifactTypeId)};
+						artifactTypeNames.put(artifactTypeId, names);
+					}
+					artifacts.put(rs.getLong(1), new BlackboardArtifact(this, rs.getLong(1), rs.getLong(2), artifactTypeId, names[0], names[1]));
+				}
+				rs.close();
+				rs = null;
 			}
-			return tags;
+			return artifacts;
 		} catch (SQLException ex) {
-			throw new TskCoreException("Error getting blackboard artifact tags data (artifact_id = " + artifact.getArtifactID() + ")", ex);
+			throw new TskCoreException("Error getting blackboard artifacts by id", ex);
 		} finally {
-			closeResultSet(resultSet);
+			closeResultSet(rs);
+			closeStatement(s);
 			releaseSharedLock();
 		}
 	}
@@ -4922,7 +8057,7 @@ public Report addReport(String localPath, String sourceModuleName, String report
 
 		// Write the report data to the database.
 		CaseDbConnection connection = connections.getConnection();
-		acquireExclusiveLock();
+		acquireDomainLock(LockDomain.REPORTS);
 		ResultSet resultSet = null;
 		try {
 			// INSERT INTO reports (path, crtime, src_module_name, display_name) VALUES (?, ?, ?, ?)			
@@ -4934,12 +8069,13 @@ public Report addReport(String localPath, String sourceModuleName, String report
 			statement.setString(4, reportName);
 			connection.executeUpdate(statement);
 			resultSet = statement.getGeneratedKeys();
+			resultSet.next();
 			return new Report(resultSet.getLong(1), localPath, createTime, sourceModuleName, reportName);
 		} catch (SQLException ex) {
 			throw new TskCoreException("Error adding report " + localPath + " to reports table", ex);
 		} finally {
 			closeResultSet(resultSet);
-			releaseExclusiveLock();
+			releaseDomainLock(LockDomain.REPORTS);
 		}
 	}
 
@@ -5021,16 +8157,39 @@ public synchronized void close() {
 
 		@Override
 		public CaseDbConnection initialValue() {
-			return new CaseDbConnection(dbPath);
+			releaseEndedThreadConnections();
+			return new CaseDbConnection(backend, slowQueryLog, backend.allowsConcurrentWriters() ? null : dbWriteLock);
+		}
+
+		/**
+		 * Give back the connections of threads that have ended, so that a
+		 * backend with a bounded number of connections has one for the new
+		 * thread. A connection left in a transaction is kept, since the
+		 * transaction may have been handed to another thread.
+		 */
+		private void releaseEndedThreadConnections() {
+			Iterator<CaseDbConnection> iterator = databaseConnections.iterator();
+			while (iterator.hasNext()) {
+				CaseDbConnection connection = iterator.next();
+				if (!connection.isOwnerAlive() && connection.isIdle()) {
+					connection.close();
+					iterator.remove();
+				}
+			}
 		}
 	}
 
 	/**
-	 * Encapsulates a connection to the underlying SQLite case database and a
-	 * set of prepared statements.
+	 * Encapsulates a connection to the underlying case database and a set of
+	 * prepared statements.
 	 */
 	private static final class CaseDbConnection {
 
+		// Selects the number of children of each file of a query of
+		// tsk_files, as child_count, so that the files are loaded with it.
+		static final String FILE_CHILD_COUNT_COLUMN = "(SELECT COUNT(obj_id) FROM tsk_objects AS children " //NON-NLS
+				+ "WHERE children.par_obj_id = tsk_files.obj_id) AS child_count"; //NON-NLS
+
 		enum PREPARED_STATEMENT {
 
 			SELECT_ATTRIBUTES_OF_ARTIFACT("SELECT artifact_id, source, context, attribute_type_id, value_type, " //NON-NLS
@@ -5039,16 +8198,23 @@ enum PREPARED_STATEMENT {
 			SELECT_ARTIFACT_BY_ID("SELECT obj_id, artifact_type_id FROM blackboard_artifacts WHERE artifact_id = ?"), //NON-NLS
 			SELECT_ARTIFACTS_BY_TYPE("SELECT artifact_id, obj_id FROM blackboard_artifacts " //NON-NLS
 					+ "WHERE artifact_type_id = ?"), //NON-NLS
-			COUNT_ARTIFACTS_OF_TYPE("SELECT COUNT(*) FROM blackboard_artifacts WHERE artifact_type_id = ?"), //NON-NLS
-			COUNT_ARTIFACTS_FROM_SOURCE("SELECT COUNT(*) FROM blackboard_artifacts WHERE obj_id = ?"), //NON-NLS
+			COUNT_ARTIFACTS_OF_TYPE("SELECT count FROM blackboard_artifact_counts WHERE scope = " + ARTIFACT_COUNT_SCOPE_CASE + " AND id = 0 AND artifact_type_id = ?"), //NON-NLS
+			COUNT_ARTIFACTS_FROM_SOURCE("SELECT COALESCE(SUM(count), 0) FROM blackboard_artifact_counts WHERE scope = " + ARTIFACT_COUNT_SCOPE_OBJECT + " AND id = ?"), //NON-NLS
+			COUNT_ARTIFACTS_OF_DATA_SOURCE("SELECT COALESCE(SUM(count), 0) FROM blackboard_artifact_counts WHERE scope = " + ARTIFACT_COUNT_SCOPE_DATA_SOURCE + " AND id = ?"), //NON-NLS
+			COUNT_ARTIFACTS_OF_DATA_SOURCE_AND_TYPE("SELECT count FROM blackboard_artifact_counts WHERE scope = " + ARTIFACT_COUNT_SCOPE_DATA_SOURCE + " AND id = ? AND artifact_type_id = ?"), //NON-NLS
+			SELECT_ARTIFACT_COUNTS_OF_SCOPE("SELECT artifact_type_id, count FROM blackboard_artifact_counts WHERE scope = ? AND id = ?"), //NON-NLS
+			INCREMENT_ARTIFACT_COUNT("UPDATE blackboard_artifact_counts SET count = count + ? WHERE scope = ? AND id = ? AND artifact_type_id = ?"), //NON-NLS
+			INSERT_ARTIFACT_COUNT("INSERT INTO blackboard_artifact_counts (scope, id, artifact_type_id, count) VALUES (?, ?, ?, ?)"), //NON-NLS
 			SELECT_ARTIFACTS_BY_SOURCE_AND_TYPE("SELECT artifact_id FROM blackboard_artifacts WHERE obj_id = ? AND artifact_type_id = ?"), //NON-NLS
-			COUNT_ARTIFACTS_BY_SOURCE_AND_TYPE("SELECT COUNT(*) FROM blackboard_artifacts WHERE obj_id = ? AND artifact_type_id = ?"), //NON-NLS
-			SELECT_FILES_BY_PARENT("SELECT tsk_files.* " //NON-NLS
+			COUNT_ARTIFACTS_BY_SOURCE_AND_TYPE("SELECT count FROM blackboard_artifact_counts WHERE scope = " + ARTIFACT_COUNT_SCOPE_OBJECT + " AND id = ? AND artifact_type_id = ?"), //NON-NLS
+			SELECT_FILES_BY_PARENT("SELECT tsk_files.*, " //NON-NLS
+					+ FILE_CHILD_COUNT_COLUMN + " " //NON-NLS
 					+ "FROM tsk_objects INNER JOIN tsk_files " //NON-NLS
 					+ "ON tsk_objects.obj_id=tsk_files.obj_id " //NON-NLS
 					+ "WHERE (tsk_objects.par_obj_id = ? ) " //NON-NLS
 					+ "ORDER BY tsk_files.dir_type, tsk_files.name COLLATE NOCASE"), //NON-NLS
-			SELECT_FILES_BY_PARENT_AND_TYPE("SELECT tsk_files.* " //NON-NLS
+			SELECT_FILES_BY_PARENT_AND_TYPE("SELECT tsk_files.*, " //NON-NLS
+					+ FILE_CHILD_COUNT_COLUMN + " " //NON-NLS
 					+ "FROM tsk_objects INNER JOIN tsk_files " //NON-NLS
 					+ "ON tsk_objects.obj_id=tsk_files.obj_id " //NON-NLS
 					+ "WHERE (tsk_objects.par_obj_id = ? AND tsk_files.type = ? ) " //NON-NLS
@@ -5065,6 +8231,7 @@ enum PREPARED_STATEMENT {
 					+ "VALUES (?, ?, ?)"), //NON-NLS
 			INSERT_STRING_ATTRIBUTE("INSERT INTO blackboard_attributes (artifact_id, artifact_type_id, source, context, attribute_type_id, value_type, value_text) " //NON-NLS
 					+ "VALUES (?,?,?,?,?,?,?)"), //NON-NLS
+			INSERT_ATTRIBUTE_TEXT_INDEX_ENTRY("INSERT INTO blackboard_attributes_fts (value_text, artifact_id, attribute_type_id) VALUES (?, ?, ?)"), //NON-NLS
 			INSERT_BYTE_ATTRIBUTE("INSERT INTO blackboard_attributes (artifact_id, artifact_type_id, source, context, attribute_type_id, value_type, value_byte) " //NON-NLS
 					+ "VALUES (?,?,?,?,?,?,?)"), //NON-NLS
 			INSERT_INT_ATTRIBUTE("INSERT INTO blackboard_attributes (artifact_id, artifact_type_id, source, context, attribute_type_id, value_type, value_int32) " //NON-NLS
@@ -5073,8 +8240,7 @@ enum PREPARED_STATEMENT {
 					+ "VALUES (?,?,?,?,?,?,?)"), //NON-NLS
 			INSERT_DOUBLE_ATTRIBUTE("INSERT INTO blackboard_attributes (artifact_id, artifact_type_id, source, context, attribute_type_id, value_type, value_double) " //NON-NLS
 					+ "VALUES (?,?,?,?,?,?,?)"), //NON-NLS
-			SELECT_FILES_BY_FILE_SYSTEM_AND_NAME("SELECT * FROM tsk_files WHERE LOWER(name) LIKE ? and LOWER(name) NOT LIKE '%journal%' AND fs_obj_id = ?"), //NON-NLS
-			SELECT_FILES_BY_FILE_SYSTEM_AND_PATH("SELECT * FROM tsk_files WHERE LOWER(name) LIKE ? AND LOWER(name) NOT LIKE '%journal%' AND LOWER(parent_path) LIKE ? AND fs_obj_id = ?"), //NON-NLS
+			SELECT_FILES_BY_FILE_SYSTEM_AND_EXACT_PATH("SELECT * FROM tsk_files WHERE fs_obj_id = ? AND parent_path = ? COLLATE NOCASE AND name = ? COLLATE NOCASE"), //NON-NLS
 			UPDATE_FILE_MD5("UPDATE tsk_files SET md5 = ? WHERE obj_id = ?"), //NON-NLS
 			SELECT_LOCAL_PATH_FOR_FILE("SELECT path FROM tsk_files_path WHERE obj_id = ?"), //NON-NLS
 			SELECT_PATH_FOR_FILE("SELECT parent_path FROM tsk_files WHERE obj_id = ?"), //NON-NLS
@@ -5082,67 +8248,97 @@ enum PREPARED_STATEMENT {
 			SELECT_DERIVED_FILE("SELECT derived_id, rederive FROM tsk_files_derived WHERE obj_id = ?"), //NON-NLS
 			SELECT_FILE_DERIVATION_METHOD("SELECT tool_name, tool_version, other FROM tsk_files_derived_method WHERE derived_id = ?"), //NON-NLS
 			SELECT_MAX_OBJECT_ID("SELECT MAX(obj_id) from tsk_objects"), //NON-NLS
-			INSERT_OBJECT("INSERT INTO tsk_objects (par_obj_id, type) VALUES (?, ?)"), //NON-NLS
-			INSERT_FILE("INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path) " //NON-NLS
-					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"), //NON-NLS
+			INSERT_OBJECT("INSERT INTO tsk_objects (par_obj_id, type) VALUES (?, ?)", true), //NON-NLS
+			INSERT_FILE("INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, dir_flags, meta_flags, size, ctime, crtime, atime, mtime, parent_path, name_lower) " //NON-NLS
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)"), //NON-NLS
 			INSERT_LAYOUT_FILE("INSERT INTO tsk_file_layout (obj_id, byte_start, byte_len, sequence) " //NON-NLS
 					+ "VALUES (?, ?, ?, ?)"), //NON-NLS
 			INSERT_LOCAL_PATH("INSERT INTO tsk_files_path (obj_id, path) VALUES (?, ?)"), //NON-NLS
 			COUNT_CHILD_OBJECTS_BY_PARENT("SELECT COUNT(obj_id) FROM tsk_objects WHERE par_obj_id = ?"), //NON-NLS
 			SELECT_FILE_SYSTEM_BY_OBJECT("SELECT fs_obj_id from tsk_files WHERE obj_id=?"), //NON-NLS
+			SELECT_PARENT_OBJECT_ID("SELECT par_obj_id FROM tsk_objects WHERE obj_id = ?"), //NON-NLS
+			INSERT_EVENT("INSERT INTO tsk_events (obj_id, data_source_obj_id, artifact_id, event_type, attribute_type_id, time) " //NON-NLS
+					+ "VALUES (?, ?, ?, ?, ?, ?)"), //NON-NLS
 			SELECT_TAG_NAMES("SELECT * FROM tag_names"), //NON-NLS
-			SELECT_TAG_NAMES_IN_USE("SELECT * FROM tag_names " //NON-NLS
-					+ "WHERE tag_name_id IN " //NON-NLS
-					+ "(SELECT tag_name_id from content_tags UNION SELECT tag_name_id FROM blackboard_artifact_tags)"), //NON-NLS
-			INSERT_TAG_NAME("INSERT INTO tag_names (display_name, description, color) VALUES (?, ?, ?)"), //NON-NLS
-			INSERT_CONTENT_TAG("INSERT INTO content_tags (obj_id, tag_name_id, comment, begin_byte_offset, end_byte_offset) VALUES (?, ?, ?, ?, ?)"), //NON-NLS
+			INSERT_TAG_NAME("INSERT INTO tag_names (display_name, description, color) VALUES (?, ?, ?)", true), //NON-NLS
+			INSERT_CONTENT_TAG("INSERT INTO content_tags (obj_id, tag_name_id, comment, begin_byte_offset, end_byte_offset) VALUES (?, ?, ?, ?, ?)", true), //NON-NLS
 			DELETE_CONTENT_TAG("DELETE FROM content_tags WHERE tag_id = ?"), //NON-NLS
-			COUNT_CONTENT_TAGS_BY_TAG_NAME("SELECT COUNT(*) FROM content_tags WHERE tag_name_id = ?"), //NON-NLS
-			SELECT_CONTENT_TAGS("SELECT * FROM content_tags INNER JOIN tag_names ON content_tags.tag_name_id = tag_names.tag_name_id"), //NON-NLS
-			SELECT_CONTENT_TAGS_BY_TAG_NAME("SELECT * FROM content_tags WHERE tag_name_id = ?"), //NON-NLS
-			SELECT_CONTENT_TAGS_BY_CONTENT("SELECT * FROM content_tags INNER JOIN tag_names ON content_tags.tag_name_id = tag_names.tag_name_id WHERE content_tags.obj_id = ?"), //NON-NLS
-			INSERT_ARTIFACT_TAG("INSERT INTO blackboard_artifact_tags (artifact_id, tag_name_id, comment) VALUES (?, ?, ?)"), //NON-NLS
+			SELECT_CONTENT_TAG_ROWS("SELECT tag_id, obj_id, tag_name_id, comment, begin_byte_offset, end_byte_offset FROM content_tags ORDER BY tag_id"), //NON-NLS
+			SELECT_ARTIFACT_TAG_ROWS("SELECT tag_id, artifact_id, tag_name_id, comment FROM blackboard_artifact_tags ORDER BY tag_id"), //NON-NLS
+			INSERT_ARTIFACT_TAG("INSERT INTO blackboard_artifact_tags (artifact_id, tag_name_id, comment) VALUES (?, ?, ?)", true), //NON-NLS
 			DELETE_ARTIFACT_TAG("DELETE FROM blackboard_artifact_tags WHERE tag_id = ?"), //NON-NLS
-			SELECT_ARTIFACT_TAGS("SELECT * FROM blackboard_artifact_tags INNER JOIN tag_names ON blackboard_artifact_tags.tag_name_id = tag_names.tag_name_id"), //NON-NLS
-			COUNT_ARTIFACTS_BY_TAG_NAME("SELECT COUNT(*) FROM blackboard_artifact_tags WHERE tag_name_id = ?"), //NON-NLS
-			SELECT_ARTIFACT_TAGS_BY_TAG_NAME("SELECT * FROM blackboard_artifact_tags WHERE tag_name_id = ?"), //NON-NLS
-			SELECT_ARTIFACT_TAGS_BY_ARTIFACT("SELECT * FROM blackboard_artifact_tags INNER JOIN tag_names ON blackboard_artifact_tags.tag_name_id = tag_names.tag_name_id WHERE blackboard_artifact_tags.artifact_id = ?"), //NON-NLS
 			SELECT_REPORTS("SELECT * FROM reports"), //NON-NLS
-			INSERT_REPORT("INSERT INTO reports (path, crtime, src_module_name, report_name) VALUES (?, ?, ?, ?)");	 //NON-NLS
+			INSERT_REPORT("INSERT INTO reports (path, crtime, src_module_name, report_name) VALUES (?, ?, ?, ?)", true), //NON-NLS
+			INSERT_ARTIFACT_TYPE("INSERT INTO blackboard_artifact_types (artifact_type_id, type_name, display_name) " //NON-NLS
+					+ "SELECT COALESCE(MAX(artifact_type_id), 0) + 1, ?, ? FROM blackboard_artifact_types", true), //NON-NLS
+			INSERT_ATTRIBUTE_TYPE("INSERT INTO blackboard_attribute_types (attribute_type_id, type_name, display_name) " //NON-NLS
+					+ "SELECT COALESCE(MAX(attribute_type_id), 0) + 1, ?, ? FROM blackboard_attribute_types", true), //NON-NLS
+			UPSERT_ARTIFACT_COUNT("INSERT INTO blackboard_artifact_counts (scope, id, artifact_type_id, count) VALUES (?, ?, ?, ?) " //NON-NLS
+					+ "ON CONFLICT (scope, id, artifact_type_id) DO UPDATE SET count = blackboard_artifact_counts.count + EXCLUDED.count"); //NON-NLS
 
 			private final String sql;
+			private final boolean generatesKey; // True if the id of the inserted row is read with getGeneratedKeys().
 
 			private PREPARED_STATEMENT(String sql) {
+				this(sql, false);
+			}
+
+			private PREPARED_STATEMENT(String sql, boolean generatesKey) {
 				this.sql = sql;
+				this.generatesKey = generatesKey;
 			}
 
 			String getSQL() {
 				return sql;
 			}
 		}
+		private static final int MAX_CACHED_QUERY_STATEMENTS = 64; // Number of statements made for FileQuery and ArtifactQuery shapes kept per connection.
 		private final Map<PREPARED_STATEMENT, PreparedStatement> preparedStatements;
+		private final Map<String, PreparedStatement> queryStatements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > MAX_CACHED_QUERY_STATEMENTS) {
+					statementInfo.remove(eldest.getValue());
+					closeStatement(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		private final Map<PreparedStatement, StatementInfo> statementInfo = new IdentityHashMap<PreparedStatement, StatementInfo>(); // Names and SQL of the prepared statements, for metrics and the slow query log.
+		private final CaseDbBackend backend;
+		private final SlowQueryLog slowQueryLog;
+		private final ReentrantLock writeLock; // The database write lock of the case, or null if the backend allows concurrent writers.
+		private final Thread owner = Thread.currentThread(); // The thread the connection was made for.
+		private boolean holdsWriteLock = false; // True while a transaction begun by beginTransaction() holds writeLock.
 		private Connection connection;
 
-		CaseDbConnection(String dbPath) {
+		/**
+		 * The name, SQL and, for query builder statements, the parameters of a
+		 * prepared statement.
+		 */
+		private static class StatementInfo {
+
+			final String name;
+			final String sql;
+			List<Object> parameters;
+
+			StatementInfo(String name, String sql) {
+				this.name = name;
+				this.sql = sql;
+			}
+		}
+		private static final StatementInfo OTHER_STATEMENT = new StatementInfo("statement.OTHER", null); //NON-NLS
+
+		CaseDbConnection(CaseDbBackend backend, SlowQueryLog slowQueryLog, ReentrantLock writeLock) {
+			this.backend = backend;
+			this.slowQueryLog = slowQueryLog;
+			this.writeLock = writeLock;
 			this.preparedStatements = new EnumMap<PREPARED_STATEMENT, PreparedStatement>(PREPARED_STATEMENT.class);
-			Statement statement = null;
 			try {
-				SQLiteConfig config = new SQLiteConfig();
-				
-				// Reduce I/O operations, we have no OS crash recovery anyway.
-				config.setSynchronous(SQLiteConfig.SynchronousMode.OFF);
-				
-				// The original comment for "read_uncommited" indicating that it
-				// was being set to "allow query while in transaction". I don't fully
-				// understand why this is needed since all it does it expose dirty writes
-				// within one transaction to other queries. There was also the suggestion
-				// that it may have helped to increase performance.
-				config.setReadUncommited(true);
-				
-				// Enforce foreign key constraints.
-				config.enforceForeignKeys(true);
-				
-				this.connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath, config.toProperties()); //NON-NLS
+				this.connection = backend.openConnection();
 			} catch (SQLException ex) {
 				// The exception is caught and logged here because this 
 				// constructor will be called by an override of 
@@ -5166,29 +8362,96 @@ boolean isOpen() {
 			return this.connection != null;
 		}
 
+		/**
+		 * @return true if the thread the connection was made for has not
+		 * ended
+		 */
+		boolean isOwnerAlive() {
+			return owner.isAlive();
+		}
+
+		/**
+		 * @return true if the connection is not in a transaction
+		 */
+		boolean isIdle() {
+			try {
+				return connection == null || connection.getAutoCommit();
+			} catch (SQLException ex) {
+				return false;
+			}
+		}
+
+		/**
+		 * @return the JDBC connection, for the backend
+		 */
+		Connection getConnection() {
+			return connection;
+		}
+
 		PreparedStatement getPreparedStatement(PREPARED_STATEMENT statementKey) throws SQLException {
 			// Lazy statement preparation.
 			PreparedStatement statement;
 			if (this.preparedStatements.containsKey(statementKey)) {
 				statement = this.preparedStatements.get(statementKey);
 			} else {
-				statement = prepareStatement(statementKey.getSQL());
+				statement = prepareStatement(statementKey.getSQL(), statementKey.generatesKey);
 				this.preparedStatements.put(statementKey, statement);
+				this.statementInfo.put(statement, new StatementInfo("statement." + statementKey.name(), statementKey.getSQL())); //NON-NLS
+			}
+			return statement;
+		}
+
+		/**
+		 * Get a prepared statement for SQL made by a query builder, with its
+		 * parameters set. The statements are kept by SQL text, so queries of
+		 * the same shape are parsed and planned once per connection.
+		 *
+		 * @param sql the SQL
+		 * @param parameters values of the parameters, Long, Integer, Double
+		 * or String
+		 * @return the statement
+		 * @throws SQLException
+		 */
+		PreparedStatement getPreparedStatement(String sql, List<Object> parameters) throws SQLException {
+			PreparedStatement statement = queryStatements.get(sql);
+			if (statement == null) {
+				statement = prepareStatement(sql);
+				queryStatements.put(sql, statement);
+				statementInfo.put(statement, new StatementInfo("statement.QUERY", sql)); //NON-NLS
+			}
+			statementInfo.get(statement).parameters = parameters;
+			statement.clearParameters();
+			for (int i = 0; i < parameters.size(); ++i) {
+				statement.setObject(i + 1, parameters.get(i));
 			}
 			return statement;
 		}
 
-		private PreparedStatement prepareStatement(String sqlStatement) throws SQLException {
+		private PreparedStatement prepareStatement(String sqlStatement) throws SQLException {
+			return prepareStatement(sqlStatement, false);
+		}
+
+		/**
+		 * @param sqlStatement the SQL of the statement
+		 * @param generatesKey true if the id of the row inserted by the
+		 * statement is read with getGeneratedKeys()
+		 * @return the statement
+		 * @throws SQLException
+		 */
+		private PreparedStatement prepareStatement(String sqlStatement, boolean generatesKey) throws SQLException {
 			PreparedStatement statement = null;
 			boolean locked = true;
 			while (locked) {
 				try {
-					statement = this.connection.prepareStatement(sqlStatement);
+					statement = generatesKey
+							? this.connection.prepareStatement(sqlStatement, Statement.RETURN_GENERATED_KEYS)
+							: this.connection.prepareStatement(sqlStatement);
 					locked = false;
 				} catch (SQLException ex) {
-					if (ex.getErrorCode() != SQLITE_BUSY_ERROR && ex.getErrorCode() != DATABASE_LOCKED_ERROR) {
+					if (!backend.isBusy(ex)) {
 						throw ex;
 					}
+					TskMetrics.count("db.busyRetries", 1); //NON-NLS
 				}
 			}
 			return statement;
@@ -5202,48 +8465,87 @@ Statement createStatement() throws SQLException {
 					statement = this.connection.createStatement();
 					locked = false;
 				} catch (SQLException ex) {
-					if (ex.getErrorCode() != SQLITE_BUSY_ERROR && ex.getErrorCode() != DATABASE_LOCKED_ERROR) {
+					if (!backend.isBusy(ex)) {
 						throw ex;
 					}
+					TskMetrics.count("db.busyRetries", 1); //NON-NLS
 				}
 			}
 			return statement;
 		}
 
+		/**
+		 * Begin a transaction that holds the database write lock until it is
+		 * committed or rolled back. The caller must already hold the domain
+		 * locks of the changes, since they are taken before the write lock.
+		 *
+		 * @throws SQLException
+		 */
 		void beginTransaction() throws SQLException {
+			lockWrite();
+			holdsWriteLock = true;
+			try {
+				beginClientTransaction();
+			} catch (SQLException ex) {
+				releaseWriteLock();
+				throw ex;
+			}
+		}
+
+		/**
+		 * Begin the transaction of a CaseDbTransaction. The client keeps it
+		 * open across calls that take domain locks, so the database write
+		 * lock is only held around each of its updates and its commit.
+		 *
+		 * @throws SQLException
+		 */
+		void beginClientTransaction() throws SQLException {
 			boolean locked = true;
 			while (locked) {
 				try {
 					connection.setAutoCommit(false);
 					locked = false;
 				} catch (SQLException ex) {
-					if (ex.getErrorCode() != SQLITE_BUSY_ERROR && ex.getErrorCode() != DATABASE_LOCKED_ERROR) {
+					if (!backend.isBusy(ex)) {
 						throw ex;
 					}
+					TskMetrics.count("db.busyRetries", 1); //NON-NLS
 				}
 			}
 		}
 
 		void commitTransaction() throws SQLException {
-			boolean locked = true;
+			if (!holdsWriteLock) {
+				lockWrite();
+			}
+			try {
+				boolean locked = true;
 
-			// Exceptions can be thrown on a call to commit so we will retry
-			// until it succeeds.
-			while (locked) {
-				try {
-					connection.commit();
-					locked = false;
-				} catch (SQLException ex) {
-					logger.log(Level.SEVERE, String.format("Exception commiting transaction: Error code: %d SQLState: %s", ex.getErrorCode(), ex.getSQLState()), ex);
+				// Exceptions can be thrown on a call to commit so we will retry
+				// until it succeeds.
+				while (locked) {
+					try {
+						connection.commit();
+						locked = false;
+					} catch (SQLException ex) {
+						logger.log(Level.SEVERE, String.format("Exception commiting transaction: Error code: %d SQLState: %s", ex.getErrorCode(), ex.getSQLState()), ex);
+						if (backend.failedStatementsEndTransactions()) {
+							// the transaction is over, so committing it again cannot succeed
+							throw ex;
+						}
+						TskMetrics.count("db.commitRetries", 1); //NON-NLS
+					}
 				}
-			}
 
-			// You must turn auto commit back on when done with the transaction.
-			try {
-				connection.setAutoCommit(true);
-			}
-			catch (SQLException ex) {
-				logger.log(Level.SEVERE, String.format("Exception resetting auto commit: Error code: %d SQLState: %s", ex.getErrorCode(), ex.getSQLState()), ex);
+				// You must turn auto commit back on when done with the transaction.
+				try {
+					connection.setAutoCommit(true);
+				}
+				catch (SQLException ex) {
+					logger.log(Level.SEVERE, String.format("Exception resetting auto commit: Error code: %d SQLState: %s", ex.getErrorCode(), ex.getSQLState()), ex);
+				}
+			} finally {
+				releaseWriteLock();
 			}
 		}
 
@@ -5263,6 +8565,9 @@ void rollbackTransaction() {
 			} catch (SQLException e) {
 				logger.log(Level.SEVERE, "Error restoring auto-commit", e);
 			}
+			if (holdsWriteLock) {
+				releaseWriteLock();
+			}
 		}
 
 		/**
@@ -5276,11 +8581,50 @@ void rollbackTransactionWithThrow() throws SQLException {
 			try {
 				connection.rollback();
 			} finally {
-				connection.setAutoCommit(true);
+				try {
+					connection.setAutoCommit(true);
+				} finally {
+					if (holdsWriteLock) {
+						releaseWriteLock();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Acquire the database write lock, recording the wait as
+		 * lock.write.wait.
+		 */
+		private void lockWrite() {
+			if (writeLock == null) {
+				return;
+			}
+			long start = startLockTiming();
+			writeLock.lock();
+			TskMetrics.record("lock.write.wait", start, 0); //NON-NLS
+			TskTracing.lockAcquired("write", start); //NON-NLS
+		}
+
+		/**
+		 * Release the database write lock held by a transaction, or taken
+		 * for the commit of a client transaction.
+		 */
+		private void releaseWriteLock() {
+			holdsWriteLock = false;
+			unlockWrite();
+		}
+
+		/**
+		 * Release the database write lock taken by lockWrite().
+		 */
+		private void unlockWrite() {
+			if (writeLock != null) {
+				writeLock.unlock();
 			}
 		}
 
 		private ResultSet executeQuery(Statement statement, String query) throws SQLException {
+			long start = startTiming();
 			ResultSet resultSet = null;
 			boolean locked = true;
 			while (locked) {
@@ -5288,15 +8632,17 @@ private ResultSet executeQuery(Statement statement, String query) throws SQLExce
 					resultSet = statement.executeQuery(query);
 					locked = false;
 				} catch (SQLException ex) {
-					if (ex.getErrorCode() != SQLITE_BUSY_ERROR && ex.getErrorCode() != DATABASE_LOCKED_ERROR) {
+					if (!backend.isBusy(ex)) {
 						throw ex;
 					}
+					TskMetrics.count("db.busyRetries", 1); //NON-NLS
 				}
 			}
-			return resultSet;
+			return start != 0 ? recordQuery("statement.AD_HOC_QUERY", query, null, start, resultSet) : resultSet; //NON-NLS
 		}
 
 		private ResultSet executeQuery(PreparedStatement statement) throws SQLException {
+			long start = startTiming();
 			ResultSet resultSet = null;
 			boolean locked = true;
 			while (locked) {
@@ -5304,53 +8650,248 @@ private ResultSet executeQuery(PreparedStatement statement) throws SQLException
 					resultSet = statement.executeQuery();
 					locked = false;
 				} catch (SQLException ex) {
-					if (ex.getErrorCode() != SQLITE_BUSY_ERROR && ex.getErrorCode() != DATABASE_LOCKED_ERROR) {
+					if (!backend.isBusy(ex)) {
 						throw ex;
 					}
+					TskMetrics.count("db.busyRetries", 1); //NON-NLS
 				}
 			}
+			if (start != 0) {
+				StatementInfo info = getStatementInfo(statement);
+				return recordQuery(info.name, info.sql, info.parameters, start, resultSet);
+			}
 			return resultSet;
 		}
 
-		void executeUpdate(Statement statement, String update) throws SQLException {
-			boolean locked = true;
-			while (locked) {
-				try {
-					statement.executeUpdate(update);
-					locked = false;
-				} catch (SQLException ex) {
-					if (ex.getErrorCode() != SQLITE_BUSY_ERROR && ex.getErrorCode() != DATABASE_LOCKED_ERROR) {
-						throw ex;
+		/**
+		 * Run an update. The number of rows changed is the one returned by
+		 * the driver, since the SQLite driver does not keep it for
+		 * getUpdateCount() after executeUpdate(String).
+		 *
+		 * @param statement the statement to use
+		 * @param update the SQL of the update
+		 * @return the number of rows changed
+		 * @throws SQLException
+		 */
+		int executeUpdate(Statement statement, String update) throws SQLException {
+			long start = startTiming();
+			int updateCount = 0;
+			boolean lockWrite = !holdsWriteLock;
+			if (lockWrite) {
+				lockWrite();
+			}
+			try {
+				boolean locked = true;
+				while (locked) {
+					try {
+						updateCount = statement.executeUpdate(update);
+						locked = false;
+					} catch (SQLException ex) {
+						if (!backend.isBusy(ex)) {
+							throw ex;
+						}
+						TskMetrics.count("db.busyRetries", 1); //NON-NLS
 					}
 				}
+			} finally {
+				if (lockWrite) {
+					unlockWrite();
+				}
+			}
+			if (start != 0) {
+				recordUpdate("statement.AD_HOC_UPDATE", update, null, start, updateCount); //NON-NLS
 			}
+			return updateCount;
 		}
 
-		void executeUpdate(PreparedStatement statement) throws SQLException {
-			boolean locked = true;
-			while (locked) {
-				try {
-					statement.executeUpdate();
-					locked = false;
-				} catch (SQLException ex) {
-					if (ex.getErrorCode() != SQLITE_BUSY_ERROR && ex.getErrorCode() != DATABASE_LOCKED_ERROR) {
-						throw ex;
+		/**
+		 * Run a prepared update.
+		 *
+		 * @param statement the statement, with its parameters set
+		 * @return the number of rows changed
+		 * @throws SQLException
+		 */
+		int executeUpdate(PreparedStatement statement) throws SQLException {
+			long start = startTiming();
+			int updateCount = 0;
+			boolean lockWrite = !holdsWriteLock;
+			if (lockWrite) {
+				lockWrite();
+			}
+			try {
+				boolean locked = true;
+				while (locked) {
+					try {
+						updateCount = statement.executeUpdate();
+						locked = false;
+					} catch (SQLException ex) {
+						if (!backend.isBusy(ex)) {
+							throw ex;
+						}
+						TskMetrics.count("db.busyRetries", 1); //NON-NLS
 					}
 				}
+			} finally {
+				if (lockWrite) {
+					unlockWrite();
+				}
+			}
+			if (start != 0) {
+				StatementInfo info = getStatementInfo(statement);
+				recordUpdate(info.name, info.sql, info.parameters, start, updateCount);
 			}
+			return updateCount;
 		}
 
 		/**
-		 * ****************
-		 * Close the connection to the database, thereby releasing the file
-		 * handle
+		 * Start timing a statement if metrics are being recorded or traced or
+		 * slow statements are being logged.
+		 *
+		 * @return the start time, or 0 if the statement is not timed
 		 */
-		private void close() {
-			try { // close all file handles to the autopsy.db database.
-				connection.close();
+		private long startTiming() {
+			return TskMetrics.isEnabled() || TskTracing.isEnabled() || slowQueryLog.isEnabled() ? System.nanoTime() : 0;
+		}
+
+		private StatementInfo getStatementInfo(PreparedStatement statement) {
+			StatementInfo info = statementInfo.get(statement);
+			return info != null ? info : OTHER_STATEMENT;
+		}
+
+		/**
+		 * Record the time taken by an update in the metrics and the slow query
+		 * log.
+		 *
+		 * @param name the metrics timer name
+		 * @param sql the SQL of the update, or null if it is not known
+		 * @param parameters the parameters of the update, or null if they are
+		 * not known
+		 * @param start the value returned by startTiming()
+		 * @param updateCount the number of rows changed by the update
+		 */
+		private void recordUpdate(String name, String sql, List<Object> parameters, long start, int updateCount) {
+			long nanos = System.nanoTime() - start;
+			long rows = Math.max(0, updateCount);
+			TskMetrics.record(name, start, rows);
+			TskTracing.statementExecuted(name, nanos, rows);
+			if (slowQueryLog.isSlow(nanos)) {
+				slowQueryLog.log(name, sql, parameters, nanos, rows, explainQueryPlan(sql, parameters));
+			}
+		}
+
+		/**
+		 * Record the time taken by a query in the metrics and wrap its result
+		 * set so that the rows read from it, and the time spent reading them,
+		 * are recorded when it is closed. SQLite does most of the work of a
+		 * query as its rows are read, so the time of a query in the slow query
+		 * log includes that time.
+		 *
+		 * @param name the metrics timer name
+		 * @param sql the SQL of the query, or null if it is not known
+		 * @param parameters the parameters of the query, or null if they are
+		 * not known
+		 * @param start the value returned by startTiming()
+		 * @param resultSet the result set of the query
+		 * @return the wrapped result set
+		 */
+		private ResultSet recordQuery(final String name, final String sql, final List<Object> parameters, long start, final ResultSet resultSet) {
+			final long executeNanos = System.nanoTime() - start;
+			TskMetrics.record(name, start, 0);
+			return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, new InvocationHandler() {
+				private long nanos = executeNanos;
+				private long rows = 0;
+				private boolean closed = false;
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					boolean next = method.getName().equals("next"); //NON-NLS
+					long nextStart = next ? System.nanoTime() : 0;
+					Object result;
+					try {
+						result = method.invoke(resultSet, args);
+					} catch (InvocationTargetException ex) {
+						throw ex.getCause();
+					}
+					if (next) {
+						nanos += System.nanoTime() - nextStart;
+						if (Boolean.TRUE.equals(result)) {
+							rows++;
+						}
+					} else if (method.getName().equals("close") && !closed) { //NON-NLS
+						closed = true;
+						TskMetrics.addUnits(name, rows);
+						TskTracing.statementExecuted(name, nanos, rows);
+						if (slowQueryLog.isSlow(nanos)) {
+							slowQueryLog.log(name, sql, parameters, nanos, rows, explainQueryPlan(sql, parameters));
+						}
+					}
+					return result;
+				}
+			});
+		}
+
+		/**
+		 * Get the query plan of a statement from the database. The statement
+		 * is not timed or retried; a plan that cannot be made is reported in
+		 * the returned rows. Inside a transaction of a backend whose failed
+		 * statements end the transaction, no plan is made.
+		 *
+		 * @param sql the SQL of the statement, or null if it is not known
+		 * @param parameters the parameters of the statement, or null if they
+		 * are not known, in which case they are left unbound
+		 * @return the rows of the plan, as made by
+		 * CaseDbBackend.readQueryPlanRow()
+		 */
+		private List<String> explainQueryPlan(String sql, List<Object> parameters) {
+			List<String> plan = new ArrayList<String>();
+			if (sql == null) {
+				return plan;
+			}
+			PreparedStatement statement = null;
+			ResultSet resultSet = null;
+			try {
+				if (backend.failedStatementsEndTransactions() && !connection.getAutoCommit()) {
+					plan.add("(no plan: in a transaction)"); //NON-NLS
+					return plan;
+				}
+				statement = connection.prepareStatement(backend.getQueryPlanSql(sql));
+				if (parameters != null) {
+					for (int i = 0; i < parameters.size(); ++i) {
+						statement.setObject(i + 1, parameters.get(i));
+					}
+				}
+				resultSet = statement.executeQuery();
+				while (resultSet.next()) {
+					plan.add(backend.readQueryPlanRow(resultSet));
+				}
 			} catch (SQLException ex) {
-				logger.log(Level.SEVERE, "Unable to close handle to autopsy.db", ex);
+				plan.add("(no plan: " + ex.getMessage() + ")"); //NON-NLS
+			} finally {
+				closeResultSet(resultSet);
+				closeStatement(statement);
+			}
+			return plan;
+		}
+
+		/**
+		 * Close the statements of the connection and give the connection back
+		 * to the backend, which closes it or keeps it for another thread.
+		 */
+		private void close() {
+			if (connection == null) {
+				return;
 			}
+			for (PreparedStatement statement : preparedStatements.values()) {
+				closeStatement(statement);
+			}
+			preparedStatements.clear();
+			for (PreparedStatement statement : queryStatements.values()) {
+				closeStatement(statement);
+			}
+			queryStatements.clear();
+			statementInfo.clear();
+			backend.releaseConnection(connection);
+			connection = null;
 		}
 	}
 
@@ -5366,10 +8907,14 @@ public static final class CaseDbTransaction {
 
 		private final CaseDbConnection connection;
 
-		private CaseDbTransaction(CaseDbConnection connection) throws TskCoreException {
+		private CaseDbTransaction(CaseDbConnection connection, boolean holdWriteLock) throws TskCoreException {
 			this.connection = connection;
 			try {
-				this.connection.beginTransaction();
+				if (holdWriteLock) {
+					this.connection.beginTransaction();
+				} else {
+					this.connection.beginClientTransaction();
+				}
 			} catch (SQLException ex) {
 				throw new TskCoreException("Failed to create transaction on case database", ex);
 			}
@@ -5479,4 +9024,304 @@ public void close() throws TskCoreException {
 			}
 		}	
 	}
+
+	/**
+	 * A write made by a method of the case while writes are queued, see
+	 * startWriteBehind().
+	 */
+	private abstract class QueuedWrite {
+
+		private final LockDomain domain;
+		private long queuedNanos; // Set by WriteBehindQueue.add().
+
+		QueuedWrite(LockDomain domain) {
+			this.domain = domain;
+		}
+
+		/**
+		 * Do the write.
+		 *
+		 * @param connection connection with an open transaction
+		 * @throws SQLException
+		 * @throws TskCoreException
+		 */
+		abstract void apply(CaseDbConnection connection) throws SQLException, TskCoreException;
+	}
+
+	/**
+	 * Queues writes from any number of threads and does them on one writer
+	 * thread, in transactions of several writes.
+	 */
+	private final class WriteBehindQueue implements Runnable {
+
+		private final int maxBatchSize;
+		private final long maxLatencyNanos;
+		private final LinkedBlockingQueue<QueuedWrite> queue = new LinkedBlockingQueue<QueuedWrite>();
+		private final QueuedWrite flushMarker = new Marker();
+		private final QueuedWrite stopMarker = new Marker();
+		private final Thread writerThread;
+		private final Object stateLock = new Object();
+		private long queuedCount = 0; // Number of writes queued, guarded by stateLock.
+		private long doneCount = 0; // Number of writes done, guarded by stateLock.
+		private boolean stopped = false; // Guarded by stateLock.
+		private boolean writerRunning = true; // False once the writer thread has ended, guarded by stateLock.
+		private TskCoreException failure; // First error since the last flush, guarded by stateLock.
+
+		WriteBehindQueue(int maxBatchSize, long maxLatencyNanos) {
+			this.maxBatchSize = maxBatchSize;
+			this.maxLatencyNanos = maxLatencyNanos;
+			this.writerThread = new Thread(this, "Case database writer " + dbPath); //NON-NLS
+			this.writerThread.setDaemon(true);
+		}
+
+		void start() {
+			writerThread.start();
+		}
+
+		/**
+		 * Queue a write.
+		 *
+		 * @param write the write
+		 * @return false if the queue is stopped, in which case the caller
+		 * does the write itself
+		 */
+		boolean add(QueuedWrite write) {
+			synchronized (stateLock) {
+				if (stopped) {
+					return false;
+				}
+				queuedCount++;
+				write.queuedNanos = System.nanoTime();
+				queue.add(write);
+				return true;
+			}
+		}
+
+		/**
+		 * Wait until the writes queued so far are done.
+		 *
+		 * @throws TskCoreException if a write failed since the last flush, or
+		 * if the writer thread ended before doing the writes
+		 */
+		void flush() throws TskCoreException {
+			if (Thread.currentThread() == writerThread) {
+				return;
+			}
+			if (rwLock.isWriteLockedByCurrentThread() || rwLock.getReadHoldCount() > 0) {
+				throw new TskCoreException("Cannot wait for queued writes while holding the case lock"); //NON-NLS
+			}
+			synchronized (stateLock) {
+				long target = queuedCount;
+				if (doneCount < target) {
+					// ends the batch being collected without waiting for more
+					queue.add(flushMarker);
+				}
+				try {
+					while (doneCount < target && writerRunning) {
+						stateLock.wait();
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new TskCoreException("Interrupted while waiting for queued writes", ex);
+				}
+				if (doneCount < target) {
+					throw new TskCoreException("Case database writer ended before doing " + (target - doneCount) + " queued writes"); //NON-NLS
+				}
+				if (failure != null) {
+					TskCoreException ex = failure;
+					failure = null;
+					throw new TskCoreException("Error writing queued changes", ex);
+				}
+			}
+		}
+
+		/**
+		 * Wait until the writer thread has ended, which it does after the
+		 * writes queued before the queue stopped.
+		 *
+		 * @throws TskCoreException if the calling thread holds the case lock,
+		 * which the writer thread may need, or is interrupted
+		 */
+		void awaitWriterEnd() throws TskCoreException {
+			if (Thread.currentThread() == writerThread) {
+				return;
+			}
+			if (rwLock.isWriteLockedByCurrentThread() || rwLock.getReadHoldCount() > 0) {
+				throw new TskCoreException("Cannot wait for queued writes while holding the case lock"); //NON-NLS
+			}
+			synchronized (stateLock) {
+				try {
+					while (writerRunning) {
+						stateLock.wait();
+					}
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new TskCoreException("Interrupted while waiting for queued writes", ex);
+				}
+			}
+		}
+
+		/**
+		 * Do the queued writes, stop the writer thread and let add() refuse
+		 * further writes.
+		 *
+		 * @throws TskCoreException if a write failed since the last flush
+		 */
+		void stop() throws TskCoreException {
+			synchronized (stateLock) {
+				stopped = true;
+				queue.add(stopMarker);
+			}
+			try {
+				writerThread.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new TskCoreException("Interrupted while waiting for queued writes", ex);
+			}
+			flush();
+		}
+
+		@Override
+		public void run() {
+			try {
+				writeBatches();
+			} finally {
+				// lets add() refuse writes and flush() stop waiting if the
+				// thread ends on an error
+				synchronized (stateLock) {
+					stopped = true;
+					writerRunning = false;
+					stateLock.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Take writes from the queue and commit them in batches until the
+		 * queue is stopped. A batch is committed when it has maxBatchSize
+		 * writes, when maxLatencyNanos have passed since its first write was
+		 * queued, or when a flush is asked for.
+		 */
+		private void writeBatches() {
+			List<QueuedWrite> batch = new ArrayList<QueuedWrite>();
+			boolean stop = false;
+			while (!stop) {
+				try {
+					QueuedWrite write = queue.take();
+					if (write == stopMarker) {
+						stop = true;
+					} else if (write != flushMarker) {
+						batch.add(write);
+						long deadline = write.queuedNanos + maxLatencyNanos;
+						while (batch.size() < maxBatchSize) {
+							long wait = deadline - System.nanoTime();
+							write = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+							if (write == null || write == flushMarker) {
+								break;
+							} else if (write == stopMarker) {
+								stop = true;
+								break;
+							}
+							batch.add(write);
+						}
+					}
+				} catch (InterruptedException ex) {
+					logger.log(Level.WARNING, "Case database writer interrupted", ex); //NON-NLS
+				}
+				if (!batch.isEmpty()) {
+					try {
+						commit(batch);
+					} catch (Throwable ex) {
+						// an Error must not end the thread, or flush() and
+						// stop() would wait for the writes forever
+						fail(ex);
+					} finally {
+						synchronized (stateLock) {
+							doneCount += batch.size();
+							stateLock.notifyAll();
+						}
+						batch.clear();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Do a batch of writes in one transaction. If the transaction fails,
+		 * the writes are done again one per transaction, so that one bad write
+		 * does not lose the others.
+		 *
+		 * @param batch the writes
+		 */
+		private void commit(List<QueuedWrite> batch) {
+			EnumSet<LockDomain> domains = EnumSet.noneOf(LockDomain.class);
+			for (QueuedWrite write : batch) {
+				domains.add(write.domain);
+			}
+			acquireDomainLocks(domains);
+			try {
+				CaseDbConnection connection = connections.getConnection();
+				try {
+					applyInTransaction(connection, batch);
+				} catch (Exception ex) {
+					if (batch.size() == 1) {
+						fail(ex);
+						return;
+					}
+					for (QueuedWrite write : batch) {
+						try {
+							applyInTransaction(connection, Collections.singletonList(write));
+						} catch (Exception writeEx) {
+							fail(writeEx);
+						}
+					}
+				}
+			} catch (TskCoreException ex) {
+				fail(ex);
+			} finally {
+				releaseDomainLocks(domains);
+			}
+		}
+
+		private void applyInTransaction(CaseDbConnection connection, List<QueuedWrite> writes) throws SQLException, TskCoreException {
+			connection.beginTransaction();
+			try {
+				for (QueuedWrite write : writes) {
+					write.apply(connection);
+				}
+				connection.commitTransaction();
+			} catch (Throwable ex) {
+				connection.rollbackTransaction();
+				throw ex;
+			}
+		}
+
+		private void fail(Throwable ex) {
+			logger.log(Level.SEVERE, "Error writing queued change", ex); //NON-NLS
+			synchronized (stateLock) {
+				if (failure == null) {
+					if (ex instanceof TskCoreException) {
+						failure = (TskCoreException) ex;
+					} else {
+						failure = new TskCoreException("Error writing queued change"); //NON-NLS
+						failure.initCause(ex);
+					}
+				}
+			}
+		}
+
+		/**
+		 * A queue entry that is not a write.
+		 */
+		private final class Marker extends QueuedWrite {
+
+			Marker() {
+				super(null);
+			}
+
+			@Override
+			void apply(CaseDbConnection connection) {
+			}
+		}
+	}
 }
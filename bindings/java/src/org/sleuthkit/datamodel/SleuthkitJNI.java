@@ -29,6 +29,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.sleuthkit.datamodel.TskData.TSK_FS_ATTR_TYPE_ENUM;
 
 /**
@@ -55,6 +56,12 @@ public class SleuthkitJNI {
 
 	private static native void closeCaseDbNat(long db) throws TskCoreException;
 
+	private static native long backupCaseDbOpenNat(String srcPath, String destPath) throws TskCoreException;
+
+	private static native int[] backupCaseDbStepNat(long backup, int numPages) throws TskCoreException;
+
+	private static native void backupCaseDbCloseNat(long backup) throws TskCoreException;
+
 	private static native int hashDbOpenNat(String hashDbPath) throws TskCoreException;
 
     private static native int hashDbNewNat(String hashDbPath) throws TskCoreException;
@@ -93,7 +100,7 @@ public class SleuthkitJNI {
     private static native HashHitInfo hashDbLookupVerbose(String hash, int dbHandle) throws TskCoreException;
 
 	//load image
-	private static native long initAddImgNat(long db, String timezone, boolean processUnallocSpace, boolean noFatFsOrphans) throws TskCoreException;
+	private static native long initAddImgNat(long db, String timezone, boolean processUnallocSpace, boolean noFatFsOrphans, int insertBatchSize, boolean parallelFs) throws TskCoreException;
 
 	private static native void runAddImgNat(long process, String[] imgPath, int splits, String timezone) throws TskCoreException, TskDataException; // if runAddImg finishes without being stopped, revertAddImg or commitAddImg MUST be called
 
@@ -142,6 +149,8 @@ public class SleuthkitJNI {
 
 	private static native String getCurDirNat(long process);
 
+	private static native long[] getAddImgProgressNat(long process) throws TskCoreException;
+
 	//Linked library loading
 	static {
 		LibraryUtils.loadSleuthkitJNI();
@@ -191,7 +200,45 @@ void free() throws TskCoreException {
 		 * @return Object that can be used to manage the process.
 		 */
 		AddImageProcess initAddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans) {
-			return new AddImageProcess(timezone, processUnallocSpace, noFatFsOrphans);
+			return initAddImageProcess(timezone, processUnallocSpace, noFatFsOrphans, 1);
+		}
+
+		/**
+		 * Start the process of adding a disk image to the case
+		 *
+		 * @param timezone Timezone that image was from
+		 * @param processUnallocSpace true if to process unallocated space in
+		 * the image
+		 * @param noFatFsOrphans true if to skip processing of orphans on FAT
+		 * filesystems
+		 * @param insertBatchSize number of file rows the native code writes
+		 * to the database with each insert statement (1 to
+		 * SleuthkitCase.MAX_ADD_IMAGE_INSERT_BATCH_SIZE)
+		 *
+		 * @return Object that can be used to manage the process.
+		 */
+		AddImageProcess initAddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans, int insertBatchSize) {
+			return initAddImageProcess(timezone, processUnallocSpace, noFatFsOrphans, insertBatchSize, false);
+		}
+
+		/**
+		 * Start the process of adding a disk image to the case
+		 *
+		 * @param timezone Timezone that image was from
+		 * @param processUnallocSpace true if to process unallocated space in
+		 * the image
+		 * @param noFatFsOrphans true if to skip processing of orphans on FAT
+		 * filesystems
+		 * @param insertBatchSize number of file rows the native code writes
+		 * to the database with each insert statement (1 to
+		 * SleuthkitCase.MAX_ADD_IMAGE_INSERT_BATCH_SIZE)
+		 * @param parallelFs true if each file system (and its unallocated
+		 * space) is to be processed by its own native thread
+		 *
+		 * @return Object that can be used to manage the process.
+		 */
+		AddImageProcess initAddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans, int insertBatchSize, boolean parallelFs) {
+			return new AddImageProcess(timezone, processUnallocSpace, noFatFsOrphans, insertBatchSize, parallelFs);
 		}
 
 		/**
@@ -204,12 +251,19 @@ public class AddImageProcess {
 			private String timezone;
 			private boolean processUnallocSpace;
 			private boolean noFatFsOrphans;
+			private int insertBatchSize;
+			private boolean parallelFs;
 			private volatile long autoDbPointer;
+			// getProgress() holds the read lock while using autoDbPointer, commit() and revert() hold the write lock while deleting it
+			private final ReentrantReadWriteLock progressLock = new ReentrantReadWriteLock();
+			private volatile AddImageProgress lastProgress = new AddImageProgress();
 
-			private AddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans) {
+			private AddImageProcess(String timezone, boolean processUnallocSpace, boolean noFatFsOrphans, int insertBatchSize, boolean parallelFs) {
 				this.timezone = timezone;
 				this.processUnallocSpace = processUnallocSpace;
 				this.noFatFsOrphans = noFatFsOrphans;
+				this.insertBatchSize = insertBatchSize;
+				this.parallelFs = parallelFs;
 				autoDbPointer = 0;
 			}
 
@@ -229,7 +283,7 @@ public void run(String[] imgPath) throws TskCoreException, TskDataException {
 				}
 
 				synchronized (this) {
-					autoDbPointer = initAddImgNat(caseDbPointer, timezoneLongToShort(timezone), processUnallocSpace, noFatFsOrphans);
+					autoDbPointer = initAddImgNat(caseDbPointer, timezoneLongToShort(timezone), processUnallocSpace, noFatFsOrphans, insertBatchSize, parallelFs);
 				}
 				if (autoDbPointer == 0) {
 					//additional check in case initAddImgNat didn't throw exception
@@ -267,9 +321,15 @@ public synchronized void revert() throws TskCoreException {
 					throw new TskCoreException("AddImgProcess::revert: AutoDB pointer is NULL");
 				}
 
-				revertAddImgNat(autoDbPointer);
-				// the native code deleted the object
-				autoDbPointer = 0;
+				progressLock.writeLock().lock();
+				try {
+					updateProgress();
+					revertAddImgNat(autoDbPointer);
+					// the native code deleted the object
+					autoDbPointer = 0;
+				} finally {
+					progressLock.writeLock().unlock();
+				}
 			}
 
 			/**
@@ -288,10 +348,16 @@ public synchronized long commit() throws TskCoreException {
 					throw new TskCoreException("AddImgProcess::commit: AutoDB pointer is NULL");
 				}
 
-				long id = commitAddImgNat(autoDbPointer);
-				// the native code deleted the object
-				autoDbPointer = 0;
-				return id;
+				progressLock.writeLock().lock();
+				try {
+					updateProgress();
+					long id = commitAddImgNat(autoDbPointer);
+					// the native code deleted the object
+					autoDbPointer = 0;
+					return id;
+				} finally {
+					progressLock.writeLock().unlock();
+				}
 			}
 
 			/**
@@ -303,6 +369,44 @@ public synchronized long commit() throws TskCoreException {
 			public synchronized String currentDirectory() {
 				return autoDbPointer == 0 ? "NO_INFO" : getCurDirNat(autoDbPointer); //NON-NLS
 			}
+
+			/**
+			 * Gets a snapshot of the progress of the process: the number of
+			 * files and directories added, bytes hashed, the file system being
+			 * processed and the time spent in each phase. Does not wait for the
+			 * process or for the other methods of this object, so it can be
+			 * polled from a UI thread. If the native process is not available
+			 * (not started, finished or being committed / reverted), the last
+			 * snapshot is returned. This method is threadsafe.
+			 *
+			 * @return the progress of the process
+			 */
+			public AddImageProgress getProgress() {
+				if (progressLock.readLock().tryLock()) {
+					try {
+						updateProgress();
+					} finally {
+						progressLock.readLock().unlock();
+					}
+				}
+				return lastProgress;
+			}
+
+			/**
+			 * Get a new snapshot from the native process, if there is one.
+			 * Keeps the last snapshot on error. The caller must hold
+			 * progressLock.
+			 */
+			private void updateProgress() {
+				final long pointer = autoDbPointer;
+				if (pointer != 0) {
+					try {
+						lastProgress = new AddImageProgress(getAddImgProgressNat(pointer));
+					} catch (TskCoreException ex) {
+						// keep the last snapshot
+					}
+				}
+			}
 		}
 	}
 
@@ -461,7 +565,10 @@ public static long openFile(long fsHandle, long fileId, TSK_FS_ATTR_TYPE_ENUM at
 	 */
 	public static int readImg(long imgHandle, byte[] readBuffer, long offset, long len) throws TskCoreException {
 		//returned byte[] is the data buffer
-		return readImgNat(imgHandle, readBuffer, offset, len);
+		long start = TskMetrics.start();
+		int bytesRead = readImgNat(imgHandle, readBuffer, offset, len);
+		TskMetrics.record("jni.readImg", start, Math.max(bytesRead, 0)); //NON-NLS
+		return bytesRead;
 	}
 
 	/**
@@ -477,7 +584,10 @@ public static int readImg(long imgHandle, byte[] readBuffer, long offset, long l
 	 * TSK
 	 */
 	public static int readVs(long vsHandle, byte[] readBuffer, long offset, long len) throws TskCoreException {
-		return readVsNat(vsHandle, readBuffer, offset, len);
+		long start = TskMetrics.start();
+		int bytesRead = readVsNat(vsHandle, readBuffer, offset, len);
+		TskMetrics.record("jni.readVs", start, Math.max(bytesRead, 0)); //NON-NLS
+		return bytesRead;
 	}
 
 	/**
@@ -494,7 +604,10 @@ public static int readVs(long vsHandle, byte[] readBuffer, long offset, long len
 	 */
 	public static int readVsPart(long volHandle, byte[] readBuffer, long offset, long len) throws TskCoreException {
 		//returned byte[] is the data buffer
-		return readVolNat(volHandle, readBuffer, offset, len);
+		long start = TskMetrics.start();
+		int bytesRead = readVolNat(volHandle, readBuffer, offset, len);
+		TskMetrics.record("jni.readVsPart", start, Math.max(bytesRead, 0)); //NON-NLS
+		return bytesRead;
 	}
 
 	/**
@@ -511,7 +624,10 @@ public static int readVsPart(long volHandle, byte[] readBuffer, long offset, lon
 	 */
 	public static int readFs(long fsHandle, byte[] readBuffer, long offset, long len) throws TskCoreException {
 		//returned byte[] is the data buffer
-		return readFsNat(fsHandle, readBuffer, offset, len);
+		long start = TskMetrics.start();
+		int bytesRead = readFsNat(fsHandle, readBuffer, offset, len);
+		TskMetrics.record("jni.readFs", start, Math.max(bytesRead, 0)); //NON-NLS
+		return bytesRead;
 	}
 
 	/**
@@ -527,7 +643,10 @@ public static int readFs(long fsHandle, byte[] readBuffer, long offset, long len
 	 * TSK
 	 */
 	public static int readFile(long fileHandle, byte[] readBuffer, long offset, long len) throws TskCoreException {
-		return readFileNat(fileHandle, readBuffer, offset, len);
+		long start = TskMetrics.start();
+		int bytesRead = readFileNat(fileHandle, readBuffer, offset, len);
+		TskMetrics.record("jni.readFile", start, Math.max(bytesRead, 0)); //NON-NLS
+		return bytesRead;
 	}
 	
 	
@@ -821,4 +940,44 @@ private static String timezoneLongToShort(String timezoneLongForm) {
 	public static long findDeviceSize(String devPath) throws TskCoreException {
 		return findDeviceSizeNat(devPath);
 	}
+
+	/**
+	 * Start an online backup of a case database. The backup does not lock the
+	 * case database between calls to stepCaseDbBackup().
+	 *
+	 * @param srcPath path of the case database
+	 * @param destPath path of the copy. Any database at that path is replaced.
+	 * @return a handle for the backup, to be closed with closeCaseDbBackup()
+	 * @throws TskCoreException exception thrown if the backup could not be
+	 * started
+	 */
+	static long openCaseDbBackup(String srcPath, String destPath) throws TskCoreException {
+		return backupCaseDbOpenNat(srcPath, destPath);
+	}
+
+	/**
+	 * Copy the next pages of a case database backup.
+	 *
+	 * @param backup handle from openCaseDbBackup()
+	 * @param numPages maximum number of pages to copy, or a negative number to
+	 * copy all remaining pages
+	 * @return 1 if the backup is done (0 otherwise), the number of pages
+	 * remaining and the number of pages in the case database
+	 * @throws TskCoreException exception thrown if the pages could not be
+	 * copied
+	 */
+	static int[] stepCaseDbBackup(long backup, int numPages) throws TskCoreException {
+		return backupCaseDbStepNat(backup, numPages);
+	}
+
+	/**
+	 * Finish a case database backup and release its handle. An unfinished
+	 * backup is left incomplete.
+	 *
+	 * @param backup handle from openCaseDbBackup()
+	 * @throws TskCoreException exception thrown if the backup failed
+	 */
+	static void closeCaseDbBackup(long backup) throws TskCoreException {
+		backupCaseDbCloseNat(backup);
+	}
 }
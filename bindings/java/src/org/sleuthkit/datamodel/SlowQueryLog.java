@@ -0,0 +1,141 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * The slow statement log of a case. Statements of the case database that take
+ * longer than a threshold are written to a set of rotating log files with
+ * their SQL, parameters, time, number of rows, thread and SQLite query plan.
+ * See SleuthkitCase.startSlowQueryLog().
+ */
+final class SlowQueryLog {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator"); //NON-NLS
+	private volatile long thresholdNanos = -1; // Negative while the log is stopped.
+	private FileHandler handler; // Guarded by this.
+
+	/**
+	 * Start writing slow statements to the log files, closing any log files
+	 * opened by an earlier call.
+	 *
+	 * @param logFilePattern the path of the log files, a
+	 * java.util.logging.FileHandler pattern, e.g. "/case/slow_queries%g.log"
+	 * @param thresholdMillis statements that take at least this long are
+	 * logged
+	 * @param maxFileSize size in bytes at which the log file is rotated, or 0
+	 * for no limit
+	 * @param fileCount number of log files to keep
+	 * @throws TskCoreException if the log file cannot be opened
+	 */
+	synchronized void start(String logFilePattern, long thresholdMillis, int maxFileSize, int fileCount) throws TskCoreException {
+		stop();
+		FileHandler fileHandler;
+		try {
+			fileHandler = new FileHandler(logFilePattern, maxFileSize, fileCount, true);
+			fileHandler.setEncoding("UTF-8"); //NON-NLS
+		} catch (IOException ex) {
+			throw new TskCoreException("Error opening slow query log " + logFilePattern, ex);
+		}
+		fileHandler.setFormatter(new EntryFormatter());
+		handler = fileHandler;
+		thresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(thresholdMillis, 0));
+	}
+
+	/**
+	 * Stop logging and close the log file.
+	 */
+	synchronized void stop() {
+		thresholdNanos = -1;
+		if (handler != null) {
+			handler.close();
+			handler = null;
+		}
+	}
+
+	/**
+	 * @return true if statements are being logged
+	 */
+	boolean isEnabled() {
+		return thresholdNanos >= 0;
+	}
+
+	/**
+	 * @param nanos the time a statement took
+	 * @return true if the statement should be logged
+	 */
+	boolean isSlow(long nanos) {
+		long threshold = thresholdNanos;
+		return threshold >= 0 && nanos >= threshold;
+	}
+
+	/**
+	 * Write a slow statement to the log.
+	 *
+	 * @param name the kind of statement, as named in TskMetrics
+	 * @param sql the SQL of the statement, or null if it is not known
+	 * @param parameters the values of the parameters of the statement, or null
+	 * if they are not known
+	 * @param nanos the time taken by the statement, including reading its rows
+	 * @param rows the number of rows read or changed
+	 * @param plan the rows of the query plan of the statement
+	 */
+	void log(String name, String sql, List<Object> parameters, long nanos, long rows, List<String> plan) {
+		StringBuilder entry = new StringBuilder();
+		entry.append(name).append(": ").append(TimeUnit.NANOSECONDS.toMillis(nanos)).append(" ms, ") //NON-NLS
+				.append(rows).append(" rows, thread \"").append(Thread.currentThread().getName()).append('"').append(LINE_SEPARATOR); //NON-NLS
+		entry.append("  SQL: ").append(sql != null ? sql : "(unknown)").append(LINE_SEPARATOR); //NON-NLS
+		if (parameters != null && !parameters.isEmpty()) {
+			entry.append("  Parameters: ").append(parameters).append(LINE_SEPARATOR); //NON-NLS
+		}
+		if (!plan.isEmpty()) {
+			entry.append("  Plan:").append(LINE_SEPARATOR); //NON-NLS
+			for (String row : plan) {
+				entry.append("    ").append(row).append(LINE_SEPARATOR);
+			}
+		}
+		synchronized (this) {
+			if (handler != null) {
+				handler.publish(new LogRecord(Level.INFO, entry.toString()));
+			}
+		}
+	}
+
+	/**
+	 * Writes each entry after the time it was logged.
+	 */
+	private static class EntryFormatter extends Formatter {
+
+		private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); //NON-NLS
+
+		@Override
+		public String format(LogRecord record) {
+			return dateFormat.format(new Date(record.getMillis())) + " " + record.getMessage(); //NON-NLS
+		}
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteJDBCLoader;
+
+/**
+ * The SQLite case database file, as made by the native library. SQLite allows
+ * one writer at a time, and the native code of the case uses the file too.
+ */
+final class SqliteCaseDbBackend extends CaseDbBackend {
+
+	private static final Logger logger = Logger.getLogger(SqliteCaseDbBackend.class.getName());
+	private static final int DATABASE_LOCKED_ERROR = 0; // This should be 6 according to documentation, but it has been observed to be 0.
+	private static final int SQLITE_BUSY_ERROR = 5;
+	private final String dbPath;
+	private volatile boolean writeAheadLog; // True if enableConcurrentCommits() put the database in write-ahead log mode.
+
+	/**
+	 * @param dbPath the path of the case database file
+	 * @throws ClassNotFoundException if the SQLite JDBC driver is missing
+	 */
+	SqliteCaseDbBackend(String dbPath) throws ClassNotFoundException {
+		Class.forName("org.sqlite.JDBC"); //NON-NLS
+		this.dbPath = dbPath;
+		logDriverInfo();
+	}
+
+	/**
+	 * Write some SQLite JDBC driver details to the log file.
+	 */
+	private static void logDriverInfo() {
+		try {
+			logger.info(String.format("sqlite-jdbc version %s loaded in %s mode", //NON-NLS
+					SQLiteJDBCLoader.getVersion(), SQLiteJDBCLoader.isNativeMode()
+							? "native" : "pure-java")); //NON-NLS
+		} catch (Exception ex) {
+			logger.log(Level.SEVERE, "Error querying case database mode", ex); //NON-NLS
+		}
+	}
+
+	@Override
+	TskData.DbType getType() {
+		return TskData.DbType.SQLITE;
+	}
+
+	@Override
+	String getName() {
+		return dbPath;
+	}
+
+	@Override
+	Connection openConnection() throws SQLException {
+		SQLiteConfig config = new SQLiteConfig();
+
+		// Reduce I/O operations, we have no OS crash recovery anyway.
+		config.setSynchronous(SQLiteConfig.SynchronousMode.OFF);
+
+		// The original comment for "read_uncommited" indicating that it
+		// was being set to "allow query while in transaction". I don't fully
+		// understand why this is needed since all it does it expose dirty writes
+		// within one transaction to other queries. There was also the suggestion
+		// that it may have helped to increase performance.
+		config.setReadUncommited(true);
+
+		// Enforce foreign key constraints.
+		config.enforceForeignKeys(true);
+
+		return DriverManager.getConnection("jdbc:sqlite:" + dbPath, config.toProperties()); //NON-NLS
+	}
+
+	@Override
+	boolean isBusy(SQLException ex) {
+		return ex.getErrorCode() == SQLITE_BUSY_ERROR || ex.getErrorCode() == DATABASE_LOCKED_ERROR;
+	}
+
+	@Override
+	boolean failedStatementsEndTransactions() {
+		return false;
+	}
+
+	@Override
+	boolean allowsConcurrentWriters() {
+		return false;
+	}
+
+	@Override
+	boolean isShared() {
+		return false;
+	}
+
+	/**
+	 * Put the case database in write-ahead log mode, in which readers do not
+	 * block writers from committing. The mode is kept in the database file,
+	 * so the connections of the native code use it too, and it is turned off
+	 * again by close(). While the case is open, the database is made of the
+	 * database file and its -wal and -shm files. If the database cannot use a
+	 * write-ahead log, e.g. on some network file systems, open result sets
+	 * keep changes from being committed.
+	 *
+	 * @param connection a connection of the case
+	 * @return true if the database is in write-ahead log mode
+	 * @throws SQLException
+	 */
+	@Override
+	boolean enableConcurrentCommits(Connection connection) throws SQLException {
+		Statement statement = connection.createStatement();
+		try {
+			ResultSet resultSet = statement.executeQuery("PRAGMA journal_mode = WAL"); //NON-NLS
+			String journalMode = resultSet.getString(1);
+			writeAheadLog = "wal".equalsIgnoreCase(journalMode); //NON-NLS
+			if (!writeAheadLog) {
+				logger.log(Level.WARNING, "Could not use a write-ahead log for {0}, journal mode is {1}", new Object[]{dbPath, journalMode}); //NON-NLS
+			}
+			return writeAheadLog;
+		} finally {
+			statement.close();
+		}
+	}
+
+	@Override
+	boolean supportsUpsert() {
+		// the SQLite of the driver predates ON CONFLICT DO UPDATE
+		return false;
+	}
+
+	@Override
+	boolean supportsAttributeTextIndex() {
+		return true;
+	}
+
+	@Override
+	String getQueryPlanSql(String sql) {
+		return "EXPLAIN QUERY PLAN " + sql; //NON-NLS
+	}
+
+	@Override
+	String readQueryPlanRow(ResultSet resultSet) throws SQLException {
+		return resultSet.getInt(1) + "|" + resultSet.getInt(2) + "|" + resultSet.getInt(3) + "|" + resultSet.getString(4); //NON-NLS
+	}
+
+	/**
+	 * Put the case database back in the rollback journal mode the native code
+	 * makes it in. This copies the write-ahead log into the database file and
+	 * removes the -wal and -shm files, so the database file can be copied on
+	 * its own and read by older versions of SQLite. If another process or
+	 * case object still has the database open, the mode cannot be changed,
+	 * and the database is left in write-ahead log mode until it is closed by
+	 * the last of them.
+	 */
+	@Override
+	void close() {
+		if (!writeAheadLog) {
+			return;
+		}
+		Connection connection = null;
+		try {
+			connection = openConnection();
+			Statement statement = connection.createStatement();
+			try {
+				ResultSet resultSet = statement.executeQuery("PRAGMA journal_mode = DELETE"); //NON-NLS
+				String journalMode = resultSet.getString(1);
+				if (!"delete".equalsIgnoreCase(journalMode)) { //NON-NLS
+					logger.log(Level.INFO, "Left {0} in journal mode {1}", new Object[]{dbPath, journalMode}); //NON-NLS
+				}
+			} finally {
+				statement.close();
+			}
+		} catch (SQLException ex) {
+			logger.log(Level.INFO, "Could not turn off the write-ahead log of " + dbPath + ", it is still open", ex); //NON-NLS
+		} finally {
+			if (connection != null) {
+				closeConnection(connection);
+			}
+		}
+	}
+}
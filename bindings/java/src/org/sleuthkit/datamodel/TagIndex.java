@@ -0,0 +1,223 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tag names and tags of a case, kept in memory by SleuthkitCase so that
+ * the tag listings and counts do not need a query each. The tags are kept as
+ * rows of ids, and the content and artifacts they refer to are loaded by the
+ * case when the tags are listed.
+ */
+class TagIndex {
+
+	/**
+	 * A row of the content_tags table.
+	 */
+	static class ContentTagRow {
+
+		final long tagId;
+		final long objId;
+		final long tagNameId;
+		final String comment;
+		final long beginByteOffset;
+		final long endByteOffset;
+
+		ContentTagRow(long tagId, long objId, long tagNameId, String comment, long beginByteOffset, long endByteOffset) {
+			this.tagId = tagId;
+			this.objId = objId;
+			this.tagNameId = tagNameId;
+			this.comment = comment;
+			this.beginByteOffset = beginByteOffset;
+			this.endByteOffset = endByteOffset;
+		}
+	}
+
+	/**
+	 * A row of the blackboard_artifact_tags table.
+	 */
+	static class ArtifactTagRow {
+
+		final long tagId;
+		final long artifactId;
+		final long tagNameId;
+		final String comment;
+
+		ArtifactTagRow(long tagId, long artifactId, long tagNameId, String comment) {
+			this.tagId = tagId;
+			this.artifactId = artifactId;
+			this.tagNameId = tagNameId;
+			this.comment = comment;
+		}
+	}
+	private final Map<Long, TagName> tagNames = new LinkedHashMap<Long, TagName>();
+	private final Map<Long, ContentTagRow> contentTags = new LinkedHashMap<Long, ContentTagRow>();
+	private final Map<Long, Set<Long>> contentTagIdsByTagName = new HashMap<Long, Set<Long>>();
+	private final Map<Long, Set<Long>> contentTagIdsByObject = new HashMap<Long, Set<Long>>();
+	private final Map<Long, ArtifactTagRow> artifactTags = new LinkedHashMap<Long, ArtifactTagRow>();
+	private final Map<Long, Set<Long>> artifactTagIdsByTagName = new HashMap<Long, Set<Long>>();
+	private final Map<Long, Set<Long>> artifactTagIdsByArtifact = new HashMap<Long, Set<Long>>();
+
+	synchronized void addTagName(TagName tagName) {
+		tagNames.put(tagName.getId(), tagName);
+	}
+
+	synchronized void addContentTag(ContentTagRow row) {
+		contentTags.put(row.tagId, row);
+		addToSet(contentTagIdsByTagName, row.tagNameId, row.tagId);
+		addToSet(contentTagIdsByObject, row.objId, row.tagId);
+	}
+
+	synchronized void removeContentTag(long tagId) {
+		ContentTagRow row = contentTags.remove(tagId);
+		if (row != null) {
+			removeFromSet(contentTagIdsByTagName, row.tagNameId, tagId);
+			removeFromSet(contentTagIdsByObject, row.objId, tagId);
+		}
+	}
+
+	synchronized void addArtifactTag(ArtifactTagRow row) {
+		artifactTags.put(row.tagId, row);
+		addToSet(artifactTagIdsByTagName, row.tagNameId, row.tagId);
+		addToSet(artifactTagIdsByArtifact, row.artifactId, row.tagId);
+	}
+
+	synchronized void removeArtifactTag(long tagId) {
+		ArtifactTagRow row = artifactTags.remove(tagId);
+		if (row != null) {
+			removeFromSet(artifactTagIdsByTagName, row.tagNameId, tagId);
+			removeFromSet(artifactTagIdsByArtifact, row.artifactId, tagId);
+		}
+	}
+
+	synchronized TagName getTagName(long tagNameId) {
+		return tagNames.get(tagNameId);
+	}
+
+	synchronized List<TagName> getTagNames() {
+		return new ArrayList<TagName>(tagNames.values());
+	}
+
+	/**
+	 * @return the tag names used by at least one content or artifact tag
+	 */
+	synchronized List<TagName> getTagNamesInUse() {
+		List<TagName> inUse = new ArrayList<TagName>();
+		for (TagName tagName : tagNames.values()) {
+			if (contentTagIdsByTagName.containsKey(tagName.getId()) || artifactTagIdsByTagName.containsKey(tagName.getId())) {
+				inUse.add(tagName);
+			}
+		}
+		return inUse;
+	}
+
+	synchronized List<ContentTagRow> getContentTags() {
+		return new ArrayList<ContentTagRow>(contentTags.values());
+	}
+
+	synchronized List<ContentTagRow> getContentTagsByTagName(long tagNameId) {
+		return getRows(contentTags, contentTagIdsByTagName.get(tagNameId));
+	}
+
+	synchronized List<ContentTagRow> getContentTagsByObject(long objId) {
+		return getRows(contentTags, contentTagIdsByObject.get(objId));
+	}
+
+	synchronized int countContentTags(long tagNameId) {
+		Set<Long> tagIds = contentTagIdsByTagName.get(tagNameId);
+		return tagIds != null ? tagIds.size() : 0;
+	}
+
+	/**
+	 * @return the object ids of the content with tags of a tag name
+	 */
+	synchronized Set<Long> getTaggedObjectIds(long tagNameId) {
+		Set<Long> objIds = new LinkedHashSet<Long>();
+		for (ContentTagRow row : getContentTagsByTagName(tagNameId)) {
+			objIds.add(row.objId);
+		}
+		return objIds;
+	}
+
+	synchronized List<ArtifactTagRow> getArtifactTags() {
+		return new ArrayList<ArtifactTagRow>(artifactTags.values());
+	}
+
+	synchronized List<ArtifactTagRow> getArtifactTagsByTagName(long tagNameId) {
+		return getRows(artifactTags, artifactTagIdsByTagName.get(tagNameId));
+	}
+
+	synchronized List<ArtifactTagRow> getArtifactTagsByArtifact(long artifactId) {
+		return getRows(artifactTags, artifactTagIdsByArtifact.get(artifactId));
+	}
+
+	synchronized int countArtifactTags(long tagNameId) {
+		Set<Long> tagIds = artifactTagIdsByTagName.get(tagNameId);
+		return tagIds != null ? tagIds.size() : 0;
+	}
+
+	/**
+	 * @return the ids of the artifacts with tags of a tag name
+	 */
+	synchronized Set<Long> getTaggedArtifactIds(long tagNameId) {
+		Set<Long> artifactIds = new LinkedHashSet<Long>();
+		for (ArtifactTagRow row : getArtifactTagsByTagName(tagNameId)) {
+			artifactIds.add(row.artifactId);
+		}
+		return artifactIds;
+	}
+
+	private static <T> List<T> getRows(Map<Long, T> rows, Set<Long> tagIds) {
+		if (tagIds == null) {
+			return Collections.emptyList();
+		}
+		List<T> result = new ArrayList<T>(tagIds.size());
+		for (Long tagId : tagIds) {
+			result.add(rows.get(tagId));
+		}
+		return result;
+	}
+
+	private static void addToSet(Map<Long, Set<Long>> sets, long key, long tagId) {
+		Set<Long> set = sets.get(key);
+		if (set == null) {
+			set = new LinkedHashSet<Long>();
+			sets.put(key, set);
+		}
+		set.add(tagId);
+	}
+
+	private static void removeFromSet(Map<Long, Set<Long>> sets, long key, long tagId) {
+		Set<Long> set = sets.get(key);
+		if (set != null) {
+			set.remove(tagId);
+			if (set.isEmpty()) {
+				sets.remove(key);
+			}
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/*
+ * Sleuth Kit Data Model
+ * 
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * An event of the timeline of a case: a MAC time of a file or a date-time
+ * attribute of a blackboard artifact, as stored in the tsk_events table. See
+ * SleuthkitCase.visitTimelineEvents().
+ */
+public class TimelineEvent {
+
+	/**
+	 * Types of timeline events. The values match TSK_DB_EVENT_TYPE_ENUM in
+	 * the native code.
+	 */
+	public enum EventType {
+
+		FILE_MODIFIED(1), ///< Modification time of a file
+		FILE_ACCESSED(2), ///< Access time of a file
+		FILE_CHANGED(3), ///< Metadata change time of a file
+		FILE_CREATED(4), ///< Creation time of a file
+		ARTIFACT(5); ///< Date-time attribute of a blackboard artifact
+		private final int value;
+
+		private EventType(int value) {
+			this.value = value;
+		}
+
+		/**
+		 * @return the value stored in the event_type column
+		 */
+		public int getValue() {
+			return value;
+		}
+
+		/**
+		 * Get the event type for a value of the event_type column.
+		 *
+		 * @param value the value
+		 * @return the event type
+		 */
+		public static EventType fromValue(int value) {
+			for (EventType type : EventType.values()) {
+				if (type.value == value) {
+					return type;
+				}
+			}
+			throw new IllegalArgumentException("No EventType with value " + value); //NON-NLS
+		}
+	}
+	private static final Set<BlackboardAttribute.ATTRIBUTE_TYPE> DATE_TIME_ATTRIBUTE_TYPES = EnumSet.of(
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME,
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME_ACCESSED,
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME_CREATED,
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME_MODIFIED,
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME_RCVD,
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME_SENT,
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME_START,
+			BlackboardAttribute.ATTRIBUTE_TYPE.TSK_DATETIME_END);
+	private final long eventId;
+	private final long objId;
+	private final long dataSourceObjId;
+	private final long artifactId;
+	private final EventType eventType;
+	private final int attributeTypeId;
+	private final long time;
+
+	TimelineEvent(long eventId, long objId, long dataSourceObjId, long artifactId, EventType eventType, int attributeTypeId, long time) {
+		this.eventId = eventId;
+		this.objId = objId;
+		this.dataSourceObjId = dataSourceObjId;
+		this.artifactId = artifactId;
+		this.eventType = eventType;
+		this.attributeTypeId = attributeTypeId;
+		this.time = time;
+	}
+
+	/**
+	 * @return the id of the event
+	 */
+	public long getEventId() {
+		return eventId;
+	}
+
+	/**
+	 * @return the object id of the file, or of the content of the artifact
+	 */
+	public long getObjId() {
+		return objId;
+	}
+
+	/**
+	 * @return the object id of the data source of the content
+	 */
+	public long getDataSourceObjId() {
+		return dataSourceObjId;
+	}
+
+	/**
+	 * @return the id of the artifact for ARTIFACT events, 0 otherwise
+	 */
+	public long getArtifactId() {
+		return artifactId;
+	}
+
+	/**
+	 * @return the type of the event
+	 */
+	public EventType getEventType() {
+		return eventType;
+	}
+
+	/**
+	 * @return the attribute type id of the date-time attribute for ARTIFACT
+	 * events, 0 otherwise
+	 */
+	public int getAttributeTypeId() {
+		return attributeTypeId;
+	}
+
+	/**
+	 * @return the time of the event, in seconds since 1970
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Check if attributes of a type hold date-times that are timeline events.
+	 *
+	 * @param attributeTypeId the attribute type id
+	 * @return true for the TSK_DATETIME attribute types
+	 */
+	static boolean isDateTimeAttributeType(int attributeTypeId) {
+		for (BlackboardAttribute.ATTRIBUTE_TYPE type : DATE_TIME_ATTRIBUTE_TYPES) {
+			if (type.getTypeID() == attributeTypeId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Make a comma separated list of the date-time attribute type ids, for SQL.
+	 *
+	 * @return the list
+	 */
+	static String getDateTimeAttributeTypeIdList() {
+		StringBuilder list = new StringBuilder();
+		for (BlackboardAttribute.ATTRIBUTE_TYPE type : DATE_TIME_ATTRIBUTE_TYPES) {
+			list.append(list.length() == 0 ? "" : ", ").append(type.getTypeID());
+		}
+		return list.toString();
+	}
+}
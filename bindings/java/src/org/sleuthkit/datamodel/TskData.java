@@ -695,4 +695,13 @@ public byte getFileKnownValue() {
 			return this.known;
 		}
 	}
+
+
+	/**
+	 * Type of the database system a case database is kept in
+	 */
+	public enum DbType {
+		SQLITE, ///< A SQLite database file, made by the native code
+		POSTGRESQL; ///< A database on a PostgreSQL server, which several users can work on at once
+	}
 }
@@ -0,0 +1,392 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Latency histograms and counters of the case database and the native
+ * library: the time spent waiting for the case database locks, the time and
+ * number of rows of each kind of statement, the number of retries of
+ * statements that found the database busy, and the time and number of bytes
+ * of the reads done through SleuthkitJNI. The numbers are for the whole
+ * process (all open cases).
+ *
+ * Nothing is recorded until setEnabled(true) is called; while disabled the
+ * cost to the instrumented code is a read of a volatile field. The numbers
+ * can be read with getSnapshot() or through JMX once registerMBean() has been
+ * called.
+ */
+public final class TskMetrics {
+
+	/**
+	 * Number of latency histogram buckets. Bucket i counts the latencies
+	 * below 2^i microseconds that are not in a lower bucket, and the last
+	 * bucket counts the rest.
+	 */
+	public static final int HISTOGRAM_BUCKETS = 24;
+	private static final String MBEAN_NAME = "org.sleuthkit.datamodel:type=TskMetrics"; //NON-NLS
+	private static volatile boolean enabled = false;
+	private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+	private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+	private TskMetrics() {
+	}
+
+	/**
+	 * Turn recording on or off. The numbers recorded so far are kept.
+	 *
+	 * @param enable true to record
+	 */
+	public static void setEnabled(boolean enable) {
+		enabled = enable;
+	}
+
+	/**
+	 * @return true if recording is on
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Forget the numbers recorded so far.
+	 */
+	public static void reset() {
+		timers.clear();
+		counters.clear();
+	}
+
+	/**
+	 * Get a copy of the numbers recorded so far.
+	 *
+	 * @return the snapshot
+	 */
+	public static Snapshot getSnapshot() {
+		Map<String, TimerSnapshot> timerSnapshots = new TreeMap<String, TimerSnapshot>();
+		for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+			timerSnapshots.put(entry.getKey(), entry.getValue().snapshot());
+		}
+		Map<String, Long> counterValues = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+			counterValues.put(entry.getKey(), entry.getValue().get());
+		}
+		return new Snapshot(System.currentTimeMillis(), timerSnapshots, counterValues);
+	}
+
+	/**
+	 * Register the TskMetricsMXBean with the platform MBean server, if it is
+	 * not registered yet.
+	 *
+	 * @throws TskCoreException if the MBean cannot be registered
+	 */
+	public static synchronized void registerMBean() throws TskCoreException {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(MBEAN_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(new MetricsMXBeanImpl(), name);
+			}
+		} catch (JMException ex) {
+			throw new TskCoreException("Error registering metrics MBean", ex);
+		}
+	}
+
+	/**
+	 * Start timing something.
+	 *
+	 * @return the start time to pass to record(), or 0 if recording is off
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the time taken by something started with start().
+	 *
+	 * @param name the name of the timer
+	 * @param startNanos the value returned by start()
+	 * @param units the number of rows or bytes handled
+	 */
+	static void record(String name, long startNanos, long units) {
+		if (startNanos == 0 || !enabled) {
+			return;
+		}
+		getTimer(name).add(System.nanoTime() - startNanos, units);
+	}
+
+	/**
+	 * Add rows or bytes to a timer without timing anything.
+	 *
+	 * @param name the name of the timer
+	 * @param units the number of rows or bytes handled
+	 */
+	static void addUnits(String name, long units) {
+		if (enabled) {
+			getTimer(name).units.addAndGet(units);
+		}
+	}
+
+	/**
+	 * Add to a counter.
+	 *
+	 * @param name the name of the counter
+	 * @param amount the amount to add
+	 */
+	static void count(String name, long amount) {
+		if (!enabled) {
+			return;
+		}
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null) {
+				counter = newCounter;
+			}
+		}
+		counter.addAndGet(amount);
+	}
+
+	private static Timer getTimer(String name) {
+		Timer timer = timers.get(name);
+		if (timer == null) {
+			Timer newTimer = new Timer();
+			timer = timers.putIfAbsent(name, newTimer);
+			if (timer == null) {
+				timer = newTimer;
+			}
+		}
+		return timer;
+	}
+
+	/**
+	 * The numbers of one timer.
+	 */
+	private static class Timer {
+
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong units = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+		void add(long nanos, long addedUnits) {
+			count.incrementAndGet();
+			totalNanos.addAndGet(nanos);
+			units.addAndGet(addedUnits);
+			long max = maxNanos.get();
+			while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+				max = maxNanos.get();
+			}
+			long micros = nanos / 1000;
+			int bucket = 0;
+			while (bucket < HISTOGRAM_BUCKETS - 1 && micros >= (1L << bucket)) {
+				bucket++;
+			}
+			histogram.incrementAndGet(bucket);
+		}
+
+		TimerSnapshot snapshot() {
+			long[] buckets = new long[HISTOGRAM_BUCKETS];
+			for (int i = 0; i < HISTOGRAM_BUCKETS; ++i) {
+				buckets[i] = histogram.get(i);
+			}
+			return new TimerSnapshot(count.get(), totalNanos.get(), maxNanos.get(), units.get(), buckets);
+		}
+	}
+
+	/**
+	 * A copy of the numbers of one timer.
+	 */
+	public static class TimerSnapshot {
+
+		private final long count;
+		private final long totalNanos;
+		private final long maxNanos;
+		private final long units;
+		private final long[] histogram;
+
+		TimerSnapshot(long count, long totalNanos, long maxNanos, long units, long[] histogram) {
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.units = units;
+			this.histogram = histogram;
+		}
+
+		/**
+		 * @return the number of times recorded
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the sum of the times recorded, in nanoseconds
+		 */
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		/**
+		 * @return the longest time recorded, in nanoseconds
+		 */
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		/**
+		 * @return the average time recorded, in nanoseconds
+		 */
+		public long getMeanNanos() {
+			return count > 0 ? totalNanos / count : 0;
+		}
+
+		/**
+		 * @return the rows returned or changed by statements, or the bytes
+		 * read by native reads
+		 */
+		public long getUnits() {
+			return units;
+		}
+
+		/**
+		 * @return the latency histogram; see HISTOGRAM_BUCKETS
+		 */
+		public long[] getHistogram() {
+			return histogram.clone();
+		}
+
+		/**
+		 * Estimate a percentile of the times from the histogram.
+		 *
+		 * @param percentile the percentile, from 0 to 100
+		 * @return the upper bound of the histogram bucket of the percentile,
+		 * in microseconds
+		 */
+		public long getPercentileMicros(double percentile) {
+			long total = 0;
+			for (long bucketCount : histogram) {
+				total += bucketCount;
+			}
+			long rank = (long) Math.ceil(total * percentile / 100);
+			long seen = 0;
+			for (int i = 0; i < histogram.length; ++i) {
+				seen += histogram[i];
+				if (seen >= rank && seen > 0) {
+					return 1L << i;
+				}
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * A copy of all of the numbers, see getSnapshot().
+	 */
+	public static class Snapshot {
+
+		private final long time;
+		private final Map<String, TimerSnapshot> timers;
+		private final Map<String, Long> counters;
+
+		Snapshot(long time, Map<String, TimerSnapshot> timers, Map<String, Long> counters) {
+			this.time = time;
+			this.timers = Collections.unmodifiableMap(timers);
+			this.counters = Collections.unmodifiableMap(counters);
+		}
+
+		/**
+		 * @return when the snapshot was taken, in milliseconds since 1970
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		/**
+		 * @return the timers by name, e.g. "lock.exclusive.wait",
+		 * "statement.SELECT_FILE_BY_ID" or "jni.readFile"
+		 */
+		public Map<String, TimerSnapshot> getTimers() {
+			return timers;
+		}
+
+		/**
+		 * @return the counters by name, e.g. "db.busyRetries"
+		 */
+		public Map<String, Long> getCounters() {
+			return counters;
+		}
+	}
+
+	/**
+	 * The JMX interface of the metrics, see registerMBean().
+	 */
+	public interface TskMetricsMXBean {
+
+		boolean isEnabled();
+
+		void setEnabled(boolean enabled);
+
+		Map<String, TimerSnapshot> getTimers();
+
+		Map<String, Long> getCounters();
+
+		void reset();
+	}
+
+	private static class MetricsMXBeanImpl implements TskMetricsMXBean {
+
+		@Override
+		public boolean isEnabled() {
+			return TskMetrics.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean enable) {
+			TskMetrics.setEnabled(enable);
+		}
+
+		@Override
+		public Map<String, TimerSnapshot> getTimers() {
+			return getSnapshot().getTimers();
+		}
+
+		@Override
+		public Map<String, Long> getCounters() {
+			return getSnapshot().getCounters();
+		}
+
+		@Override
+		public void reset() {
+			TskMetrics.reset();
+		}
+	}
+}
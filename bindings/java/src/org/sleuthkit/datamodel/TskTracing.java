@@ -0,0 +1,165 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reports each content read, case database statement and case database lock
+ * wait to the registered listeners, on the thread that did the work. Where
+ * TskMetrics keeps totals, the listeners see the individual events, so that a
+ * profiler or recorder can attribute the time to files and queries. For
+ * example, an application running on a JVM with Flight Recorder can forward
+ * the events to its own jdk.jfr.Event types.
+ *
+ * Nothing is reported while no listener is registered; the cost to the
+ * instrumented code is then a read of a volatile field.
+ */
+public final class TskTracing {
+
+	private static final Logger logger = Logger.getLogger(TskTracing.class.getName());
+	private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private static volatile boolean enabled = false;
+
+	/**
+	 * Receives the events. The methods are called on the thread that did the
+	 * work, right after it was done, and should return quickly.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called after a read of an image, volume system, volume, file system
+		 * or file.
+		 *
+		 * @param objId the object id of the content read
+		 * @param offset the offset of the read in the content
+		 * @param length the number of bytes asked for
+		 * @param bytesRead the number of bytes read, or -1 at the end of the
+		 * content
+		 * @param nanos the time taken by the read
+		 */
+		void contentRead(long objId, long offset, long length, int bytesRead, long nanos);
+
+		/**
+		 * Called after a statement of a case database. The time of a query
+		 * includes reading its rows, and the event is reported when its result
+		 * set is closed.
+		 *
+		 * @param name the kind of statement, as named in TskMetrics, e.g.
+		 * "statement.SELECT_FILE_BY_ID"
+		 * @param nanos the time taken by the statement
+		 * @param rows the number of rows read or changed
+		 */
+		void statementExecuted(String name, long nanos, long rows);
+
+		/**
+		 * Called after a case database lock has been acquired.
+		 *
+		 * @param lock "exclusive" or "shared" for the case lock, or the name
+		 * of the domain, e.g. "blackboard", for the lock taken to change one
+		 * part of the case database
+		 * @param waitNanos the time spent waiting for the lock
+		 */
+		void lockAcquired(String lock, long waitNanos);
+	}
+
+	private TskTracing() {
+	}
+
+	/**
+	 * Register a listener.
+	 *
+	 * @param listener the listener
+	 */
+	public static synchronized void addListener(Listener listener) {
+		listeners.add(listener);
+		enabled = true;
+	}
+
+	/**
+	 * Unregister a listener.
+	 *
+	 * @param listener the listener
+	 */
+	public static synchronized void removeListener(Listener listener) {
+		listeners.remove(listener);
+		enabled = !listeners.isEmpty();
+	}
+
+	/**
+	 * @return true if a listener is registered
+	 */
+	static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Start timing something.
+	 *
+	 * @return the start time to pass to the reporting methods, or 0 if no
+	 * listener is registered
+	 */
+	static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	static void contentRead(Content content, long offset, long length, int bytesRead, long startNanos) {
+		if (startNanos == 0 || !enabled) {
+			return;
+		}
+		long nanos = System.nanoTime() - startNanos;
+		for (Listener listener : listeners) {
+			try {
+				listener.contentRead(content.getId(), offset, length, bytesRead, nanos);
+			} catch (RuntimeException ex) {
+				logger.log(Level.WARNING, "Tracing listener failed", ex); //NON-NLS
+			}
+		}
+	}
+
+	static void statementExecuted(String name, long nanos, long rows) {
+		if (!enabled) {
+			return;
+		}
+		for (Listener listener : listeners) {
+			try {
+				listener.statementExecuted(name, nanos, rows);
+			} catch (RuntimeException ex) {
+				logger.log(Level.WARNING, "Tracing listener failed", ex); //NON-NLS
+			}
+		}
+	}
+
+	static void lockAcquired(String lock, long startNanos) {
+		if (startNanos == 0 || !enabled) {
+			return;
+		}
+		long waitNanos = System.nanoTime() - startNanos;
+		for (Listener listener : listeners) {
+			try {
+				listener.lockAcquired(lock, waitNanos);
+			} catch (RuntimeException ex) {
+				logger.log(Level.WARNING, "Tracing listener failed", ex); //NON-NLS
+			}
+		}
+	}
+}
@@ -62,6 +62,7 @@ protected Volume(SleuthkitCase db, long obj_id, long addr, long startSector, lon
 
 	@Override
 	public int read(byte[] buf, long offset, long len) throws TskCoreException {
+		long start = TskTracing.start();
 		synchronized (this) {
 			Content myParent = getParent();
 			if (!(myParent instanceof VolumeSystem)) {
@@ -74,7 +75,9 @@ public int read(byte[] buf, long offset, long len) throws TskCoreException {
 			}
 
 		}
-		return SleuthkitJNI.readVsPart(volumeHandle, buf, offset, len);
+		int bytesRead = SleuthkitJNI.readVsPart(volumeHandle, buf, offset, len);
+		TskTracing.contentRead(this, offset, len, bytesRead, start);
+		return bytesRead;
 	}
 
 	@Override
@@ -49,12 +49,15 @@ protected VolumeSystem(SleuthkitCase db, long obj_id, String name, long type, lo
 
 	@Override
 	public int read(byte[] readBuffer, long offset, long len) throws TskCoreException {
+		long start = TskTracing.start();
 		synchronized (this) {
 			if (volumeSystemHandle == 0) {
 				getVolumeSystemHandle();
 			}
 		}
-		return SleuthkitJNI.readVs(volumeSystemHandle, readBuffer, offset, len);
+		int bytesRead = SleuthkitJNI.readVs(volumeSystemHandle, readBuffer, offset, len);
+		TskTracing.contentRead(this, offset, len, bytesRead, start);
+		return bytesRead;
 	}
 
 	@Override
@@ -0,0 +1,576 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
+import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
+
+/**
+ * Tests of the case database that do not need an image. Each test gets a new
+ * case with a virtual directory as its data source, and adds local files and
+ * artifacts to it.
+ */
+public class CaseDbTest {
+
+	private static final String MODULE_NAME = "CaseDbTest";
+	private File dbFile;
+	private SleuthkitCase sleuthkitCase;
+	private VirtualDirectory dataSource;
+
+	@Before
+	public void setUp() throws IOException, TskCoreException {
+		dbFile = File.createTempFile("CaseDbTest", ".db");
+		dbFile.delete();
+		sleuthkitCase = SleuthkitCase.newCase(dbFile.getPath());
+		dataSource = sleuthkitCase.addVirtualDirectory(0, "dataSource");
+	}
+
+	@After
+	public void tearDown() {
+		sleuthkitCase.close();
+		for (File file : dbFile.getParentFile().listFiles()) {
+			if (file.getName().startsWith(dbFile.getName())) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Tests the search modes of the full-text index of string attributes.
+	 */
+	@Test
+	public void testAttributeTextSearch() throws TskCoreException {
+		BlackboardArtifact fox = addCommentArtifact(addFile(dataSource, "fox.txt", 0), "The quick brown fox");
+		BlackboardArtifact dog = addCommentArtifact(addFile(dataSource, "dog.txt", 0), "A brown dog, quick to sleep");
+		sleuthkitCase.rebuildAttributeTextIndex();
+
+		assertArtifacts(searchComments("quick brown", SleuthkitCase.AttributeTextSearchMode.PHRASE), fox);
+		assertArtifacts(searchComments("Brown, FOX", SleuthkitCase.AttributeTextSearchMode.PHRASE), fox);
+		assertArtifacts(searchComments("fox brown", SleuthkitCase.AttributeTextSearchMode.PHRASE));
+		assertArtifacts(searchComments("dog", SleuthkitCase.AttributeTextSearchMode.PHRASE), dog);
+		assertArtifacts(searchComments("brown quick", SleuthkitCase.AttributeTextSearchMode.TOKEN), fox, dog);
+		assertArtifacts(searchComments("sle", SleuthkitCase.AttributeTextSearchMode.PREFIX), dog);
+
+		// Attributes added after the index is built are indexed too.
+		BlackboardArtifact cat = addCommentArtifact(addFile(dataSource, "cat.txt", 0), "A quick brown cat");
+		assertArtifacts(searchComments("quick brown", SleuthkitCase.AttributeTextSearchMode.PHRASE), fox, cat);
+	}
+
+	/**
+	 * Tests that visiting the timeline events a page at a time returns every
+	 * event once and in time order when the times are not in the order the
+	 * events were added.
+	 */
+	@Test
+	public void testVisitTimelineEventsPages() throws TskCoreException {
+		final int fileCount = SleuthkitCase.TIMELINE_EVENT_PAGE_SIZE * 2 + 1;
+		for (int i = 0; i < fileCount; ++i) {
+			// Ten events share each time, so pages end in the middle of a time.
+			addFile(dataSource, "file" + i, 1000 + (fileCount - i) / 10);
+		}
+
+		final List<TimelineEvent> events = new ArrayList<TimelineEvent>();
+		sleuthkitCase.visitTimelineEvents(1000, Long.MAX_VALUE, null, null, new SleuthkitCase.TimelineEventVisitor() {
+			@Override
+			public boolean visit(TimelineEvent event) {
+				events.add(event);
+				return true;
+			}
+		});
+		assertEquals(fileCount, events.size());
+		Set<Long> eventIds = new HashSet<Long>();
+		for (int i = 0; i < events.size(); ++i) {
+			assertTrue(eventIds.add(events.get(i).getEventId()));
+			if (i > 0) {
+				TimelineEvent previous = events.get(i - 1);
+				assertTrue(previous.getTime() < events.get(i).getTime()
+						|| (previous.getTime() == events.get(i).getTime() && previous.getEventId() < events.get(i).getEventId()));
+			}
+		}
+		assertEquals(1000, events.get(0).getTime());
+	}
+
+	/**
+	 * Tests that a change is committed while another connection, such as the
+	 * one of the native code, is reading the case database.
+	 */
+	@Test
+	public void testCommitWhileReading() throws Exception {
+		Connection reader = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+		try {
+			ResultSet resultSet = reader.createStatement().executeQuery("SELECT obj_id FROM tsk_objects");
+			assertTrue(resultSet.next());
+
+			final TskCoreException[] error = new TskCoreException[1];
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						addFile(dataSource, "written.txt", 0);
+					} catch (TskCoreException ex) {
+						error[0] = ex;
+					}
+				}
+			};
+			writer.start();
+			writer.join(10000);
+			assertFalse("Commit waited for the reader", writer.isAlive());
+			assertNull(error[0]);
+			resultSet.close();
+		} finally {
+			reader.close();
+		}
+		assertEquals(1, sleuthkitCase.findAllFilesWhere("name = 'written.txt'").size());
+	}
+
+	/**
+	 * Tests that queued writes are not written until they are flushed, and
+	 * that tagging an artifact flushes the write of the artifact first.
+	 */
+	@Test
+	public void testWriteBehind() throws Exception {
+		AbstractFile file = addFile(dataSource, "queued.txt", 0);
+		TagName tagName = sleuthkitCase.addTagName("queued", "", TagName.HTML_COLOR.NONE);
+		sleuthkitCase.startWriteBehind(1000, 60000);
+		try {
+			BlackboardArtifact artifact = addCommentArtifact(file, "queued");
+			sleuthkitCase.setKnown(file, TskData.FileKnown.KNOWN);
+			assertEquals(0, sleuthkitCase.getBlackboardArtifactsTypeCount(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+
+			sleuthkitCase.addBlackboardArtifactTag(artifact, tagName, "");
+			assertEquals(1, sleuthkitCase.getBlackboardArtifactsTypeCount(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+			assertEquals(1, sleuthkitCase.getBlackboardArtifactTagsByArtifact(artifact).size());
+			assertEquals(1, sleuthkitCase.getBlackboardArtifact(artifact.getArtifactID()).getAttributes().size());
+			assertEquals(TskData.FileKnown.KNOWN, sleuthkitCase.getAbstractFileById(file.getId()).getKnown());
+
+			// A date-time attribute looks up the artifact of its timeline 
+			// event, which is still queued, both when the attribute is queued
+			// and when it is added while the queue is being stopped.
+			assertArtifactEvent(file, addQueuedArtifactWithTime(file, 2000, false), 2000);
+			assertArtifactEvent(file, addQueuedArtifactWithTime(file, 3000, true), 3000);
+		} finally {
+			sleuthkitCase.stopWriteBehind();
+		}
+	}
+
+	private BlackboardArtifact addQueuedArtifactWithTime(AbstractFile file, long time, boolean stopQueue) throws Exception {
+		sleuthkitCase.startWriteBehind(1000, 60000);
+		BlackboardArtifact artifact = sleuthkitCase.newBlackboardArtifact(ARTIFACT_TYPE.TSK_GEN_INFO, file.getId());
+		Thread stopper = new Thread() {
+			@Override
+			public void run() {
+				try {
+					sleuthkitCase.stopWriteBehind();
+				} catch (TskCoreException ex) {
+					throw new RuntimeException(ex);
+				}
+			}
+		};
+		if (stopQueue) {
+			stopper.start();
+		}
+		artifact.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_DATETIME.getTypeID(), MODULE_NAME, time));
+		if (stopQueue) {
+			stopper.join();
+		}
+		sleuthkitCase.flushWrites();
+		return artifact;
+	}
+
+	private void assertArtifactEvent(AbstractFile file, final BlackboardArtifact artifact, long time) throws TskCoreException {
+		final List<TimelineEvent> events = new ArrayList<TimelineEvent>();
+		sleuthkitCase.visitTimelineEvents(time, time + 1, null, null, new SleuthkitCase.TimelineEventVisitor() {
+			@Override
+			public boolean visit(TimelineEvent event) {
+				if (event.getArtifactId() == artifact.getArtifactID()) {
+					events.add(event);
+				}
+				return true;
+			}
+		});
+		assertEquals(1, events.size());
+		assertEquals(file.getId(), events.get(0).getObjId());
+	}
+
+	/**
+	 * Tests that the write-ahead log used while the case is open is turned off
+	 * when it is closed, leaving the database in one file.
+	 */
+	@Test
+	public void testWriteAheadLogOffAfterClose() throws Exception {
+		addFile(dataSource, "logged.txt", 0);
+		File walFile = new File(dbFile.getPath() + "-wal");
+		assertEquals("wal", queryJournalMode());
+		assertTrue(walFile.exists());
+
+		sleuthkitCase.close();
+		assertFalse(walFile.exists());
+		assertFalse(new File(dbFile.getPath() + "-shm").exists());
+		assertEquals("delete", queryJournalMode());
+		assertEquals(1, countRows("tsk_files WHERE name = 'logged.txt'"));
+		sleuthkitCase = SleuthkitCase.openCase(dbFile.getPath());
+	}
+
+	private String queryJournalMode() throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+		try {
+			return connection.createStatement().executeQuery("PRAGMA journal_mode").getString(1).toLowerCase();
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Tests that tagging an artifact while holding the exclusive case lock
+	 * fails rather than waiting forever for the writer thread, which needs the
+	 * lock to write the queued writes.
+	 */
+	@Test
+	public void testWriteBehindFlushWithLockFails() throws Exception {
+		AbstractFile file = addFile(dataSource, "queued.txt", 0);
+		final TagName tagName = sleuthkitCase.addTagName("queued", "", TagName.HTML_COLOR.NONE);
+		sleuthkitCase.startWriteBehind(1000, 60000);
+		try {
+			final BlackboardArtifact artifact = addCommentArtifact(file, "queued");
+			final TskCoreException[] error = new TskCoreException[1];
+			Thread tagger = new Thread() {
+				@Override
+				public void run() {
+					sleuthkitCase.acquireExclusiveLock();
+					try {
+						sleuthkitCase.addBlackboardArtifactTag(artifact, tagName, "");
+					} catch (TskCoreException ex) {
+						error[0] = ex;
+					} finally {
+						sleuthkitCase.releaseExclusiveLock();
+					}
+				}
+			};
+			tagger.start();
+			tagger.join(10000);
+			boolean waited = tagger.isAlive();
+			if (waited) {
+				// lets the tagger give up the lock
+				tagger.interrupt();
+				tagger.join();
+			}
+			assertFalse("Tagging waited for the writer thread", waited);
+			assertNotNull(error[0]);
+
+			sleuthkitCase.flushWrites();
+			assertEquals(1, sleuthkitCase.getBlackboardArtifactsTypeCount(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+		} finally {
+			sleuthkitCase.stopWriteBehind();
+		}
+	}
+
+	/**
+	 * Tests counting timeline events in buckets, and that bucket lengths and
+	 * ranges that would make too many buckets are rejected.
+	 */
+	@Test
+	public void testTimelineHistogram() throws TskCoreException {
+		addFile(dataSource, "a.txt", 1000);
+		addFile(dataSource, "b.txt", 1099);
+		addFile(dataSource, "c.txt", 1250);
+		addFile(dataSource, "d.txt", 1400);
+
+		long[] counts = sleuthkitCase.getTimelineHistogram(1000, 1400, 100, null, null);
+		assertEquals("[2, 0, 1, 0]", Arrays.toString(counts));
+		assertEquals(0, sleuthkitCase.getTimelineHistogram(1400, 1000, 100, null, null).length);
+
+		long[][] invalid = {{1000, 1400, 0}, {1000, 1400, -1}, {0, Long.MAX_VALUE, 1},
+			{0, SleuthkitCase.MAX_TIMELINE_HISTOGRAM_BUCKETS + 1, 1}, {Long.MIN_VALUE, Long.MAX_VALUE, 1}};
+		for (long[] args : invalid) {
+			try {
+				sleuthkitCase.getTimelineHistogram(args[0], args[1], args[2], null, null);
+				fail("Expected an IllegalArgumentException for " + Arrays.toString(args));
+			} catch (IllegalArgumentException ex) {
+				// expected
+			}
+		}
+		assertEquals(SleuthkitCase.MAX_TIMELINE_HISTOGRAM_BUCKETS, sleuthkitCase.getTimelineHistogram(0, SleuthkitCase.MAX_TIMELINE_HISTOGRAM_BUCKETS, 1, null, null).length);
+	}
+
+	/**
+	 * Tests artifact queries on string attribute values with quotes, and
+	 * reading the results a page at a time with limits.
+	 */
+	@Test
+	public void testArtifactQuery() throws TskCoreException {
+		BlackboardArtifact quoted = addCommentArtifact(addFile(dataSource, "quoted.txt", 0), "O'Brien's file");
+		List<BlackboardArtifact> expected = new ArrayList<BlackboardArtifact>();
+		expected.add(quoted);
+		for (int i = 0; i < 4; ++i) {
+			expected.add(addCommentArtifact(addFile(dataSource, "file" + i + ".txt", 0), "comment " + i));
+		}
+
+		assertArtifacts(sleuthkitCase.findArtifacts(new ArtifactQuery().attribute(ATTRIBUTE_TYPE.TSK_COMMENT, "O'Brien's file")), quoted);
+		assertEquals(1, sleuthkitCase.countArtifacts(new ArtifactQuery().attribute(ATTRIBUTE_TYPE.TSK_COMMENT, "O'Brien's file")));
+
+		List<BlackboardArtifact> found = new ArrayList<BlackboardArtifact>();
+		List<BlackboardArtifact> page = sleuthkitCase.findArtifacts(new ArtifactQuery().artifactTypes(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()).limit(2));
+		while (!page.isEmpty()) {
+			assertTrue(page.size() <= 2);
+			found.addAll(page);
+			long lastId = page.get(page.size() - 1).getArtifactID();
+			page = sleuthkitCase.findArtifacts(new ArtifactQuery().artifactTypes(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()).after(lastId).limit(2));
+		}
+		assertArtifacts(found, expected.toArray(new BlackboardArtifact[expected.size()]));
+		for (int i = 1; i < found.size(); ++i) {
+			assertTrue(found.get(i - 1).getArtifactID() < found.get(i).getArtifactID());
+		}
+		assertEquals(expected.size(), sleuthkitCase.findArtifacts(new ArtifactQuery().artifactTypes(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID())).size());
+	}
+
+	/**
+	 * Tests file queries by extension, read a page at a time with limits.
+	 */
+	@Test
+	public void testFileQuery() throws TskCoreException {
+		for (int i = 0; i < 5; ++i) {
+			addFile(dataSource, "file" + i + ".TXT", 0);
+			addFile(dataSource, "file" + i + ".doc", 0);
+		}
+
+		FileQuery query = new FileQuery().extension("txt");
+		assertEquals(5, sleuthkitCase.countFiles(query));
+		Set<Long> found = new HashSet<Long>();
+		List<AbstractFile> page = sleuthkitCase.findFiles(new FileQuery().extension("txt").limit(3));
+		while (!page.isEmpty()) {
+			assertTrue(page.size() <= 3);
+			for (AbstractFile file : page) {
+				assertTrue(file.getName().endsWith(".TXT"));
+				assertTrue(found.add(file.getId()));
+			}
+			page = sleuthkitCase.findFiles(new FileQuery().extension("txt").after(page.get(page.size() - 1).getId()).limit(3));
+		}
+		assertEquals(5, found.size());
+		assertEquals(5, sleuthkitCase.findFiles(query).size());
+	}
+
+	/**
+	 * Tests the grouped file and artifact statistics against counts made with
+	 * direct queries of the case database.
+	 */
+	@Test
+	public void testStatistics() throws TskCoreException, SQLException {
+		String[] names = {"a.TXT", "b.txt", "c.doc", "archive.tar.gz", "noext"};
+		long[] sizes = {10, 2000, 5000000, 0, 1024};
+		List<AbstractFile> files = new ArrayList<AbstractFile>();
+		for (int i = 0; i < names.length; ++i) {
+			files.add(sleuthkitCase.addLocalFile(names[i], new File(dbFile.getParentFile(), names[i]).getPath(), sizes[i], 0, 0, 0, 0, true, dataSource));
+		}
+		VirtualDirectory otherDataSource = sleuthkitCase.addVirtualDirectory(0, "otherDataSource");
+		addFile(otherDataSource, "d.txt", 0);
+		addFile(otherDataSource, "e.doc", 0);
+		sleuthkitCase.setKnown(files.get(1), TskData.FileKnown.BAD);
+		addCommentArtifact(files.get(0), "first");
+		addCommentArtifact(files.get(1), "second");
+		sleuthkitCase.newBlackboardArtifact(ARTIFACT_TYPE.TSK_KEYWORD_HIT, files.get(1).getId());
+
+		Map<String, Long> extensions = sleuthkitCase.countFilesByExtension(null);
+		assertEquals(Long.valueOf(3), extensions.get("txt"));
+		assertEquals(Long.valueOf(2), extensions.get("doc"));
+		assertEquals(Long.valueOf(1), extensions.get("gz"));
+		assertEquals(Long.valueOf(countRows("tsk_files WHERE name NOT LIKE '%.%'")), extensions.get(""));
+		assertEquals(countRows("tsk_files"), sum(extensions.values()));
+		assertEquals(Collections.singletonMap("txt", 2L), sleuthkitCase.countFilesByExtension(new FileQuery().extension("txt").sizeRange(1, Long.MAX_VALUE)));
+
+		SortedMap<Long, Long> sizeCounts = sleuthkitCase.countFilesBySize(null, new long[]{1024, 1048576});
+		assertEquals(Long.valueOf(countRows("tsk_files WHERE size < 1024 OR size IS NULL")), sizeCounts.get(0L));
+		assertEquals(Long.valueOf(2), sizeCounts.get(1024L));
+		assertEquals(Long.valueOf(1), sizeCounts.get(1048576L));
+		assertEquals(Collections.singletonMap(1024L, 2L), sleuthkitCase.countFilesBySize(new FileQuery().sizeRange(1024, 1048575), new long[]{1024, 1048576}));
+
+		Map<TskData.FileKnown, Long> known = sleuthkitCase.countFilesByKnown(null);
+		assertEquals(Long.valueOf(1), known.get(TskData.FileKnown.BAD));
+		assertEquals(countRows("tsk_files"), sum(known.values()));
+
+		Map<TskData.TSK_FS_META_TYPE_ENUM, Long> metaTypes = sleuthkitCase.countFilesByMetaType(null);
+		assertEquals(Long.valueOf(countRows("tsk_files WHERE meta_type = " + TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_REG.getValue())),
+				metaTypes.get(TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_REG));
+		assertEquals(countRows("tsk_files"), sum(metaTypes.values()));
+
+		Map<Long, Long> dataSources = sleuthkitCase.countFilesByDataSource(null);
+		assertEquals(Long.valueOf(countRows("tsk_objects WHERE par_obj_id = " + dataSource.getId())), dataSources.get(dataSource.getId()));
+		assertEquals(Long.valueOf(2), dataSources.get(otherDataSource.getId()));
+
+		Map<Integer, Long> artifactTypes = sleuthkitCase.countArtifactsByType(null);
+		assertEquals(Long.valueOf(countRows("blackboard_artifacts WHERE artifact_type_id = " + ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID())),
+				artifactTypes.get(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+		assertEquals(Long.valueOf(1), artifactTypes.get(ARTIFACT_TYPE.TSK_KEYWORD_HIT.getTypeID()));
+		assertEquals(countRows("blackboard_artifacts"), sum(artifactTypes.values()));
+		Map<Integer, Long> artifactsOfFile = sleuthkitCase.countArtifactsByType(new ArtifactQuery().content(files.get(1).getId()));
+		assertEquals(2, artifactsOfFile.size());
+		assertEquals(Long.valueOf(1), artifactsOfFile.get(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+	}
+
+	private Set<Long> queryIds(String query) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+		try {
+			ResultSet resultSet = connection.createStatement().executeQuery(query);
+			Set<Long> ids = new HashSet<Long>();
+			while (resultSet.next()) {
+				ids.add(resultSet.getLong(1));
+			}
+			return ids;
+		} finally {
+			connection.close();
+		}
+	}
+
+	private long countRows(String tableAndConditions) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbFile.getPath());
+		try {
+			ResultSet resultSet = connection.createStatement().executeQuery("SELECT COUNT(*) FROM " + tableAndConditions);
+			return resultSet.getLong(1);
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static long sum(Collection<Long> counts) {
+		long total = 0;
+		for (long count : counts) {
+			total += count;
+		}
+		return total;
+	}
+
+	/**
+	 * Tests that the tags listed and counted by the tag index match the tag
+	 * tables after tags are added and deleted in bulk, both in the case that
+	 * made the changes and in a case opened afterwards.
+	 */
+	@Test
+	public void testBulkTags() throws TskCoreException, SQLException {
+		List<AbstractFile> files = new ArrayList<AbstractFile>();
+		List<BlackboardArtifact> artifacts = new ArrayList<BlackboardArtifact>();
+		for (int i = 0; i < 6; ++i) {
+			AbstractFile file = addFile(dataSource, "tagged" + i + ".txt", 0);
+			files.add(file);
+			artifacts.add(addCommentArtifact(file, "comment " + i));
+		}
+		TagName bulk = sleuthkitCase.addTagName("Bulk", "", TagName.HTML_COLOR.NONE);
+		TagName other = sleuthkitCase.addTagName("Other", "", TagName.HTML_COLOR.NONE);
+		TagName unused = sleuthkitCase.addTagName("Unused", "", TagName.HTML_COLOR.NONE);
+
+		List<ContentTag> contentTags = sleuthkitCase.addContentTags(files, bulk, "bulk");
+		assertEquals(files.size(), contentTags.size());
+		sleuthkitCase.addContentTag(files.get(0), other, "other", 0, 0);
+		List<BlackboardArtifactTag> artifactTags = sleuthkitCase.addBlackboardArtifactTags(artifacts, bulk, "bulk");
+		assertEquals(artifacts.size(), artifactTags.size());
+		sleuthkitCase.addBlackboardArtifactTag(artifacts.get(5), other, "other");
+
+		sleuthkitCase.deleteContentTags(contentTags.subList(0, 3));
+		sleuthkitCase.deleteBlackboardArtifactTags(artifactTags.subList(2, 6));
+		assertTagIndex(files.get(0), artifacts.get(5), bulk, other, unused);
+
+		sleuthkitCase.close();
+		sleuthkitCase = SleuthkitCase.openCase(dbFile.getPath());
+		assertTagIndex(files.get(0), artifacts.get(5), bulk, other, unused);
+	}
+
+	private void assertTagIndex(AbstractFile file, BlackboardArtifact artifact, TagName... tagNames) throws TskCoreException, SQLException {
+		Set<Long> namesInUse = new HashSet<Long>();
+		for (TagName tagName : sleuthkitCase.getTagNamesInUse()) {
+			namesInUse.add(tagName.getId());
+		}
+		assertEquals(queryIds("SELECT tag_name_id FROM content_tags UNION SELECT tag_name_id FROM blackboard_artifact_tags"), namesInUse);
+		assertEquals(queryIds("SELECT tag_name_id FROM tag_names").size(), sleuthkitCase.getAllTagNames().size());
+
+		for (TagName tagName : tagNames) {
+			Set<Long> taggedContent = queryIds("SELECT obj_id FROM content_tags WHERE tag_name_id = " + tagName.getId());
+			assertEquals(taggedContent, sleuthkitCase.getTaggedContentIds(tagName));
+			assertEquals(taggedContent.size(), sleuthkitCase.getContentTagsCountByTagName(tagName));
+			Set<Long> contentTagIds = new HashSet<Long>();
+			for (ContentTag tag : sleuthkitCase.getContentTagsByTagName(tagName)) {
+				assertEquals(tagName.getId(), tag.getName().getId());
+				contentTagIds.add(tag.getId());
+			}
+			assertEquals(queryIds("SELECT tag_id FROM content_tags WHERE tag_name_id = " + tagName.getId()), contentTagIds);
+
+			Set<Long> taggedArtifacts = queryIds("SELECT artifact_id FROM blackboard_artifact_tags WHERE tag_name_id = " + tagName.getId());
+			assertEquals(taggedArtifacts, sleuthkitCase.getTaggedArtifactIds(tagName));
+			assertEquals(taggedArtifacts.size(), sleuthkitCase.getBlackboardArtifactTagsCountByTagName(tagName));
+			Set<Long> artifactTagIds = new HashSet<Long>();
+			for (BlackboardArtifactTag tag : sleuthkitCase.getBlackboardArtifactTagsByTagName(tagName)) {
+				assertEquals(tagName.getId(), tag.getName().getId());
+				artifactTagIds.add(tag.getId());
+			}
+			assertEquals(queryIds("SELECT tag_id FROM blackboard_artifact_tags WHERE tag_name_id = " + tagName.getId()), artifactTagIds);
+		}
+
+		Set<Long> tagsOfFile = new HashSet<Long>();
+		for (ContentTag tag : sleuthkitCase.getContentTagsByContent(file)) {
+			tagsOfFile.add(tag.getId());
+		}
+		assertEquals(queryIds("SELECT tag_id FROM content_tags WHERE obj_id = " + file.getId()), tagsOfFile);
+		Set<Long> tagsOfArtifact = new HashSet<Long>();
+		for (BlackboardArtifactTag tag : sleuthkitCase.getBlackboardArtifactTagsByArtifact(artifact)) {
+			tagsOfArtifact.add(tag.getId());
+		}
+		assertEquals(queryIds("SELECT tag_id FROM blackboard_artifact_tags WHERE artifact_id = " + artifact.getArtifactID()), tagsOfArtifact);
+	}
+
+	private AbstractFile addFile(AbstractFile parent, String name, long mtime) throws TskCoreException {
+		return sleuthkitCase.addLocalFile(name, new File(dbFile.getParentFile(), name).getPath(), 0, 0, 0, 0, mtime, true, parent);
+	}
+
+	private BlackboardArtifact addCommentArtifact(AbstractFile file, String comment) throws TskCoreException {
+		BlackboardArtifact artifact = sleuthkitCase.newBlackboardArtifact(ARTIFACT_TYPE.TSK_GEN_INFO, file.getId());
+		artifact.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID(), MODULE_NAME, comment));
+		return artifact;
+	}
+
+	private List<BlackboardArtifact> searchComments(String text, SleuthkitCase.AttributeTextSearchMode mode) throws TskCoreException {
+		return sleuthkitCase.searchBlackboardArtifacts(ATTRIBUTE_TYPE.TSK_COMMENT, text, mode);
+	}
+
+	private static void assertArtifacts(List<BlackboardArtifact> found, BlackboardArtifact... expected) {
+		assertEquals(expected.length, found.size());
+		for (BlackboardArtifact artifact : expected) {
+			boolean present = false;
+			for (BlackboardArtifact foundArtifact : found) {
+				present |= foundArtifact.getArtifactID() == artifact.getArtifactID();
+			}
+			assertTrue("Artifact " + artifact.getArtifactID() + " not found", present);
+		}
+	}
+}
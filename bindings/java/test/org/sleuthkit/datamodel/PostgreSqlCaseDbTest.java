@@ -0,0 +1,305 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.sleuthkit.datamodel.BlackboardArtifact.ARTIFACT_TYPE;
+import org.sleuthkit.datamodel.BlackboardAttribute.ATTRIBUTE_TYPE;
+
+/**
+ * Tests of case databases on a PostgreSQL server. The tests are skipped unless
+ * the server is given with the system properties postgresql.host and, if they
+ * are not the defaults, postgresql.port, postgresql.user and
+ * postgresql.password. The user must be allowed to create databases. Each
+ * test gets a new case database, which is dropped afterwards.
+ */
+public class PostgreSqlCaseDbTest {
+
+	private static final String MODULE_NAME = "PostgreSqlCaseDbTest";
+	private CaseDbConnectionInfo info;
+	private String databaseName;
+	private File caseDir;
+	private final List<SleuthkitCase> cases = new ArrayList<SleuthkitCase>();
+
+	@Before
+	public void setUp() throws Exception {
+		String host = System.getProperty("postgresql.host");
+		Assume.assumeNotNull(host);
+		info = new CaseDbConnectionInfo(host, Integer.getInteger("postgresql.port", 5432),
+				System.getProperty("postgresql.user", "postgres"), System.getProperty("postgresql.password", ""));
+		databaseName = "casedbtest_" + System.nanoTime();
+		caseDir = File.createTempFile("PostgreSqlCaseDbTest", "");
+		caseDir.delete();
+		caseDir.mkdir();
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		if (info == null) {
+			return;
+		}
+		for (SleuthkitCase sleuthkitCase : cases) {
+			sleuthkitCase.close();
+		}
+		caseDir.delete();
+		Connection connection = DriverManager.getConnection("jdbc:postgresql://" + info.getHost() + ":" + info.getPort() + "/postgres", info.getUserName(), info.getPassword());
+		try {
+			connection.createStatement().executeUpdate("DROP DATABASE IF EXISTS " + databaseName);
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Tests adding files, artifacts and tags to a new case database and
+	 * finding them again, in the case that added them and in a case opened
+	 * afterwards.
+	 */
+	@Test
+	public void testNewCase() throws TskCoreException {
+		SleuthkitCase sleuthkitCase = newCase();
+		assertEquals(TskData.DbType.POSTGRESQL, sleuthkitCase.getDatabaseType());
+		VirtualDirectory dataSource = sleuthkitCase.addVirtualDirectory(0, "dataSource");
+		AbstractFile quoted = addFile(sleuthkitCase, dataSource, "O'Brien.TXT", 1000);
+		AbstractFile doc = addFile(sleuthkitCase, dataSource, "report.doc", 1250);
+		BlackboardArtifact comment = addCommentArtifact(sleuthkitCase, quoted, "O'Brien's file");
+		addCommentArtifact(sleuthkitCase, doc, "a report");
+		TagName tagName = sleuthkitCase.addTagName("Notable", "", TagName.HTML_COLOR.NONE);
+		ContentTag contentTag = sleuthkitCase.addContentTag(quoted, tagName, "tagged", 0, 0);
+		sleuthkitCase.addBlackboardArtifactTag(comment, tagName, "tagged");
+		int artifactTypeId = sleuthkitCase.addArtifactType("TSK_TEST_ARTIFACT", "Test artifact");
+		int attributeTypeId = sleuthkitCase.addAttrType("TSK_TEST_ATTRIBUTE", "Test attribute");
+		assertEquals(artifactTypeId, sleuthkitCase.addArtifactType("TSK_TEST_ARTIFACT", "Test artifact"));
+		assertEquals(artifactTypeId, sleuthkitCase.getArtifactTypeID("TSK_TEST_ARTIFACT"));
+		assertEquals(attributeTypeId, sleuthkitCase.getAttrTypeID("TSK_TEST_ATTRIBUTE"));
+		BlackboardArtifact values = sleuthkitCase.newBlackboardArtifact(artifactTypeId, doc.getId());
+		values.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_COUNT.getTypeID(), MODULE_NAME, 42));
+		values.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_DATETIME.getTypeID(), MODULE_NAME, 1234567890123L));
+		values.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_GEO_LATITUDE.getTypeID(), MODULE_NAME, 12.5));
+		values.addAttribute(new BlackboardAttribute(attributeTypeId, MODULE_NAME, new byte[]{0, 1, (byte) 255}));
+
+		sleuthkitCase.close();
+		cases.remove(sleuthkitCase);
+		sleuthkitCase = openCase();
+		assertEquals(quoted.getName(), sleuthkitCase.getAbstractFileById(quoted.getId()).getName());
+		assertEquals(1, sleuthkitCase.countFilesWhere("name_lower = 'o''brien.txt'"));
+		assertEquals(1, sleuthkitCase.countFiles(new FileQuery().extension("txt")));
+		assertEquals(Collections.singletonList(doc.getId()), getIds(sleuthkitCase.findFiles(new FileQuery().extension("doc"))));
+		assertEquals(Long.valueOf(1), sleuthkitCase.countFilesByExtension(null).get("doc"));
+		assertEquals("[1, 0, 1]", Arrays.toString(sleuthkitCase.getTimelineHistogram(1000, 1300, 100, null, null)));
+
+		List<BlackboardArtifact> found = sleuthkitCase.findArtifacts(new ArtifactQuery().attribute(ATTRIBUTE_TYPE.TSK_COMMENT, "O'Brien's file"));
+		assertEquals(1, found.size());
+		assertEquals(comment.getArtifactID(), found.get(0).getArtifactID());
+		assertEquals(2, sleuthkitCase.getBlackboardArtifactsTypeCount(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+		assertEquals(3, sleuthkitCase.getDataSourceArtifactsCount(dataSource.getId()));
+		assertEquals(1, sleuthkitCase.getBlackboardArtifactsCount(artifactTypeId, doc.getId()));
+		assertTrue(sleuthkitCase.checkArtifactCounts());
+		List<BlackboardAttribute> attributes = sleuthkitCase.getBlackboardArtifact(values.getArtifactID()).getAttributes();
+		assertEquals(4, attributes.size());
+		for (BlackboardAttribute attribute : attributes) {
+			switch (attribute.getValueType()) {
+				case INTEGER:
+					assertEquals(42, attribute.getValueInt());
+					break;
+				case LONG:
+					assertEquals(1234567890123L, attribute.getValueLong());
+					break;
+				case DOUBLE:
+					assertEquals(12.5, attribute.getValueDouble(), 0);
+					break;
+				case BYTE:
+					assertArrayEquals(new byte[]{0, 1, (byte) 255}, attribute.getValueBytes());
+					break;
+				default:
+					fail("Unexpected attribute " + attribute);
+			}
+		}
+
+		assertEquals(Collections.singleton(quoted.getId()), sleuthkitCase.getTaggedContentIds(tagName));
+		assertEquals(Collections.singleton(comment.getArtifactID()), sleuthkitCase.getTaggedArtifactIds(tagName));
+		sleuthkitCase.deleteContentTag(contentTag);
+		assertTrue(sleuthkitCase.getTaggedContentIds(tagName).isEmpty());
+	}
+
+	/**
+	 * Tests that two cases with the same case database open add artifacts at
+	 * the same time without taking the same ids, and see each other's
+	 * artifacts and tags.
+	 */
+	@Test
+	public void testConcurrentCases() throws Exception {
+		final SleuthkitCase first = newCase();
+		final SleuthkitCase second = openCase();
+		VirtualDirectory dataSource = first.addVirtualDirectory(0, "dataSource");
+		final AbstractFile file = addFile(first, dataSource, "shared.txt", 0);
+		final int threadsPerCase = 4;
+		final int artifactsPerThread = 50;
+
+		final Set<Long> ids = Collections.synchronizedSet(new HashSet<Long>());
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final SleuthkitCase sleuthkitCase : new SleuthkitCase[]{first, second}) {
+			for (int i = 0; i < threadsPerCase; ++i) {
+				threads.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (int j = 0; j < artifactsPerThread; j += 2) {
+								ids.add(sleuthkitCase.newBlackboardArtifact(ARTIFACT_TYPE.TSK_GEN_INFO, file.getId()).getArtifactID());
+								for (BlackboardArtifact artifact : sleuthkitCase.newBlackboardArtifacts(ARTIFACT_TYPE.TSK_GEN_INFO, new long[]{file.getId()})) {
+									ids.add(artifact.getArtifactID());
+								}
+							}
+						} catch (Throwable ex) {
+							errors.add(ex);
+						}
+					}
+				}));
+			}
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(Collections.emptyList(), errors);
+
+		long total = 2 * threadsPerCase * artifactsPerThread;
+		assertEquals(total, ids.size());
+		assertEquals(total, first.getBlackboardArtifactsTypeCount(ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+		assertEquals(total, second.getBlackboardArtifactsCount(ARTIFACT_TYPE.TSK_GEN_INFO, file.getId()));
+		assertTrue(second.checkArtifactCounts());
+
+		TagName tagName = first.addTagName("Shared", "", TagName.HTML_COLOR.NONE);
+		first.addContentTag(file, tagName, "", 0, 0);
+		assertEquals(Collections.singleton(file.getId()), second.getTaggedContentIds(getTagName(second, "Shared")));
+	}
+
+	/**
+	 * Tests that the connections of threads that have ended are used again,
+	 * so that more threads than the maximum number of connections can use a
+	 * case one after another.
+	 */
+	@Test
+	public void testConnectionsOfEndedThreads() throws Exception {
+		info = new CaseDbConnectionInfo(info.getHost(), info.getPort(), info.getUserName(), info.getPassword(), 2);
+		final SleuthkitCase sleuthkitCase = newCase();
+		final VirtualDirectory dataSource = sleuthkitCase.addVirtualDirectory(0, "dataSource");
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		for (int i = 0; i < 5; ++i) {
+			final String name = "file" + i;
+			Thread thread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						addFile(sleuthkitCase, dataSource, name, 0);
+					} catch (Throwable ex) {
+						errors.add(ex);
+					}
+				}
+			});
+			thread.start();
+			thread.join();
+		}
+		assertEquals(Collections.emptyList(), errors);
+		assertEquals(5, sleuthkitCase.countFilesWhere("type = " + TskData.TSK_DB_FILES_TYPE_ENUM.LOCAL.getFileType()));
+	}
+
+	/**
+	 * Tests that what only SQLite case databases can do fails cleanly.
+	 */
+	@Test
+	public void testSqliteOnlyOperations() throws Exception {
+		SleuthkitCase sleuthkitCase = newCase();
+		try {
+			sleuthkitCase.makeAddImageProcess("UTC", true, false);
+			fail("Expected an UnsupportedOperationException");
+		} catch (UnsupportedOperationException ex) {
+			// expected
+		}
+		try {
+			sleuthkitCase.backupCaseDB(new File(caseDir, "backup.db").getPath(), 1024, 0, null);
+			fail("Expected a TskCoreException");
+		} catch (TskCoreException ex) {
+			// expected
+		}
+		try {
+			sleuthkitCase.rebuildAttributeTextIndex();
+			fail("Expected a TskCoreException");
+		} catch (TskCoreException ex) {
+			// expected
+		}
+		assertFalse(sleuthkitCase.isAttributeTextIndexBuilt());
+	}
+
+	private SleuthkitCase newCase() throws TskCoreException {
+		SleuthkitCase sleuthkitCase = SleuthkitCase.newCase(databaseName, info, caseDir.getPath());
+		cases.add(sleuthkitCase);
+		return sleuthkitCase;
+	}
+
+	private SleuthkitCase openCase() throws TskCoreException {
+		SleuthkitCase sleuthkitCase = SleuthkitCase.openCase(databaseName, info, caseDir.getPath());
+		cases.add(sleuthkitCase);
+		return sleuthkitCase;
+	}
+
+	private AbstractFile addFile(SleuthkitCase sleuthkitCase, AbstractFile parent, String name, long mtime) throws TskCoreException {
+		return sleuthkitCase.addLocalFile(name, new File(caseDir, name).getPath(), 0, 0, 0, 0, mtime, true, parent);
+	}
+
+	private static BlackboardArtifact addCommentArtifact(SleuthkitCase sleuthkitCase, AbstractFile file, String comment) throws TskCoreException {
+		BlackboardArtifact artifact = sleuthkitCase.newBlackboardArtifact(ARTIFACT_TYPE.TSK_GEN_INFO, file.getId());
+		artifact.addAttribute(new BlackboardAttribute(ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID(), MODULE_NAME, comment));
+		return artifact;
+	}
+
+	private static TagName getTagName(SleuthkitCase sleuthkitCase, String displayName) throws TskCoreException {
+		for (TagName tagName : sleuthkitCase.getAllTagNames()) {
+			if (tagName.getDisplayName().equals(displayName)) {
+				return tagName;
+			}
+		}
+		throw new AssertionError("No tag name " + displayName);
+	}
+
+	private static List<Long> getIds(List<AbstractFile> files) {
+		List<Long> ids = new ArrayList<Long>();
+		for (AbstractFile file : files) {
+			ids.add(file.getId());
+		}
+		return ids;
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Sleuth Kit Data Model
+ *
+ * Copyright 2014 Basis Technology Corp.
+ * Contact: carrier <at> sleuthkit <dot> org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sleuthkit.datamodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the upgrade of an old case database to the current schema. The case
+ * database is made with JDBC in the version 2 schema, with more files,
+ * artifacts and attributes than one batch of the batched upgrade steps, so
+ * that each batched step has to run more than one batch.
+ */
+public class SchemaUpgradeTest {
+
+	private static final int FILE_COUNT = SleuthkitCase.SCHEMA_UPGRADE_BATCH_SIZE + 1;
+	private static final long IMAGE_ID = 1;
+	private static final long FILE_SYSTEM_ID = 2;
+	private static final int DIRECTORY_DEPTH = 3; // Number of directories between the root directory and the files.
+	private File dbFile;
+
+	@Before
+	public void setUp() throws IOException, ClassNotFoundException, SQLException {
+		dbFile = File.createTempFile("SchemaUpgradeTest", ".db");
+		dbFile.delete();
+		createSchema2CaseDb(dbFile.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : dbFile.getParentFile().listFiles()) {
+			if (file.getName().startsWith(dbFile.getName())) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Tests that the batched steps run until all the rows are changed.
+	 */
+	@Test
+	public void testBatchedStepsChangeAllRows() throws TskCoreException, SQLException {
+		SleuthkitCase sleuthkitCase = SleuthkitCase.openCase(dbFile.getPath());
+		try {
+			assertEquals(queryLong(dbFile.getPath(), "SELECT schema_ver FROM tsk_db_info"), sleuthkitCase.getSchemaVersion());
+		} finally {
+			sleuthkitCase.close();
+		}
+		assertEquals(0, queryLong(dbFile.getPath(), "SELECT COUNT(*) FROM blackboard_attributes WHERE artifact_type_id = -1"));
+		assertEquals(FILE_COUNT, queryLong(dbFile.getPath(), "SELECT COUNT(*) FROM blackboard_attributes WHERE artifact_type_id = "
+				+ BlackboardArtifact.ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+	}
+
+	/**
+	 * Tests that the lower case name column used by the file name searches is
+	 * filled for all the files.
+	 */
+	@Test
+	public void testLowerCaseNamesFilled() throws TskCoreException, SQLException {
+		SleuthkitCase.openCase(dbFile.getPath()).close();
+		assertEquals(0, queryLong(dbFile.getPath(), "SELECT COUNT(*) FROM tsk_files WHERE name_lower IS NULL"));
+		assertEquals(FILE_COUNT, queryLong(dbFile.getPath(), "SELECT COUNT(*) FROM tsk_files WHERE name_lower LIKE 'file%.txt' AND name_lower = LOWER(name)"));
+	}
+
+	/**
+	 * Tests that the files below the directories get timeline events with the
+	 * image as their data source.
+	 */
+	@Test
+	public void testTimelineEventsOfDeepFiles() throws TskCoreException, SQLException {
+		SleuthkitCase.openCase(dbFile.getPath()).close();
+		String fileEvents = "SELECT COUNT(*) FROM tsk_events WHERE event_type = " + TimelineEvent.EventType.FILE_MODIFIED.getValue();
+		assertEquals(FILE_COUNT, queryLong(dbFile.getPath(), fileEvents));
+		assertEquals(FILE_COUNT, queryLong(dbFile.getPath(), fileEvents + " AND data_source_obj_id = " + IMAGE_ID));
+		assertEquals(1, queryLong(dbFile.getPath(), fileEvents + " AND time = " + (1000000 + FILE_COUNT - 1)));
+	}
+
+	/**
+	 * Tests that rebuildArtifactCounts() finds the data sources of the
+	 * artifacts of all the batches.
+	 */
+	@Test
+	public void testArtifactCounts() throws TskCoreException, SQLException {
+		SleuthkitCase.openCase(dbFile.getPath()).close();
+		execute(dbFile.getPath(), "DELETE FROM blackboard_artifact_counts WHERE scope <> 0");
+		SleuthkitCase sleuthkitCase = SleuthkitCase.openCase(dbFile.getPath());
+		try {
+			assertFalse(sleuthkitCase.checkArtifactCounts());
+			sleuthkitCase.rebuildArtifactCounts();
+			assertTrue(sleuthkitCase.checkArtifactCounts());
+			assertEquals(FILE_COUNT, sleuthkitCase.getDataSourceArtifactsCount(IMAGE_ID));
+		} finally {
+			sleuthkitCase.close();
+		}
+	}
+
+	/**
+	 * Tests that the artifact counts made by the upgrade count the artifacts
+	 * of all the batches.
+	 */
+	@Test
+	public void testArtifactCountsUpgraded() throws TskCoreException {
+		SleuthkitCase sleuthkitCase = SleuthkitCase.openCase(dbFile.getPath());
+		try {
+			assertTrue(sleuthkitCase.checkArtifactCounts());
+			assertEquals(FILE_COUNT, sleuthkitCase.getDataSourceArtifactsCount(IMAGE_ID));
+			assertEquals(FILE_COUNT, sleuthkitCase.getBlackboardArtifactsTypeCount(BlackboardArtifact.ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID()));
+		} finally {
+			sleuthkitCase.close();
+		}
+	}
+
+	/**
+	 * Tests that the backup made before the upgrade is the database as it was
+	 * before the upgrade.
+	 */
+	@Test
+	public void testBackupIsNotUpgraded() throws TskCoreException, SQLException {
+		SleuthkitCase sleuthkitCase = SleuthkitCase.openCase(dbFile.getPath());
+		String backupPath;
+		try {
+			backupPath = sleuthkitCase.getBackupDatabasePath();
+		} finally {
+			sleuthkitCase.close();
+		}
+		assertNotNull(backupPath);
+		assertEquals(2, queryLong(backupPath, "SELECT schema_ver FROM tsk_db_info"));
+		assertEquals(0, queryLong(backupPath, "SELECT COUNT(*) FROM sqlite_master WHERE name = 'tsk_schema_upgrade_steps'"));
+	}
+
+	/**
+	 * Make a version 2 case database with an image, a file system, a chain of
+	 * directories and FILE_COUNT files in the last directory, each with an
+	 * artifact with a comment attribute and a modified time.
+	 *
+	 * @param dbPath path of the database to make
+	 */
+	private static void createSchema2CaseDb(String dbPath) throws ClassNotFoundException, SQLException {
+		Class.forName("org.sqlite.JDBC");
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+		try {
+			Statement statement = connection.createStatement();
+			String[] schema = {
+				"CREATE TABLE tsk_db_info (schema_ver INTEGER, tsk_ver INTEGER)",
+				"CREATE TABLE tsk_objects (obj_id INTEGER PRIMARY KEY, par_obj_id INTEGER, type INTEGER NOT NULL)",
+				"CREATE TABLE tsk_image_info (obj_id INTEGER PRIMARY KEY, type INTEGER, ssize INTEGER, tzone TEXT)",
+				"CREATE TABLE tsk_image_names (obj_id INTEGER NOT NULL, name TEXT NOT NULL, sequence INTEGER NOT NULL)",
+				"CREATE TABLE tsk_vs_info (obj_id INTEGER PRIMARY KEY, vs_type INTEGER NOT NULL, img_offset INTEGER NOT NULL, block_size INTEGER NOT NULL)",
+				"CREATE TABLE tsk_vs_parts (obj_id INTEGER PRIMARY KEY, addr INTEGER NOT NULL, start INTEGER NOT NULL, length INTEGER NOT NULL, desc TEXT, flags INTEGER NOT NULL)",
+				"CREATE TABLE tsk_fs_info (obj_id INTEGER PRIMARY KEY, img_offset INTEGER NOT NULL, fs_type INTEGER NOT NULL, block_size INTEGER NOT NULL, block_count INTEGER NOT NULL, "
+				+ "root_inum INTEGER NOT NULL, first_inum INTEGER NOT NULL, last_inum INTEGER NOT NULL)",
+				"CREATE TABLE tsk_files (obj_id INTEGER PRIMARY KEY, fs_obj_id INTEGER, attr_type INTEGER, attr_id INTEGER, name TEXT NOT NULL, meta_addr INTEGER, type INTEGER, "
+				+ "has_layout INTEGER, has_path INTEGER, dir_type INTEGER, meta_type INTEGER, dir_flags INTEGER, meta_flags INTEGER, size INTEGER, ctime INTEGER, crtime INTEGER, "
+				+ "atime INTEGER, mtime INTEGER, mode INTEGER, uid INTEGER, gid INTEGER, md5 TEXT, known INTEGER, parent_path TEXT)",
+				"CREATE TABLE tsk_files_path (obj_id INTEGER PRIMARY KEY, path TEXT NOT NULL)",
+				"CREATE TABLE tsk_files_derived (obj_id INTEGER PRIMARY KEY, derived_id INTEGER NOT NULL, rederive TEXT)",
+				"CREATE TABLE tsk_files_derived_method (derived_id INTEGER PRIMARY KEY, tool_name TEXT NOT NULL, tool_version TEXT NOT NULL, other TEXT)",
+				"CREATE TABLE tsk_file_layout (obj_id INTEGER NOT NULL, byte_start INTEGER NOT NULL, byte_len INTEGER NOT NULL, sequence INTEGER NOT NULL)",
+				"CREATE TABLE blackboard_artifacts (artifact_id INTEGER PRIMARY KEY, obj_id INTEGER NOT NULL, artifact_type_id INTEGER NOT NULL)",
+				"CREATE TABLE blackboard_attributes (artifact_id INTEGER NOT NULL, source TEXT, context TEXT, attribute_type_id INTEGER NOT NULL, value_type INTEGER NOT NULL, "
+				+ "value_byte BLOB, value_text TEXT, value_int32 INTEGER, value_int64 INTEGER, value_double NUMERIC(20, 10))",
+				"CREATE TABLE blackboard_artifact_types (artifact_type_id INTEGER PRIMARY KEY, type_name TEXT NOT NULL, display_name TEXT)",
+				"CREATE TABLE blackboard_attribute_types (attribute_type_id INTEGER PRIMARY KEY, type_name TEXT NOT NULL, display_name TEXT)",
+				"CREATE INDEX parObjId ON tsk_objects(par_obj_id)",
+				"CREATE INDEX artifact_objID ON blackboard_artifacts(obj_id)",
+				"CREATE INDEX attrsArtifactID ON blackboard_attributes(artifact_id)",
+				"INSERT INTO tsk_db_info (schema_ver, tsk_ver) VALUES (2, 0)"};
+			for (String sql : schema) {
+				statement.executeUpdate(sql);
+			}
+			statement.close();
+
+			connection.setAutoCommit(false);
+			PreparedStatement insertObject = connection.prepareStatement("INSERT INTO tsk_objects (obj_id, par_obj_id, type) VALUES (?, ?, ?)");
+			PreparedStatement insertFile = connection.prepareStatement("INSERT INTO tsk_files (obj_id, fs_obj_id, name, type, has_path, dir_type, meta_type, dir_flags, "
+					+ "meta_flags, size, mtime, parent_path) VALUES (?, ?, ?, 0, 0, ?, ?, 1, 5, 0, ?, ?)");
+			PreparedStatement insertArtifact = connection.prepareStatement("INSERT INTO blackboard_artifacts (artifact_id, obj_id, artifact_type_id) VALUES (?, ?, ?)");
+			PreparedStatement insertAttribute = connection.prepareStatement("INSERT INTO blackboard_attributes (artifact_id, source, context, attribute_type_id, value_type, value_text) "
+					+ "VALUES (?, 'test', '', ?, ?, ?)");
+
+			insertObject(insertObject, IMAGE_ID, null, TskData.ObjectType.IMG);
+			insertObject(insertObject, FILE_SYSTEM_ID, IMAGE_ID, TskData.ObjectType.FS);
+			Statement fsStatement = connection.createStatement();
+			fsStatement.executeUpdate("INSERT INTO tsk_image_info (obj_id, type, ssize, tzone) VALUES (" + IMAGE_ID + ", 1, 512, '')");
+			fsStatement.executeUpdate("INSERT INTO tsk_fs_info (obj_id, img_offset, fs_type, block_size, block_count, root_inum, first_inum, last_inum) "
+					+ "VALUES (" + FILE_SYSTEM_ID + ", 0, 1, 512, 100, 2, 0, 100)");
+			fsStatement.close();
+
+			// The root directory and a chain of directories below it.
+			long parentId = FILE_SYSTEM_ID;
+			String parentPath = "/";
+			long nextId = FILE_SYSTEM_ID + 1;
+			for (int level = 0; level <= DIRECTORY_DEPTH; ++level) {
+				String name = (level == 0) ? "" : "dir" + level;
+				insertObject(insertObject, nextId, parentId, TskData.ObjectType.ABSTRACTFILE);
+				insertFile(insertFile, nextId, name, TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR, 0, parentPath);
+				if (level > 0) {
+					parentPath = parentPath + name + "/";
+				}
+				parentId = nextId++;
+			}
+
+			// The files of the last directory, each with an artifact.
+			for (int i = 0; i < FILE_COUNT; ++i) {
+				long fileId = nextId++;
+				insertObject(insertObject, fileId, parentId, TskData.ObjectType.ABSTRACTFILE);
+				insertFile(insertFile, fileId, "File" + i + ".TXT", TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_REG, 1000000 + i, parentPath);
+				insertArtifact.setLong(1, i + 1);
+				insertArtifact.setLong(2, fileId);
+				insertArtifact.setInt(3, BlackboardArtifact.ARTIFACT_TYPE.TSK_GEN_INFO.getTypeID());
+				insertArtifact.executeUpdate();
+				insertAttribute.setLong(1, i + 1);
+				insertAttribute.setInt(2, BlackboardAttribute.ATTRIBUTE_TYPE.TSK_COMMENT.getTypeID());
+				insertAttribute.setLong(3, BlackboardAttribute.TSK_BLACKBOARD_ATTRIBUTE_VALUE_TYPE.STRING.getType());
+				insertAttribute.setString(4, "comment " + i);
+				insertAttribute.executeUpdate();
+			}
+			connection.commit();
+		} finally {
+			connection.close();
+		}
+	}
+
+	private static void insertObject(PreparedStatement statement, long objId, Long parentId, TskData.ObjectType type) throws SQLException {
+		statement.setLong(1, objId);
+		if (parentId != null) {
+			statement.setLong(2, parentId);
+		} else {
+			statement.setNull(2, java.sql.Types.INTEGER);
+		}
+		statement.setShort(3, type.getObjectType());
+		statement.executeUpdate();
+	}
+
+	private static void insertFile(PreparedStatement statement, long objId, String name, TskData.TSK_FS_META_TYPE_ENUM metaType, long mtime, String parentPath) throws SQLException {
+		statement.setLong(1, objId);
+		statement.setLong(2, FILE_SYSTEM_ID);
+		statement.setString(3, name);
+		statement.setShort(4, (metaType == TskData.TSK_FS_META_TYPE_ENUM.TSK_FS_META_TYPE_DIR ? TskData.TSK_FS_NAME_TYPE_ENUM.DIR : TskData.TSK_FS_NAME_TYPE_ENUM.REG).getValue());
+		statement.setShort(5, metaType.getValue());
+		statement.setLong(6, mtime);
+		statement.setString(7, parentPath);
+		statement.executeUpdate();
+	}
+
+	/**
+	 * Run a query that returns one number on a case database.
+	 *
+	 * @param dbPath path of the case database
+	 * @param query the query
+	 * @return the number
+	 */
+	static long queryLong(String dbPath, String query) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+		try {
+			Statement statement = connection.createStatement();
+			ResultSet resultSet = statement.executeQuery(query);
+			return resultSet.next() ? resultSet.getLong(1) : -1;
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * Run an update on a case database.
+	 *
+	 * @param dbPath path of the case database
+	 * @param update the update
+	 */
+	static void execute(String dbPath, String update) throws SQLException {
+		Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+		try {
+			connection.createStatement().executeUpdate(update);
+		} finally {
+			connection.close();
+		}
+	}
+}
@@ -22,6 +22,17 @@
 #include <algorithm>
 #include <sstream>
 
+#ifdef TSK_MULTITHREAD_LIB
+#ifdef TSK_WIN32
+#include <process.h>
+#endif
+#endif
+
+#ifndef TSK_WIN32
+#include <sys/time.h>
+#include <time.h>
+#endif
+
 using std::stringstream;
 using std::for_each;
 
@@ -56,7 +67,23 @@ TskAutoDb::TskAutoDb(TskDbSqlite * a_db, TSK_HDB_INFO * a_NSRLDb, TSK_HDB_INFO *
     m_noFatFsOrphans = false;
     m_addUnallocSpace = false;
 	m_chunkSize = -1;
+    m_insertBatchSize = 1;
+    m_parallelFs = false;
+    m_isFsWorker = false;
+    m_isUnallocWorker = false;
+    m_parentDbWriteLock = NULL;
+    m_phase = TSK_ADD_IMAGE_PHASE_NOT_STARTED;
+    m_phaseStartMs = 0;
+    for (int i = 0; i < TSK_ADD_IMAGE_PHASE_COUNT; i++)
+        m_phaseMs[i] = 0;
+    m_filesAdded = 0;
+    m_dirsAdded = 0;
+    m_bytesHashed = 0;
+    m_dbRowsAdded = 0;
+    m_curFsOffset = 0;
     tsk_init_lock(&m_curDirPathLock);
+    tsk_init_lock(&m_fsWorkersLock);
+    tsk_init_lock(&m_dbWriteLock);
 }
 
 TskAutoDb::~TskAutoDb()
@@ -67,6 +94,8 @@ TskAutoDb::~TskAutoDb()
 
     closeImage();
     tsk_deinit_lock(&m_curDirPathLock);
+    tsk_deinit_lock(&m_fsWorkersLock);
+    tsk_deinit_lock(&m_dbWriteLock);
 }
 
 void
@@ -106,6 +135,20 @@ void TskAutoDb::setAddUnallocSpace(bool addUnallocSpace, int64_t chunkSize)
 	m_chunkSize = chunkSize;
 }
 
+void TskAutoDb::setInsertBatchSize(int batchSize)
+{
+    if (batchSize < 1)
+        batchSize = 1;
+    else if (batchSize > TSK_DB_MAX_INSERT_BATCH_SIZE)
+        batchSize = TSK_DB_MAX_INSERT_BATCH_SIZE;
+    m_insertBatchSize = batchSize;
+}
+
+void TskAutoDb::setParallelFsProcessing(bool parallelFs)
+{
+    m_parallelFs = parallelFs;
+}
+
 uint8_t
     TskAutoDb::openImageUtf8(int a_num, const char *const a_images[],
     TSK_IMG_TYPE_ENUM a_type, unsigned int a_ssize)
@@ -116,6 +159,12 @@ uint8_t
         return retval;
     }
 
+    // keep the paths so that file system workers can open their own handles
+    m_imgPathsUtf8.clear();
+    for (int i = 0; i < a_num; i++) {
+        m_imgPathsUtf8.push_back(a_images[i]);
+    }
+
     if (addImageDetails(a_images, a_num)) {
         return 1;
     }
@@ -136,6 +185,13 @@ uint8_t
         return retval;
     }
 
+    // keep the paths so that file system workers can open their own handles
+    m_imgPaths.clear();
+    m_imgPathsUtf8.clear();
+    for (int i = 0; i < a_num; i++) {
+        m_imgPaths.push_back(a_images[i]);
+    }
+
 
     // convert image paths to UTF-8
     char **img_ptrs = (char **) tsk_malloc(a_num * sizeof(char *));
@@ -256,28 +312,47 @@ TskAutoDb::filterFs(TSK_FS_INFO * fs_info)
 {
     TSK_FS_FILE *file_root;
     m_foundStructure = true;
-
-    if (m_volFound && m_vsFound) {
-        // there's a volume system and volume
-        if (m_db->addFsInfo(fs_info, m_curVolId, m_curFsId)) {
-            registerError();
-            return TSK_FILTER_STOP;
+    m_curFsOffset = fs_info->offset;
+
+    // a worker walks a file system that its parent already added
+    if (m_isFsWorker == false) {
+        if (m_volFound && m_vsFound) {
+            // there's a volume system and volume
+            if (m_db->addFsInfo(fs_info, m_curVolId, m_curFsId)) {
+                registerError();
+                return TSK_FILTER_STOP;
+            }
         }
-    }
-    else {
-        // file system doesn't live in a volume, use image as parent
-        if (m_db->addFsInfo(fs_info, m_curImgId, m_curFsId)) {
-            registerError();
-            return TSK_FILTER_STOP;
+        else {
+            // file system doesn't live in a volume, use image as parent
+            if (m_db->addFsInfo(fs_info, m_curImgId, m_curFsId)) {
+                registerError();
+                return TSK_FILTER_STOP;
+            }
         }
-    }
 
 
-    // We won't hit the root directory on the walk, so open it now 
-    if ((file_root = tsk_fs_file_open(fs_info, NULL, "/")) != NULL) {
-        processFile(file_root, "");
-        tsk_fs_file_close(file_root);
-        file_root = NULL;
+        // We won't hit the root directory on the walk, so open it now 
+        if ((file_root = tsk_fs_file_open(fs_info, NULL, "/")) != NULL) {
+            processFile(file_root, "");
+            tsk_fs_file_close(file_root);
+            file_root = NULL;
+        }
+
+        // leave the walk to a worker (see addFsInParallelToDb())
+        if (m_parallelFs) {
+            TSK_DB_FS_INFO dbFsInfo;
+            dbFsInfo.objId = m_curFsId;
+            dbFsInfo.imgOffset = fs_info->offset;
+            dbFsInfo.fType = fs_info->ftype;
+            dbFsInfo.block_size = fs_info->block_size;
+            dbFsInfo.block_count = fs_info->block_count;
+            dbFsInfo.root_inum = fs_info->root_inum;
+            dbFsInfo.first_inum = fs_info->first_inum;
+            dbFsInfo.last_inum = fs_info->last_inum;
+            m_parallelFsInfos.push_back(dbFsInfo);
+            return TSK_FILTER_SKIP;
+        }
     }
 
 
@@ -308,11 +383,15 @@ TSK_RETVAL_ENUM
     const unsigned char *const md5,
     const TSK_DB_FILES_KNOWN_ENUM known)
 {
-    if (m_db->addFsFile(fs_file, fs_attr, path, md5, known, m_curFsId,
-            m_curFileId)) {
+    takeDbWriteLock();
+    int retval = m_db->addFsFile(fs_file, fs_attr, path, md5, known, m_curFsId,
+            m_curFileId);
+    releaseDbWriteLock();
+    if (retval) {
         registerError();
         return TSK_ERR;
     }
+    m_dbRowsAdded++;
 
     return TSK_OK;
 }
@@ -340,6 +419,9 @@ uint8_t TskAutoDb::addFilesInImgToDb()
     setVolFilterFlags((TSK_VS_PART_FLAG_ENUM) (TSK_VS_PART_FLAG_ALLOC |
             TSK_VS_PART_FLAG_UNALLOC));
 
+    m_parallelFsInfos.clear();
+    setPhase(TSK_ADD_IMAGE_PHASE_FILES);
+
     uint8_t retVal = 0;
     if (findFilesInImg()) {
         // map the boolean return value from findFiles to the three-state return value we use
@@ -352,9 +434,19 @@ uint8_t TskAutoDb::addFilesInImgToDb()
         }
     }
 
+    // walk the file systems that filterFs() left for the workers
+    if (m_parallelFs && (m_parallelFsInfos.empty() == false)) {
+        if (addFsInParallelToDb() && (retVal == 0)) {
+            retVal = 2;
+        }
+    }
+
     TSK_RETVAL_ENUM addUnallocRetval = TSK_OK;
-    if (m_addUnallocSpace)
+    if (m_addUnallocSpace) {
+        setPhase(TSK_ADD_IMAGE_PHASE_UNALLOC);
         addUnallocRetval = addUnallocSpaceToDb();
+    }
+    setPhase(TSK_ADD_IMAGE_PHASE_DONE);
 
     // findFiles return value trumps unalloc since it can return either 2 or 1.
     if (retVal) {
@@ -400,6 +492,11 @@ uint8_t
         return 1;
     }
 
+    if (m_db->setInsertBatchSize(m_insertBatchSize)) {
+        registerError();
+        return 1;
+    }
+
     if (m_db->createSavepoint(TSK_ADD_IMAGE_SAVEPOINT)) {
         registerError();
         return 1;
@@ -407,6 +504,7 @@ uint8_t
 
     m_imgTransactionOpen = true;
 
+    setPhase(TSK_ADD_IMAGE_PHASE_OPEN_IMAGE);
     if (openImage(numImg, imagePaths, imgType, sSize)) {
         tsk_error_set_errstr2("TskAutoDb::startAddImage");
         registerError();
@@ -445,6 +543,11 @@ uint8_t
     }
 
 
+    if (m_db->setInsertBatchSize(m_insertBatchSize)) {
+        registerError();
+        return 1;
+    }
+
     if (m_db->createSavepoint(TSK_ADD_IMAGE_SAVEPOINT)) {
         registerError();
         return 1;
@@ -452,6 +555,7 @@ uint8_t
 
     m_imgTransactionOpen = true;
 
+    setPhase(TSK_ADD_IMAGE_PHASE_OPEN_IMAGE);
     if (openImageUtf8(numImg, imagePaths, imgType, sSize)) {
         tsk_error_set_errstr2("TskAutoDb::startAddImage");
         registerError();
@@ -477,6 +581,13 @@ void
     m_stopped = true;
     setStopProcessing();
     // flag is checked every time processFile() is called
+
+    // pass it on to the file system workers
+    tsk_take_lock(&m_fsWorkersLock);
+    for (vector<TskAutoDb *>::iterator it = m_fsWorkers.begin(); it != m_fsWorkers.end(); ++it) {
+        (*it)->stopAddImage();
+    }
+    tsk_release_lock(&m_fsWorkersLock);
 }
 
 /**
@@ -497,6 +608,8 @@ int
     }
 
     int retval = m_db->revertSavepoint(TSK_ADD_IMAGE_SAVEPOINT);
+    // the database is shared with later add-image processes, so go back to unbatched inserts
+    (void) m_db->setInsertBatchSize(1);
     if (retval == 0) {
         if (m_db->inTransaction()) {
             tsk_error_reset();
@@ -526,8 +639,17 @@ TskAutoDb::commitAddImage()
         return -1;
     }
 
+    // the files of the image are the objects added after it; the image is
+    // not committed without its events
+    if ((m_curImgId != 0) && m_db->addFileEvents(m_curImgId, m_curImgId)) {
+        (void) revertAddImage();
+        return -1;
+    }
+
     int retval = m_db->releaseSavepoint(TSK_ADD_IMAGE_SAVEPOINT);
     m_imgTransactionOpen = false;
+    // the database is shared with later add-image processes, so go back to unbatched inserts
+    (void) m_db->setInsertBatchSize(1);
     if (retval == 1) {
         return -1;
     } else {
@@ -590,6 +712,14 @@ TskAutoDb::processFile(TSK_FS_FILE * fs_file, const char *path)
         retval = insertFileData(fs_file, NULL, path, NULL, TSK_DB_FILES_KNOWN_UNKNOWN);
     }
     
+    // count the file once, no matter how many attributes were added
+    if (m_curFileId != 0) {
+        if (isDir(fs_file))
+            m_dirsAdded++;
+        else
+            m_filesAdded++;
+    }
+
     // reset the file id
     m_curFileId = 0;
 
@@ -621,6 +751,7 @@ TskAutoDb::processAttribute(TSK_FS_FILE * fs_file,
                 return TSK_OK;
             }
             md5 = hash;
+            m_bytesHashed += fs_attr->size;
 
             if (m_NSRLDb != NULL) {
                 int8_t retval = tsk_hdb_lookup_raw(m_NSRLDb, hash, 16, TSK_HDB_FLAG_QUICK, NULL, NULL);
@@ -667,11 +798,15 @@ TskAutoDb::processAttribute(TSK_FS_FILE * fs_file,
                     continue;
 
                 // @@@ We probaly want to keep on going here
-                if (m_db->addFileLayoutRange(m_curFileId,
-                        run->addr * block_size, run->len * block_size, sequence++)) {
+                takeDbWriteLock();
+                int retval = m_db->addFileLayoutRange(m_curFileId,
+                        run->addr * block_size, run->len * block_size, sequence++);
+                releaseDbWriteLock();
+                if (retval) {
                     registerError();
                     return TSK_OK;
                 }
+                m_dbRowsAdded++;
             }
         }
     }
@@ -775,10 +910,16 @@ TSK_WALK_RET_ENUM TskAutoDb::fsWalkUnallocBlocksCb(const TSK_FS_BLOCK *a_block,
 	// at this point we are either chunking and have reached the chunk limit
 	// or we're not chunking. Either way we now add what we've got to the DB
 	int64_t fileObjId = 0;
-	if (unallocBlockWlkTrack->tskAutoDb.m_db->addUnallocBlockFile(unallocBlockWlkTrack->tskAutoDb.m_curUnallocDirId, 
-		unallocBlockWlkTrack->fsObjId, unallocBlockWlkTrack->size, unallocBlockWlkTrack->ranges, fileObjId) == TSK_ERR) {
+    unallocBlockWlkTrack->tskAutoDb.takeDbWriteLock();
+	TSK_RETVAL_ENUM retval = unallocBlockWlkTrack->tskAutoDb.m_db->addUnallocBlockFile(unallocBlockWlkTrack->tskAutoDb.m_curUnallocDirId, 
+		unallocBlockWlkTrack->fsObjId, unallocBlockWlkTrack->size, unallocBlockWlkTrack->ranges, fileObjId);
+    unallocBlockWlkTrack->tskAutoDb.releaseDbWriteLock();
+	if (retval == TSK_ERR) {
             // @@@ Handle error -> Don't have access to registerError() though...
     }
+    else {
+        unallocBlockWlkTrack->tskAutoDb.m_dbRowsAdded += 1 + unallocBlockWlkTrack->ranges.size();
+    }
 
 	// reset
 	unallocBlockWlkTrack->curRangeStart = a_block->addr;
@@ -808,7 +949,10 @@ TSK_RETVAL_ENUM TskAutoDb::addFsInfoUnalloc(const TSK_DB_FS_INFO & dbFsInfo) {
     }
 
     //create a "fake" dir to hold the unalloc files for the fs
-    if (m_db->addUnallocFsBlockFilesParent(dbFsInfo.objId, m_curUnallocDirId) == TSK_ERR) {
+    takeDbWriteLock();
+    TSK_RETVAL_ENUM retval = m_db->addUnallocFsBlockFilesParent(dbFsInfo.objId, m_curUnallocDirId);
+    releaseDbWriteLock();
+    if (retval == TSK_ERR) {
         tsk_error_set_errstr2("addFsInfoUnalloc: error creating dir for unallocated space");
         registerError();
         return TSK_ERR;
@@ -843,11 +987,15 @@ TSK_RETVAL_ENUM TskAutoDb::addFsInfoUnalloc(const TSK_DB_FS_INFO & dbFsInfo) {
 	unallocBlockWlkTrack.size += byteLen;
     int64_t fileObjId = 0;
 
-    if (m_db->addUnallocBlockFile(m_curUnallocDirId, dbFsInfo.objId, unallocBlockWlkTrack.size, unallocBlockWlkTrack.ranges, fileObjId) == TSK_ERR) {
+    takeDbWriteLock();
+    retval = m_db->addUnallocBlockFile(m_curUnallocDirId, dbFsInfo.objId, unallocBlockWlkTrack.size, unallocBlockWlkTrack.ranges, fileObjId);
+    releaseDbWriteLock();
+    if (retval == TSK_ERR) {
         registerError();
         tsk_fs_close(fsInfo);
         return TSK_ERR;
     }
+    m_dbRowsAdded += 1 + unallocBlockWlkTrack.ranges.size();
     
     //cleanup 
     tsk_fs_close(fsInfo);
@@ -867,7 +1015,12 @@ TSK_RETVAL_ENUM TskAutoDb::addUnallocSpaceToDb() {
     size_t numVsP = 0;
     size_t numFs = 0;
 
-    TSK_RETVAL_ENUM retFsSpace = addUnallocFsSpaceToDb(numFs); 
+    // in parallel mode, file system unallocated space was added by the workers
+    TSK_RETVAL_ENUM retFsSpace = TSK_OK;
+    if (m_parallelFs)
+        numFs = m_parallelFsInfos.size();
+    else
+        retFsSpace = addUnallocFsSpaceToDb(numFs); 
     TSK_RETVAL_ENUM retVsSpace = addUnallocVsSpaceToDb(numVsP);
 
     //handle case when no fs and no vs partitions
@@ -1053,8 +1206,304 @@ TSK_RETVAL_ENUM TskAutoDb::addUnallocImageSpaceToDb() {
 */
 const std::string TskAutoDb::getCurDir() {
     string curDirPath;
+
+    // in parallel mode, report a directory from one of the running file system workers
+    tsk_take_lock(&m_fsWorkersLock);
+    for (vector<TskAutoDb *>::iterator it = m_fsWorkers.begin(); it != m_fsWorkers.end(); ++it) {
+        curDirPath = (*it)->getCurDir();
+        if (curDirPath.empty() == false)
+            break;
+    }
+    tsk_release_lock(&m_fsWorkersLock);
+    if (curDirPath.empty() == false)
+        return curDirPath;
+
     tsk_take_lock(&m_curDirPathLock);
     curDirPath = m_curDirPath;
     tsk_release_lock(&m_curDirPathLock);
     return curDirPath;
 }
+
+/**
+* Returns a snapshot of the progress of startAddImage() / addFilesInImgToDb().
+* Safe to use from another thread than the one adding the image.  The 
+* counters are read without stopping the process, so they may be slightly 
+* behind. 
+*
+* @param progress (out) snapshot of the progress
+*/
+void TskAutoDb::getProgress(TSK_ADD_IMAGE_PROGRESS & progress) {
+    const uint64_t now = getTimeMs();
+    const TSK_ADD_IMAGE_PHASE_ENUM phase = m_phase;
+    const uint64_t phaseStartMs = m_phaseStartMs;
+
+    progress.phase = phase;
+    progress.filesAdded = m_filesAdded;
+    progress.dirsAdded = m_dirsAdded;
+    progress.bytesHashed = m_bytesHashed;
+    progress.dbRowsAdded = m_dbRowsAdded;
+    progress.curFsObjId = 0;
+    progress.curFsOffset = 0;
+    if (phase == TSK_ADD_IMAGE_PHASE_FILES && m_curFsId != 0) {
+        progress.curFsObjId = m_curFsId;
+        progress.curFsOffset = m_curFsOffset;
+    }
+    for (int i = 0; i < TSK_ADD_IMAGE_PHASE_COUNT; i++)
+        progress.phaseMs[i] = m_phaseMs[i];
+    progress.elapsedMs = 0;
+    if (phase != TSK_ADD_IMAGE_PHASE_NOT_STARTED) {
+        if (phase != TSK_ADD_IMAGE_PHASE_DONE && now > phaseStartMs)
+            progress.phaseMs[phase] += now - phaseStartMs;
+        for (int i = 0; i < TSK_ADD_IMAGE_PHASE_COUNT; i++)
+            progress.elapsedMs += progress.phaseMs[i];
+    }
+
+    // add the work of the running file system workers
+    tsk_take_lock(&m_fsWorkersLock);
+    for (vector<TskAutoDb *>::iterator it = m_fsWorkers.begin(); it != m_fsWorkers.end(); ++it) {
+        progress.filesAdded += (*it)->m_filesAdded;
+        progress.dirsAdded += (*it)->m_dirsAdded;
+        progress.bytesHashed += (*it)->m_bytesHashed;
+        progress.dbRowsAdded += (*it)->m_dbRowsAdded;
+        if (progress.curFsObjId == 0 && (*it)->m_isUnallocWorker == false) {
+            progress.curFsObjId = (*it)->m_curFsId;
+            progress.curFsOffset = (*it)->m_workerFsInfo.imgOffset;
+        }
+    }
+    tsk_release_lock(&m_fsWorkersLock);
+}
+
+/**
+* Move to a new phase of the process and charge the time since the last 
+* call to the phase that is ending.  
+* @param phase Phase that is starting
+*/
+void TskAutoDb::setPhase(TSK_ADD_IMAGE_PHASE_ENUM phase) {
+    const uint64_t now = getTimeMs();
+    if (m_phase != TSK_ADD_IMAGE_PHASE_NOT_STARTED && now > m_phaseStartMs) {
+        m_phaseMs[m_phase] += now - m_phaseStartMs;
+    }
+    m_phaseStartMs = now;
+    m_phase = phase;
+}
+
+/**
+* @returns a millisecond clock for measuring elapsed time.  The clock is
+* monotonic, so setting the system time does not change the phase times.
+* Falls back to the time of day where there is no monotonic clock.
+*/
+uint64_t TskAutoDb::getTimeMs() {
+#ifdef TSK_WIN32
+    LARGE_INTEGER frequency;
+    LARGE_INTEGER counter;
+    if (QueryPerformanceFrequency(&frequency) && QueryPerformanceCounter(&counter)) {
+        return (uint64_t) (counter.QuadPart / (frequency.QuadPart / 1000));
+    }
+    return (uint64_t) GetTickCount64();
+#else
+#if defined(CLOCK_MONOTONIC)
+    struct timespec ts;
+    if (clock_gettime(CLOCK_MONOTONIC, &ts) == 0) {
+        return (uint64_t) ts.tv_sec * 1000 + ts.tv_nsec / 1000000;
+    }
+#endif
+    struct timeval tv;
+    gettimeofday(&tv, NULL);
+    return (uint64_t) tv.tv_sec * 1000 + tv.tv_usec / 1000;
+#endif
+}
+
+/**
+* Serialize access to the database with the other workers of the parent 
+* TskAutoDb.  Does nothing if this object is not a file system worker.
+*/
+void TskAutoDb::takeDbWriteLock() const {
+    if (m_parentDbWriteLock)
+        tsk_take_lock(m_parentDbWriteLock);
+}
+
+/**
+* Release the lock taken by takeDbWriteLock().
+*/
+void TskAutoDb::releaseDbWriteLock() const {
+    if (m_parentDbWriteLock)
+        tsk_release_lock(m_parentDbWriteLock);
+}
+
+/**
+* Create a worker that will process one file system with its own image
+* and file system handles.  The worker shares this object's database and
+* hash databases.
+* @param dbFsInfo File system (already in the database) to process
+* @param unallocPass True to add the unallocated space of the file system, false to add its files
+* @returns the worker or NULL on error (error was NOT registered)
+*/
+TskAutoDb * TskAutoDb::createFsWorker(const TSK_DB_FS_INFO & dbFsInfo, bool unallocPass) {
+    TSK_IMG_INFO * imgInfo = NULL;
+#ifdef TSK_WIN32
+    if (m_imgPaths.empty() == false) {
+        vector<const TSK_TCHAR *> paths;
+        for (size_t i = 0; i < m_imgPaths.size(); i++)
+            paths.push_back(m_imgPaths[i].c_str());
+        imgInfo = tsk_img_open((int) paths.size(), &paths[0], m_img_info->itype, m_img_info->sector_size);
+    }
+    else
+#endif
+    if (m_imgPathsUtf8.empty() == false) {
+        vector<const char *> paths;
+        for (size_t i = 0; i < m_imgPathsUtf8.size(); i++)
+            paths.push_back(m_imgPathsUtf8[i].c_str());
+        imgInfo = tsk_img_open_utf8((int) paths.size(), &paths[0], m_img_info->itype, m_img_info->sector_size);
+    }
+    else {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_NOTOPEN);
+        tsk_error_set_errstr("TskAutoDb::createFsWorker: image paths are not known");
+    }
+
+    if (imgInfo == NULL) {
+        tsk_error_set_errstr2("TskAutoDb::createFsWorker: error opening image for file system worker");
+        return NULL;
+    }
+
+    TskAutoDb * worker = new TskAutoDb(m_db, m_NSRLDb, m_knownBadDb);
+    worker->openImageHandle(imgInfo);
+    worker->m_isFsWorker = true;
+    worker->m_isUnallocWorker = unallocPass;
+    worker->m_workerFsInfo = dbFsInfo;
+    worker->m_parentDbWriteLock = &m_dbWriteLock;
+    worker->m_curImgId = m_curImgId;
+    worker->m_curFsId = dbFsInfo.objId;
+    worker->m_curImgTZone = m_curImgTZone;
+    worker->m_blkMapFlag = m_blkMapFlag;
+    worker->m_fileHashFlag = m_fileHashFlag;
+    worker->m_noFatFsOrphans = m_noFatFsOrphans;
+    worker->m_addUnallocSpace = m_addUnallocSpace;
+    worker->m_chunkSize = m_chunkSize;
+    return worker;
+}
+
+/**
+* Body of a file system worker.  Walks the files or the unallocated blocks 
+* of the worker's file system.  Errors are registered with the worker.
+*/
+void TskAutoDb::runFsWorker() {
+    if (m_isUnallocWorker) {
+        addFsInfoUnalloc(m_workerFsInfo);
+    }
+    else {
+        findFilesInFs(m_workerFsInfo.imgOffset, m_workerFsInfo.fType);
+    }
+}
+
+#ifdef TSK_WIN32
+unsigned __stdcall TskAutoDb::fsWorkerThreadCb(void *a_ptr) {
+    ((TskAutoDb *) a_ptr)->runFsWorker();
+    return 0;
+}
+#else
+void * TskAutoDb::fsWorkerThreadCb(void *a_ptr) {
+    ((TskAutoDb *) a_ptr)->runFsWorker();
+    return NULL;
+}
+#endif
+
+/**
+* Add the files (and unallocated space, if enabled) of the file systems
+* that filterFs() found in parallel mode.  Each one is processed by a worker
+* thread with its own handles.  The workers write to the database one at a
+* time, inside of the add-image savepoint.  If the library was built
+* without thread support, the workers are run one after another.
+* @returns 1 if errors occured (they will have been registered), 0 otherwise
+*/
+uint8_t TskAutoDb::addFsInParallelToDb() {
+    uint8_t retval = 0;
+
+    // create the workers before any of them start so that stopAddImage() can reach all of them
+    tsk_take_lock(&m_fsWorkersLock);
+    for (vector<TSK_DB_FS_INFO>::const_iterator it = m_parallelFsInfos.begin();
+            it != m_parallelFsInfos.end(); ++it) {
+        for (int pass = 0; pass < (m_addUnallocSpace ? 2 : 1); pass++) {
+            TskAutoDb * worker = createFsWorker(*it, pass == 1);
+            if (worker == NULL) {
+                registerError();
+                retval = 1;
+                continue;
+            }
+            if (m_stopped)
+                worker->stopAddImage();
+            m_fsWorkers.push_back(worker);
+        }
+    }
+    vector<TskAutoDb *> workers = m_fsWorkers;
+    tsk_release_lock(&m_fsWorkersLock);
+
+#ifdef TSK_MULTITHREAD_LIB
+#ifdef TSK_WIN32
+    vector<HANDLE> threads;
+    for (size_t i = 0; i < workers.size(); i++) {
+        uintptr_t thread = _beginthreadex(NULL, 0, fsWorkerThreadCb, workers[i], 0, NULL);
+        if (thread == 0) {
+            // could not start a thread, do the work here instead
+            fsWorkerThreadCb(workers[i]);
+        }
+        else {
+            threads.push_back((HANDLE) thread);
+        }
+    }
+    for (size_t i = 0; i < threads.size(); i++) {
+        WaitForSingleObject(threads[i], INFINITE);
+        CloseHandle(threads[i]);
+    }
+#else
+    vector<pthread_t> threads;
+    for (size_t i = 0; i < workers.size(); i++) {
+        pthread_t thread;
+        if (pthread_create(&thread, NULL, fsWorkerThreadCb, workers[i]) != 0) {
+            // could not start a thread, do the work here instead
+            fsWorkerThreadCb(workers[i]);
+        }
+        else {
+            threads.push_back(thread);
+        }
+    }
+    for (size_t i = 0; i < threads.size(); i++) {
+        pthread_join(threads[i], NULL);
+    }
+#endif
+#else
+    for (size_t i = 0; i < workers.size(); i++) {
+        fsWorkerThreadCb(workers[i]);
+    }
+#endif
+
+    // fold the counters of the workers into ours while getProgress() can't see either
+    tsk_take_lock(&m_fsWorkersLock);
+    for (size_t i = 0; i < workers.size(); i++) {
+        m_filesAdded += workers[i]->m_filesAdded;
+        m_dirsAdded += workers[i]->m_dirsAdded;
+        m_bytesHashed += workers[i]->m_bytesHashed;
+        m_dbRowsAdded += workers[i]->m_dbRowsAdded;
+    }
+    m_fsWorkers.clear();
+    tsk_release_lock(&m_fsWorkersLock);
+
+    // collect the errors of the workers and release their handles
+    for (size_t i = 0; i < workers.size(); i++) {
+        vector<TskAuto::error_record> errors = workers[i]->getErrorList();
+        for (size_t j = 0; j < errors.size(); j++) {
+            tsk_error_reset();
+            tsk_error_set_errno(errors[j].code);
+            tsk_error_set_errstr("%s", errors[j].msg1.c_str());
+            tsk_error_set_errstr2("%s", errors[j].msg2.c_str());
+            registerError();
+            retval = 1;
+        }
+
+        TSK_IMG_INFO * imgInfo = workers[i]->m_img_info;
+        delete workers[i];
+        tsk_img_close(imgInfo);
+    }
+
+    return retval;
+}
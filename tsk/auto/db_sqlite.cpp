@@ -25,7 +25,58 @@ using std::stringstream;
 using std::sort;
 using std::for_each;
 
-#define TSK_SCHEMA_VER 3
+#define TSK_SCHEMA_VER 6
+
+// columns bound for each file system file added to tsk_files
+#define TSK_DB_FILES_INSERT_COLS "fs_obj_id, obj_id, type, attr_type, attr_id, name, meta_addr, meta_seq, dir_type, meta_type, dir_flags, meta_flags, size, crtime, ctime, atime, mtime, mode, gid, uid, md5, known, parent_path, name_lower"
+#define TSK_DB_FILES_INSERT_NUM_COLS 24
+
+// columns bound for each row added to tsk_file_layout
+#define TSK_DB_LAYOUT_INSERT_COLS "obj_id, byte_start, byte_len, sequence"
+#define TSK_DB_LAYOUT_INSERT_NUM_COLS 4
+
+/**
+* Build an INSERT statement with host parameters for the given number of rows.
+* The bundled SQLite predates multi-row VALUES lists, so the rows are
+* combined with UNION ALL.
+* @param table Table to insert into
+* @param cols Comma separated list of columns
+* @param numCols Number of columns in cols
+* @param numRows Number of rows to insert with the statement
+* @returns SQL for the statement
+*/
+static string
+    makeInsertSql(const char *table, const char *cols, int numCols, int numRows)
+{
+    stringstream sql;
+    sql << "INSERT INTO " << table << " (" << cols << ") ";
+    for (int row = 0; row < numRows; row++) {
+        sql << ((row == 0) ? "SELECT " : " UNION ALL SELECT ");
+        for (int col = 0; col < numCols; col++) {
+            sql << ((col == 0) ? "?" : ",?");
+        }
+    }
+    return sql.str();
+}
+
+/**
+* Make the value of the name_lower column of tsk_files for a file name. Only
+* ASCII letters are changed, the same as the SQLite lower() function used by
+* the case database code to search the column.
+* @param name File name
+* @returns Lower case file name
+*/
+static string
+    lowerFileName(const char *name)
+{
+    string lower(name);
+    for (size_t i = 0; i < lower.size(); i++) {
+        if ((lower[i] >= 'A') && (lower[i] <= 'Z')) {
+            lower[i] = lower[i] - 'A' + 'a';
+        }
+    }
+    return lower;
+}
 
 /**
 * Set the locations and logging object.  Must call
@@ -39,6 +90,11 @@ TskDbSqlite::TskDbSqlite(const char *a_dbFilePathUtf8, bool a_blkMapFlag)
     m_db = NULL;
     m_selectFilePreparedStmt = NULL;
     m_insertObjectPreparedStmt = NULL;
+    m_insertFilePreparedStmt = NULL;
+    m_insertFileBatchPreparedStmt = NULL;
+    m_insertLayoutPreparedStmt = NULL;
+    m_insertLayoutBatchPreparedStmt = NULL;
+    m_insertBatchSize = 1;
 }
 
 #ifdef TSK_WIN32
@@ -51,6 +107,11 @@ TskDbSqlite::TskDbSqlite(const TSK_TCHAR * a_dbFilePath, bool a_blkMapFlag)
     m_db = NULL;
     m_selectFilePreparedStmt = NULL;
     m_insertObjectPreparedStmt = NULL;
+    m_insertFilePreparedStmt = NULL;
+    m_insertFileBatchPreparedStmt = NULL;
+    m_insertLayoutPreparedStmt = NULL;
+    m_insertLayoutBatchPreparedStmt = NULL;
+    m_insertBatchSize = 1;
 }
 #endif
 
@@ -68,6 +129,8 @@ int
 {
 
     if (m_db) {
+        // write out anything still queued; there is no one to report an error to here
+        (void) flushBatchedInserts();
         cleanupFilePreparedStmt();
         sqlite3_close(m_db);
         m_db = NULL;
@@ -270,7 +333,7 @@ int
         "Error creating tsk_fs_info table: %s\n")
         ||
         attempt_exec
-        ("CREATE TABLE tsk_files (obj_id INTEGER PRIMARY KEY, fs_obj_id INTEGER, attr_type INTEGER, attr_id INTEGER, name TEXT NOT NULL, meta_addr INTEGER, meta_seq INTEGER, type INTEGER, has_layout INTEGER, has_path INTEGER, dir_type INTEGER, meta_type INTEGER, dir_flags INTEGER, meta_flags INTEGER, size INTEGER, ctime INTEGER, crtime INTEGER, atime INTEGER, mtime INTEGER, mode INTEGER, uid INTEGER, gid INTEGER, md5 TEXT, known INTEGER, parent_path TEXT, "
+        ("CREATE TABLE tsk_files (obj_id INTEGER PRIMARY KEY, fs_obj_id INTEGER, attr_type INTEGER, attr_id INTEGER, name TEXT NOT NULL, meta_addr INTEGER, meta_seq INTEGER, type INTEGER, has_layout INTEGER, has_path INTEGER, dir_type INTEGER, meta_type INTEGER, dir_flags INTEGER, meta_flags INTEGER, size INTEGER, ctime INTEGER, crtime INTEGER, atime INTEGER, mtime INTEGER, mode INTEGER, uid INTEGER, gid INTEGER, md5 TEXT, known INTEGER, parent_path TEXT, name_lower TEXT, "
         "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id), FOREIGN KEY(fs_obj_id) REFERENCES tsk_fs_info(obj_id));",
         "Error creating tsk_files table: %s\n")
         ||
@@ -321,7 +384,17 @@ int
         ||
         attempt_exec
         ("CREATE TABLE reports (report_id INTEGER PRIMARY KEY, path TEXT NOT NULL, crtime INTEGER NOT NULL, src_module_name TEXT NOT NULL, report_name TEXT NOT NULL)",
-            "Error creating reports table: %s\n")) {
+            "Error creating reports table: %s\n")
+        ||
+        attempt_exec
+        ("CREATE TABLE tsk_events (event_id INTEGER PRIMARY KEY, obj_id INTEGER NOT NULL, data_source_obj_id INTEGER NOT NULL, artifact_id INTEGER, event_type INTEGER NOT NULL, attribute_type_id INTEGER, time INTEGER NOT NULL, "
+        "FOREIGN KEY(obj_id) REFERENCES tsk_objects(obj_id))",
+            "Error creating tsk_events table: %s\n")
+        ||
+        attempt_exec
+        ("CREATE TABLE blackboard_artifact_counts (scope INTEGER NOT NULL, id INTEGER NOT NULL, artifact_type_id INTEGER NOT NULL, count INTEGER NOT NULL, "
+        "PRIMARY KEY (scope, id, artifact_type_id))",
+            "Error creating blackboard_artifact_counts table: %s\n")) {
         return 1;
     }
 
@@ -353,13 +426,24 @@ int
         // file layout index
         attempt_exec("CREATE INDEX layout_objID ON tsk_file_layout(obj_id);",
         "Error creating layout_objID index on tsk_file_layout: %s\n") ||
+        // lower case file name index, used for file name searches
+        attempt_exec("CREATE INDEX files_fsObjId_nameLower ON tsk_files(fs_obj_id, name_lower);",
+        "Error creating files_fsObjId_nameLower index on tsk_files: %s\n") ||
+        // file path index, used for exact path lookups
+        attempt_exec("CREATE INDEX files_fsObjId_path_name ON tsk_files(fs_obj_id, parent_path COLLATE NOCASE, name COLLATE NOCASE);",
+        "Error creating files_fsObjId_path_name index on tsk_files: %s\n") ||
         // blackboard indexes
         attempt_exec("CREATE INDEX artifact_objID ON blackboard_artifacts(obj_id);",
         "Error creating artifact_objID index on blackboard_artifacts: %s\n") ||
         attempt_exec("CREATE INDEX artifact_typeID ON blackboard_artifacts(artifact_type_id);",
         "Error creating artifact_objID index on blackboard_artifacts: %s\n") ||
         attempt_exec("CREATE INDEX attrsArtifactID ON blackboard_attributes(artifact_id);",
-        "Error creating artifact_id index on blackboard_attributes: %s\n") ;
+        "Error creating artifact_id index on blackboard_attributes: %s\n") ||
+        // timeline event indexes
+        attempt_exec("CREATE INDEX events_time ON tsk_events(time);",
+        "Error creating events_time index on tsk_events: %s\n") ||
+        attempt_exec("CREATE INDEX events_dataSourceObjId_time ON tsk_events(data_source_obj_id, time);",
+        "Error creating events_dataSourceObjId_time index on tsk_events: %s\n") ;
         /*attempt_exec("CREATE INDEX attribute_artifactTypeId ON blackboard_attributes(artifact_type_id);",
         "Error creating artifact_type_id index on blackboard_attributes: %s\n");
         */
@@ -422,6 +506,11 @@ int
         &m_insertObjectPreparedStmt)) {
             return 1;
     }
+    if (prepare_stmt
+        (makeInsertSql("tsk_files", TSK_DB_FILES_INSERT_COLS, TSK_DB_FILES_INSERT_NUM_COLS, 1).c_str(),
+        &m_insertFilePreparedStmt)) {
+            return 1;
+    }
 
     return 0;
 }
@@ -441,6 +530,294 @@ void
         sqlite3_finalize(m_insertObjectPreparedStmt);
         m_insertObjectPreparedStmt = NULL;
     }
+    if (m_insertFilePreparedStmt != NULL) {
+        sqlite3_finalize(m_insertFilePreparedStmt);
+        m_insertFilePreparedStmt = NULL;
+    }
+    // tsk_file_layout only exists if the block map was enabled, so this one is prepared on first use
+    if (m_insertLayoutPreparedStmt != NULL) {
+        sqlite3_finalize(m_insertLayoutPreparedStmt);
+        m_insertLayoutPreparedStmt = NULL;
+    }
+    cleanupBatchInsertStmts();
+}
+
+/**
+* Finalize the multi-row insert statements.  They are prepared on demand
+* for the current batch size.
+*/
+void
+    TskDbSqlite::cleanupBatchInsertStmts()
+{
+    if (m_insertFileBatchPreparedStmt != NULL) {
+        sqlite3_finalize(m_insertFileBatchPreparedStmt);
+        m_insertFileBatchPreparedStmt = NULL;
+    }
+    if (m_insertLayoutBatchPreparedStmt != NULL) {
+        sqlite3_finalize(m_insertLayoutBatchPreparedStmt);
+        m_insertLayoutBatchPreparedStmt = NULL;
+    }
+}
+
+/**
+* Set the number of tsk_files and tsk_file_layout rows that are queued
+* and then written with a single INSERT statement.  A size of 1 writes
+* each row as it is added.  Rows that are already queued are written first.
+* Queued rows are also written before the add-image savepoint is released
+* and whenever the database needs to be queried for them.
+* @param batchSize Number of rows per INSERT (1 to TSK_DB_MAX_INSERT_BATCH_SIZE)
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::setInsertBatchSize(int batchSize)
+{
+    if ((batchSize < 1) || (batchSize > TSK_DB_MAX_INSERT_BATCH_SIZE)) {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_DB);
+        tsk_error_set_errstr("TskDbSqlite::setInsertBatchSize: batch size %d is not between 1 and %d",
+            batchSize, TSK_DB_MAX_INSERT_BATCH_SIZE);
+        return 1;
+    }
+
+    if (batchSize == m_insertBatchSize)
+        return 0;
+
+    if (flushBatchedInserts())
+        return 1;
+
+    cleanupBatchInsertStmts();
+    m_insertBatchSize = batchSize;
+    m_fileRowBatch.reserve(batchSize);
+    m_layoutRowBatch.reserve(batchSize);
+    return 0;
+}
+
+/**
+* @returns the number of rows that are queued before they are inserted
+*/
+int
+    TskDbSqlite::getInsertBatchSize() const
+{
+    return m_insertBatchSize;
+}
+
+/**
+* Write all queued tsk_files and tsk_file_layout rows to the database.
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::flushBatchedInserts()
+{
+    if (flushFileRows())
+        return 1;
+    return flushLayoutRows();
+}
+
+/**
+* Prepare the multi-row insert statements for the current batch size, if needed. 
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::prepareBatchInsertStmts()
+{
+    if ((m_insertFileBatchPreparedStmt == NULL) && (m_fileRowBatch.size() >= (size_t) m_insertBatchSize)) {
+        if (prepare_stmt
+            (makeInsertSql("tsk_files", TSK_DB_FILES_INSERT_COLS, TSK_DB_FILES_INSERT_NUM_COLS, m_insertBatchSize).c_str(),
+            &m_insertFileBatchPreparedStmt)) {
+                return 1;
+        }
+    }
+    if ((m_insertLayoutBatchPreparedStmt == NULL) && (m_layoutRowBatch.size() >= (size_t) m_insertBatchSize)) {
+        if (prepare_stmt
+            (makeInsertSql("tsk_file_layout", TSK_DB_LAYOUT_INSERT_COLS, TSK_DB_LAYOUT_INSERT_NUM_COLS, m_insertBatchSize).c_str(),
+            &m_insertLayoutBatchPreparedStmt)) {
+                return 1;
+        }
+    }
+    return 0;
+}
+
+/**
+* Bind the values of a queued tsk_files row to a prepared insert statement.
+* The strings are bound without a copy, so the row must not change until the
+* statement has been stepped.
+* @param stmt Statement to bind to
+* @param firstParam Index of the first parameter for this row
+* @param row Row to bind
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::bindFileRow(sqlite3_stmt * stmt, int firstParam, const TSK_DB_FILE_ROW & row)
+{
+    const char *errfmt = "TskDbSqlite::bindFileRow: Error binding tsk_files value: %s (result code %d)\n";
+    int i = firstParam;
+
+    if (attempt(sqlite3_bind_int64(stmt, i++, row.fsObjId), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.objId), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, TSK_DB_FILES_TYPE_FS), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.attrType), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.attrId), errfmt)
+        || attempt(sqlite3_bind_text(stmt, i++, row.name.c_str(), -1, SQLITE_STATIC), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.metaAddr), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.metaSeq), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.dirType), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.metaType), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.dirFlags), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.metaFlags), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.size), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.crtime), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.ctime), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.atime), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, i++, row.mtime), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.mode), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.gid), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.uid), errfmt)
+        || attempt(row.hasMd5 ? sqlite3_bind_text(stmt, i++, row.md5.c_str(), -1, SQLITE_STATIC)
+            : sqlite3_bind_null(stmt, i++), errfmt)
+        || attempt(sqlite3_bind_int(stmt, i++, row.known), errfmt)
+        || attempt(sqlite3_bind_text(stmt, i++, row.parentPath.c_str(), -1, SQLITE_STATIC), errfmt)
+        || attempt(sqlite3_bind_text(stmt, i++, row.nameLower.c_str(), -1, SQLITE_STATIC), errfmt)) {
+            return 1;
+    }
+    return 0;
+}
+
+/**
+* Bind the values of a queued tsk_file_layout row to a prepared insert statement.
+* @param stmt Statement to bind to
+* @param firstParam Index of the first parameter for this row
+* @param range Row to bind
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::bindLayoutRow(sqlite3_stmt * stmt, int firstParam, const TSK_DB_FILE_LAYOUT_RANGE & range)
+{
+    const char *errfmt = "TskDbSqlite::bindLayoutRow: Error binding tsk_file_layout value: %s (result code %d)\n";
+
+    if (attempt(sqlite3_bind_int64(stmt, firstParam, range.fileObjId), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, firstParam + 1, range.byteStart), errfmt)
+        || attempt(sqlite3_bind_int64(stmt, firstParam + 2, range.byteLen), errfmt)
+        || attempt(sqlite3_bind_int(stmt, firstParam + 3, range.sequence), errfmt)) {
+            return 1;
+    }
+    return 0;
+}
+
+/**
+* Write the queued tsk_files rows.  Full batches are written with the
+* multi-row statement and any remainder one row at a time.  The queue
+* is emptied even on error.
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::flushFileRows()
+{
+    const size_t numRows = m_fileRowBatch.size();
+    const size_t batchSize = (size_t) m_insertBatchSize;
+    size_t rowIdx = 0;
+
+    if (numRows == 0)
+        return 0;
+
+    if ((batchSize > 1) && (numRows >= batchSize)) {
+        if (prepareBatchInsertStmts()) {
+            m_fileRowBatch.clear();
+            return 1;
+        }
+        for (; rowIdx + batchSize <= numRows; rowIdx += batchSize) {
+            for (size_t i = 0; i < batchSize; i++) {
+                if (bindFileRow(m_insertFileBatchPreparedStmt, (int) (i * TSK_DB_FILES_INSERT_NUM_COLS) + 1, m_fileRowBatch[rowIdx + i])) {
+                    sqlite3_reset(m_insertFileBatchPreparedStmt);
+                    m_fileRowBatch.clear();
+                    return 1;
+                }
+            }
+            if (attempt(sqlite3_step(m_insertFileBatchPreparedStmt), SQLITE_DONE,
+                "TskDbSqlite::flushFileRows: Error adding data to tsk_files table: %s (result code %d)\n")) {
+                    sqlite3_reset(m_insertFileBatchPreparedStmt);
+                    m_fileRowBatch.clear();
+                    return 1;
+            }
+            sqlite3_reset(m_insertFileBatchPreparedStmt);
+        }
+    }
+
+    for (; rowIdx < numRows; rowIdx++) {
+        if (bindFileRow(m_insertFilePreparedStmt, 1, m_fileRowBatch[rowIdx])
+            || attempt(sqlite3_step(m_insertFilePreparedStmt), SQLITE_DONE,
+            "TskDbSqlite::flushFileRows: Error adding data to tsk_files table: %s (result code %d)\n")) {
+                sqlite3_reset(m_insertFilePreparedStmt);
+                m_fileRowBatch.clear();
+                return 1;
+        }
+        sqlite3_reset(m_insertFilePreparedStmt);
+    }
+
+    m_fileRowBatch.clear();
+    return 0;
+}
+
+/**
+* Write the queued tsk_file_layout rows.  Full batches are written with the
+* multi-row statement and any remainder one row at a time.  The queue
+* is emptied even on error.
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::flushLayoutRows()
+{
+    const size_t numRows = m_layoutRowBatch.size();
+    const size_t batchSize = (size_t) m_insertBatchSize;
+    size_t rowIdx = 0;
+
+    if (numRows == 0)
+        return 0;
+
+    if ((batchSize > 1) && (numRows >= batchSize)) {
+        if (prepareBatchInsertStmts()) {
+            m_layoutRowBatch.clear();
+            return 1;
+        }
+        for (; rowIdx + batchSize <= numRows; rowIdx += batchSize) {
+            for (size_t i = 0; i < batchSize; i++) {
+                if (bindLayoutRow(m_insertLayoutBatchPreparedStmt, (int) (i * TSK_DB_LAYOUT_INSERT_NUM_COLS) + 1, m_layoutRowBatch[rowIdx + i])) {
+                    sqlite3_reset(m_insertLayoutBatchPreparedStmt);
+                    m_layoutRowBatch.clear();
+                    return 1;
+                }
+            }
+            if (attempt(sqlite3_step(m_insertLayoutBatchPreparedStmt), SQLITE_DONE,
+                "TskDbSqlite::flushLayoutRows: Error adding data to tsk_file_layout table: %s (result code %d)\n")) {
+                    sqlite3_reset(m_insertLayoutBatchPreparedStmt);
+                    m_layoutRowBatch.clear();
+                    return 1;
+            }
+            sqlite3_reset(m_insertLayoutBatchPreparedStmt);
+        }
+    }
+
+    if ((rowIdx < numRows) && (m_insertLayoutPreparedStmt == NULL)) {
+        if (prepare_stmt
+            (makeInsertSql("tsk_file_layout", TSK_DB_LAYOUT_INSERT_COLS, TSK_DB_LAYOUT_INSERT_NUM_COLS, 1).c_str(),
+            &m_insertLayoutPreparedStmt)) {
+                m_layoutRowBatch.clear();
+                return 1;
+        }
+    }
+
+    for (; rowIdx < numRows; rowIdx++) {
+        if (bindLayoutRow(m_insertLayoutPreparedStmt, 1, m_layoutRowBatch[rowIdx])
+            || attempt(sqlite3_step(m_insertLayoutPreparedStmt), SQLITE_DONE,
+            "TskDbSqlite::flushLayoutRows: Error adding data to tsk_file_layout table: %s (result code %d)\n")) {
+                sqlite3_reset(m_insertLayoutPreparedStmt);
+                m_layoutRowBatch.clear();
+                return 1;
+        }
+        sqlite3_reset(m_insertLayoutPreparedStmt);
+    }
+
+    m_layoutRowBatch.clear();
+    return 0;
 }
 
 /**
@@ -723,6 +1100,11 @@ int64_t TskDbSqlite::findParObjId(const TSK_FS_FILE * fs_file, const char *path,
 
     fprintf(stderr, "Miss: %s (%"PRIu64")\n", fs_file->name->name, fs_file->name->meta_addr);
 
+    // the parent may still be waiting in the insert queue
+    if (flushFileRows()) {
+        return -1;
+    }
+
     // Find the parent file id in the database using the parent metadata address
     // @@@ This should use sequence number when the new database supports it
     if (attempt(sqlite3_bind_int64(m_selectFilePreparedStmt, 1, fs_file->name->par_addr),
@@ -748,7 +1130,9 @@ int64_t TskDbSqlite::findParObjId(const TSK_FS_FILE * fs_file, const char *path,
 }
 
 /**
-* Add file data to the file table
+* Add file data to the file table.  The tsk_objects row is added right away
+* to get the object id, the tsk_files row is queued if a batch size was set
+* with setInsertBatchSize().
 * @param md5 binary value of MD5 (i.e. 16 bytes) or NULL
 * Return 0 on success, 1 on error.
 */
@@ -784,7 +1168,6 @@ int
         type = TSK_FS_ATTR_TYPE_NOT_FOUND;
     int
         idx = 0;
-    char *zSQL;
 
     if (fs_file->name == NULL)
         return 0;
@@ -863,35 +1246,40 @@ int
         return 1;
     }
 
-    zSQL = sqlite3_mprintf(
-        "INSERT INTO tsk_files (fs_obj_id, obj_id, type, attr_type, attr_id, name, meta_addr, meta_seq, dir_type, meta_type, dir_flags, meta_flags, size, crtime, ctime, atime, mtime, mode, gid, uid, md5, known, parent_path) "
-        "VALUES ("
-        "%" PRId64 ",%" PRId64 ","
-        "%d,"
-        "%d,%d,'%q',"
-        "%" PRIuINUM ",%d,"
-        "%d,%d,%d,%d,"
-        "%" PRIuOFF ","
-        "%llu,%llu,%llu,%llu,"
-        "%d,%d,%d,%Q,%d,"
-        "'%q')",
-        fsObjId, objId,
-        TSK_DB_FILES_TYPE_FS,
-        type, idx, name,
-        fs_file->name->meta_addr, fs_file->name->meta_seq, 
-        fs_file->name->type, meta_type, fs_file->name->flags, meta_flags,
-        size, 
-        (unsigned long long)crtime, (unsigned long long)ctime,(unsigned long long) atime,(unsigned long long) mtime, 
-        meta_mode, gid, uid, md5TextPtr, known,
-        escaped_path);
-
-    if (attempt_exec(zSQL, "TskDbSqlite::addFile: Error adding data to tsk_files table: %s\n")) {
+    // queue the row; it is written with the next full batch
+    TSK_DB_FILE_ROW row;
+    row.fsObjId = fsObjId;
+    row.objId = objId;
+    row.attrType = type;
+    row.attrId = idx;
+    row.name = name;
+    row.nameLower = lowerFileName(name);
+    row.metaAddr = fs_file->name->meta_addr;
+    row.metaSeq = fs_file->name->meta_seq;
+    row.dirType = fs_file->name->type;
+    row.metaType = meta_type;
+    row.dirFlags = fs_file->name->flags;
+    row.metaFlags = meta_flags;
+    row.size = size;
+    row.crtime = (int64_t) crtime;
+    row.ctime = (int64_t) ctime;
+    row.atime = (int64_t) atime;
+    row.mtime = (int64_t) mtime;
+    row.mode = meta_mode;
+    row.gid = gid;
+    row.uid = uid;
+    row.hasMd5 = (md5TextPtr != NULL);
+    if (md5TextPtr != NULL)
+        row.md5 = md5TextPtr;
+    row.known = known;
+    row.parentPath = escaped_path;
+    m_fileRowBatch.push_back(row);
+
+    if ((m_fileRowBatch.size() >= (size_t) m_insertBatchSize) && flushFileRows()) {
         free(name);
         free(escaped_path);
-        sqlite3_free(zSQL);
         return 1;
     }
-    sqlite3_free(zSQL);
 
     //if dir, update parent id cache
     if (meta_type == TSK_FS_META_TYPE_DIR) {
@@ -935,6 +1323,10 @@ int
     char
         buff[1024];
 
+    // queued rows were added after the savepoint and are rolled back with it
+    m_fileRowBatch.clear();
+    m_layoutRowBatch.clear();
+
     snprintf(buff, 1024, "ROLLBACK TO SAVEPOINT %s", name);
 
     if (attempt_exec(buff, "Error rolling back savepoint: %s\n"))
@@ -954,16 +1346,58 @@ int
     char
         buff[1024];
 
+    if (flushBatchedInserts())
+        return 1;
+
     snprintf(buff, 1024, "RELEASE SAVEPOINT %s", name);
 
     return attempt_exec(buff, "Error releasing savepoint: %s\n");
 }
 
+/**
+* Add the timeline events of the files added to the database after the given
+* object: one event for each MAC time of a file that is set.  Used at the end
+* of the add-image process, while it still holds the write transaction, so the
+* events are added with set-based statements instead of one row per file.
+* @param dataSourceObjId Object id of the data source of the files
+* @param afterObjId Events are added for files with a larger object id
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqlite::addFileEvents(int64_t dataSourceObjId, int64_t afterObjId)
+{
+    static const struct {
+        TSK_DB_EVENT_TYPE_ENUM type;
+        const char *column;
+    } fileTimes[] = {
+        {TSK_DB_EVENT_TYPE_FILE_MODIFIED, "mtime"},
+        {TSK_DB_EVENT_TYPE_FILE_ACCESSED, "atime"},
+        {TSK_DB_EVENT_TYPE_FILE_CHANGED, "ctime"},
+        {TSK_DB_EVENT_TYPE_FILE_CREATED, "crtime"},
+    };
+    char buff[1024];
+
+    // the files must all be in tsk_files
+    if (flushBatchedInserts())
+        return 1;
+
+    for (size_t i = 0; i < sizeof(fileTimes) / sizeof(fileTimes[0]); i++) {
+        snprintf(buff, 1024,
+            "INSERT INTO tsk_events (obj_id, data_source_obj_id, event_type, time) "
+            "SELECT obj_id, %" PRId64 ", %d, %s FROM tsk_files WHERE obj_id > %" PRId64 " AND %s > 0",
+            dataSourceObjId, fileTimes[i].type, fileTimes[i].column, afterObjId, fileTimes[i].column);
+        if (attempt_exec(buff, "Error adding file events to tsk_events table: %s\n"))
+            return 1;
+    }
+    return 0;
+}
+
 
 
 /**
 * Add file layout info to the database.  This table stores the run information for each file so that we
 * can map which parts of an image are used by what files.
+* The row is queued if a batch size was set with setInsertBatchSize().
 * @param a_fileObjId ID of the file
 * @param a_byteStart Byte address relative to the start of the image file
 * @param a_byteLen Length of the run in bytes
@@ -974,15 +1408,13 @@ int
     TskDbSqlite::addFileLayoutRange(int64_t a_fileObjId,
     uint64_t a_byteStart, uint64_t a_byteLen, int a_sequence)
 {
-    char
-        foo[1024];
-
-    snprintf(foo, 1024,
-        "INSERT INTO tsk_file_layout(obj_id, byte_start, byte_len, sequence) VALUES (%lld, %llu, %llu, %d)",
-        a_fileObjId, a_byteStart, a_byteLen, a_sequence);
+    TSK_DB_FILE_LAYOUT_RANGE range(a_byteStart, a_byteLen, a_sequence);
+    range.fileObjId = a_fileObjId;
+    m_layoutRowBatch.push_back(range);
 
-    return attempt_exec(foo,
-        "Error adding data to tsk_file_layout table: %s\n");
+    if (m_layoutRowBatch.size() >= (size_t) m_insertBatchSize)
+        return flushLayoutRows();
+    return 0;
 }
 
 /**
@@ -1025,18 +1457,18 @@ TSK_RETVAL_ENUM
     }
 
     zSQL = sqlite3_mprintf(
-        "INSERT INTO tsk_files (has_layout, fs_obj_id, obj_id, type, attr_type, attr_id, name, meta_addr, meta_seq, dir_type, meta_type, dir_flags, meta_flags, size, crtime, ctime, atime, mtime, mode, gid, uid) "
+        "INSERT INTO tsk_files (has_layout, fs_obj_id, obj_id, type, attr_type, attr_id, name, name_lower, meta_addr, meta_seq, dir_type, meta_type, dir_flags, meta_flags, size, crtime, ctime, atime, mtime, mode, gid, uid) "
         "VALUES ("
         "1, %Q, %lld,"
         "%d,"
-        "NULL,NULL,'%q',"
+        "NULL,NULL,'%q',lower('%q'),"
         "NULL,NULL,"
         "%d,%d,%d,%d,"
         "%" PRIuOFF ","
         "NULL,NULL,NULL,NULL,NULL,NULL,NULL)",
         fsObjIdStrPtr, objId,
         dbFileType,
-        fileName,
+        fileName, fileName,
         TSK_FS_NAME_TYPE_REG, TSK_FS_META_TYPE_REG,
         TSK_FS_NAME_FLAG_UNALLOC, TSK_FS_META_FLAG_UNALLOC, size);
 
@@ -1162,7 +1594,7 @@ TSK_RETVAL_ENUM TskDbSqlite::addVirtualDir(const int64_t fsObjId, const int64_t
     zSQL = sqlite3_mprintf(
         "INSERT INTO tsk_files (attr_type, attr_id, has_layout, fs_obj_id, obj_id, type, attr_type, "
         "attr_id, name, meta_addr, meta_seq, dir_type, meta_type, dir_flags, meta_flags, size, "
-        "crtime, ctime, atime, mtime, mode, gid, uid, known, parent_path) "
+        "crtime, ctime, atime, mtime, mode, gid, uid, known, parent_path, name_lower) "
         "VALUES ("
         "NULL, NULL,"
         "NULL,"
@@ -1173,13 +1605,14 @@ TSK_RETVAL_ENUM TskDbSqlite::addVirtualDir(const int64_t fsObjId, const int64_t
         "NULL,NULL,"
         "%d,%d,%d,%d,"
         "0,"
-        "NULL,NULL,NULL,NULL,NULL,NULL,NULL,NULL,'/')",
+        "NULL,NULL,NULL,NULL,NULL,NULL,NULL,NULL,'/',lower('%q'))",
         fsObjId,
         objId,
         TSK_DB_FILES_TYPE_VIRTUAL_DIR,
         name,
         TSK_FS_NAME_TYPE_DIR, TSK_FS_META_TYPE_DIR,
-        TSK_FS_NAME_FLAG_ALLOC, (TSK_FS_META_FLAG_ALLOC | TSK_FS_META_FLAG_USED));
+        TSK_FS_NAME_FLAG_ALLOC, (TSK_FS_META_FLAG_ALLOC | TSK_FS_META_FLAG_USED),
+        name);
 
     if (attempt_exec(zSQL, "Error adding data to tsk_files table: %s\n")) {
         sqlite3_free(zSQL);
@@ -1290,6 +1723,10 @@ TSK_RETVAL_ENUM TskDbSqlite::addFileWithLayoutRange(const TSK_DB_FILES_TYPE_ENUM
 * @returns TSK_ERR on error, TSK_OK on success
 */
 TSK_RETVAL_ENUM TskDbSqlite::getFileLayouts(vector<TSK_DB_FILE_LAYOUT_RANGE> & fileLayouts) {
+    if (flushLayoutRows()) {
+        return TSK_ERR;
+    }
+
     sqlite3_stmt * fileLayoutsStatement = NULL;
     if (prepare_stmt("SELECT obj_id, byte_start, byte_len, sequence FROM tsk_file_layout", 
         &fileLayoutsStatement) ) {
@@ -1618,6 +2055,10 @@ TSK_RETVAL_ENUM TskDbSqlite::getParentImageId (const int64_t objId, int64_t & im
 * @returns TSK_ERR on error (or if not found), TSK_OK on success
 */
 TSK_RETVAL_ENUM TskDbSqlite::getFsRootDirObjectInfo(const int64_t fsObjId, TSK_DB_OBJECT & rootDirObjInfo) {
+    if (flushFileRows()) {
+        return TSK_ERR;
+    }
+
     sqlite3_stmt * rootDirInfoStatement = NULL;
     if (prepare_stmt("SELECT tsk_objects.obj_id,tsk_objects.par_obj_id,tsk_objects.type "
         "FROM tsk_objects,tsk_files WHERE tsk_objects.par_obj_id IS ? "
@@ -1649,3 +2090,140 @@ TSK_RETVAL_ENUM TskDbSqlite::getFsRootDirObjectInfo(const int64_t fsObjId, TSK_D
 }
 
 
+
+
+TskDbSqliteBackup::TskDbSqliteBackup()
+{
+    m_srcDb = NULL;
+    m_destDb = NULL;
+    m_backup = NULL;
+}
+
+TskDbSqliteBackup::~TskDbSqliteBackup()
+{
+    (void) close();
+}
+
+/**
+* Open the source and destination databases and prepare the backup.
+* @param a_srcPathUtf8 Path of the case database to copy
+* @param a_destPathUtf8 Path of the copy.  Any database at that path is replaced.
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqliteBackup::open(const char *a_srcPathUtf8, const char *a_destPathUtf8)
+{
+    if (m_backup) {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_DB);
+        tsk_error_set_errstr("TskDbSqliteBackup::open: backup is already open");
+        return 1;
+    }
+
+    if (sqlite3_open_v2(a_srcPathUtf8, &m_srcDb, SQLITE_OPEN_READONLY, NULL) != SQLITE_OK) {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_DB);
+        tsk_error_set_errstr("TskDbSqliteBackup::open: Can't open source database: %s", 
+            m_srcDb ? sqlite3_errmsg(m_srcDb) : "out of memory");
+        close();
+        return 1;
+    }
+
+    if (sqlite3_open(a_destPathUtf8, &m_destDb) != SQLITE_OK) {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_DB);
+        tsk_error_set_errstr("TskDbSqliteBackup::open: Can't open destination database: %s", 
+            m_destDb ? sqlite3_errmsg(m_destDb) : "out of memory");
+        close();
+        return 1;
+    }
+
+    m_backup = sqlite3_backup_init(m_destDb, "main", m_srcDb, "main");
+    if (m_backup == NULL) {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_DB);
+        tsk_error_set_errstr("TskDbSqliteBackup::open: Error starting backup: %s", sqlite3_errmsg(m_destDb));
+        close();
+        return 1;
+    }
+    return 0;
+}
+
+/**
+* Copy the next pages of the database.  A busy or locked source database is
+* not an error; the pages will be copied by a later step.
+* @param a_numPages Maximum number of pages to copy (a negative number copies all remaining pages)
+* @param a_done (out) Set to true when the whole database has been copied
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqliteBackup::step(int a_numPages, bool & a_done)
+{
+    a_done = false;
+    if (m_backup == NULL) {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_DB);
+        tsk_error_set_errstr("TskDbSqliteBackup::step: backup is not open");
+        return 1;
+    }
+
+    int rc = sqlite3_backup_step(m_backup, a_numPages);
+    if (rc == SQLITE_DONE) {
+        a_done = true;
+    }
+    else if ((rc != SQLITE_OK) && (rc != SQLITE_BUSY) && (rc != SQLITE_LOCKED)) {
+        tsk_error_reset();
+        tsk_error_set_errno(TSK_ERR_AUTO_DB);
+        tsk_error_set_errstr("TskDbSqliteBackup::step: Error copying pages: %s (result code %d)", 
+            sqlite3_errmsg(m_destDb), rc);
+        return 1;
+    }
+    return 0;
+}
+
+/**
+* @returns the number of pages still to be copied as of the last step
+*/
+int
+    TskDbSqliteBackup::getRemaining()
+{
+    return m_backup ? sqlite3_backup_remaining(m_backup) : 0;
+}
+
+/**
+* @returns the number of pages in the source database as of the last step
+*/
+int
+    TskDbSqliteBackup::getPageCount()
+{
+    return m_backup ? sqlite3_backup_pagecount(m_backup) : 0;
+}
+
+/**
+* Release the backup and close both databases.  An unfinished copy is 
+* left incomplete.
+* @returns 1 on error, 0 on success
+*/
+int
+    TskDbSqliteBackup::close()
+{
+    int retval = 0;
+    if (m_backup) {
+        if (sqlite3_backup_finish(m_backup) != SQLITE_OK) {
+            tsk_error_reset();
+            tsk_error_set_errno(TSK_ERR_AUTO_DB);
+            tsk_error_set_errstr("TskDbSqliteBackup::close: Error finishing backup: %s", sqlite3_errmsg(m_destDb));
+            retval = 1;
+        }
+        m_backup = NULL;
+    }
+    if (m_destDb) {
+        sqlite3_close(m_destDb);
+        m_destDb = NULL;
+    }
+    if (m_srcDb) {
+        sqlite3_close(m_srcDb);
+        m_srcDb = NULL;
+    }
+    return retval;
+}
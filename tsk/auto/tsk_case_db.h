@@ -20,6 +20,9 @@
 #include <string>
 using std::string;
 
+#include <vector>
+using std::vector;
+
 
 #include "tsk_auto_i.h"
 #include "tsk_db_sqlite.h"
@@ -27,6 +30,34 @@ using std::string;
 
 #define TSK_ADD_IMAGE_SAVEPOINT "ADDIMAGE"
 
+/**
+ * Phases of adding an image to the database, as reported in TSK_ADD_IMAGE_PROGRESS.
+ */
+typedef enum {
+    TSK_ADD_IMAGE_PHASE_NOT_STARTED = 0,   ///< startAddImage() or addFilesInImgToDb() was not called yet
+    TSK_ADD_IMAGE_PHASE_OPEN_IMAGE,        ///< Opening the image and adding its details
+    TSK_ADD_IMAGE_PHASE_FILES,             ///< Walking volume systems and file systems (includes file system workers in parallel mode)
+    TSK_ADD_IMAGE_PHASE_UNALLOC,           ///< Adding volume and image unallocated space (and file system unallocated space if not in parallel mode)
+    TSK_ADD_IMAGE_PHASE_DONE,              ///< Finished, waiting for commit or revert
+    TSK_ADD_IMAGE_PHASE_COUNT              ///< Number of phases (not a phase)
+} TSK_ADD_IMAGE_PHASE_ENUM;
+
+/**
+ * Snapshot of the progress of adding an image to the database.
+ * See TskAutoDb::getProgress().
+ */
+typedef struct {
+    TSK_ADD_IMAGE_PHASE_ENUM phase;     ///< Current phase
+    uint64_t filesAdded;    ///< Number of non-directory file system entries added to tsk_files
+    uint64_t dirsAdded;     ///< Number of directories added to tsk_files
+    uint64_t bytesHashed;   ///< Number of bytes of file content that were hashed
+    uint64_t dbRowsAdded;   ///< Number of tsk_files and tsk_file_layout rows added
+    int64_t curFsObjId;     ///< Object ID of a file system currently being processed (0 if none)
+    TSK_OFF_T curFsOffset;  ///< Byte offset in the image of the file system currently being processed
+    uint64_t elapsedMs;     ///< Milliseconds since the process started
+    uint64_t phaseMs[TSK_ADD_IMAGE_PHASE_COUNT]; ///< Milliseconds spent in each phase so far
+} TSK_ADD_IMAGE_PROGRESS;
+
 /** \internal
  * C++ class that implements TskAuto to load file metadata into a database. 
  * This is used by the TskCaseDb class. 
@@ -49,6 +80,7 @@ class TskAutoDb:public TskAuto {
         const char *path);
     virtual void createBlockMap(bool flag);
     const std::string getCurDir();
+    void getProgress(TSK_ADD_IMAGE_PROGRESS & progress);
 
     /**
      * Calculate hash values of files and add them to database.
@@ -81,6 +113,26 @@ class TskAutoDb:public TskAuto {
      */
     virtual void setAddUnallocSpace(bool addUnallocSpace, int64_t chunkSize);
 
+    /**
+     * Number of tsk_files and tsk_file_layout rows to write with each INSERT
+     * statement while the image is added.  Larger batches lower the per-file
+     * cost of populating the database.  Values outside of 1 to 
+     * TSK_DB_MAX_INSERT_BATCH_SIZE are clamped.  Default value is 1.
+     * @param batchSize Number of rows per INSERT
+     */
+    virtual void setInsertBatchSize(int batchSize);
+
+    /**
+     * When enabled, each file system in the image is walked by its own worker
+     * thread with its own image and file system handles.  The unallocated space 
+     * of each file system (if enabled) is also added by its own worker.  Database
+     * writes from the workers are serialized so that they share the add-image
+     * transaction.  Volume system and image level unallocated space are still
+     * added after the workers finish.  Default value is false.
+     * @param parallelFs If true, process the file systems of the image in parallel.
+     */
+    virtual void setParallelFsProcessing(bool parallelFs);
+
     uint8_t addFilesInImgToDb();
 
     uint8_t startAddImage(int numImg, const TSK_TCHAR * const imagePaths[],
@@ -116,6 +168,33 @@ class TskAutoDb:public TskAuto {
     bool m_noFatFsOrphans;
     bool m_addUnallocSpace;
 	int64_t m_chunkSize;
+    int m_insertBatchSize;
+    bool m_parallelFs;      ///< True if file systems are to be processed by worker threads
+    vector<TSK_DB_FS_INFO> m_parallelFsInfos; ///< File systems found by filterFs() that are waiting for workers
+    vector<TskAutoDb *> m_fsWorkers;    ///< Workers that are currently running (parent only)
+    tsk_lock_t m_fsWorkersLock;         ///< protects concurrent access to m_fsWorkers
+    tsk_lock_t m_dbWriteLock;           ///< serializes database writes of the workers (parent only)
+    vector<string> m_imgPathsUtf8;      ///< Copy of the image paths, used by workers to open their own handle
+#ifdef TSK_WIN32
+    vector<std::basic_string<TSK_TCHAR> > m_imgPaths; ///< Copy of the image paths, used by workers to open their own handle
+#endif
+
+    // progress counters.  They are written only by the thread doing the work and are
+    // read by getProgress() without locking, so a snapshot may be slightly stale.
+    volatile TSK_ADD_IMAGE_PHASE_ENUM m_phase;
+    volatile uint64_t m_phaseStartMs;   ///< Time the current phase started
+    volatile uint64_t m_phaseMs[TSK_ADD_IMAGE_PHASE_COUNT]; ///< Time spent in completed phases
+    volatile uint64_t m_filesAdded;
+    volatile uint64_t m_dirsAdded;
+    volatile uint64_t m_bytesHashed;
+    mutable volatile uint64_t m_dbRowsAdded; ///< mutable because the unalloc block walk only has a const reference
+    volatile TSK_OFF_T m_curFsOffset;
+
+    // state used when this object is a file system worker of another TskAutoDb
+    bool m_isFsWorker;
+    bool m_isUnallocWorker;             ///< True if the worker adds unallocated space instead of files
+    TSK_DB_FS_INFO m_workerFsInfo;      ///< File system that the worker processes
+    tsk_lock_t * m_parentDbWriteLock;   ///< Parent's m_dbWriteLock, or NULL if not a worker
     bool m_foundStructure;  ///< Set to true when we find either a volume or file system
     bool m_attributeAdded; ///< Set to true when an attribute was added by processAttributes
 
@@ -157,6 +236,19 @@ class TskAutoDb:public TskAuto {
     TSK_RETVAL_ENUM addUnallocImageSpaceToDb();
     TSK_RETVAL_ENUM addUnallocSpaceToDb();
 
+    uint8_t addFsInParallelToDb();
+    TskAutoDb *createFsWorker(const TSK_DB_FS_INFO & dbFsInfo, bool unallocPass);
+    void runFsWorker();
+#ifdef TSK_WIN32
+    static unsigned __stdcall fsWorkerThreadCb(void *a_ptr);
+#else
+    static void *fsWorkerThreadCb(void *a_ptr);
+#endif
+    void setPhase(TSK_ADD_IMAGE_PHASE_ENUM phase);
+    static uint64_t getTimeMs();
+    void takeDbWriteLock() const;
+    void releaseDbWriteLock() const;
+
 };
 
 
@@ -60,6 +60,17 @@ typedef enum {
     TSK_DB_FILES_TYPE_VIRTUAL_DIR, ///< Virtual directory (not on fs) with no meta-data entry that can be used to group files of types other than TSK_DB_FILES_TYPE_FS. Its parent is either another TSK_DB_FILES_TYPE_FS or a root directory or type TSK_DB_FILES_TYPE_FS.
 } TSK_DB_FILES_TYPE_ENUM;
 
+/**
+ * Values for the event_type column in the tsk_events table.
+ */
+typedef enum {
+    TSK_DB_EVENT_TYPE_FILE_MODIFIED = 1,    ///< Modification time of a file
+    TSK_DB_EVENT_TYPE_FILE_ACCESSED,    ///< Access time of a file
+    TSK_DB_EVENT_TYPE_FILE_CHANGED,     ///< Metadata change time of a file
+    TSK_DB_EVENT_TYPE_FILE_CREATED,     ///< Creation time of a file
+    TSK_DB_EVENT_TYPE_ARTIFACT,     ///< Date-time attribute of a blackboard artifact
+} TSK_DB_EVENT_TYPE_ENUM;
+
 
 
 /**
@@ -152,6 +163,44 @@ typedef struct _TSK_DB_VS_PART_INFO {
 
 ostream& operator <<(ostream &os,const TSK_DB_VS_PART_INFO &vsPartInfos);
 
+/**
+* Largest number of rows that will be queued before a batched insert is written.
+* Bounded by the number of host parameters SQLite allows in one statement (999)
+* divided by the number of tsk_files columns that are bound per row.
+*/
+#define TSK_DB_MAX_INSERT_BATCH_SIZE 40
+
+/** \internal
+* Structure holding the tsk_files column values of a file system file
+* that is queued for a batched insert.
+*/
+typedef struct _TSK_DB_FILE_ROW {
+    int64_t fsObjId;
+    int64_t objId;
+    int attrType;
+    int attrId;
+    string name;
+    TSK_INUM_T metaAddr;
+    uint32_t metaSeq;
+    int dirType;
+    int metaType;
+    int dirFlags;
+    int metaFlags;
+    TSK_OFF_T size;
+    int64_t crtime;
+    int64_t ctime;
+    int64_t atime;
+    int64_t mtime;
+    int mode;
+    int gid;
+    int uid;
+    bool hasMd5;
+    string md5;
+    int known;
+    string parentPath;
+    string nameLower;
+} TSK_DB_FILE_ROW;
+
 /** \internal
  * C++ class that wraps the database internals. 
  */
@@ -190,11 +239,16 @@ class TskDbSqlite {
     
     int addFileLayoutRange(const TSK_DB_FILE_LAYOUT_RANGE & fileLayoutRange);
     int addFileLayoutRange(int64_t a_fileObjId, uint64_t a_byteStart, uint64_t a_byteLen, int a_sequence);
+
+    int setInsertBatchSize(int batchSize);
+    int getInsertBatchSize() const;
+    int flushBatchedInserts();
     
     bool dbExist() const;
     int createSavepoint(const char *name);
     int revertSavepoint(const char *name);
     int releaseSavepoint(const char *name);
+    int addFileEvents(int64_t dataSourceObjId, int64_t afterObjId);
     bool inTransaction();
 
     //query methods / getters
@@ -224,6 +278,12 @@ class TskDbSqlite {
             char **, char **), void *callback_arg, const char *errfmt);
     int attempt_exec(const char *sql, const char *errfmt);
     int prepare_stmt(const char *sql, sqlite3_stmt ** ppStmt);
+    int prepareBatchInsertStmts();
+    void cleanupBatchInsertStmts();
+    int bindFileRow(sqlite3_stmt * stmt, int firstParam, const TSK_DB_FILE_ROW & row);
+    int bindLayoutRow(sqlite3_stmt * stmt, int firstParam, const TSK_DB_FILE_LAYOUT_RANGE & range);
+    int flushFileRows();
+    int flushLayoutRows();
     uint8_t addObject(TSK_DB_OBJECT_TYPE_ENUM type, int64_t parObjId, int64_t & objId);
     int addFile(TSK_FS_FILE * fs_file, const TSK_FS_ATTR * fs_attr,
         const char *path, const unsigned char *const md5,
@@ -244,7 +304,41 @@ class TskDbSqlite {
     bool m_utf8; //encoding used for the database file name, not the actual database
     sqlite3_stmt *m_selectFilePreparedStmt;
     sqlite3_stmt *m_insertObjectPreparedStmt;
+    sqlite3_stmt *m_insertFilePreparedStmt;
+    sqlite3_stmt *m_insertFileBatchPreparedStmt;
+    sqlite3_stmt *m_insertLayoutPreparedStmt;
+    sqlite3_stmt *m_insertLayoutBatchPreparedStmt;
+    int m_insertBatchSize; ///< number of tsk_files and tsk_file_layout rows to queue before writing them with one statement
+    vector<TSK_DB_FILE_ROW> m_fileRowBatch;
+    vector<TSK_DB_FILE_LAYOUT_RANGE> m_layoutRowBatch;
     map<int64_t, map<TSK_INUM_T, map<uint32_t, int64_t> > > m_parentDirIdCache; //maps a file system ID to a map, which maps a directory file system meta address to a map, which maps a sequence ID to its object ID in the database
 };
 
+
+/**
+ * Copies a case database to a new file with the SQLite online backup API. 
+ * The copy is made a few pages at a time with step() so that the caller can
+ * let other connections use the database between steps.  If another 
+ * connection changes the database, SQLite restarts the copy at the next step.
+ */
+class TskDbSqliteBackup {
+  public:
+    TskDbSqliteBackup();
+    ~TskDbSqliteBackup();
+    int open(const char *a_srcPathUtf8, const char *a_destPathUtf8);
+    int step(int a_numPages, bool & a_done);
+    int getRemaining();
+    int getPageCount();
+    int close();
+
+  private:
+    // prevent copying until we add proper logic to handle it
+    TskDbSqliteBackup(const TskDbSqliteBackup&);
+    TskDbSqliteBackup & operator=(const TskDbSqliteBackup&);
+
+    sqlite3 *m_srcDb;
+    sqlite3 *m_destDb;
+    sqlite3_backup *m_backup;
+};
+
 #endif